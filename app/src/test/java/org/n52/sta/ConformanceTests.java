@@ -50,7 +50,11 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.URISyntaxException;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
+import java.util.StringJoiner;
 import java.util.stream.Collectors;
 
 /**
@@ -368,6 +372,115 @@ abstract class ConformanceTests implements TestUtil {
         return getCollection(type, "");
     }
 
+    /**
+     * Requests the given URL. Keys and values of the query options are percent-encoded separately.
+     *
+     * @param url     URL to be requested
+     * @param options query options in the form key=value
+     * @return response of the server
+     */
+    protected HttpResponse get(String url, String... options) throws IOException {
+        StringJoiner query = new StringJoiner("&");
+        for (String option : options) {
+            int separator = option.indexOf('=');
+            query.add(separator < 0
+                          ? UriUtils.encode(option, StandardCharsets.UTF_8)
+                          : UriUtils.encode(option.substring(0, separator), StandardCharsets.UTF_8)
+                              + "="
+                              + UriUtils.encode(option.substring(separator + 1), StandardCharsets.UTF_8));
+        }
+        String uri = options.length == 0 ? url : url + "?" + query;
+        logger.debug("GET: " + uri);
+        return HttpClientBuilder.create().build().execute(new HttpGet(uri));
+    }
+
+    /**
+     * Requests the given URL and checks that a JSON response with status 200 is returned.
+     *
+     * @param url     URL to be requested
+     * @param options query options in the form key=value
+     * @return parsed response
+     */
+    protected JsonNode getJson(String url, String... options) throws IOException {
+        HttpResponse response = get(url, options);
+
+        // Check Response MIME Type
+        String mimeType = ContentType.getOrDefault(response.getEntity()).getMimeType();
+        Assertions.assertEquals(jsonMimeType, mimeType, "Wrong MIME Type returned on path: " + url);
+
+        Assertions.assertEquals(200,
+                                response.getStatusLine().getStatusCode(),
+                                "ERROR: Did not receive 200 OK for path: " + url
+                                    + " Instead received Status Code: " + response.getStatusLine().getStatusCode());
+        return mapper.readTree(response.getEntity().getContent());
+    }
+
+    /**
+     * Requests the given URL and follows all @iot.nextLink of the response.
+     *
+     * @param url     URL of the first page
+     * @param options query options of the first page in the form key=value
+     * @return all pages in order
+     */
+    protected List<JsonNode> getAllPages(String url, String... options) throws IOException {
+        List<JsonNode> pages = new ArrayList<>();
+        JsonNode page = getJson(url, options);
+        pages.add(page);
+        while (page.has(nextLinkKey)) {
+            String[] nextLink = page.get(nextLinkKey).asText().split("\\?", 2);
+            Assertions.assertEquals(2, nextLink.length, "nextLink has no query: " + page.get(nextLinkKey));
+            page = getJson(nextLink[0], nextLink[1].split("&"));
+            pages.add(page);
+        }
+        return pages;
+    }
+
+    /**
+     * Creates a Thing with a single Datastream of Measurements holding the given Observations. All Observations share
+     * the FeatureOfInterest generated from the Location of the Thing.
+     *
+     * @param name         name used for the Datastream and all related entities
+     * @param observations Observations to be inserted, each given as {phenomenonTime, result}
+     * @return id of the created Datastream
+     */
+    protected String postMeasurementDatastream(String name, Object[]... observations) throws IOException {
+        StringJoiner inline = new StringJoiner(", ");
+        for (Object[] observation : observations) {
+            inline.add("{ \"phenomenonTime\": \"" + observation[0] + "\", \"result\": " + observation[1] + " }");
+        }
+        JsonNode thing = postEntity(EntityType.THING, "{ \"description\": \"thing " + name + "\", \"name\": \"thing "
+            + name + "\", \"Locations\": [ { \"description\": \"location " + name + "\", \"name\": \"location "
+            + name + "\", \"location\": { \"type\": \"Point\", \"coordinates\": [ 7.65, 51.93 ] }, "
+            + "\"encodingType\": \"application/vnd.geo+json\" } ], \"Datastreams\": [ { \"unitOfMeasurement\": { "
+            + "\"name\": \"Degree Celsius\", \"symbol\": \"degC\", \"definition\": \"http://www.qudt.org/qudt/owl/"
+            + "1.0.0/unit/Instances.html/DegreeCelsius\" }, \"description\": \"datastream " + name + "\", "
+            + "\"name\": \"datastream " + name + "\", \"observationType\": \"http://www.opengis.net/def/"
+            + "observationType/OGC-OM/2.0/OM_Measurement\", \"ObservedProperty\": { \"name\": \"temperature "
+            + name + "\", \"definition\": \"http://www.qudt.org/qudt/owl/1.0.0/quantity/Instances.html/"
+            + "Temperature/" + name + "\", \"description\": \"observedProperty " + name + "\" }, \"Sensor\": { "
+            + "\"description\": \"sensor " + name + "\", \"name\": \"sensor " + name + "\", \"encodingType\": "
+            + "\"application/pdf\", \"metadata\": \"temperature sensor\" }, \"Observations\": [ " + inline
+            + " ] } ] }");
+        JsonNode datastreams = getCollection(rootUrl + "Things(" + thing.get(idKey).asText() + ")/Datastreams", "");
+        assertResponseCount(datastreams, 1);
+        return datastreams.get(value).get(0).get(idKey).asText();
+    }
+
+    /**
+     * Returns the ids of all Observations of the given Datastream ordered by phenomenonTime.
+     *
+     * @param datastreamId id of the Datastream
+     * @return ids of the Observations
+     */
+    protected List<String> getObservationIds(String datastreamId) throws IOException {
+        List<String> ids = new ArrayList<>();
+        for (JsonNode observation : getJson(rootUrl + "Datastreams(" + datastreamId + ")/Observations",
+                                            "$orderby=phenomenonTime").get(value)) {
+            ids.add(observation.get(idKey).asText());
+        }
+        return ids;
+    }
+
     /**
      * This helper method is checking the mandatory properties of the response
      * for a specific entity
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that $expand resolved for a whole page at once yields the same related entities as requesting them for
+ * every entity separately.
+ *
+ * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT)
+@Testcontainers
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class ITBatchExpand extends ConformanceTests implements TestUtil {
+
+    public ITBatchExpand(@Value("${server.rootUrl}") String rootUrl) throws Exception {
+        super(rootUrl);
+
+        // Create required test harness
+        // Results are not ordered by phenomenonTime, so ordering by either yields different pages
+        postMeasurementDatastream("batch1",
+                                  new Object[] {"2020-01-01T00:00:00Z", 5},
+                                  new Object[] {"2020-01-01T01:00:00Z", 1},
+                                  new Object[] {"2020-01-01T02:00:00Z", 4},
+                                  new Object[] {"2020-01-01T03:00:00Z", 2},
+                                  new Object[] {"2020-01-01T04:00:00Z", 3});
+        postMeasurementDatastream("batch2",
+                                  new Object[] {"2020-01-01T00:30:00Z", 12},
+                                  new Object[] {"2020-01-01T01:30:00Z", 15},
+                                  new Object[] {"2020-01-01T02:30:00Z", 11},
+                                  new Object[] {"2020-01-01T03:30:00Z", 14});
+        postMeasurementDatastream("batch3",
+                                  new Object[] {"2020-01-02T00:00:00Z", 21});
+    }
+
+    @Test
+    public void testExpandObservationsOfDatastreams() throws IOException {
+        assertExpandedObservations("$orderby=result desc", "$top=2", "$skip=1");
+        assertExpandedObservations("$orderby=result", "$top=3");
+        assertExpandedObservations("$orderby=phenomenonTime desc", "$top=2", "$skip=2");
+        assertExpandedObservations("$orderby=phenomenonTime", "$top=10");
+    }
+
+    @Test
+    public void testExpandRelatedOfObservations() throws IOException {
+        JsonNode page = getJson(rootUrl + OBSERVATIONS,
+                                "$top=20",
+                                "$expand=Datastream($expand=Thing,Sensor),FeatureOfInterest");
+        assertResponseCount(page, 10, 10);
+        for (JsonNode observation : page.get(value)) {
+            String path = "Observations(" + observation.get(idKey).asText() + ")";
+            JsonNode datastream = observation.get(DATASTREAM);
+            assertSameEntity(getEntity(path + "/Datastream"), datastream);
+            assertSameEntity(getEntity(path + "/FeatureOfInterest"), observation.get(FEATUREOFINTEREST));
+
+            path = "Datastreams(" + datastream.get(idKey).asText() + ")";
+            assertSameEntity(getEntity(path + "/Thing"), datastream.get(THING));
+            assertSameEntity(getEntity(path + "/Sensor"), datastream.get(SENSOR));
+        }
+    }
+
+    @Test
+    public void testExpandRelatedOfDatastreams() throws IOException {
+        JsonNode page = getJson(rootUrl + DATASTREAMS, "$expand=Thing($expand=Locations),Sensor,ObservedProperty");
+        assertResponseCount(page, 3, 3);
+        for (JsonNode datastream : page.get(value)) {
+            String path = "Datastreams(" + datastream.get(idKey).asText() + ")";
+            JsonNode thing = datastream.get(THING);
+            assertSameEntity(getEntity(path + "/Thing"), thing);
+            assertSameEntity(getEntity(path + "/Sensor"), datastream.get(SENSOR));
+            assertSameEntity(getEntity(path + "/ObservedProperty"), datastream.get(OBSERVEDPROPERTY));
+
+            JsonNode locations = getJson(rootUrl + "Things(" + thing.get(idKey).asText() + ")/Locations");
+            Assertions.assertEquals(getIds(locations.get(value)), getIds(thing.get(LOCATIONS)));
+        }
+    }
+
+    /**
+     * Expands the Observations of all Datastreams with the given options and compares them with the Observations
+     * requested for each Datastream separately.
+     */
+    private void assertExpandedObservations(String... options) throws IOException {
+        JsonNode page = getJson(rootUrl + DATASTREAMS, "$expand=Observations(" + String.join(";", options) + ")");
+        assertResponseCount(page, 3, 3);
+        for (JsonNode datastream : page.get(value)) {
+            JsonNode expected = getJson(rootUrl + "Datastreams(" + datastream.get(idKey).asText() + ")/Observations",
+                                        options);
+            JsonNode expanded = datastream.get(OBSERVATIONS);
+            Assertions.assertEquals(getIds(expected.get(value)),
+                                    getIds(expanded),
+                                    "Wrong Observations expanded for options " + String.join(";", options));
+            for (int i = 0; i < expanded.size(); i++) {
+                compareJsonNodesNumeric("result",
+                                        expected.get(value).get(i).get("result"),
+                                        expanded.get(i).get("result"));
+            }
+        }
+    }
+
+    private void assertSameEntity(JsonNode expected, JsonNode expanded) {
+        Assertions.assertNotNull(expanded, "Entity was not expanded: " + expected);
+        Assertions.assertEquals(expected.get(idKey), expanded.get(idKey));
+        Assertions.assertEquals(expected.get("name"), expanded.get("name"));
+    }
+
+    private List<String> getIds(JsonNode entities) {
+        List<String> ids = new ArrayList<>();
+        entities.forEach(entity -> ids.add(entity.get(idKey).asText()));
+        return ids;
+    }
+}
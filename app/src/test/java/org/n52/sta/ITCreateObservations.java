@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.IOException;
+
+/**
+ * Checks batch creation of Observations via CreateObservations (DataArray format)
+ *
+ * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT)
+@Testcontainers
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class ITCreateObservations extends ConformanceTests implements TestUtil {
+
+    private final String datastreamId;
+
+    public ITCreateObservations(@Value("${server.rootUrl}") String rootUrl) throws Exception {
+        super(rootUrl);
+
+        // Create required test harness
+        postEntity(EntityType.THING, "{ \"description\": \"thing 1\", \"name\": \"thing name 1\", \"Locations\": " +
+            "[ { \"description\": \"location 1\", \"name\": \"location name 1\", \"location\": { \"type\": " +
+            "\"Point\", \"coordinates\": [ -117.05, 51.05 ] }, \"encodingType\": \"application/vnd.geo+json\" } ]," +
+            " \"Datastreams\": [ { \"unitOfMeasurement\": { \"name\": \"Lumen\", \"symbol\": \"lm\", " +
+            "\"definition\": \"http://www.qudt.org/qudt/owl/1.0.0/unit/Instances.html/Lumen\" }, \"description\":" +
+            " \"datastream 1\", \"name\": \"datastream name 1\", \"observationType\": \"http://www.opengis" +
+            ".net/def/observationType/OGC-OM/2.0/OM_Measurement\", \"ObservedProperty\": { \"name\": \"Luminous " +
+            "Flux\", \"definition\": \"http://www.qudt.org/qudt/owl/1.0.0/quantity/Instances.html/LuminousFlux\"," +
+            " \"description\": \"observedProperty 1\" }, \"Sensor\": { \"description\": \"sensor 1\", \"name\": " +
+            "\"sensor name 1\", \"encodingType\": \"application/pdf\", \"metadata\": \"Light flux sensor\" } } ] }");
+        datastreamId = getCollection(EntityType.DATASTREAM).get(value).get(0).get(idKey).asText();
+    }
+
+    @Test
+    public void testCreateObservations() throws IOException {
+        String body = "[ { \"Datastream\": { \"@iot.id\": \"" + datastreamId + "\" }, \"components\": [ " +
+            "\"phenomenonTime\", \"result\" ], \"dataArray@iot.count\": 3, \"dataArray\": [ " +
+            "[ \"2015-03-03T00:00:00Z\", 3 ], [ \"2015-03-01T00:00:00Z\", 1 ], [ \"2015-03-05T00:00:00Z\", 5 ] ] } ]";
+        JsonNode response = postCreateObservations(body);
+
+        Assertions.assertTrue(response.isArray());
+        Assertions.assertEquals(3, response.size());
+        JsonNode observations = getCollection(rootUrl + "Datastreams(" + datastreamId + ")/Observations",
+                                              "$orderby=phenomenonTime");
+        assertResponseCount(observations, 3, 3);
+        Assertions.assertEquals(1, observations.get(value).get(0).get("result").asInt());
+
+        // All Observations share the FeatureOfInterest generated from Thing->Location
+        JsonNode features = getCollection(EntityType.FEATURE_OF_INTEREST);
+        assertResponseCount(features, 1, 1);
+
+        JsonNode datastream = getEntity(EntityType.DATASTREAM, datastreamId);
+        String[] phenomenonTime = datastream.get("phenomenonTime").asText().split("/");
+        Assertions.assertTrue(phenomenonTime[0].startsWith("2015-03-01"));
+        Assertions.assertTrue(phenomenonTime[1].startsWith("2015-03-05"));
+    }
+
+    @Test
+    public void testCreateObservationsIsRolledBackOnError() throws IOException {
+        // Observations of the first Datastream are flushed before the second Datastream fails
+        String body = "[ { \"Datastream\": { \"@iot.id\": \"" + datastreamId + "\" }, \"components\": [ " +
+            "\"phenomenonTime\", \"result\" ], \"dataArray@iot.count\": 2, \"dataArray\": [ " +
+            "[ \"2015-03-03T00:00:00Z\", 3 ], [ \"2015-03-01T00:00:00Z\", 1 ] ] }, " +
+            "{ \"Datastream\": { \"@iot.id\": \"unknownDatastream\" }, \"components\": [ " +
+            "\"phenomenonTime\", \"result\" ], \"dataArray@iot.count\": 1, \"dataArray\": [ " +
+            "[ \"2015-03-05T00:00:00Z\", 5 ] ] } ]";
+        HttpResponse response = executeCreateObservations(body);
+        Assertions.assertEquals(400, response.getStatusLine().getStatusCode());
+
+        // No Observation of the first Datastream may be persisted
+        assertEmptyResponse(getCollection(rootUrl + "Datastreams(" + datastreamId + ")/Observations", ""));
+        assertEmptyResponse(getCollection(EntityType.OBSERVATION));
+    }
+
+    private JsonNode postCreateObservations(String body) throws IOException {
+        HttpResponse response = executeCreateObservations(body);
+        Assertions.assertEquals(200, response.getStatusLine().getStatusCode());
+        return mapper.readTree(response.getEntity().getContent());
+    }
+
+    private HttpResponse executeCreateObservations(String body) throws IOException {
+        HttpPost request = new HttpPost(rootUrl + "CreateObservations");
+        request.setEntity(new StringEntity(body));
+        request.setHeader("Content-Type", "application/json");
+        return HttpClientBuilder.create().build().execute(request);
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.joda.time.format.ISODateTimeFormat;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.n52.series.db.beans.AbstractDatasetEntity;
+import org.n52.sta.data.repositories.DatastreamRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * Checks that phenomenonTime and first/last Observation of a Datastream are maintained when Observations at the
+ * boundary of the Datastream are updated or deleted.
+ *
+ * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT)
+@Testcontainers
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class ITDatastreamExtent extends ConformanceTests implements TestUtil {
+
+    private static final String PHENOMENON_TIME = "phenomenonTime";
+    private static final String T1 = "2020-01-01T00:00:00Z";
+    private static final String T2 = "2020-01-01T01:00:00Z";
+    private static final String T3 = "2020-01-01T02:00:00Z";
+
+    private final DatastreamRepository datastreamRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final String datastreamId;
+    private final List<String> ids;
+
+    public ITDatastreamExtent(@Value("${server.rootUrl}") String rootUrl,
+                              @Autowired DatastreamRepository datastreamRepository,
+                              @Autowired PlatformTransactionManager transactionManager) throws Exception {
+        super(rootUrl);
+        this.datastreamRepository = datastreamRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+
+        // Create required test harness
+        datastreamId = postMeasurementDatastream("extent1",
+                                                 new Object[] {T1, 1},
+                                                 new Object[] {T2, 2},
+                                                 new Object[] {T3, 3});
+        ids = getObservationIds(datastreamId);
+        Assertions.assertEquals(3, ids.size());
+        assertExtent(T1, T3, ids.get(0), ids.get(2), 3);
+    }
+
+    @Test
+    public void testDeleteLastObservation() throws IOException {
+        deleteEntity(EntityType.OBSERVATION, ids.get(2), false);
+        assertExtent(T1, T2, ids.get(0), ids.get(1), 2);
+
+        deleteEntity(EntityType.OBSERVATION, ids.get(1), false);
+        assertExtent(T1, T1, ids.get(0), ids.get(0), 1);
+
+        // Datastream without Observations has no extent
+        deleteEntity(EntityType.OBSERVATION, ids.get(0), false);
+        Assertions.assertTrue(getEntity(EntityType.DATASTREAM, datastreamId).get(PHENOMENON_TIME).isNull());
+        transactionTemplate.execute(status -> {
+            AbstractDatasetEntity datastream = getDatastream();
+            Assertions.assertNull(datastream.getFirstObservation());
+            Assertions.assertNull(datastream.getLastObservation());
+            Assertions.assertNull(datastream.getLastQuantityValue());
+            return null;
+        });
+    }
+
+    @Test
+    public void testDeleteFirstObservation() throws IOException {
+        deleteEntity(EntityType.OBSERVATION, ids.get(0), false);
+        assertExtent(T2, T3, ids.get(1), ids.get(2), 3);
+    }
+
+    @Test
+    public void testDeleteInnerObservation() throws IOException {
+        deleteEntity(EntityType.OBSERVATION, ids.get(1), false);
+        assertExtent(T1, T3, ids.get(0), ids.get(2), 3);
+    }
+
+    @Test
+    public void testPatchBoundaryPhenomenonTime() throws IOException {
+        // Last Observation becomes first Observation
+        String t0 = "2019-12-31T23:00:00Z";
+        patchEntity(EntityType.OBSERVATION, "{\"phenomenonTime\":\"" + t0 + "\"}", ids.get(2));
+        assertExtent(t0, T2, ids.get(2), ids.get(1), 2);
+
+        // Inner Observation becomes last Observation
+        String t4 = "2020-01-01T04:00:00Z";
+        patchEntity(EntityType.OBSERVATION, "{\"phenomenonTime\":\"" + t4 + "\"}", ids.get(0));
+        assertExtent(t0, t4, ids.get(2), ids.get(0), 1);
+    }
+
+    @Test
+    public void testPatchLastResult() throws IOException {
+        patchEntity(EntityType.OBSERVATION, "{\"result\":5}", ids.get(2));
+        assertExtent(T1, T3, ids.get(0), ids.get(2), 5);
+
+        // Results of other Observations do not change the last value
+        patchEntity(EntityType.OBSERVATION, "{\"result\":7}", ids.get(1));
+        assertExtent(T1, T3, ids.get(0), ids.get(2), 5);
+    }
+
+    private void assertExtent(String start, String end, String firstId, String lastId, double lastValue)
+        throws IOException {
+        JsonNode phenomenonTime = getEntity(EntityType.DATASTREAM, datastreamId).get(PHENOMENON_TIME);
+        Assertions.assertFalse(phenomenonTime.isNull(), "Datastream has no phenomenonTime");
+        String[] interval = phenomenonTime.asText().split("/");
+        Assertions.assertEquals(parse(start), parse(interval[0]));
+        Assertions.assertEquals(parse(end), parse(interval[interval.length - 1]));
+
+        transactionTemplate.execute(status -> {
+            AbstractDatasetEntity datastream = getDatastream();
+            Assertions.assertEquals(firstId, datastream.getFirstObservation().getStaIdentifier());
+            Assertions.assertEquals(lastId, datastream.getLastObservation().getStaIdentifier());
+            Assertions.assertEquals(0,
+                                    BigDecimal.valueOf(lastValue).compareTo(datastream.getLastQuantityValue()),
+                                    "Wrong last value: " + datastream.getLastQuantityValue());
+            Assertions.assertEquals(parse(start), datastream.getFirstValueAt().getTime());
+            Assertions.assertEquals(parse(end), datastream.getLastValueAt().getTime());
+            return null;
+        });
+    }
+
+    private AbstractDatasetEntity getDatastream() {
+        return datastreamRepository.findByStaIdentifier(datastreamId)
+            .orElseThrow(() -> new AssertionError("Datastream not found: " + datastreamId));
+    }
+
+    private long parse(String time) {
+        return ISODateTimeFormat.dateTimeParser().parseDateTime(time).getMillis();
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.joda.time.DateTime;
+import org.joda.time.format.ISODateTimeFormat;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Checks that Observation collections paged via $skiptoken (server.feature.keysetPagination) return every
+ * Observation exactly once and in the requested order.
+ *
+ * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT,
+    properties = "server.feature.keysetPagination=true")
+@Testcontainers
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class ITKeysetPagination extends ConformanceTests implements TestUtil {
+
+    private static final int OBSERVATION_COUNT = 11;
+
+    private final String datastreamId;
+    private final String otherDatastreamId;
+
+    public ITKeysetPagination(@Value("${server.rootUrl}") String rootUrl) throws Exception {
+        super(rootUrl);
+
+        // Create required test harness
+        // Observations share phenomenonTimes so that the tiebreaker is needed for a total order
+        datastreamId = postMeasurementDatastream("paging1",
+                                                 new Object[] {"2020-01-01T00:00:00Z", 1},
+                                                 new Object[] {"2020-01-01T01:00:00Z", 2},
+                                                 new Object[] {"2020-01-01T01:00:00Z", 3},
+                                                 new Object[] {"2020-01-01T01:00:00Z", 4},
+                                                 new Object[] {"2020-01-01T02:00:00Z", 5},
+                                                 new Object[] {"2020-01-01T03:00:00Z", 6},
+                                                 new Object[] {"2020-01-01T03:00:00Z", 7});
+        otherDatastreamId = postMeasurementDatastream("paging2",
+                                                      new Object[] {"2020-01-01T00:30:00Z", 8},
+                                                      new Object[] {"2020-01-01T01:00:00Z", 9},
+                                                      new Object[] {"2020-01-01T02:30:00Z", 10},
+                                                      new Object[] {"2020-01-01T04:00:00Z", 11});
+    }
+
+    @Test
+    public void testPagingById() throws IOException {
+        List<JsonNode> pages = getAllPages(rootUrl + OBSERVATIONS, "$top=3");
+        Assertions.assertEquals(4, pages.size());
+        assertSkipTokenLinks(pages);
+
+        List<String> ids = getIds(pages);
+        assertEachOnce(ids, OBSERVATION_COUNT);
+        // Order is the same as when requesting all Observations at once
+        Assertions.assertEquals(getIds(getAllPages(rootUrl + OBSERVATIONS, "$top=" + OBSERVATION_COUNT)), ids);
+    }
+
+    @Test
+    public void testPagingByPhenomenonTime() throws IOException {
+        for (String direction : new String[] {"asc", "desc"}) {
+            List<JsonNode> pages =
+                getAllPages(rootUrl + OBSERVATIONS, "$top=2", "$orderby=phenomenonTime " + direction);
+            Assertions.assertEquals(6, pages.size());
+            assertSkipTokenLinks(pages);
+            assertEachOnce(getIds(pages), OBSERVATION_COUNT);
+
+            List<DateTime> times = getPhenomenonTimes(pages);
+            for (int i = 1; i < times.size(); i++) {
+                int comparison = times.get(i - 1).compareTo(times.get(i));
+                Assertions.assertTrue("asc".equals(direction) ? comparison <= 0 : comparison >= 0,
+                                      "Observations are not ordered by phenomenonTime " + direction + ": " + times);
+            }
+        }
+    }
+
+    @Test
+    public void testPagingRelatedCollection() throws IOException {
+        List<JsonNode> pages = getAllPages(rootUrl + "Datastreams(" + datastreamId + ")/Observations",
+                                           "$top=2",
+                                           "$orderby=phenomenonTime");
+        Assertions.assertEquals(4, pages.size());
+        assertSkipTokenLinks(pages);
+        assertEachOnce(getIds(pages), 7);
+        for (JsonNode page : pages) {
+            Assertions.assertEquals(7, page.get(countKey).asInt());
+        }
+    }
+
+    @Test
+    public void testPagingIsStableOnInsert() throws IOException {
+        JsonNode first = getJson(rootUrl + OBSERVATIONS, "$top=3", "$orderby=phenomenonTime");
+        Assertions.assertTrue(first.has(nextLinkKey));
+
+        // Inserting before the current position must not shift the following pages
+        postEntity(EntityType.OBSERVATION, "{ \"phenomenonTime\": \"2019-12-31T00:00:00Z\", \"result\": 0, "
+            + "\"Datastream\": { \"@iot.id\": \"" + otherDatastreamId + "\" } }");
+
+        String[] nextLink = first.get(nextLinkKey).asText().split("\\?", 2);
+        List<JsonNode> pages = getAllPages(nextLink[0], nextLink[1].split("&"));
+        pages.add(0, first);
+        assertEachOnce(getIds(pages), OBSERVATION_COUNT);
+    }
+
+    @Test
+    public void testSkipTokenNotMatchingOrderByIsRejected() throws IOException {
+        JsonNode first = getJson(rootUrl + OBSERVATIONS, "$top=3", "$orderby=phenomenonTime");
+        String nextLink = first.get(nextLinkKey).asText();
+        String skipToken = nextLink.substring(nextLink.indexOf("$skiptoken=") + "$skiptoken=".length());
+
+        Assertions.assertEquals(400,
+                                get(rootUrl + OBSERVATIONS, "$top=3", "$skiptoken=" + skipToken)
+                                    .getStatusLine()
+                                    .getStatusCode());
+        Assertions.assertEquals(400,
+                                get(rootUrl + OBSERVATIONS, "$top=3", "$skiptoken=invalid")
+                                    .getStatusLine()
+                                    .getStatusCode());
+    }
+
+    private void assertSkipTokenLinks(List<JsonNode> pages) {
+        for (int i = 0; i < pages.size() - 1; i++) {
+            String nextLink = pages.get(i).get(nextLinkKey).asText();
+            Assertions.assertTrue(nextLink.contains("$skiptoken="), "nextLink does not use $skiptoken: " + nextLink);
+            Assertions.assertFalse(nextLink.contains("$skip="), "nextLink uses $skip: " + nextLink);
+        }
+    }
+
+    private void assertEachOnce(List<String> ids, int expected) {
+        Assertions.assertEquals(expected, ids.size(), "Wrong number of Observations: " + ids);
+        Assertions.assertEquals(ids.size(), new HashSet<>(ids).size(), "Observations returned twice: " + ids);
+    }
+
+    private List<String> getIds(List<JsonNode> pages) {
+        List<String> ids = new ArrayList<>();
+        for (JsonNode page : pages) {
+            page.get(value).forEach(observation -> ids.add(observation.get(idKey).asText()));
+        }
+        return ids;
+    }
+
+    private List<DateTime> getPhenomenonTimes(List<JsonNode> pages) {
+        List<DateTime> times = new ArrayList<>();
+        for (JsonNode page : pages) {
+            page.get(value).forEach(observation -> times.add(
+                ISODateTimeFormat.dateTimeParser().parseDateTime(observation.get("phenomenonTime").asText())));
+        }
+        return times;
+    }
+}
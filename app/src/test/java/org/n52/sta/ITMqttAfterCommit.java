@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Checks that MQTT notifications are only published after the Transaction persisting the Entities was committed.
+ * Entities of a rolled back deep insert must not be notified, and notified Entities must already be readable.
+ *
+ * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT)
+@Testcontainers
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class ITMqttAfterCommit extends ConformanceTests implements TestUtil {
+
+    private final MqttTestClient mqttClient;
+
+    public ITMqttAfterCommit(@Value("${server.rootUrl}") String rootUrl) throws Exception {
+        super(rootUrl);
+        mqttClient = new MqttTestClient("ITMqttAfterCommit");
+    }
+
+    @AfterEach
+    public void disconnectClient() throws Exception {
+        mqttClient.close();
+    }
+
+    @Test
+    public void testRolledBackInsertIsNotNotified() throws Exception {
+        mqttClient.subscribe(THINGS, LOCATIONS, DATASTREAMS, SENSORS, OBSERVEDPROPERTIES, OBSERVATIONS);
+
+        // The first Observation is persisted before the second one fails
+        postInvalidEntity(EntityType.THING,
+                          thing("rollback1",
+                                "{ \"phenomenonTime\": \"2020-01-01T00:00:00Z\", \"result\": 1 }, {}"));
+        mqttClient.assertNoMessage();
+    }
+
+    @Test
+    public void testCommittedInsertIsNotified() throws Exception {
+        mqttClient.subscribe(THINGS, LOCATIONS, DATASTREAMS, SENSORS, OBSERVEDPROPERTIES, OBSERVATIONS);
+
+        postEntity(EntityType.THING,
+                   thing("commit1", "{ \"phenomenonTime\": \"2020-01-01T00:00:00Z\", \"result\": 1 }"));
+
+        List<MqttTestClient.Message> messages = mqttClient.drain();
+        Set<String> topics = new HashSet<>();
+        for (MqttTestClient.Message message : messages) {
+            topics.add(message.topic);
+            // Entity must be visible to other Transactions once it is notified
+            getEntity(message.topic + "(" + mapper.readTree(message.payload).get(idKey).asText() + ")");
+        }
+        Assertions.assertEquals(
+            new HashSet<>(Arrays.asList(THINGS, LOCATIONS, DATASTREAMS, SENSORS, OBSERVEDPROPERTIES, OBSERVATIONS)),
+            topics);
+    }
+
+    private String thing(String name, String observations) {
+        return "{ \"description\": \"thing " + name + "\", \"name\": \"thing " + name + "\", \"Locations\": [ { "
+            + "\"description\": \"location " + name + "\", \"name\": \"location " + name + "\", \"location\": { "
+            + "\"type\": \"Point\", \"coordinates\": [ 7.65, 51.93 ] }, \"encodingType\": "
+            + "\"application/vnd.geo+json\" } ], \"Datastreams\": [ { \"unitOfMeasurement\": { \"name\": "
+            + "\"Degree Celsius\", \"symbol\": \"degC\", \"definition\": \"http://www.qudt.org/qudt/owl/1.0.0/unit/"
+            + "Instances.html/DegreeCelsius\" }, \"description\": \"datastream " + name + "\", \"name\": "
+            + "\"datastream " + name + "\", \"observationType\": \"http://www.opengis.net/def/observationType/"
+            + "OGC-OM/2.0/OM_Measurement\", \"ObservedProperty\": { \"name\": \"property " + name + "\", "
+            + "\"definition\": \"http://example.org/" + name + "\", \"description\": \"property " + name + "\" }, "
+            + "\"Sensor\": { \"description\": \"sensor " + name + "\", \"name\": \"sensor " + name + "\", "
+            + "\"encodingType\": \"application/pdf\", \"metadata\": \"http://example.org/" + name + ".pdf\" }, "
+            + "\"Observations\": [ " + observations + " ] } ] }";
+    }
+}
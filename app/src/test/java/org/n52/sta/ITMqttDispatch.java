@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Checks the bounded dispatch of MQTT notifications. With a queue of a single event the dispatcher must not lose
+ * creations under load, while repeated updates of the same entity within the coalesce window are published once.
+ *
+ * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT,
+    properties = {"mqtt.broker.dispatch.queueSize=1",
+                  "mqtt.broker.dispatch.workers=1",
+                  "mqtt.broker.dispatch.policy=callerRuns",
+                  "mqtt.broker.dispatch.coalesceWindow=2000"})
+@Testcontainers
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class ITMqttDispatch extends ConformanceTests implements TestUtil {
+
+    private static final int OBSERVATION_COUNT = 20;
+
+    private final MqttTestClient mqttClient;
+    private final String datastreamId;
+    private final String thingId;
+
+    public ITMqttDispatch(@Value("${server.rootUrl}") String rootUrl) throws Exception {
+        super(rootUrl);
+        mqttClient = new MqttTestClient("ITMqttDispatch");
+
+        // Create required test harness
+        datastreamId = postMeasurementDatastream("dispatch1", new Object[] {"2020-01-01T00:00:00Z", 1});
+        thingId = getEntity("Datastreams(" + datastreamId + ")/Thing").get(idKey).asText();
+    }
+
+    @AfterEach
+    public void disconnectClient() throws Exception {
+        mqttClient.close();
+    }
+
+    @Test
+    public void testCreationsAreNotDropped() throws Exception {
+        mqttClient.subscribe(OBSERVATIONS);
+
+        Set<String> created = new HashSet<>();
+        for (int i = 0; i < OBSERVATION_COUNT; i++) {
+            JsonNode observation = postEntity(EntityType.OBSERVATION,
+                                              "{ \"phenomenonTime\": \"2020-01-02T00:00:00Z\", \"result\": " + i
+                                                  + ", \"Datastream\": { \"@iot.id\": \"" + datastreamId + "\" } }");
+            created.add(observation.get(idKey).asText());
+        }
+
+        Set<String> received = new HashSet<>();
+        for (MqttTestClient.Message message : mqttClient.next(OBSERVATION_COUNT)) {
+            Assertions.assertEquals(OBSERVATIONS, message.topic);
+            received.add(mapper.readTree(message.payload).get(idKey).asText());
+        }
+        Assertions.assertEquals(created, received);
+        mqttClient.assertNoMessage();
+    }
+
+    @Test
+    public void testUpdatesAreCoalesced() throws Exception {
+        String topic = "Things(" + thingId + ")";
+        mqttClient.subscribe(topic);
+
+        patchEntity(EntityType.THING, "{\"name\":\"first name\"}", thingId);
+        patchEntity(EntityType.THING, "{\"name\":\"latest name\"}", thingId);
+
+        // Both updates fall into the coalesce window and are published with the latest state
+        MqttTestClient.Message message = mqttClient.next();
+        Assertions.assertEquals(topic, message.topic);
+        Assertions.assertEquals("latest name", mapper.readTree(message.payload).get("name").asText());
+        mqttClient.assertNoMessage();
+    }
+}
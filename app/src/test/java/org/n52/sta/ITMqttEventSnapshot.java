@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Checks the payloads of MQTT notifications that are serialized inside the Transaction before dispatching. Each
+ * Subscription receives the Entity serialized with its own $select, and coalesced updates are published with the
+ * state of the latest update.
+ *
+ * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT,
+    properties = "mqtt.broker.dispatch.coalesceWindow=2000")
+@Testcontainers
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class ITMqttEventSnapshot extends ConformanceTests implements TestUtil {
+
+    private final MqttTestClient mqttClient;
+    private final String datastreamId;
+    private final String thingId;
+
+    public ITMqttEventSnapshot(@Value("${server.rootUrl}") String rootUrl) throws Exception {
+        super(rootUrl);
+        mqttClient = new MqttTestClient("ITMqttEventSnapshot");
+
+        // Create required test harness
+        datastreamId = postMeasurementDatastream("snapshot1", new Object[] {"2020-01-01T00:00:00Z", 1});
+        thingId = getEntity("Datastreams(" + datastreamId + ")/Thing").get(idKey).asText();
+    }
+
+    @AfterEach
+    public void disconnectClient() throws Exception {
+        mqttClient.close();
+    }
+
+    @Test
+    public void testSelectedCreationPayload() throws Exception {
+        String selected = "Datastreams(" + datastreamId + ")/Observations?$select=result";
+        String full = "Datastreams(" + datastreamId + ")/Observations";
+        mqttClient.subscribe(selected, full);
+
+        JsonNode created = postEntity(EntityType.OBSERVATION,
+                                      "{ \"phenomenonTime\": \"2020-01-02T00:00:00Z\", \"result\": 52, "
+                                          + "\"Datastream\": { \"@iot.id\": \"" + datastreamId + "\" } }");
+
+        Map<String, JsonNode> payloads = receive(2);
+        Assertions.assertEquals(created.get("result"), payloads.get(selected).get("result"));
+        Assertions.assertFalse(payloads.get(selected).has("phenomenonTime"));
+        Assertions.assertEquals(created.get(idKey), payloads.get(full).get(idKey));
+        Assertions.assertEquals(created.get("phenomenonTime"), payloads.get(full).get("phenomenonTime"));
+        mqttClient.assertNoMessage();
+    }
+
+    @Test
+    public void testSelectedUpdatePayload() throws Exception {
+        String selected = "Things?$select=name";
+        mqttClient.subscribe(selected, THINGS);
+
+        JsonNode updated = patchEntity(EntityType.THING, "{\"name\":\"snapshot name\"}", thingId);
+
+        Map<String, JsonNode> payloads = receive(2);
+        Assertions.assertEquals(updated.get("name"), payloads.get(selected).get("name"));
+        Assertions.assertFalse(payloads.get(selected).has("description"));
+        Assertions.assertEquals(updated.get("name"), payloads.get(THINGS).get("name"));
+        Assertions.assertEquals(updated.get("description"), payloads.get(THINGS).get("description"));
+        mqttClient.assertNoMessage();
+    }
+
+    @Test
+    public void testCoalescedUpdatePayload() throws Exception {
+        String name = "Things(" + thingId + ")/name";
+        String description = "Things(" + thingId + ")/description";
+        mqttClient.subscribe(name, description);
+
+        patchEntity(EntityType.THING, "{\"name\":\"first name\"}", thingId);
+        patchEntity(EntityType.THING, "{\"description\":\"coalesced description\"}", thingId);
+        patchEntity(EntityType.THING, "{\"name\":\"latest name\"}", thingId);
+
+        // All updates fall into the coalesce window, so each changed property is notified once with its latest value
+        Map<String, JsonNode> payloads = receive(2);
+        Assertions.assertEquals("latest name", payloads.get(name).get("name").asText());
+        Assertions.assertEquals("coalesced description", payloads.get(description).get("description").asText());
+        mqttClient.assertNoMessage();
+    }
+
+    /**
+     * Receives the given number of messages on distinct topics.
+     *
+     * @return parsed payloads by topic
+     */
+    private Map<String, JsonNode> receive(int count) throws Exception {
+        Map<String, JsonNode> payloads = new HashMap<>();
+        for (MqttTestClient.Message message : mqttClient.next(count)) {
+            Assertions.assertNull(payloads.put(message.topic, mapper.readTree(message.payload)),
+                                  "Received multiple messages on topic: " + message.topic);
+        }
+        return payloads;
+    }
+}
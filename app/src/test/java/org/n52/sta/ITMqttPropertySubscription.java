@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+/**
+ * Checks that MQTT Subscriptions on properties are notified exactly when the property is changed via PATCH. Updates
+ * of some properties are flushed before the entity is saved, e.g. the parameters of Observations.
+ *
+ * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT)
+@Testcontainers
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class ITMqttPropertySubscription extends ConformanceTests implements TestUtil {
+
+    private final MqttTestClient mqttClient;
+    private final String thingId;
+    private final String observationId;
+
+    public ITMqttPropertySubscription(@Value("${server.rootUrl}") String rootUrl) throws Exception {
+        super(rootUrl);
+        mqttClient = new MqttTestClient("ITMqttPropertySubscription");
+
+        // Create required test harness
+        String datastreamId = postMeasurementDatastream("property1",
+                                                        new Object[] {"2020-01-01T00:00:00Z", 1},
+                                                        new Object[] {"2020-01-01T01:00:00Z", 2});
+        thingId = getEntity("Datastreams(" + datastreamId + ")/Thing").get(idKey).asText();
+        observationId = getObservationIds(datastreamId).get(0);
+    }
+
+    @AfterEach
+    public void disconnectClient() throws Exception {
+        mqttClient.close();
+    }
+
+    @Test
+    public void testThingPropertyPatch() throws Exception {
+        String name = "Things(" + thingId + ")/name";
+        String description = "Things(" + thingId + ")/description";
+        String properties = "Things(" + thingId + ")/properties";
+        mqttClient.subscribe(name, description, properties);
+
+        assertPatchNotifies(EntityType.THING, thingId, "{\"name\":\"patched name\"}", name, "name");
+        assertPatchNotifies(EntityType.THING,
+                            thingId,
+                            "{\"properties\":{\"key\":\"value\"}}",
+                            properties,
+                            "properties");
+        assertPatchNotifies(EntityType.THING,
+                            thingId,
+                            "{\"description\":\"patched description\"}",
+                            description,
+                            "description");
+
+        // Unchanged values do not notify
+        patchEntity(EntityType.THING, "{\"name\":\"patched name\"}", thingId);
+        mqttClient.assertNoMessage();
+    }
+
+    @Test
+    public void testObservationPropertyPatch() throws Exception {
+        String result = "Observations(" + observationId + ")/result";
+        String phenomenonTime = "Observations(" + observationId + ")/phenomenonTime";
+        String parameters = "Observations(" + observationId + ")/parameters";
+        mqttClient.subscribe(result, phenomenonTime, parameters);
+
+        // Parameters are saved separately before the Observation
+        assertPatchNotifies(EntityType.OBSERVATION,
+                            observationId,
+                            "{\"parameters\":{\"key\":\"value\"}}",
+                            parameters,
+                            "parameters");
+        assertPatchNotifies(EntityType.OBSERVATION, observationId, "{\"result\":52}", result, "result");
+        // Changes of phenomenonTime update the extents of the Datastream before the Observation is saved
+        assertPatchNotifies(EntityType.OBSERVATION,
+                            observationId,
+                            "{\"phenomenonTime\":\"2019-12-31T00:00:00Z\"}",
+                            phenomenonTime,
+                            "phenomenonTime");
+    }
+
+    /**
+     * Patches the given entity and asserts that exactly the Subscription on the given property is notified with the
+     * updated value.
+     */
+    private void assertPatchNotifies(EntityType type, String id, String patch, String topic, String property)
+        throws Exception {
+        JsonNode updated = patchEntity(type, patch, id);
+        MqttTestClient.Message message = mqttClient.next();
+        Assertions.assertEquals(topic, message.topic);
+        Assertions.assertEquals(updated.get(property), mapper.readTree(message.payload).get(property));
+        mqttClient.assertNoMessage();
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Checks that MQTT Subscriptions on related collections are notified based on the collections derived from the
+ * saved Entity, e.g. the Datastream and FeatureOfInterest of an Observation.
+ *
+ * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT)
+@Testcontainers
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class ITMqttRelatedCollections extends ConformanceTests implements TestUtil {
+
+    private final MqttTestClient mqttClient;
+    private final String datastreamId;
+    private final String otherDatastreamId;
+    private final String featureId;
+    private final String observedPropertyId;
+
+    public ITMqttRelatedCollections(@Value("${server.rootUrl}") String rootUrl) throws Exception {
+        super(rootUrl);
+        mqttClient = new MqttTestClient("ITMqttRelatedCollections");
+
+        // Create required test harness
+        datastreamId = postMeasurementDatastream("related1", new Object[] {"2020-01-01T00:00:00Z", 1});
+        otherDatastreamId = postMeasurementDatastream("related2", new Object[] {"2020-01-01T00:00:00Z", 2});
+        featureId = getEntity("Observations(" + getObservationIds(datastreamId).get(0) + ")/FeatureOfInterest")
+            .get(idKey).asText();
+        observedPropertyId = getEntity("Datastreams(" + datastreamId + ")/ObservedProperty").get(idKey).asText();
+    }
+
+    @AfterEach
+    public void disconnectClient() throws Exception {
+        mqttClient.close();
+    }
+
+    @Test
+    public void testObservationRelatedCollections() throws Exception {
+        String datastream = "Datastreams(" + datastreamId + ")/Observations";
+        String feature = "FeaturesOfInterest(" + featureId + ")/Observations";
+        String otherDatastream = "Datastreams(" + otherDatastreamId + ")/Observations";
+        mqttClient.subscribe(datastream, feature, otherDatastream);
+
+        JsonNode created = postEntity(EntityType.OBSERVATION,
+                                      "{ \"phenomenonTime\": \"2020-01-02T00:00:00Z\", \"result\": 52, "
+                                          + "\"Datastream\": { \"@iot.id\": \"" + datastreamId + "\" } }");
+
+        List<MqttTestClient.Message> messages = mqttClient.next(2);
+        Set<String> topics = new HashSet<>();
+        for (MqttTestClient.Message message : messages) {
+            topics.add(message.topic);
+            Assertions.assertEquals(created.get(idKey), mapper.readTree(message.payload).get(idKey));
+        }
+        Assertions.assertEquals(new HashSet<>(Arrays.asList(datastream, feature)), topics);
+        mqttClient.assertNoMessage();
+    }
+
+    @Test
+    public void testObservationOfOtherDatastream() throws Exception {
+        String datastream = "Datastreams(" + datastreamId + ")/Observations";
+        String otherDatastream = "Datastreams(" + otherDatastreamId + ")/Observations";
+        mqttClient.subscribe(datastream, otherDatastream);
+
+        JsonNode created = postEntity(EntityType.OBSERVATION,
+                                      "{ \"phenomenonTime\": \"2020-01-02T00:00:00Z\", \"result\": 52, "
+                                          + "\"Datastream\": { \"@iot.id\": \"" + otherDatastreamId + "\" } }");
+
+        MqttTestClient.Message message = mqttClient.next();
+        Assertions.assertEquals(otherDatastream, message.topic);
+        Assertions.assertEquals(created.get(idKey), mapper.readTree(message.payload).get(idKey));
+        mqttClient.assertNoMessage();
+    }
+
+    @Test
+    public void testObservedPropertyUpdate() throws Exception {
+        mqttClient.subscribe(OBSERVEDPROPERTIES);
+
+        // Related Datastreams are queried by identifier only
+        JsonNode updated = patchEntity(EntityType.OBSERVED_PROPERTY, "{\"name\":\"patched name\"}", observedPropertyId);
+
+        MqttTestClient.Message message = mqttClient.next();
+        Assertions.assertEquals(OBSERVEDPROPERTIES, message.topic);
+        Assertions.assertEquals(updated.get("name"), mapper.readTree(message.payload).get("name"));
+        mqttClient.assertNoMessage();
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.joda.time.DateTime;
+import org.joda.time.format.ISODateTimeFormat;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks aggregation of Observations via /Datastreams(x)/Observations/$aggregate against the raw Observations,
+ * including the maximum number of buckets (server.feature.maxAggregationBuckets).
+ *
+ * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT,
+    properties = "server.feature.maxAggregationBuckets=24")
+@Testcontainers
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class ITObservationAggregation extends ConformanceTests implements TestUtil {
+
+    private final String aggregateUrl;
+
+    public ITObservationAggregation(@Value("${server.rootUrl}") String rootUrl) throws Exception {
+        super(rootUrl);
+
+        // Create required test harness
+        String datastreamId = postMeasurementDatastream("aggregation1",
+                                                        new Object[] {"2020-01-01T00:10:00Z", 1},
+                                                        new Object[] {"2020-01-01T00:20:00Z", 3},
+                                                        new Object[] {"2020-01-01T00:50:00Z", 2},
+                                                        new Object[] {"2020-01-01T01:30:00Z", 10},
+                                                        new Object[] {"2020-01-01T03:00:00Z", 5},
+                                                        new Object[] {"2020-01-01T03:45:00Z", 7});
+        // Observations of other Datastreams must not be aggregated
+        postMeasurementDatastream("aggregation2",
+                                  new Object[] {"2020-01-01T00:15:00Z", 100},
+                                  new Object[] {"2020-01-01T02:15:00Z", 200});
+        aggregateUrl = rootUrl + "Datastreams(" + datastreamId + ")/Observations/$aggregate";
+    }
+
+    @Test
+    public void testAggregateAllFunctions() throws IOException {
+        JsonNode aggregation = getJson(aggregateUrl, "$interval=PT1H");
+        Assertions.assertEquals("PT1H", aggregation.get("interval").asText());
+        assertComponents(aggregation, "phenomenonTime", "count", "min", "max", "avg", "first", "last");
+
+        // Buckets without Observations are omitted
+        Assertions.assertEquals(3, aggregation.get("dataArray@iot.count").asInt());
+        JsonNode buckets = aggregation.get("dataArray");
+        assertBucket(buckets.get(0), "2020-01-01T00:00:00Z", 3, 1, 3, 2, 1, 2);
+        assertBucket(buckets.get(1), "2020-01-01T01:00:00Z", 1, 10, 10, 10, 10, 10);
+        assertBucket(buckets.get(2), "2020-01-01T03:00:00Z", 2, 5, 7, 6, 5, 7);
+    }
+
+    @Test
+    public void testAggregateSelectedFunctionsWithFilter() throws IOException {
+        JsonNode aggregation = getJson(aggregateUrl, "$interval=PT2H", "$functions=max,count", "$filter=result lt 10");
+        assertComponents(aggregation, "phenomenonTime", "max", "count");
+
+        JsonNode buckets = aggregation.get("dataArray");
+        Assertions.assertEquals(2, buckets.size());
+        assertBucket(buckets.get(0), "2020-01-01T00:00:00Z", 3, 3);
+        assertBucket(buckets.get(1), "2020-01-01T02:00:00Z", 7, 2);
+    }
+
+    @Test
+    public void testTooManyBucketsAreRejected() throws IOException {
+        // 00:10 to 03:45 are 216 buckets of one minute
+        Assertions.assertEquals(400, get(aggregateUrl, "$interval=PT1M").getStatusLine().getStatusCode());
+
+        // Restricting phenomenonTime reduces the number of buckets
+        JsonNode aggregation = getJson(aggregateUrl,
+                                       "$interval=PT1M",
+                                       "$functions=count",
+                                       "$filter=phenomenonTime le 2020-01-01T00:20:00Z");
+        JsonNode buckets = aggregation.get("dataArray");
+        Assertions.assertEquals(2, buckets.size());
+        assertBucket(buckets.get(0), "2020-01-01T00:10:00Z", 1);
+        assertBucket(buckets.get(1), "2020-01-01T00:20:00Z", 1);
+
+        aggregation = getJson(aggregateUrl, "$interval=PT10M", "$functions=count");
+        Assertions.assertEquals(6, aggregation.get("dataArray").size());
+    }
+
+    @Test
+    public void testInvalidAggregationIsRejected() throws IOException {
+        Assertions.assertEquals(400, get(aggregateUrl).getStatusLine().getStatusCode());
+        Assertions.assertEquals(400, get(aggregateUrl, "$interval=PT0.5S").getStatusLine().getStatusCode());
+        Assertions.assertEquals(400, get(aggregateUrl, "$interval=hourly").getStatusLine().getStatusCode());
+        Assertions.assertEquals(400,
+                                get(aggregateUrl, "$interval=PT1H", "$functions=median")
+                                    .getStatusLine()
+                                    .getStatusCode());
+    }
+
+    private void assertComponents(JsonNode aggregation, String... expected) {
+        List<String> components = Arrays.asList(mapper.convertValue(aggregation.get("components"), String[].class));
+        Assertions.assertEquals(Arrays.asList(expected), components);
+    }
+
+    private void assertBucket(JsonNode bucket, String start, double... values) {
+        DateTime expectedStart = ISODateTimeFormat.dateTimeParser().parseDateTime(start);
+        DateTime actualStart = ISODateTimeFormat.dateTimeParser().parseDateTime(bucket.get(0).asText().split("/")[0]);
+        Assertions.assertEquals(expectedStart.getMillis(), actualStart.getMillis(), "Wrong bucket: " + bucket);
+        Assertions.assertEquals(values.length + 1, bucket.size(), "Wrong number of values: " + bucket);
+        for (int i = 0; i < values.length; i++) {
+            Assertions.assertEquals(values[i], bucket.get(i + 1).asDouble(), 1e-9, "Wrong value in bucket: " + bucket);
+        }
+    }
+}
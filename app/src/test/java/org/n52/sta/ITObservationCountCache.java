@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.IOException;
+
+/**
+ * Checks that cached Observation counts are kept separately per $filter as given in the request.
+ *
+ * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT,
+    properties = "server.feature.observationCount=cached")
+@Testcontainers
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class ITObservationCountCache extends ConformanceTests implements TestUtil {
+
+    private final String datastreamId;
+
+    public ITObservationCountCache(@Value("${server.rootUrl}") String rootUrl) throws Exception {
+        super(rootUrl);
+
+        // Create required test harness
+        datastreamId = postMeasurementDatastream("count",
+                                                 new Object[] {"2020-01-01T00:00:00Z", 1},
+                                                 new Object[] {"2020-01-01T01:00:00Z", 2},
+                                                 new Object[] {"2020-01-01T02:00:00Z", 3},
+                                                 new Object[] {"2020-01-01T03:00:00Z", 4},
+                                                 new Object[] {"2020-01-01T04:00:00Z", 5});
+    }
+
+    @Test
+    public void testCountPerFilter() throws IOException {
+        String observations = rootUrl + OBSERVATIONS;
+        String related = rootUrl + DATASTREAMS + "(" + datastreamId + ")/" + OBSERVATIONS;
+        assertCount(5, observations, null);
+        assertCount(3, observations, "result gt 2");
+        assertCount(2, observations, "result lt 3");
+        assertCount(1, observations, "result eq 1");
+        assertCount(1, observations, "result eq 5");
+        assertCount(4, observations, "result ge 2 and result le 5");
+        assertCount(2, observations, "result ge 2 and result le 3");
+        assertCount(5, related, null);
+        assertCount(3, related, "result gt 2");
+        assertCount(2, related, "result lt 3");
+    }
+
+    @Test
+    public void testCountIsCached() throws IOException {
+        String observations = rootUrl + OBSERVATIONS;
+        assertCount(3, observations, "result gt 2");
+        postEntity(EntityType.OBSERVATION,
+                   "{ \"phenomenonTime\": \"2020-01-01T05:00:00Z\", \"result\": 6, "
+                       + "\"Datastream\": { \"@iot.id\": \"" + datastreamId + "\" } }");
+
+        // Same filter is answered from the cache
+        assertCount(3, observations, "result gt 2");
+        // Equivalent filter with a different representation is counted again
+        assertCount(4, observations, "result gt 2.0");
+    }
+
+    private void assertCount(int expected, String url, String filter) throws IOException {
+        // $top=1 so that the count can not be derived from the page
+        JsonNode page = filter != null
+            ? getJson(url, "$top=1", "$filter=" + filter)
+            : getJson(url, "$top=1");
+        Assertions.assertEquals(expected,
+                                page.get(countKey).asInt(),
+                                "Wrong count for $filter=" + filter + " on " + url);
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.ipc.ArrowStreamReader;
+import org.apache.arrow.vector.types.FloatingPointPrecision;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.ContentType;
+import org.apache.http.util.EntityUtils;
+import org.joda.time.format.ISODateTimeFormat;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks Observations exported via /Datastreams(x)/Observations/$export in Arrow IPC streaming format and as CSV
+ * against the Observations of the Datastream.
+ *
+ * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT)
+@Testcontainers
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class ITObservationExport extends ConformanceTests implements TestUtil {
+
+    private static final String CSV_HEADER = "id,phenomenonTimeStart,phenomenonTimeEnd,resultTime,result";
+    private static final String[] TIMES = new String[] {
+        "2020-01-01T00:00:00Z",
+        "2020-01-01T01:00:00Z",
+        "2020-01-01T02:00:00Z",
+        "2020-01-01T03:00:00Z"
+    };
+    private static final double[] RESULTS = new double[] {1.5, 2, -3, 4.25};
+
+    private final String datastreamId;
+    private final String exportUrl;
+
+    public ITObservationExport(@Value("${server.rootUrl}") String rootUrl) throws Exception {
+        super(rootUrl);
+
+        // Create required test harness
+        // Observations are inserted out of order as they are exported ordered by phenomenonTime
+        datastreamId = postMeasurementDatastream("export1",
+                                                 new Object[] {TIMES[2], RESULTS[2]},
+                                                 new Object[] {TIMES[0], RESULTS[0]},
+                                                 new Object[] {TIMES[3], RESULTS[3]},
+                                                 new Object[] {TIMES[1], RESULTS[1]});
+        // Observations of other Datastreams must not be exported
+        postMeasurementDatastream("export2", new Object[] {TIMES[0], 100});
+        exportUrl = rootUrl + "Datastreams(" + datastreamId + ")/Observations/$export";
+    }
+
+    @Test
+    public void testExportArrow() throws IOException {
+        HttpResponse response = get(exportUrl);
+        Assertions.assertEquals(200, response.getStatusLine().getStatusCode());
+        Assertions.assertEquals("application/vnd.apache.arrow.stream",
+                                ContentType.getOrDefault(response.getEntity()).getMimeType());
+
+        List<String> ids = new ArrayList<>();
+        List<Long> starts = new ArrayList<>();
+        List<Long> ends = new ArrayList<>();
+        List<Double> results = new ArrayList<>();
+        try (BufferAllocator allocator = new RootAllocator(Long.MAX_VALUE);
+             ArrowStreamReader reader = new ArrowStreamReader(response.getEntity().getContent(), allocator)) {
+            VectorSchemaRoot root = reader.getVectorSchemaRoot();
+            List<String> fields = new ArrayList<>();
+            for (Field field : root.getSchema().getFields()) {
+                fields.add(field.getName());
+            }
+            Assertions.assertEquals(Arrays.asList(CSV_HEADER.split(",")), fields);
+            // Result is typed by the observationType of the Datastream
+            Assertions.assertEquals(new ArrowType.FloatingPoint(FloatingPointPrecision.DOUBLE),
+                                    root.getSchema().findField("result").getType());
+
+            while (reader.loadNextBatch()) {
+                for (int i = 0; i < root.getRowCount(); i++) {
+                    ids.add(root.getVector("id").getObject(i).toString());
+                    starts.add(((Number) root.getVector("phenomenonTimeStart").getObject(i)).longValue());
+                    ends.add(((Number) root.getVector("phenomenonTimeEnd").getObject(i)).longValue());
+                    results.add(((Number) root.getVector("result").getObject(i)).doubleValue());
+                }
+            }
+        }
+
+        Assertions.assertEquals(getObservationIds(datastreamId), ids);
+        for (int i = 0; i < TIMES.length; i++) {
+            long expected = ISODateTimeFormat.dateTimeParser().parseDateTime(TIMES[i]).getMillis();
+            Assertions.assertEquals(expected, starts.get(i).longValue());
+            Assertions.assertEquals(expected, ends.get(i).longValue());
+            Assertions.assertEquals(RESULTS[i], results.get(i), 1e-9);
+        }
+    }
+
+    @Test
+    public void testExportCsv() throws IOException {
+        List<String[]> rows = getCsv("$resultFormat=csv");
+        Assertions.assertEquals(TIMES.length, rows.size());
+
+        List<String> ids = getObservationIds(datastreamId);
+        for (int i = 0; i < TIMES.length; i++) {
+            String[] row = rows.get(i);
+            long expected = ISODateTimeFormat.dateTimeParser().parseDateTime(TIMES[i]).getMillis();
+            Assertions.assertEquals(ids.get(i), row[0]);
+            Assertions.assertEquals(expected, ISODateTimeFormat.dateTimeParser().parseDateTime(row[1]).getMillis());
+            Assertions.assertEquals(expected, ISODateTimeFormat.dateTimeParser().parseDateTime(row[2]).getMillis());
+            Assertions.assertEquals(RESULTS[i], Double.parseDouble(row[4]), 1e-9);
+        }
+    }
+
+    @Test
+    public void testExportWithFilter() throws IOException {
+        List<String[]> rows = getCsv("$resultFormat=csv", "$filter=phenomenonTime ge " + TIMES[2]);
+        Assertions.assertEquals(2, rows.size());
+        List<String> ids = getObservationIds(datastreamId);
+        Assertions.assertEquals(ids.get(2), rows.get(0)[0]);
+        Assertions.assertEquals(ids.get(3), rows.get(1)[0]);
+
+        rows = getCsv("$resultFormat=csv", "$filter=result gt 100");
+        Assertions.assertTrue(rows.isEmpty());
+    }
+
+    @Test
+    public void testInvalidExportIsRejected() throws IOException {
+        Assertions.assertEquals(400, get(exportUrl, "$resultFormat=xml").getStatusLine().getStatusCode());
+        Assertions.assertEquals(404,
+                                get(rootUrl + "Datastreams(unknown)/Observations/$export")
+                                    .getStatusLine()
+                                    .getStatusCode());
+        Assertions.assertEquals(400, get(exportUrl, "$select=result").getStatusLine().getStatusCode());
+        Assertions.assertEquals(400, get(exportUrl, "$orderby=result").getStatusLine().getStatusCode());
+        Assertions.assertEquals(400, get(exportUrl, "$expand=Datastream").getStatusLine().getStatusCode());
+    }
+
+    @Test
+    public void testErrorIsNotWrittenAsExport() throws IOException {
+        // Invalid filters are reported as regular error instead of being written into an export
+        HttpResponse response = get(exportUrl, "$resultFormat=csv", "$filter=unknownProperty eq 1");
+        Assertions.assertNotEquals(200, response.getStatusLine().getStatusCode());
+        Assertions.assertEquals(jsonMimeType, ContentType.getOrDefault(response.getEntity()).getMimeType());
+    }
+
+    /**
+     * Exports the Observations as CSV.
+     *
+     * @param options query options of the request
+     * @return rows without header
+     */
+    private List<String[]> getCsv(String... options) throws IOException {
+        HttpResponse response = get(exportUrl, options);
+        Assertions.assertEquals(200, response.getStatusLine().getStatusCode());
+        Assertions.assertEquals("text/csv", ContentType.getOrDefault(response.getEntity()).getMimeType());
+
+        String[] lines = EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8).split("\r\n");
+        Assertions.assertEquals(CSV_HEADER, lines[0]);
+        List<String[]> rows = new ArrayList<>();
+        for (int i = 1; i < lines.length; i++) {
+            // Trailing empty resultTime is kept
+            rows.add(lines[i].split(",", -1));
+        }
+        return rows;
+    }
+}
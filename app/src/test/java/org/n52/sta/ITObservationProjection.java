@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Checks Observations projected via $select against the full Observations.
+ *
+ * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT)
+@Testcontainers
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class ITObservationProjection extends ConformanceTests implements TestUtil {
+
+    private final String datastreamId;
+
+    public ITObservationProjection(@Value("${server.rootUrl}") String rootUrl) throws Exception {
+        super(rootUrl);
+
+        // Create required test harness
+        datastreamId = postMeasurementDatastream("projection1",
+                                                 new Object[] {"2020-01-01T00:00:00Z", 1.5},
+                                                 new Object[] {"2020-01-01T01:00:00Z", 2},
+                                                 new Object[] {"2020-01-01T02:00:00Z", -3.25});
+        postMeasurementDatastream("projection2",
+                                  new Object[] {"2020-01-01T00:30:00Z", 4},
+                                  new Object[] {"2020-01-01T01:30:00Z", 5});
+    }
+
+    @Test
+    public void testSelectProjection() throws IOException {
+        Map<String, JsonNode> full = getObservationsById();
+        JsonNode selected = getJson(rootUrl + OBSERVATIONS, "$select=id,result,phenomenonTime");
+        assertResponseCount(selected, 5);
+        for (JsonNode observation : selected.get(value)) {
+            assertFields(observation, idKey, "result", "phenomenonTime");
+            JsonNode reference = full.get(observation.get(idKey).asText());
+            Assertions.assertEquals(reference.get("result"), observation.get("result"));
+            Assertions.assertEquals(reference.get("phenomenonTime"), observation.get("phenomenonTime"));
+        }
+
+        selected = getJson(rootUrl + OBSERVATIONS, "$select=resultTime,validTime");
+        assertResponseCount(selected, 5);
+        for (JsonNode observation : selected.get(value)) {
+            assertFields(observation, "resultTime", "validTime");
+        }
+    }
+
+    @Test
+    public void testSelectProjectionPaging() throws IOException {
+        List<JsonNode> pages = getAllPages(rootUrl + "Datastreams(" + datastreamId + ")/Observations",
+                                           "$select=result",
+                                           "$top=2",
+                                           "$orderby=phenomenonTime desc");
+        Assertions.assertEquals(2, pages.size());
+        List<Double> results = new ArrayList<>();
+        for (JsonNode page : pages) {
+            Assertions.assertEquals(3, page.get(countKey).asInt());
+            for (JsonNode observation : page.get(value)) {
+                assertFields(observation, "result");
+                results.add(observation.get("result").asDouble());
+            }
+        }
+        Assertions.assertEquals(Arrays.asList(-3.25, 2.0, 1.5), results);
+    }
+
+    private Map<String, JsonNode> getObservationsById() throws IOException {
+        Map<String, JsonNode> observations = new HashMap<>();
+        for (JsonNode observation : getJson(rootUrl + OBSERVATIONS).get(value)) {
+            observations.put(observation.get(idKey).asText(), observation);
+        }
+        return observations;
+    }
+
+    private void assertFields(JsonNode observation, String... expected) {
+        Set<String> fields = new HashSet<>();
+        for (Iterator<String> it = observation.fieldNames(); it.hasNext(); ) {
+            fields.add(it.next());
+        }
+        Assertions.assertEquals(new HashSet<>(Arrays.asList(expected)), fields, "Wrong fields: " + observation);
+    }
+}
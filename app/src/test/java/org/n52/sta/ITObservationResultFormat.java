@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Checks Observations returned in dataArray result format ($resultFormat=dataArray) against the full Observations.
+ *
+ * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT)
+@Testcontainers
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class ITObservationResultFormat extends ConformanceTests implements TestUtil {
+
+    private static final String DATA_ARRAY = "$resultFormat=dataArray";
+
+    private final String datastreamId;
+    private final String otherDatastreamId;
+
+    public ITObservationResultFormat(@Value("${server.rootUrl}") String rootUrl) throws Exception {
+        super(rootUrl);
+
+        // Create required test harness
+        datastreamId = postMeasurementDatastream("format1",
+                                                 new Object[] {"2020-01-01T00:00:00Z", 1.5},
+                                                 new Object[] {"2020-01-01T01:00:00Z", 2},
+                                                 new Object[] {"2020-01-01T02:00:00Z", -3.25});
+        otherDatastreamId = postMeasurementDatastream("format2",
+                                                      new Object[] {"2020-01-01T00:30:00Z", 4},
+                                                      new Object[] {"2020-01-01T01:30:00Z", 5});
+    }
+
+    @Test
+    public void testDataArray() throws IOException {
+        JsonNode response = getJson(rootUrl + OBSERVATIONS, DATA_ARRAY);
+        Assertions.assertEquals(5, response.get(countKey).asInt());
+        Assertions.assertFalse(response.has(nextLinkKey));
+
+        // Observations are grouped by Datastream
+        JsonNode groups = response.get(value);
+        Assertions.assertEquals(2, groups.size());
+        Map<String, JsonNode> full = getObservationsById();
+        Set<String> datastreams = new HashSet<>();
+        for (JsonNode group : groups) {
+            String navigationLink = group.get("Datastream@iot.navigationLink").asText();
+            datastreams.add(navigationLink.substring(navigationLink.lastIndexOf('(') + 1,
+                                                     navigationLink.lastIndexOf(')')));
+            assertComponents(group, "id", "phenomenonTime", "result");
+            Assertions.assertEquals(group.get("dataArray").size(), group.get("dataArray@iot.count").asInt());
+
+            for (JsonNode row : group.get("dataArray")) {
+                JsonNode observation = full.remove(row.get(0).asText());
+                Assertions.assertNotNull(observation, "Unknown or duplicate Observation: " + row);
+                compareJsonNodesTime("phenomenonTime", observation.get("phenomenonTime"), row.get(1));
+                compareJsonNodesNumeric("result", observation.get("result"), row.get(2));
+            }
+        }
+        Assertions.assertEquals(new HashSet<>(Arrays.asList(datastreamId, otherDatastreamId)), datastreams);
+        Assertions.assertTrue(full.isEmpty(), "Observations missing in dataArray: " + full.keySet());
+    }
+
+    @Test
+    public void testDataArrayWithSelect() throws IOException {
+        JsonNode response = getJson(rootUrl + "Datastreams(" + datastreamId + ")/Observations",
+                                    DATA_ARRAY,
+                                    "$select=result,id",
+                                    "$orderby=phenomenonTime");
+        JsonNode groups = response.get(value);
+        Assertions.assertEquals(1, groups.size());
+        assertComponents(groups.get(0), "result", "id");
+
+        List<String> ids = getObservationIds(datastreamId);
+        JsonNode rows = groups.get(0).get("dataArray");
+        Assertions.assertEquals(3, rows.size());
+        double[] results = new double[] {1.5, 2, -3.25};
+        for (int i = 0; i < rows.size(); i++) {
+            Assertions.assertEquals(2, rows.get(i).size());
+            Assertions.assertEquals(results[i], rows.get(i).get(0).asDouble(), 1e-9);
+            Assertions.assertEquals(ids.get(i), rows.get(i).get(1).asText());
+        }
+    }
+
+    @Test
+    public void testDataArrayPaging() throws IOException {
+        List<JsonNode> pages = getAllPages(rootUrl + OBSERVATIONS, DATA_ARRAY, "$top=2", "$orderby=phenomenonTime");
+        Assertions.assertEquals(3, pages.size());
+        List<String> ids = new ArrayList<>();
+        for (JsonNode page : pages) {
+            for (JsonNode group : page.get(value)) {
+                group.get("dataArray").forEach(row -> ids.add(row.get(0).asText()));
+            }
+        }
+        Assertions.assertEquals(5, ids.size());
+        Assertions.assertEquals(5, new HashSet<>(ids).size(), "Observations returned twice: " + ids);
+    }
+
+    @Test
+    public void testInvalidDataArrayIsRejected() throws IOException {
+        Assertions.assertEquals(400, get(rootUrl + DATASTREAMS, DATA_ARRAY).getStatusLine().getStatusCode());
+        Assertions.assertEquals(400,
+                                get(rootUrl + OBSERVATIONS, DATA_ARRAY, "$select=parameters")
+                                    .getStatusLine()
+                                    .getStatusCode());
+        Assertions.assertEquals(400,
+                                get(rootUrl + OBSERVATIONS, "$resultFormat=unknown")
+                                    .getStatusLine()
+                                    .getStatusCode());
+    }
+
+    @Test
+    public void testDataArrayOnEntityIsRejected() throws IOException {
+        String observationId = getObservationIds(datastreamId).get(0);
+        Assertions.assertEquals(400,
+                                get(rootUrl + OBSERVATIONS + "(" + observationId + ")", DATA_ARRAY)
+                                    .getStatusLine()
+                                    .getStatusCode());
+        Assertions.assertEquals(400,
+                                get(rootUrl + OBSERVATIONS + "(" + observationId + ")/" + DATASTREAM, DATA_ARRAY)
+                                    .getStatusLine()
+                                    .getStatusCode());
+        Assertions.assertEquals(200,
+                                get(rootUrl + OBSERVATIONS + "(" + observationId + ")")
+                                    .getStatusLine()
+                                    .getStatusCode());
+    }
+
+    private Map<String, JsonNode> getObservationsById() throws IOException {
+        Map<String, JsonNode> observations = new HashMap<>();
+        for (JsonNode observation : getJson(rootUrl + OBSERVATIONS).get(value)) {
+            observations.put(observation.get(idKey).asText(), observation);
+        }
+        return observations;
+    }
+
+    private void assertComponents(JsonNode group, String... expected) {
+        List<String> components = new ArrayList<>();
+        group.get("components").forEach(component -> components.add(component.asText()));
+        Assertions.assertEquals(Arrays.asList(expected), components);
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.n52.sta.data.service.ObservationRollupService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.test.annotation.DirtiesContext;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Checks that aggregations answered from Observation rollups (server.feature.observationRollups) are equal to
+ * aggregations of the raw Observations, both for rollups computed from existing Observations and for rollups
+ * maintained on insert, update and delete.
+ * <p>
+ * The rollup tables reference the dataset table created by Hibernate, so they are created after startup and the
+ * rollups are initialized again afterwards.
+ *
+ * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT,
+    properties = "server.feature.observationRollups=PT1H")
+@Testcontainers
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class ITObservationRollups extends ConformanceTests implements TestUtil {
+
+    private static final String ROLLUP_SCRIPT = "../etc/sql/sta_observation_rollup.sql";
+    private static final String DROP_ROLLUP_TABLES =
+        "DROP TABLE IF EXISTS sta_observation_rollup, sta_observation_rollup_state";
+    private static final long ROLLUP_TIMEOUT = 30000;
+
+    private final JdbcTemplate jdbc;
+    private final String datastreamId;
+    private final String aggregateUrl;
+
+    public ITObservationRollups(@Value("${server.rootUrl}") String rootUrl,
+                                @Autowired ObservationRollupService rollups,
+                                @Autowired DataSource dataSource) throws Exception {
+        super(rootUrl);
+        jdbc = new JdbcTemplate(dataSource);
+        jdbc.execute(DROP_ROLLUP_TABLES);
+        new ResourceDatabasePopulator(new FileSystemResource(ROLLUP_SCRIPT)).execute(dataSource);
+
+        // Create required test harness
+        datastreamId = postMeasurementDatastream("rollup1",
+                                                 new Object[] {"2020-01-01T00:10:00Z", 1},
+                                                 new Object[] {"2020-01-01T00:20:00Z", 3},
+                                                 new Object[] {"2020-01-01T00:50:00Z", 2},
+                                                 new Object[] {"2020-01-01T01:30:00Z", 10},
+                                                 new Object[] {"2020-01-01T03:00:00Z", 5},
+                                                 new Object[] {"2020-01-01T03:45:00Z", 7},
+                                                 new Object[] {"2020-01-02T12:00:00Z", 4});
+        postMeasurementDatastream("rollup2",
+                                  new Object[] {"2020-01-01T00:15:00Z", 100},
+                                  new Object[] {"2020-01-01T02:15:00Z", 200});
+        aggregateUrl = rootUrl + "Datastreams(" + datastreamId + ")/Observations/$aggregate";
+
+        // Rollups of existing Observations are computed in the background
+        rollups.init();
+        long deadline = System.currentTimeMillis() + ROLLUP_TIMEOUT;
+        while (!rollups.supports(Duration.ofHours(1))) {
+            Assertions.assertTrue(System.currentTimeMillis() < deadline, "Rollups were not computed in time");
+            Thread.sleep(100);
+        }
+    }
+
+    @AfterEach
+    public void dropRollupTables() {
+        jdbc.execute(DROP_ROLLUP_TABLES);
+    }
+
+    @Test
+    public void testRollupsMatchRawObservations() throws IOException {
+        Assertions.assertTrue(jdbc.queryForObject("SELECT COUNT(*) FROM sta_observation_rollup", Long.class) > 0);
+
+        Assertions.assertEquals(4, assertRollupsMatchRaw("PT1H"));
+        Assertions.assertEquals(3, assertRollupsMatchRaw("PT3H"));
+        Assertions.assertEquals(2, assertRollupsMatchRaw("P1D"));
+    }
+
+    @Test
+    public void testRollupsAreMaintained() throws IOException {
+        // New first Observation of an existing bucket and Observation in a new bucket
+        postEntity(EntityType.OBSERVATION, "{ \"phenomenonTime\": \"2020-01-01T00:05:00Z\", \"result\": 4, "
+            + "\"Datastream\": { \"@iot.id\": \"" + datastreamId + "\" } }");
+        postEntity(EntityType.OBSERVATION, "{ \"phenomenonTime\": \"2020-01-01T05:10:00Z\", \"result\": 8, "
+            + "\"Datastream\": { \"@iot.id\": \"" + datastreamId + "\" } }");
+
+        // ids ordered by phenomenonTime: 00:05, 00:10, 00:20, 00:50, 01:30, 03:00, 03:45, 05:10, 12:00 (next day)
+        List<String> ids = getObservationIds(datastreamId);
+        Assertions.assertEquals(9, ids.size());
+
+        // Moves the only Observation of a bucket into another bucket
+        patchEntity(EntityType.OBSERVATION,
+                    "{ \"phenomenonTime\": \"2020-01-01T02:30:00Z\", \"result\": 12 }",
+                    ids.get(4));
+        // Changes the last Observation of a bucket
+        patchEntity(EntityType.OBSERVATION, "{ \"result\": 6 }", ids.get(3));
+        // Deletes the first Observation of a bucket
+        deleteEntity(EntityType.OBSERVATION, ids.get(5), false);
+
+        Assertions.assertEquals(5, assertRollupsMatchRaw("PT1H"));
+        Assertions.assertEquals(3, assertRollupsMatchRaw("PT3H"));
+        Assertions.assertEquals(2, assertRollupsMatchRaw("P1D"));
+    }
+
+    /**
+     * Compares the aggregation computed from rollups with the aggregation computed from the raw Observations.
+     *
+     * @param interval requested bucket length
+     * @return number of buckets
+     */
+    private int assertRollupsMatchRaw(String interval) throws IOException {
+        JsonNode rollup = getJson(aggregateUrl, "$interval=" + interval);
+        // Rollups are not used if $filter is given
+        JsonNode raw = getJson(aggregateUrl, "$interval=" + interval, "$filter=phenomenonTime ge 1970-01-01T00:00:00Z");
+
+        Assertions.assertEquals(raw.get("components"), rollup.get("components"));
+        JsonNode rawBuckets = raw.get("dataArray");
+        JsonNode rollupBuckets = rollup.get("dataArray");
+        Assertions.assertEquals(rawBuckets.size(), rollupBuckets.size(), "Different number of buckets: " + interval);
+        for (int i = 0; i < rawBuckets.size(); i++) {
+            JsonNode expected = rawBuckets.get(i);
+            JsonNode actual = rollupBuckets.get(i);
+            String message = "Bucket of rollups " + actual + " differs from raw " + expected;
+            Assertions.assertEquals(expected.size(), actual.size(), message);
+            Assertions.assertEquals(expected.get(0).asText(), actual.get(0).asText(), message);
+            for (int j = 1; j < expected.size(); j++) {
+                Assertions.assertEquals(expected.get(j).isNull(), actual.get(j).isNull(), message);
+                Assertions.assertEquals(expected.get(j).asDouble(), actual.get(j).asDouble(), 1e-9, message);
+            }
+        }
+        return rawBuckets.size();
+    }
+}
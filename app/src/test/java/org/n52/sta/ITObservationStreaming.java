@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Checks that Observation pages streamed during serialization (server.feature.observationStreamingThreshold) contain
+ * the same Observations as pages that are loaded at once and are linked correctly.
+ *
+ * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT,
+    properties = "server.feature.observationStreamingThreshold=4")
+@Testcontainers
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class ITObservationStreaming extends ConformanceTests implements TestUtil {
+
+    private final String datastreamId;
+
+    public ITObservationStreaming(@Value("${server.rootUrl}") String rootUrl) throws Exception {
+        super(rootUrl);
+
+        // Create required test harness
+        datastreamId = postMeasurementDatastream("streaming1",
+                                                 new Object[] {"2020-01-01T00:00:00Z", 1},
+                                                 new Object[] {"2020-01-01T01:00:00Z", 2},
+                                                 new Object[] {"2020-01-01T02:00:00Z", 3},
+                                                 new Object[] {"2020-01-01T03:00:00Z", 4},
+                                                 new Object[] {"2020-01-01T04:00:00Z", 5},
+                                                 new Object[] {"2020-01-01T05:00:00Z", 6},
+                                                 new Object[] {"2020-01-01T06:00:00Z", 7});
+        postMeasurementDatastream("streaming2",
+                                  new Object[] {"2020-01-01T00:30:00Z", 8},
+                                  new Object[] {"2020-01-01T01:30:00Z", 9},
+                                  new Object[] {"2020-01-01T02:30:00Z", 10});
+    }
+
+    @Test
+    public void testStreamedPage() throws IOException {
+        JsonNode page = getJson(rootUrl + OBSERVATIONS, "$top=4", "$orderby=phenomenonTime");
+        assertResponseCount(page, 10, 4);
+
+        // nextLink is only known after all entities were written
+        Iterator<String> fields = page.fieldNames();
+        String last = null;
+        while (fields.hasNext()) {
+            last = fields.next();
+        }
+        Assertions.assertEquals(nextLinkKey, last);
+
+        // Last page has no nextLink
+        JsonNode lastPage = getJson(rootUrl + OBSERVATIONS, "$top=4", "$skip=8", "$orderby=phenomenonTime");
+        assertResponseCount(lastPage, 10, 2);
+        Assertions.assertFalse(lastPage.has(nextLinkKey));
+    }
+
+    @Test
+    public void testStreamedPagesMatchLoadedPages() throws IOException {
+        // $top below the threshold is loaded at once
+        List<JsonNode> loaded = getValues(getAllPages(rootUrl + OBSERVATIONS, "$top=3", "$orderby=phenomenonTime"));
+        List<JsonNode> streamed = getValues(getAllPages(rootUrl + OBSERVATIONS, "$top=4", "$orderby=phenomenonTime"));
+        Assertions.assertEquals(10, loaded.size());
+        Assertions.assertEquals(loaded, streamed);
+
+        String related = rootUrl + "Datastreams(" + datastreamId + ")/Observations";
+        loaded = getValues(getAllPages(related, "$top=2", "$orderby=result desc"));
+        streamed = getValues(getAllPages(related, "$top=5", "$orderby=result desc"));
+        Assertions.assertEquals(7, loaded.size());
+        Assertions.assertEquals(loaded, streamed);
+    }
+
+    @Test
+    public void testStreamedPageWithSelectAndExpand() throws IOException {
+        String related = rootUrl + "Datastreams(" + datastreamId + ")/Observations";
+        JsonNode loaded = getJson(related, "$top=3", "$orderby=phenomenonTime", "$expand=FeatureOfInterest");
+        JsonNode streamed = getJson(related, "$top=7", "$orderby=phenomenonTime", "$expand=FeatureOfInterest");
+        assertResponseCount(streamed, 7, 7);
+        for (int i = 0; i < 3; i++) {
+            Assertions.assertEquals(loaded.get(value).get(i), streamed.get(value).get(i));
+        }
+        for (JsonNode observation : streamed.get(value)) {
+            Assertions.assertTrue(observation.has(FEATUREOFINTEREST));
+        }
+
+        loaded = getJson(related, "$top=3", "$orderby=phenomenonTime", "$select=result,phenomenonTime");
+        streamed = getJson(related, "$top=7", "$orderby=phenomenonTime", "$select=result,phenomenonTime");
+        assertResponseCount(streamed, 7, 7);
+        for (int i = 0; i < 3; i++) {
+            Assertions.assertEquals(loaded.get(value).get(i), streamed.get(value).get(i));
+        }
+        for (JsonNode observation : streamed.get(value)) {
+            Assertions.assertEquals(2, observation.size());
+        }
+    }
+
+    @Test
+    public void testStreamedPageWithExpandSpanningChunks() throws IOException {
+        // Observations are streamed in chunks of 100, so related entities expanded for the first chunk are reused by
+        // the following chunks
+        Object[][] observations = new Object[250][];
+        for (int i = 0; i < observations.length; i++) {
+            observations[i] = new Object[] {"2021-01-01T00:00:" + String.format("%02d", i % 60) + "Z", i};
+        }
+        String related = rootUrl + "Datastreams(" + postMeasurementDatastream("streaming3", observations)
+            + ")/Observations";
+
+        String expand = "$expand=Datastream($expand=Thing),FeatureOfInterest";
+        JsonNode loaded = getJson(related, "$top=3", "$orderby=result", expand);
+        JsonNode streamed = getJson(related, "$top=250", "$orderby=result", expand);
+        assertResponseCount(streamed, 250, 250);
+        for (int i = 0; i < 3; i++) {
+            Assertions.assertEquals(loaded.get(value).get(i), streamed.get(value).get(i));
+        }
+        for (JsonNode observation : streamed.get(value)) {
+            Assertions.assertEquals(loaded.get(value).get(0).get(DATASTREAM), observation.get(DATASTREAM));
+            Assertions.assertTrue(observation.get(DATASTREAM).has(THING));
+            Assertions.assertTrue(observation.has(FEATUREOFINTEREST));
+        }
+    }
+
+    private List<JsonNode> getValues(List<JsonNode> pages) {
+        List<JsonNode> values = new ArrayList<>();
+        for (JsonNode page : pages) {
+            page.get(value).forEach(values::add);
+        }
+        return values;
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta;
+
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttClient;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.junit.jupiter.api.Assertions;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MQTT client collecting all messages received on its subscriptions in order of arrival.
+ *
+ * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
+ */
+class MqttTestClient implements MqttCallback, AutoCloseable {
+
+    private static final long RECEIVE_TIMEOUT = 5000L;
+    private static final long SUBSCRIBE_DELAY = 2000L;
+
+    private final MqttClient client;
+    private final BlockingQueue<Message> messages = new LinkedBlockingQueue<>();
+
+    MqttTestClient(String clientId) throws MqttException {
+        client = new MqttClient("tcp://localhost:1883", clientId, new MemoryPersistence());
+        MqttConnectOptions options = new MqttConnectOptions();
+        options.setCleanSession(true);
+        client.setCallback(this);
+        client.connect(options);
+    }
+
+    /**
+     * Subscribes to the given topics and waits for the subscriptions to be registered by the server.
+     *
+     * @param topics topics without version prefix
+     */
+    void subscribe(String... topics) throws MqttException, InterruptedException {
+        for (String topic : topics) {
+            client.subscribe(TestUtil.MQTT_TOPIC_PREFIX + topic);
+        }
+        Thread.sleep(SUBSCRIBE_DELAY);
+    }
+
+    /**
+     * @return next received message
+     */
+    Message next() throws InterruptedException {
+        Message message = messages.poll(RECEIVE_TIMEOUT, TimeUnit.MILLISECONDS);
+        Assertions.assertNotNull(message, "No Mqtt Message received!");
+        return message;
+    }
+
+    /**
+     * Waits for the given number of messages.
+     *
+     * @param count number of expected messages
+     * @return received messages in order of arrival
+     */
+    List<Message> next(int count) throws InterruptedException {
+        List<Message> result = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            result.add(next());
+        }
+        return result;
+    }
+
+    /**
+     * Collects messages until no further message is received within the timeout.
+     *
+     * @return received messages in order of arrival
+     */
+    List<Message> drain() throws InterruptedException {
+        List<Message> result = new ArrayList<>();
+        Message message = messages.poll(RECEIVE_TIMEOUT, TimeUnit.MILLISECONDS);
+        while (message != null) {
+            result.add(message);
+            message = messages.poll(RECEIVE_TIMEOUT, TimeUnit.MILLISECONDS);
+        }
+        return result;
+    }
+
+    /**
+     * Asserts that no (further) message is received within the timeout.
+     */
+    void assertNoMessage() throws InterruptedException {
+        Message message = messages.poll(RECEIVE_TIMEOUT, TimeUnit.MILLISECONDS);
+        Assertions.assertNull(message, () -> "Unexpected Mqtt Message on " + message.topic + ": " + message.payload);
+    }
+
+    @Override
+    public void connectionLost(Throwable cause) {
+    }
+
+    @Override
+    public void messageArrived(String topic, MqttMessage message) {
+        messages.add(new Message(topic.substring(TestUtil.MQTT_TOPIC_PREFIX.length()),
+                                 new String(message.getPayload(), StandardCharsets.UTF_8)));
+    }
+
+    @Override
+    public void deliveryComplete(IMqttDeliveryToken token) {
+    }
+
+    @Override
+    public void close() throws MqttException {
+        if (client.isConnected()) {
+            client.disconnect();
+        }
+        client.close();
+    }
+
+    /**
+     * Message received on a topic.
+     */
+    static final class Message {
+
+        final String topic;
+        final String payload;
+
+        private Message(String topic, String payload) {
+            this.topic = topic;
+            this.payload = payload;
+        }
+    }
+}
@@ -55,6 +55,7 @@ public interface TestUtil {
     String idKey = "@iot.id";
     String countKey = "@iot.count";
     String selfLinkKey = "@iot.selfLink";
+    String nextLinkKey = "@iot.nextLink";
     String value = "value";
     String DATASTREAMS = "Datastreams";
     String DATASTREAM = "Datastream";
@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta;
+
+import org.n52.janmayen.http.HTTPStatus;
+import org.n52.shetland.ogc.sta.exception.STACRUDException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Controls access to the Persistence Service Layer. The Persistence Layer can currently only handle as many running
+ * threads as there are database connections available, as each thread uses a seperate Transaction. Access is split
+ * into separate pools per {@link Operation}, so that e.g. slow reads can not starve inserts and vice-versa. Threads
+ * that do not get admitted within the configured timeout are rejected with HTTP 503.
+ * <p>
+ * Unless configured explicitly, the pools are sized from the database connection pool. The sum of all pools must not
+ * exceed the number of connections, which is checked on startup.
+ * <p>
+ * Admission is reentrant: Nested calls of a Thread that was already admitted do not acquire further permits, as they
+ * run inside the Transaction of the outer call.
+ *
+ * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
+ */
+@Service
+public class DaoAdmissionControl {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DaoAdmissionControl.class);
+
+    // Shares (in tenths) of the available connections used as default size of the write and ingest pools. The
+    // read pool gets the remaining connections
+    private static final int WRITE_SHARE = 3;
+    private static final int INGEST_SHARE = 2;
+
+    private final Map<Operation, AdmissionPool> pools = new EnumMap<>(Operation.class);
+    private final long timeout;
+
+    // Permit currently held by this Thread. Used for reentrancy
+    private final ThreadLocal<Permit> current = new ThreadLocal<>();
+
+    public DaoAdmissionControl(@Value("${spring.datasource.hikari.maximum-pool-size:10}") int connections,
+                               @Value("${server.admission.read:#{null}}") Integer readPermits,
+                               @Value("${server.admission.write:#{null}}") Integer writePermits,
+                               @Value("${server.admission.ingest:#{null}}") Integer ingestPermits,
+                               @Value("${server.admission.export:1}") int exportPermits,
+                               @Value("${server.admission.timeout:30000}") long timeout) {
+        // Pools that are not configured explicitly share the connections not reserved for exports
+        int shared = connections - exportPermits;
+        int ingest = ingestPermits != null ? ingestPermits : Math.max(1, shared * INGEST_SHARE / 10);
+        int write = writePermits != null ? writePermits : Math.max(1, shared * WRITE_SHARE / 10);
+        int read = readPermits != null ? readPermits : shared - write - ingest;
+        if (read < 1 || write < 1 || ingest < 1 || exportPermits < 1) {
+            throw new IllegalStateException(String.format(
+                "Admission pools must have at least one permit each, but got read: %s, write: %s, ingest: %s, "
+                    + "export: %s. Increase spring.datasource.hikari.maximum-pool-size or configure server.admission",
+                read, write, ingest, exportPermits));
+        }
+        if (read + write + ingest + exportPermits > connections) {
+            throw new IllegalStateException(String.format(
+                "Admission pools require %s database connections (read: %s, write: %s, ingest: %s, export: %s), but "
+                    + "spring.datasource.hikari.maximum-pool-size is only %s",
+                read + write + ingest + exportPermits, read, write, ingest, exportPermits, connections));
+        }
+        this.pools.put(Operation.READ, new AdmissionPool(read));
+        this.pools.put(Operation.WRITE, new AdmissionPool(write));
+        this.pools.put(Operation.INGEST, new AdmissionPool(ingest));
+        this.pools.put(Operation.EXPORT, new AdmissionPool(exportPermits));
+        this.timeout = timeout;
+        LOGGER.info("Initialized DAO admission control with permits read: {}, write: {}, ingest: {}, export: {}, "
+                        + "timeout: {}ms",
+                    read, write, ingest, exportPermits, timeout);
+    }
+
+    /**
+     * Acquires a permit for the given operation. Blocks until a permit is available or the timeout is reached.
+     * Permits must be released by closing them, preferably via try-with-resources.
+     *
+     * @param operation type of operation to be executed
+     * @return acquired permit
+     * @throws STACRUDException if no permit could be acquired in time or the Thread was interrupted
+     */
+    public Permit acquire(Operation operation) throws STACRUDException {
+        Permit outer = current.get();
+        if (outer != null) {
+            outer.depth++;
+            return outer;
+        }
+
+        AdmissionPool pool = pools.get(operation);
+        long start = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = pool.semaphore.tryAcquire(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new STACRUDException(e.getMessage(), e);
+        }
+        long wait = System.nanoTime() - start;
+        pool.totalWait.addAndGet(wait);
+        pool.maxWait.accumulateAndGet(wait, Math::max);
+
+        if (!acquired) {
+            pool.rejected.incrementAndGet();
+            LOGGER.debug("Could not acquire {} permit within {}ms", operation, timeout);
+            throw new STACRUDException("Server is busy. Please try again later.", HTTPStatus.SERVICE_UNAVAILABLE);
+        }
+        pool.admitted.incrementAndGet();
+        Permit permit = new Permit(pool);
+        current.set(permit);
+        return permit;
+    }
+
+    public int getAvailablePermits(Operation operation) {
+        return pools.get(operation).semaphore.availablePermits();
+    }
+
+    public int getQueueLength(Operation operation) {
+        return pools.get(operation).semaphore.getQueueLength();
+    }
+
+    public long getAdmittedCount(Operation operation) {
+        return pools.get(operation).admitted.get();
+    }
+
+    public long getRejectedCount(Operation operation) {
+        return pools.get(operation).rejected.get();
+    }
+
+    /**
+     * @param operation type of operation
+     * @return maximum time (in ms) a Thread waited for a permit
+     */
+    public long getMaxWaitTime(Operation operation) {
+        return TimeUnit.NANOSECONDS.toMillis(pools.get(operation).maxWait.get());
+    }
+
+    /**
+     * @param operation type of operation
+     * @return average time (in ms) a Thread waited for a permit
+     */
+    public double getAverageWaitTime(Operation operation) {
+        AdmissionPool pool = pools.get(operation);
+        long count = pool.admitted.get() + pool.rejected.get();
+        return count == 0 ? 0 : (double) TimeUnit.NANOSECONDS.toMillis(pool.totalWait.get()) / count;
+    }
+
+    public enum Operation {
+        // Retrieval of Entities
+        READ,
+        // Creation, Update and Deletion of Entities via HTTP
+        WRITE,
+        // Creation of Entities published via MQTT
+        INGEST,
+        // Streaming of Observations via $export. Permits are held for the whole download
+        EXPORT
+    }
+
+
+    /**
+     * Permit to access the Persistence Layer. Must be closed by the Thread that acquired it.
+     */
+    public final class Permit implements AutoCloseable {
+
+        private final AdmissionPool pool;
+        private int depth;
+
+        private Permit(AdmissionPool pool) {
+            this.pool = pool;
+        }
+
+        @Override
+        public void close() {
+            if (depth > 0) {
+                depth--;
+            } else {
+                current.remove();
+                pool.semaphore.release();
+            }
+        }
+    }
+
+
+    private static final class AdmissionPool {
+
+        private final Semaphore semaphore;
+        private final AtomicLong admitted = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+        private final AtomicLong totalWait = new AtomicLong();
+        private final AtomicLong maxWait = new AtomicLong();
+
+        private AdmissionPool(int permits) {
+            this.semaphore = new Semaphore(permits, true);
+        }
+    }
+}
@@ -30,10 +30,15 @@
 package org.n52.sta;
 
 import org.hibernate.boot.model.TypeContributor;
+import org.hibernate.boot.spi.MetadataBuilderContributor;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.dialect.function.SQLFunctionTemplate;
 import org.hibernate.jpa.boot.internal.EntityManagerFactoryBuilderImpl;
 import org.hibernate.jpa.boot.spi.TypeContributorList;
 import org.hibernate.type.BasicType;
+import org.hibernate.type.StandardBasicTypes;
 import org.n52.hibernate.type.SmallBooleanType;
+import org.n52.sta.data.DirtyStateInterceptor;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.orm.jpa.JpaProperties;
 import org.springframework.context.annotation.Bean;
@@ -53,14 +58,25 @@ import java.util.Map;
 @Configuration
 public class DaoConfig {
 
+    /**
+     * SQL function mapping a timestamp to the index of the bucket of given length (in seconds) it falls into.
+     * Buckets are aligned to the Unix epoch. Used for temporal aggregation of Observations.
+     */
+    public static final String TIME_BUCKET_FUNCTION = "sta_time_bucket";
+
     @Value("${database.jpa.persistence-location}")
     private String persistenceXmlLocation;
 
     @Bean
-    public EntityManagerFactory entityManagerFactory(DataSource datasource, JpaProperties properties) {
+    public EntityManagerFactory entityManagerFactory(DataSource datasource,
+                                                     JpaProperties properties,
+                                                     DirtyStateInterceptor dirtyStateInterceptor) {
         LocalContainerEntityManagerFactoryBean emf = new LocalContainerEntityManagerFactoryBean();
         emf.setJpaVendorAdapter(new HibernateJpaVendorAdapter());
-        emf.setJpaPropertyMap(addCustomTypes(properties));
+        Map<String, Object> jpaProperties = addCustomTypes(properties);
+        // Captures the original state of updated entities for computing mqtt difference maps
+        jpaProperties.put(AvailableSettings.INTERCEPTOR, dirtyStateInterceptor);
+        emf.setJpaPropertyMap(jpaProperties);
         emf.setPersistenceXmlLocation(persistenceXmlLocation);
         emf.setDataSource(datasource);
         emf.afterPropertiesSet();
@@ -70,9 +86,16 @@ public class DaoConfig {
     private Map<String, Object> addCustomTypes(JpaProperties jpaProperties) {
         Map<String, Object> properties = new HashMap<>(jpaProperties.getProperties());
         properties.put(EntityManagerFactoryBuilderImpl.TYPE_CONTRIBUTORS, createTypeContributorsList());
+        properties.put(EntityManagerFactoryBuilderImpl.METADATA_BUILDER_CONTRIBUTOR, createFunctionContributor());
         return properties;
     }
 
+    private MetadataBuilderContributor createFunctionContributor() {
+        return metadataBuilder -> metadataBuilder.applySqlFunction(
+            TIME_BUCKET_FUNCTION,
+            new SQLFunctionTemplate(StandardBasicTypes.LONG, "cast(floor(extract(epoch from ?1) / ?2) as bigint)"));
+    }
+
     private TypeContributorList createTypeContributorsList() {
         return () -> Arrays.asList(toTypeContributor(SmallBooleanType.INSTANCE, "small_boolean"));
     }
@@ -44,11 +44,15 @@ import org.n52.series.db.beans.ProcedureEntity;
 import org.n52.series.db.beans.sta.HistoricalLocationEntity;
 import org.n52.series.db.beans.sta.LocationEntity;
 import org.n52.sta.data.service.util.CollectionWrapper;
+import org.n52.sta.data.service.util.DataArrayCollection;
+import org.n52.sta.data.service.util.ObservationAggregation;
 import org.n52.sta.serdes.CollectionSer;
+import org.n52.sta.serdes.DataArraySer;
 import org.n52.sta.serdes.DatastreamSerDes;
 import org.n52.sta.serdes.FeatureOfInterestSerDes;
 import org.n52.sta.serdes.HistoricalLocationSerDes;
 import org.n52.sta.serdes.LocationSerDes;
+import org.n52.sta.serdes.ObservationAggregationSer;
 import org.n52.sta.serdes.ObservationSerDes;
 import org.n52.sta.serdes.ObservedPropertySerDes;
 import org.n52.sta.serdes.SensorSerDes;
@@ -92,6 +96,8 @@ public class JacksonConfig {
         // Register Serializers/Deserializers for STA Core Entities
         SimpleSerializers serializers = new SimpleSerializers();
         serializers.addSerializer(new CollectionSer(CollectionWrapper.class));
+        serializers.addSerializer(new ObservationAggregationSer(ObservationAggregation.class));
+        serializers.addSerializer(new DataArraySer(rootUrl));
         serializers.addSerializer(
             new ThingSerDes.ThingSerializer(rootUrl,
                                             implicitExpand,
@@ -135,6 +141,8 @@ public class JacksonConfig {
                                       new SensorSerDes.SensorDeserializer(variableSensorEncodingTypeEnabled));
         deserializers.addDeserializer(DataEntity.class,
                                       new ObservationSerDes.ObservationDeserializer(parameterMapping));
+        deserializers.addDeserializer(ObservationSerDes.ObservationDataArray.class,
+                                      new ObservationSerDes.ObservationDataArrayDeserializer(parameterMapping));
         deserializers.addDeserializer(PhenomenonEntity.class,
                                       new ObservedPropertySerDes.ObservedPropertyDeserializer());
         deserializers.addDeserializer(AbstractFeatureEntity.class,
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.data;
+
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Repeats the invalidation of cache entries after the current transaction completed, so that entries read
+ * concurrently before the commit are not retained. Keys invalidated during a transaction are collected, so that only
+ * a single synchronization is registered per transaction and kind of invalidation.
+ *
+ * @param <K> type of the invalidated keys
+ * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
+ */
+final class AfterCompletionInvalidation<K> extends TransactionSynchronizationAdapter {
+
+    private final Consumer<K> invalidation;
+    private final Set<K> keys = new LinkedHashSet<>();
+
+    private AfterCompletionInvalidation(Consumer<K> invalidation) {
+        this.invalidation = invalidation;
+    }
+
+    /**
+     * Invalidates the given key immediately and again after the current transaction completed, if any.
+     *
+     * @param invalidation invalidation to be repeated. Identifies the collected keys, so the same instance must be
+     *                     passed for every key
+     * @param key          key to be invalidated
+     * @param <K>          type of the key
+     */
+    @SuppressWarnings("unchecked")
+    static <K> void invalidate(Consumer<K> invalidation, K key) {
+        invalidation.accept(key);
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        AfterCompletionInvalidation<K> pending =
+            (AfterCompletionInvalidation<K>) TransactionSynchronizationManager.getResource(invalidation);
+        if (pending == null) {
+            pending = new AfterCompletionInvalidation<>(invalidation);
+            TransactionSynchronizationManager.bindResource(invalidation, pending);
+            TransactionSynchronizationManager.registerSynchronization(pending);
+        }
+        pending.keys.add(key);
+    }
+
+    @Override
+    public void afterCompletion(int status) {
+        TransactionSynchronizationManager.unbindResourceIfPossible(invalidation);
+        keys.forEach(invalidation);
+    }
+}
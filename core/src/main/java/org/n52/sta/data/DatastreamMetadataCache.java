@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.data;
+
+import org.n52.sta.data.service.util.LruCache;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Caches the metadata needed for resolving the Dataset an incoming Observation is stored in, so that the ingest path
+ * does not need to load the Datastream and its aggregated Datasets for every Observation. Only database ids are
+ * cached, never entities. If the cache is full, the metadata of the least recently used Datastream is evicted.
+ * The metadata of a Datastream is invalidated whenever the Datastream or its Thing is changed via
+ * {@link org.n52.sta.data.repositories.MessageBusRepository}. Invalidation is repeated after the changing
+ * transaction completed, so that metadata read concurrently before the commit is not retained.
+ *
+ * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
+ */
+@Component
+public class DatastreamMetadataCache {
+
+    private final int maxSize;
+    private final LruCache<String, Metadata> cache;
+    // Incremented on every invalidation. Used to discard metadata that was read before an invalidation
+    private final AtomicLong generation = new AtomicLong();
+    private final Consumer<String> datastreamInvalidation = this::removeDatastream;
+    private final Consumer<Long> thingInvalidation = this::removeThing;
+
+    /**
+     * @param maxSize maximum number of cached Datastreams. 0 disables caching
+     */
+    public DatastreamMetadataCache(@Value("${server.feature.datastreamCacheSize:1000}") int maxSize) {
+        this.maxSize = maxSize;
+        this.cache = new LruCache<>(maxSize);
+    }
+
+    /**
+     * @param datastreamId staIdentifier of the Datastream
+     * @return cached metadata. null if not cached
+     */
+    public Metadata get(String datastreamId) {
+        return maxSize > 0 ? cache.get(datastreamId) : null;
+    }
+
+    /**
+     * @return current generation of the cache. Must be obtained before reading the metadata passed to
+     * {@link #put(String, Metadata, long)}
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Caches the given metadata unless the cache was invalidated since the given generation.
+     *
+     * @param datastreamId staIdentifier of the Datastream
+     * @param metadata     metadata to cache
+     * @param generation   generation of the cache before the metadata was read
+     */
+    public void put(String datastreamId, Metadata metadata, long generation) {
+        if (maxSize <= 0 || this.generation.get() != generation) {
+            return;
+        }
+        cache.put(datastreamId, metadata);
+        // Invalidation may have happened concurrently
+        if (this.generation.get() != generation) {
+            cache.remove(datastreamId);
+        }
+    }
+
+    /**
+     * Invalidates the metadata of the given Datastream. If called inside a transaction the metadata is invalidated
+     * again after the transaction completed.
+     *
+     * @param datastreamId staIdentifier of the Datastream
+     */
+    public void invalidateDatastream(String datastreamId) {
+        if (maxSize > 0 && datastreamId != null) {
+            AfterCompletionInvalidation.invalidate(datastreamInvalidation, datastreamId);
+        }
+    }
+
+    /**
+     * Invalidates the metadata of all Datastreams of the given Thing. If called inside a transaction the metadata is
+     * invalidated again after the transaction completed.
+     *
+     * @param thingId id of the Thing
+     */
+    public void invalidateThing(Long thingId) {
+        if (maxSize > 0 && thingId != null) {
+            AfterCompletionInvalidation.invalidate(thingInvalidation, thingId);
+        }
+    }
+
+    private void removeDatastream(String datastreamId) {
+        generation.incrementAndGet();
+        cache.remove(datastreamId);
+    }
+
+    private void removeThing(Long thingId) {
+        generation.incrementAndGet();
+        cache.removeIf((datastreamId, metadata) -> thingId.equals(metadata.getThingId()));
+    }
+
+    /**
+     * Ids of the entities related to a Datastream that are needed for storing Observations.
+     */
+    public static final class Metadata {
+
+        private final Long thingId;
+        private final Map<Long, Long> datasetsByFeature;
+
+        /**
+         * @param thingId           id of the Thing of the Datastream
+         * @param datasetsByFeature ids of the Datasets of the Datastream by id of their Feature
+         */
+        public Metadata(Long thingId, Map<Long, Long> datasetsByFeature) {
+            this.thingId = thingId;
+            this.datasetsByFeature = Collections.unmodifiableMap(new HashMap<>(datasetsByFeature));
+        }
+
+        public Long getThingId() {
+            return thingId;
+        }
+
+        /**
+         * @param featureId id of the Feature
+         * @return id of the Dataset holding Observations of the given Feature. null if unknown
+         */
+        public Long getDatasetId(Long featureId) {
+            return datasetsByFeature.get(featureId);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta.data;
+
+import org.hibernate.EmptyInterceptor;
+import org.hibernate.collection.spi.PersistentCollection;
+import org.hibernate.type.Type;
+import org.n52.sta.data.repositories.RepositoryConstants;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.Serializable;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Captures the state of entities as it was before they were first flushed as dirty in the current transaction.
+ * Hibernate overwrites the loaded state of an entity and resets the dirty flag of its collections on every flush, so
+ * the original state is no longer available once the entity was flushed, e.g. by a query executed before the entity
+ * is saved. The captured state is kept until it is consumed via {@link #remove(Object)} or the transaction completes.
+ *
+ * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
+ */
+@Component
+public class DirtyStateInterceptor extends EmptyInterceptor {
+
+    private static final String PARAMETERS_ROLE = "." + RepositoryConstants.PARAMETERS;
+
+    @Override
+    public boolean onFlushDirty(Object entity,
+                                Serializable id,
+                                Object[] currentState,
+                                Object[] previousState,
+                                String[] propertyNames,
+                                Type[] types) {
+        if (previousState != null) {
+            DirtyState state = getOrCreate(entity);
+            if (state != null && state.originalState == null) {
+                state.originalState = previousState.clone();
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void onCollectionRecreate(Object collection, Serializable key) {
+        markParameters(collection);
+    }
+
+    @Override
+    public void onCollectionRemove(Object collection, Serializable key) {
+        markParameters(collection);
+    }
+
+    @Override
+    public void onCollectionUpdate(Object collection, Serializable key) {
+        markParameters(collection);
+    }
+
+    /**
+     * Removes the state captured for the given entity in the current transaction.
+     *
+     * @param entity managed entity
+     * @return captured state. null if the entity was not flushed as dirty since the last call
+     */
+    public DirtyState remove(Object entity) {
+        DirtyStates states = getStates();
+        return (states != null) ? states.entities.remove(entity) : null;
+    }
+
+    private void markParameters(Object collection) {
+        if (collection instanceof PersistentCollection) {
+            PersistentCollection persistent = (PersistentCollection) collection;
+            if (persistent.getRole() != null && persistent.getRole().endsWith(PARAMETERS_ROLE)) {
+                DirtyState state = getOrCreate(persistent.getOwner());
+                if (state != null) {
+                    state.parametersChanged = true;
+                }
+            }
+        }
+    }
+
+    private DirtyState getOrCreate(Object entity) {
+        if (entity == null || !TransactionSynchronizationManager.isSynchronizationActive()) {
+            return null;
+        }
+        DirtyStates states = getStates();
+        if (states == null) {
+            states = new DirtyStates(this);
+            TransactionSynchronizationManager.bindResource(this, states);
+            TransactionSynchronizationManager.registerSynchronization(states);
+        }
+        return states.entities.computeIfAbsent(entity, e -> new DirtyState());
+    }
+
+    private DirtyStates getStates() {
+        return (DirtyStates) TransactionSynchronizationManager.getResource(this);
+    }
+
+    /**
+     * State of an entity before it was first flushed as dirty.
+     */
+    public static final class DirtyState {
+
+        private Object[] originalState;
+        private boolean parametersChanged;
+
+        /**
+         * @return property values of the entity as loaded from the database, ordered like the properties of its
+         * persister. null if only collections of the entity were changed
+         */
+        public Object[] getOriginalState() {
+            return originalState;
+        }
+
+        /**
+         * @return true if the parameters collection of the entity was changed
+         */
+        public boolean isParametersChanged() {
+            return parametersChanged;
+        }
+    }
+
+    /**
+     * States captured during a single transaction. Entities are identified by instance, as only managed instances
+     * are flushed.
+     */
+    private static final class DirtyStates extends TransactionSynchronizationAdapter {
+
+        private final Object key;
+        private final Map<Object, DirtyState> entities = new IdentityHashMap<>();
+
+        private DirtyStates(Object key) {
+            this.key = key;
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(key);
+        }
+    }
+}
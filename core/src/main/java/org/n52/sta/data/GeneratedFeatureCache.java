@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.data;
+
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.io.WKBWriter;
+import org.n52.sta.data.service.util.LruCache;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Caches the ids of FeaturesOfInterest generated from the Location of a Thing for Observations without
+ * FeatureOfInterest. Features are identified by Thing and a hash of the WKB of the Location geometry, so that
+ * Observations of a stationary Thing resolve their Feature without querying the database.
+ * The Feature currently generated for each Thing is cached separately and invalidated whenever the Thing or one of
+ * its Locations is changed via {@link org.n52.sta.data.repositories.MessageBusRepository}. Feature identities stay
+ * valid until a FeatureOfInterest is deleted. If the cache is full, the least recently used Features are evicted.
+ *
+ * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
+ */
+@Component
+public class GeneratedFeatureCache {
+
+    private static final String NO_GEOMETRY = "";
+
+    private final int maxSize;
+    // Feature generated from the current Location by id of the Thing
+    private final LruCache<Long, Long> featuresByThing;
+    // Feature by id of the Thing and geometry of the Location it was generated from
+    private final LruCache<FeatureKey, Long> features;
+    // Incremented on every invalidation. Used to discard Features that were resolved before an invalidation
+    private final AtomicLong generation = new AtomicLong();
+    private final Consumer<Long> thingInvalidation = this::removeThing;
+    private final Consumer<Boolean> invalidation = all -> clear();
+
+    /**
+     * @param maxSize maximum number of cached Features. 0 disables caching
+     */
+    public GeneratedFeatureCache(@Value("${server.feature.generatedFeatureCacheSize:1000}") int maxSize) {
+        this.maxSize = maxSize;
+        this.featuresByThing = new LruCache<>(maxSize);
+        this.features = new LruCache<>(maxSize);
+    }
+
+    /**
+     * Creates the key identifying a geometry. Geometries are compared by SRID and WKB.
+     *
+     * @param geometry geometry of a Location. may be null
+     * @return hash of the geometry
+     */
+    public static String createGeometryKey(Geometry geometry) {
+        if (geometry == null) {
+            return NO_GEOMETRY;
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(geometry.getSRID()).array());
+            // Z is only written for geometries having a third dimension
+            digest.update(new WKBWriter(3).write(geometry));
+            return Base64.getEncoder().encodeToString(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 is required to be supported by every Java platform
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param thingId id of the Thing
+     * @return id of the Feature generated from the current Location of the Thing. null if not cached
+     */
+    public Long get(Long thingId) {
+        return maxSize > 0 ? featuresByThing.get(thingId) : null;
+    }
+
+    /**
+     * @param thingId     id of the Thing
+     * @param geometryKey key of the Location geometry as created by {@link #createGeometryKey(Geometry)}
+     * @return id of the Feature generated from the given geometry. null if not cached
+     */
+    public Long get(Long thingId, String geometryKey) {
+        return maxSize > 0 ? features.get(new FeatureKey(thingId, geometryKey)) : null;
+    }
+
+    /**
+     * @return current generation of the cache. Must be obtained before reading the Locations of a Thing
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Caches the Feature generated for the given Thing unless the cache was invalidated since the given generation.
+     *
+     * @param thingId     id of the Thing
+     * @param geometryKey key of the Location geometry the Feature was generated from
+     * @param featureId   id of the Feature
+     * @param generation  generation of the cache before the Locations of the Thing were read
+     */
+    public void put(Long thingId, String geometryKey, Long featureId, long generation) {
+        if (maxSize <= 0 || this.generation.get() != generation) {
+            return;
+        }
+        FeatureKey key = new FeatureKey(thingId, geometryKey);
+        features.put(key, featureId);
+        featuresByThing.put(thingId, featureId);
+        // Invalidation may have happened concurrently
+        if (this.generation.get() != generation) {
+            featuresByThing.remove(thingId);
+            features.remove(key);
+        }
+    }
+
+    /**
+     * Invalidates the Feature cached for the given Thing, e.g. because one of its Locations changed. If called inside
+     * a transaction it is invalidated again after the transaction completed.
+     *
+     * @param thingId id of the Thing
+     */
+    public void invalidateThing(Long thingId) {
+        if (maxSize > 0 && thingId != null) {
+            AfterCompletionInvalidation.invalidate(thingInvalidation, thingId);
+        }
+    }
+
+    /**
+     * Invalidates the whole cache, e.g. because a Feature was deleted. If called inside a transaction the cache is
+     * invalidated again after the transaction completed.
+     */
+    public void invalidate() {
+        AfterCompletionInvalidation.invalidate(invalidation, Boolean.TRUE);
+    }
+
+    private void removeThing(Long thingId) {
+        generation.incrementAndGet();
+        featuresByThing.remove(thingId);
+    }
+
+    private void clear() {
+        generation.incrementAndGet();
+        featuresByThing.clear();
+        features.clear();
+    }
+
+    private static final class FeatureKey {
+
+        private final Long thingId;
+        private final String geometryKey;
+
+        private FeatureKey(Long thingId, String geometryKey) {
+            this.thingId = thingId;
+            this.geometryKey = geometryKey;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            FeatureKey that = (FeatureKey) o;
+            return Objects.equals(thingId, that.thingId) && Objects.equals(geometryKey, that.geometryKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(thingId, geometryKey);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.data;
+
+import org.n52.series.db.beans.DataEntity;
+import org.n52.series.db.beans.DescribableEntity;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Date;
+import java.util.Iterator;
+
+/**
+ * Position inside a sorted collection used for keyset (seek) pagination. Instead of skipping all preceding entities
+ * via OFFSET, the next page is selected by comparing the sort key with the key of the last entity of the previous
+ * page. The staIdentifier is used as tiebreaker to guarantee a total order.
+ * <p>
+ * The cursor is exchanged with clients as opaque token via the $skiptoken query parameter.
+ *
+ * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
+ */
+public class KeysetCursor {
+
+    public static final String SKIPTOKEN = "$skiptoken";
+
+    private static final String STAIDENTIFIER = DescribableEntity.PROPERTY_STA_IDENTIFIER;
+    private static final String SAMPLINGTIMEEND = DataEntity.PROPERTY_SAMPLING_TIME_END;
+    private static final String SEPARATOR = "\n";
+
+    private final String property;
+    private final Sort.Direction direction;
+    private final Date value;
+    private final String staIdentifier;
+
+    private KeysetCursor(String property, Sort.Direction direction, Date value, String staIdentifier) {
+        this.property = property;
+        this.direction = direction;
+        this.value = value;
+        this.staIdentifier = staIdentifier;
+    }
+
+    /**
+     * Checks whether the given sort can be paginated via keyset. Currently only sorting by staIdentifier or
+     * phenomenonTime (which are both never null) is supported.
+     *
+     * @param sort requested sort
+     * @return true if keyset pagination is possible
+     */
+    public static boolean supports(Sort sort) {
+        Iterator<Sort.Order> orders = sort.iterator();
+        if (!orders.hasNext()) {
+            return false;
+        }
+        Sort.Order order = orders.next();
+        return !orders.hasNext()
+            && (STAIDENTIFIER.equals(order.getProperty()) || SAMPLINGTIMEEND.equals(order.getProperty()));
+    }
+
+    /**
+     * Extends the given sort by staIdentifier to guarantee a total order.
+     *
+     * @param sort supported sort as checked by {@link #supports(Sort)}
+     * @return sort including tiebreaker
+     */
+    public static Sort createSort(Sort sort) {
+        Sort.Order order = sort.iterator().next();
+        return STAIDENTIFIER.equals(order.getProperty()) ? sort : sort.and(Sort.by(order.getDirection(),
+                                                                                    STAIDENTIFIER));
+    }
+
+    /**
+     * Creates a cursor pointing behind the given Observation.
+     *
+     * @param sort        sort of the collection as checked by {@link #supports(Sort)}
+     * @param observation last Observation of the current page
+     * @return cursor pointing to the next page
+     */
+    public static KeysetCursor after(Sort sort, DataEntity<?> observation) {
+        Sort.Order order = sort.iterator().next();
+        return new KeysetCursor(order.getProperty(),
+                                order.getDirection(),
+                                SAMPLINGTIMEEND.equals(order.getProperty()) ? observation.getSamplingTimeEnd() : null,
+                                observation.getStaIdentifier());
+    }
+
+    /**
+     * Decodes a cursor previously encoded by {@link #encode()}.
+     *
+     * @param token opaque token
+     * @return decoded cursor
+     * @throws IllegalArgumentException if the token is malformed
+     */
+    public static KeysetCursor decode(String token) {
+        String decoded;
+        try {
+            decoded = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid " + SKIPTOKEN + ": " + token, e);
+        }
+        String[] split = decoded.split(SEPARATOR, 4);
+        if (split.length != 4
+            || !(STAIDENTIFIER.equals(split[0]) || SAMPLINGTIMEEND.equals(split[0]))
+            || SAMPLINGTIMEEND.equals(split[0]) == split[2].isEmpty()) {
+            throw new IllegalArgumentException("Invalid " + SKIPTOKEN + ": " + token);
+        }
+        try {
+            return new KeysetCursor(split[0],
+                                    Sort.Direction.valueOf(split[1]),
+                                    split[2].isEmpty() ? null : new Date(Long.parseLong(split[2])),
+                                    split[3]);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid " + SKIPTOKEN + ": " + token, e);
+        }
+    }
+
+    /**
+     * @return opaque token representing this cursor
+     */
+    public String encode() {
+        String raw = property + SEPARATOR
+            + direction.name() + SEPARATOR
+            + (value != null ? String.valueOf(value.getTime()) : "") + SEPARATOR
+            + staIdentifier;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Checks whether this cursor was created for the given sort.
+     *
+     * @param sort sort of the current request
+     * @return true if cursor may be applied
+     */
+    public boolean matches(Sort sort) {
+        if (!supports(sort)) {
+            return false;
+        }
+        Sort.Order order = sort.iterator().next();
+        return property.equals(order.getProperty()) && direction.equals(order.getDirection());
+    }
+
+    /**
+     * Creates the seek predicate selecting all entities behind this cursor.
+     *
+     * @param <T> type of the entity
+     * @return Specification selecting all entities behind this cursor
+     */
+    public <T> Specification<T> toSpecification() {
+        return (root, query, builder) -> {
+            Path<String> id = root.get(STAIDENTIFIER);
+            Predicate idPredicate = direction.isAscending()
+                ? builder.greaterThan(id, staIdentifier)
+                : builder.lessThan(id, staIdentifier);
+            if (value == null) {
+                return idPredicate;
+            }
+            Path<Date> key = root.get(property);
+            return builder.or(direction.isAscending() ? builder.greaterThan(key, value) : builder.lessThan(key, value),
+                              builder.and(builder.equal(key, value), idPredicate));
+        };
+    }
+}
@@ -26,16 +26,28 @@
  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
  * Public License for more details.
  */
-
 package org.n52.sta.data;
 
+import org.n52.janmayen.http.HTTPStatus;
 import org.n52.shetland.ogc.sta.exception.STACRUDException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
-import org.springframework.util.ConcurrentReferenceHashMap;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
+ * Provides locks used for serializing concurrent in-memory computations on the same database entity. Locks are
+ * identified by the type of the entity and a key, e.g. its identifier. Locks are held in concurrent maps per type,
+ * so looking up a lock does not block lookups of other locks. Locks are counted by the Threads using them and are
+ * removed once no Thread uses them anymore. Threads that do not obtain a lock within the configured timeout are
+ * rejected with HTTP 503.
+ *
  * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
  */
 @Component
@@ -43,28 +55,140 @@ public class MutexFactory {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(MutexFactory.class);
 
-    // MutexMap used for locking during thread-bound in-memory computations on database entities
-    private ConcurrentReferenceHashMap<String, Object> lock;
+    // Locks by key per type of entity
+    private final Map<Class<?>, Map<String, Lock>> locks = new ConcurrentHashMap<>();
+    private final long timeout;
 
-    public MutexFactory() {
-        this.lock = new ConcurrentReferenceHashMap<>();
+    private final AtomicLong acquired = new AtomicLong();
+    private final AtomicLong contended = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong totalWait = new AtomicLong();
+    private final AtomicLong maxWait = new AtomicLong();
+
+    public MutexFactory(@Value("${server.lock.timeout:30000}") long timeout) {
+        this.timeout = timeout;
     }
 
     /**
-     * Gets a lock with given name from global lockMap. Name is unique per EntityType.
-     * Uses weak references so Map is automatically cleared by GC.
+     * Acquires the lock with given key for given type. Blocks until the lock is available or the timeout is reached.
+     * Locks are reentrant and must be released by closing them, preferably via try-with-resources.
      *
-     * @param key name of the lock
-     * @return Object used for holding the lock
-     * @throws STACRUDException If the lock can not be obtained.
+     * @param type type of the locked entity
+     * @param key  name of the lock
+     * @return acquired lock
+     * @throws STACRUDException If the lock can not be obtained in time.
      */
-    public synchronized Object getLock(String key) throws STACRUDException {
-        if (key != null) {
-            LOGGER.debug("Locking:" + key);
-            return this.lock.compute(key, (k, v) -> v == null ? new Object() : v);
-        } else {
+    public Lock lock(Class<?> type, String key) throws STACRUDException {
+        if (key == null) {
             throw new STACRUDException("Unable to obtain Lock. No name specified!");
         }
+        Map<String, Lock> typeLocks = locks.computeIfAbsent(type, t -> new ConcurrentHashMap<>());
+        // Register as user so that the lock is not removed while waiting for it
+        Lock lock = typeLocks.compute(key, (k, existing) -> {
+            Lock used = existing != null ? existing : new Lock(typeLocks, k);
+            used.users++;
+            return used;
+        });
+
+        if (lock.lock.tryLock()) {
+            acquired.incrementAndGet();
+            return lock;
+        }
+
+        // Lock is held by another Thread
+        contended.incrementAndGet();
+        LOGGER.debug("Waiting for lock: {} {}", type.getSimpleName(), key);
+        long start = System.nanoTime();
+        boolean locked;
+        try {
+            locked = lock.lock.tryLock(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            lock.release();
+            Thread.currentThread().interrupt();
+            throw new STACRUDException(e.getMessage(), e);
+        }
+        long wait = System.nanoTime() - start;
+        totalWait.addAndGet(wait);
+        maxWait.accumulateAndGet(wait, Math::max);
+
+        if (!locked) {
+            lock.release();
+            timedOut.incrementAndGet();
+            LOGGER.debug("Could not acquire lock {} {} within {}ms", type.getSimpleName(), key, timeout);
+            throw new STACRUDException("Server is busy. Please try again later.", HTTPStatus.SERVICE_UNAVAILABLE);
+        }
+        acquired.incrementAndGet();
+        return lock;
     }
 
+    /**
+     * @return number of acquired locks
+     */
+    public long getAcquiredCount() {
+        return acquired.get();
+    }
+
+    /**
+     * @return number of lock requests that had to wait for another Thread
+     */
+    public long getContendedCount() {
+        return contended.get();
+    }
+
+    /**
+     * @return number of lock requests that were rejected as the lock could not be acquired in time
+     */
+    public long getTimedOutCount() {
+        return timedOut.get();
+    }
+
+    /**
+     * @return maximum time (in ms) a Thread waited for a lock
+     */
+    public long getMaxWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWait.get());
+    }
+
+    /**
+     * @return average time (in ms) a Thread waited for a contended lock
+     */
+    public double getAverageWaitTime() {
+        long count = contended.get();
+        return count == 0 ? 0 : (double) TimeUnit.NANOSECONDS.toMillis(totalWait.get()) / count;
+    }
+
+    /**
+     * @return number of locks currently used by at least one Thread
+     */
+    public int getLockCount() {
+        return locks.values().stream().mapToInt(Map::size).sum();
+    }
+
+
+    /**
+     * Lock held by the Thread that acquired it. Must be closed by the same Thread.
+     */
+    public static final class Lock implements AutoCloseable {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Map<String, Lock> locks;
+        private final String key;
+        // Number of Threads holding or waiting for this lock. Only modified while computing the map entry
+        private int users;
+
+        private Lock(Map<String, Lock> locks, String key) {
+            this.locks = locks;
+            this.key = key;
+        }
+
+        @Override
+        public void close() {
+            lock.unlock();
+            release();
+        }
+
+        private void release() {
+            locks.computeIfPresent(key, (k, existing) -> --existing.users == 0 ? null : existing);
+        }
+    }
 }
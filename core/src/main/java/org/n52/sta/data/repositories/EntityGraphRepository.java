@@ -31,6 +31,7 @@ package org.n52.sta.data.repositories;
 
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.domain.Specification;
 import org.springframework.data.jpa.repository.JpaRepository;
@@ -38,8 +39,12 @@ import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
 import org.springframework.data.repository.NoRepositoryBean;
 import org.springframework.lang.Nullable;
 
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Selection;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 /**
  * Repository shadowing JpaSpecificationExecutor methods with additional EntityGraph Parameters.
@@ -116,6 +121,66 @@ public interface EntityGraphRepository<T, I> extends JpaSpecificationExecutor<T>
      */
     Page<T> findAll(@Nullable Specification<T> spec, Pageable pageable, FetchGraph... fetchGraphs);
 
+    /**
+     * Returns a {@link Slice} of entities matching the given {@link Specification}. In contrast to
+     * {@link #findAll(Specification, Pageable, FetchGraph...)} no count query is executed. Whether there is a next
+     * slice is determined by fetching one additional entity.
+     *
+     * @param spec     can be {@literal null}.
+     * @param pageable must not be {@literal null}.
+     * @return never {@literal null}.
+     */
+    Slice<T> findSlice(@Nullable Specification<T> spec, Pageable pageable);
+
+    /**
+     * Returns a {@link Slice} of projections of the entities matching the given {@link Specification}. Only the
+     * selections given by projection are queried, so entities are not hydrated. Whether there is a next slice is
+     * determined by fetching one additional row.
+     *
+     * @param spec       can be {@literal null}.
+     * @param pageable   must not be {@literal null}.
+     * @param projection selections to be queried
+     * @return rows holding the selected values in order of the selections. never {@literal null}.
+     */
+    Slice<Object[]> findSliceProjection(@Nullable Specification<T> spec, Pageable pageable, Projection<T> projection);
+
+    /**
+     * Returns a {@link Stream} of projections of all entities matching the given {@link Specification}. Rows are
+     * read from an open database cursor while the stream is consumed. Must be consumed inside a transaction and
+     * closed afterwards.
+     *
+     * @param spec       can be {@literal null}.
+     * @param sort       must not be {@literal null}.
+     * @param fetchSize  number of rows fetched from the cursor at once
+     * @param projection selections to be queried
+     * @return rows holding the selected values in order of the selections. never {@literal null}.
+     */
+    Stream<Object[]> findStreamProjection(@Nullable Specification<T> spec,
+                                          Sort sort,
+                                          int fetchSize,
+                                          Projection<T> projection);
+
+    /**
+     * Returns a {@link Stream} of entities matching the given {@link Specification}. Entities are read from an open
+     * database cursor while the stream is consumed instead of being loaded at once. Includes one additional entity
+     * beyond the requested page to indicate whether there is a next page. Must be consumed inside a transaction and
+     * closed afterwards.
+     *
+     * @param spec      can be {@literal null}.
+     * @param pageable  must not be {@literal null}.
+     * @param fetchSize number of rows fetched from the cursor at once
+     * @return never {@literal null}.
+     */
+    Stream<T> findStream(@Nullable Specification<T> spec, Pageable pageable, int fetchSize);
+
+    /**
+     * Estimates the number of all entities from the statistics of the database query planner instead of counting
+     * them. Only supported for PostgreSQL.
+     *
+     * @return estimated number of entities. -1 if no estimate is available
+     */
+    long estimateCount();
+
     /**
      * Returns all entities matching the given {@link Specification} and {@link Sort}. Additionally fetches all
      * related entities given by the provided EntityGraph. All provided Graphs are merged internally.
@@ -127,6 +192,17 @@ public interface EntityGraphRepository<T, I> extends JpaSpecificationExecutor<T>
      */
     List<T> findAll(@Nullable Specification<T> spec, Sort sort, FetchGraph... fetchGraphs);
 
+    /**
+     * Selections of a projection query.
+     *
+     * @param <T> type of the queried entity
+     */
+    @FunctionalInterface
+    interface Projection<T> {
+
+        List<Selection<?>> select(Root<T> root, CriteriaBuilder builder);
+    }
+
     //TODO: expand if necessary
     enum FetchGraph {
         FETCHGRAPH_DEFAULT("identifier"),
@@ -29,10 +29,15 @@
 
 package org.n52.sta.data.repositories;
 
+import org.hibernate.engine.spi.EntityEntry;
+import org.hibernate.engine.spi.PersistenceContext;
 import org.hibernate.engine.spi.SessionImplementor;
 import org.hibernate.graph.EntityGraphs;
 import org.hibernate.graph.GraphParser;
 import org.hibernate.graph.RootGraph;
+import org.hibernate.jpa.QueryHints;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.persister.entity.EntityPersister;
 import org.n52.series.db.beans.AbstractDatasetEntity;
 import org.n52.series.db.beans.AbstractFeatureEntity;
 import org.n52.series.db.beans.DataEntity;
@@ -47,6 +52,9 @@ import org.n52.series.db.beans.sta.LocationEntity;
 import org.n52.shetland.ogc.sta.StaConstants;
 import org.n52.shetland.ogc.sta.model.STAEntityDefinition;
 import org.n52.sta.SpringApplicationContext;
+import org.n52.sta.data.DatastreamMetadataCache;
+import org.n52.sta.data.DirtyStateInterceptor;
+import org.n52.sta.data.GeneratedFeatureCache;
 import org.n52.sta.data.STAEventHandler;
 import org.n52.sta.data.query.DatastreamQuerySpecifications;
 import org.slf4j.Logger;
@@ -54,6 +62,8 @@ import org.slf4j.LoggerFactory;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.domain.Specification;
 import org.springframework.data.jpa.repository.query.QueryUtils;
@@ -65,8 +75,8 @@ import org.springframework.util.Assert;
 
 import javax.persistence.EntityGraph;
 import javax.persistence.EntityManager;
-import javax.persistence.EntityManagerFactory;
 import javax.persistence.NoResultException;
+import javax.persistence.PersistenceException;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
@@ -74,6 +84,7 @@ import javax.persistence.criteria.ParameterExpression;
 import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -83,6 +94,7 @@ import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class MessageBusRepository<T, I extends Serializable>
     extends SimpleJpaRepository<T, I> implements RepositoryConstants {
@@ -94,17 +106,21 @@ public class MessageBusRepository<T, I extends Serializable>
     private final String IDENTIFIER = DescribableEntity.PROPERTY_IDENTIFIER;
     private final String STAIDENTIFIER = DescribableEntity.PROPERTY_STA_IDENTIFIER;
     private final String ID = IdEntity.PROPERTY_ID;
+    private final String ESTIMATE_COUNT_QUERY = "SELECT reltuples FROM pg_class WHERE oid = to_regclass(?1)";
 
     private final JpaEntityInformation entityInformation;
     private final STAEventHandler mqttHandler;
+    private final DirtyStateInterceptor dirtyStateInterceptor;
     // Used actively by the
     private final EntityManager em;
-    private final EntityManager databaseEm;
     private final Class<T> entityClass;
     private final CriteriaBuilder criteriaBuilder;
 
     // Is set in Repositories that need it to get related Collections for mqtt handling
     private DatastreamRepository datastreamRepository;
+    // Are set in Repositories of entities whose changes invalidate cached Datastream metadata/generated Features
+    private DatastreamMetadataCache datastreamMetadataCache;
+    private GeneratedFeatureCache generatedFeatureCache;
     private DatastreamQuerySpecifications dQs = new DatastreamQuerySpecifications();
 
     @SuppressWarnings("SpringJavaInjectionPointsAutowiringInspection")
@@ -113,11 +129,6 @@ public class MessageBusRepository<T, I extends Serializable>
         super(entityInformation, entityManager);
         this.em = entityManager;
 
-        EntityManagerFactory factory =
-            (EntityManagerFactory) SpringApplicationContext.getBean(EntityManagerFactory.class);
-        Assert.notNull(factory, "Could not autowire EntityManagerFactory!");
-        this.databaseEm = factory.createEntityManager();
-
         this.entityInformation = entityInformation;
         this.entityClass = entityInformation.getJavaType();
         this.entityTypeToStaType = this.createEntityTypeToStaTypeMapping();
@@ -125,14 +136,27 @@ public class MessageBusRepository<T, I extends Serializable>
 
         this.mqttHandler = (STAEventHandler) SpringApplicationContext.getBean(STAEventHandler.class);
         Assert.notNull(this.mqttHandler, "Could not autowire Mqtt handler!");
+        this.dirtyStateInterceptor =
+            (DirtyStateInterceptor) SpringApplicationContext.getBean(DirtyStateInterceptor.class);
+        Assert.notNull(this.dirtyStateInterceptor, "Could not autowire DirtyStateInterceptor!");
 
-        if (this.entityClass.equals(DataEntity.class)
-            || this.entityClass.equals(ProcedureEntity.class)
-            || this.entityClass.equals(PhenomenonEntity.class)) {
+        if (this.entityClass.equals(PhenomenonEntity.class)) {
             this.datastreamRepository =
                 (DatastreamRepository) SpringApplicationContext.getBean(DatastreamRepository.class);
             Assert.notNull(this.datastreamRepository, "Could not autowire DatastreamRepository!");
         }
+
+        String staType = entityTypeToStaType.get(entityInformation.getEntityName());
+        if (StaConstants.DATASTREAMS.equals(staType) || StaConstants.THINGS.equals(staType)) {
+            this.datastreamMetadataCache =
+                (DatastreamMetadataCache) SpringApplicationContext.getBean(DatastreamMetadataCache.class);
+            Assert.notNull(this.datastreamMetadataCache, "Could not autowire DatastreamMetadataCache!");
+        }
+        if (StaConstants.THINGS.equals(staType) || StaConstants.LOCATIONS.equals(staType)) {
+            this.generatedFeatureCache =
+                (GeneratedFeatureCache) SpringApplicationContext.getBean(GeneratedFeatureCache.class);
+            Assert.notNull(this.generatedFeatureCache, "Could not autowire GeneratedFeatureCache!");
+        }
     }
 
     private TypedQuery<T> createIdentifierQuery(String identifier, String column) {
@@ -255,6 +279,7 @@ public class MessageBusRepository<T, I extends Serializable>
     @Transactional
     @Override
     public <S extends T> S save(S newEntity) {
+        invalidateCaches(newEntity);
         String entityType = entityTypeToStaType.get(entityInformation.getEntityName());
         boolean intercept =
             mqttHandler.getWatchedEntityTypes().contains(entityType);
@@ -267,20 +292,12 @@ public class MessageBusRepository<T, I extends Serializable>
             }
         } else {
             if (intercept) {
-                // Get original entity state from database to create differenceMap for matching MQTT Subscriptions on
-                // Entity properties
-                S oldEntity = (S) this.databaseEm.find(newEntity.getClass(), entityInformation.getId(newEntity));
-
-                // Entity was intermediateSaved and is not known to databaseEm
-                if (oldEntity == null) {
-                    oldEntity = (S) this.em.find(newEntity.getClass(), entityInformation.getId(newEntity));
-                }
-                Map<String, Object> oldProperties = getPropertyMap(oldEntity);
                 S entity = em.merge(newEntity);
                 em.flush();
+                // Compute differenceMap for matching MQTT Subscriptions on Entity properties
                 this.mqttHandler.handleEvent(newEntity,
                                              entityType,
-                                             computeDifference(oldProperties, getPropertyMap(newEntity)),
+                                             computeDifference(entity),
                                              getRelatedCollections(entity));
                 return entity;
             } else {
@@ -291,6 +308,80 @@ public class MessageBusRepository<T, I extends Serializable>
         return newEntity;
     }
 
+    /**
+     * Saves all given entities. New entities are persisted together and flushed once so that inserts may be
+     * batched by the JDBC driver (see hibernate.jdbc.batch_size). Events for mqtt subscriptions are fired after the
+     * flush. Existing entities are delegated to {@link #save(Object)}.
+     *
+     * @param entities Entities to be saved
+     * @param <S>      raw entity type
+     * @return saved entities
+     */
+    @Transactional
+    @Override
+    public <S extends T> List<S> saveAll(Iterable<S> entities) {
+        Assert.notNull(entities, "Entities must not be null!");
+        List<S> result = new ArrayList<>();
+        List<S> persisted = new ArrayList<>();
+        for (S entity : entities) {
+            if (entityInformation.isNew(entity)) {
+                invalidateCaches(entity);
+                em.persist(entity);
+                persisted.add(entity);
+                result.add(entity);
+            } else {
+                result.add(save(entity));
+            }
+        }
+        if (!persisted.isEmpty()) {
+            em.flush();
+            String entityType = entityTypeToStaType.get(entityInformation.getEntityName());
+            if (mqttHandler.getWatchedEntityTypes().contains(entityType)) {
+                for (S entity : persisted) {
+                    this.mqttHandler.handleEvent(entity, entityType, null, getRelatedCollections(entity));
+                }
+            }
+        }
+        return result;
+    }
+
+    @Transactional
+    @Override
+    public void delete(T entity) {
+        invalidateCaches(entity);
+        super.delete(entity);
+    }
+
+    /**
+     * Invalidates cached metadata depending on the given entity. Only the entries of the changed Datastream or
+     * Thing are invalidated.
+     *
+     * @param entity changed entity
+     */
+    private void invalidateCaches(Object entity) {
+        if (entity instanceof AbstractDatasetEntity && datastreamMetadataCache != null) {
+            AbstractDatasetEntity dataset = (AbstractDatasetEntity) entity;
+            datastreamMetadataCache.invalidateDatastream(dataset.getStaIdentifier());
+            // Datasets of an aggregation are cached as part of the aggregated Datastream
+            if (dataset.isSetAggregation()) {
+                datastreamMetadataCache.invalidateDatastream(dataset.getAggregation().getStaIdentifier());
+            }
+        } else if (entity instanceof PlatformEntity) {
+            invalidateThing(((PlatformEntity) entity).getId());
+        } else if (entity instanceof LocationEntity && ((LocationEntity) entity).hasThings()) {
+            ((LocationEntity) entity).getThings().forEach(thing -> invalidateThing(thing.getId()));
+        }
+    }
+
+    private void invalidateThing(Long thingId) {
+        if (datastreamMetadataCache != null) {
+            datastreamMetadataCache.invalidateThing(thingId);
+        }
+        if (generatedFeatureCache != null) {
+            generatedFeatureCache.invalidateThing(thingId);
+        }
+    }
+
     private <S extends T> Map<String, Set<String>> getRelatedCollections(S rawObject) {
         Map<String, Set<String>> collections = new HashMap<>();
         if (rawObject instanceof ProcedureEntity) {
@@ -386,11 +477,14 @@ public class MessageBusRepository<T, I extends Serializable>
                                 Collections.singleton(entity.getDataset().getFeature().getStaIdentifier()));
             }
 
-            Optional<AbstractDatasetEntity> datastreamEntity =
-                datastreamRepository.findOne(dQs.withObservationStaIdentifier(entity.getStaIdentifier()));
-            if (datastreamEntity.isPresent()) {
+            // Datastream is either the dataset itself or the aggregation the dataset belongs to. Both are already
+            // part of the persistence context, so no additional query is necessary.
+            if (entity.getDataset() != null) {
+                AbstractDatasetEntity datastream = (entity.getDataset().getAggregation() != null)
+                    ? entity.getDataset().getAggregation()
+                    : entity.getDataset();
                 collections.put(STAEntityDefinition.DATASTREAMS,
-                                Collections.singleton(datastreamEntity.get().getStaIdentifier()));
+                                Collections.singleton(datastream.getStaIdentifier()));
             } else {
                 LOGGER.debug("No Datastream associated with this Entity {}", entity.getStaIdentifier());
             }
@@ -399,20 +493,58 @@ public class MessageBusRepository<T, I extends Serializable>
         } else if (rawObject instanceof PhenomenonEntity) {
             PhenomenonEntity entity = (PhenomenonEntity) rawObject;
 
-            List<AbstractDatasetEntity> observations = datastreamRepository
-                .findAll(dQs.withObservedPropertyStaIdentifier(entity.getStaIdentifier()));
-            collections.put(
-                STAEntityDefinition.DATASTREAMS,
-                observations
-                    .stream()
-                    .map(AbstractDatasetEntity::getStaIdentifier)
-                    .collect(Collectors.toSet()));
+            // Only fetch identifiers instead of loading the full Datastreams
+            List<String> datastreams = datastreamRepository.getColumnList(
+                dQs.withObservedPropertyStaIdentifier(entity.getStaIdentifier()),
+                Pageable.unpaged(),
+                STAIDENTIFIER);
+            collections.put(STAEntityDefinition.DATASTREAMS, new HashSet<>(datastreams));
         } else {
             LOGGER.error("Error while computing related Collections: Could not identify Entity Type");
         }
         return collections;
     }
 
+    /**
+     * Computes the names of all properties that changed since the entity was loaded in the current transaction. The
+     * original state is captured by the {@link DirtyStateInterceptor} when the entity is first flushed, so no
+     * additional query is needed and changes flushed before the entity was saved are included.
+     *
+     * @param entity updated entity. Must be flushed
+     * @param <S>    raw entity type
+     * @return names of changed properties. null if the original state is not available
+     */
+    @SuppressWarnings("unchecked")
+    private <S extends T> Set<String> computeDifference(S entity) {
+        SessionImplementor session = em.unwrap(SessionImplementor.class);
+        PersistenceContext context = session.getPersistenceContext();
+        Object managed = context.unproxy(entity);
+        DirtyStateInterceptor.DirtyState state = dirtyStateInterceptor.remove(managed);
+        if (state == null) {
+            // Entity was not flushed as dirty, so none of its properties changed
+            return new HashSet<>();
+        }
+        EntityEntry entry = context.getEntry(managed);
+        if (entry == null) {
+            LOGGER.debug("Could not get original state of Entity. Treating all properties as changed.");
+            return null;
+        }
+
+        Set<String> result = new HashSet<>();
+        if (state.getOriginalState() != null) {
+            EntityPersister persister = entry.getPersister();
+            S oldEntity = (S) persister.instantiate(entry.getId(), session);
+            persister.setPropertyValues(oldEntity, state.getOriginalState());
+            result = computeDifference(getPropertyMap(oldEntity), getPropertyMap((S) managed));
+        }
+        // Original state references the same collection instance as the entity, so changes of the parameters are
+        // captured separately
+        if (state.isParametersChanged()) {
+            result.add(managed instanceof PlatformEntity ? PROPERTIES : PARAMETERS);
+        }
+        return result;
+    }
+
     private Set<String> computeDifference(Map<String, Object> oldProperties, Map<String, Object> newProperties) {
         HashSet<String> result = new HashSet<>();
         for (Map.Entry<String, Object> entry : oldProperties.entrySet()) {
@@ -525,6 +657,83 @@ public class MessageBusRepository<T, I extends Serializable>
             : readPage(query, getDomainClass(), pageable, spec);
     }
 
+    @Transactional(readOnly = true)
+    public Slice<T> findSlice(@Nullable Specification<T> spec, Pageable pageable) {
+        TypedQuery<T> query = getQuery(spec, pageable, null);
+        query.setFirstResult((int) pageable.getOffset());
+        query.setMaxResults(pageable.getPageSize() + 1);
+        List<T> content = query.getResultList();
+        boolean hasNext = content.size() > pageable.getPageSize();
+        return new SliceImpl<>(hasNext ? content.subList(0, pageable.getPageSize()) : content, pageable, hasNext);
+    }
+
+    public Slice<Object[]> findSliceProjection(@Nullable Specification<T> spec,
+                                               Pageable pageable,
+                                               EntityGraphRepository.Projection<T> projection) {
+        TypedQuery<Object[]> typedQuery = getProjectionQuery(spec, pageable.getSort(), projection);
+        typedQuery.setFirstResult((int) pageable.getOffset());
+        typedQuery.setMaxResults(pageable.getPageSize() + 1);
+        List<Object[]> content = typedQuery.getResultList();
+        boolean hasNext = content.size() > pageable.getPageSize();
+        return new SliceImpl<>(hasNext ? content.subList(0, pageable.getPageSize()) : content, pageable, hasNext);
+    }
+
+    public Stream<Object[]> findStreamProjection(@Nullable Specification<T> spec,
+                                                 Sort sort,
+                                                 int fetchSize,
+                                                 EntityGraphRepository.Projection<T> projection) {
+        TypedQuery<Object[]> query = getProjectionQuery(spec, sort, projection);
+        query.setHint(QueryHints.HINT_FETCH_SIZE, fetchSize);
+        return query.getResultStream();
+    }
+
+    private TypedQuery<Object[]> getProjectionQuery(@Nullable Specification<T> spec,
+                                                    Sort sort,
+                                                    EntityGraphRepository.Projection<T> projection) {
+        CriteriaQuery<Object[]> query = criteriaBuilder.createQuery(Object[].class);
+        Root<T> root = query.from(getDomainClass());
+        if (spec != null) {
+            Predicate predicate = spec.toPredicate(root, query, criteriaBuilder);
+            if (predicate != null) {
+                query.where(predicate);
+            }
+        }
+        query.multiselect(projection.select(root, criteriaBuilder));
+        if (sort.isSorted()) {
+            query.orderBy(QueryUtils.toOrders(sort, root, criteriaBuilder));
+        }
+        return em.createQuery(query);
+    }
+
+    public Stream<T> findStream(@Nullable Specification<T> spec, Pageable pageable, int fetchSize) {
+        TypedQuery<T> query = getQuery(spec, pageable, null);
+        query.setFirstResult((int) pageable.getOffset());
+        query.setMaxResults(pageable.getPageSize() + 1);
+        query.setHint(QueryHints.HINT_FETCH_SIZE, fetchSize);
+        return query.getResultStream();
+    }
+
+    @Transactional(readOnly = true)
+    public long estimateCount() {
+        EntityPersister persister = em.unwrap(SessionImplementor.class)
+            .getFactory()
+            .getMetamodel()
+            .entityPersister(entityClass);
+        if (!(persister instanceof AbstractEntityPersister)) {
+            return -1;
+        }
+        try {
+            Object estimate = em.createNativeQuery(ESTIMATE_COUNT_QUERY)
+                .setParameter(1, ((AbstractEntityPersister) persister).getTableName())
+                .getSingleResult();
+            // reltuples is negative if the table was never analyzed
+            return (estimate instanceof Number) ? Math.max(((Number) estimate).longValue(), -1) : -1;
+        } catch (PersistenceException e) {
+            LOGGER.debug("Could not estimate count of {}: {}", entityClass.getSimpleName(), e.getMessage());
+            return -1;
+        }
+    }
+
     public List<T> findAll(Specification<T> spec, Sort sort, EntityGraphRepository.FetchGraph... fetchGraphs) {
         return getQuery(spec, sort, createEntityGraph(fetchGraphs)).getResultList();
     }
@@ -597,4 +806,19 @@ public class MessageBusRepository<T, I extends Serializable>
         }
     }
 
+    /**
+     * Fires mqtt events for an entity that was updated directly in the Datastore, e.g. via an update statement.
+     * The entity is not refreshed, so the caller must have applied the update to it beforehand.
+     *
+     * @param entity     Entity that was updated. Must hold the updated state
+     * @param difference names of the updated properties
+     */
+    @Transactional
+    public void notifyUpdate(T entity, Set<String> difference) {
+        String entityType = entityTypeToStaType.get(entityInformation.getEntityName());
+        if (mqttHandler.getWatchedEntityTypes().contains(entityType)) {
+            this.mqttHandler.handleEvent(entity, entityType, difference, getRelatedCollections(entity));
+        }
+    }
+
 }
@@ -42,9 +42,5 @@ import java.util.Set;
 public interface ObservationRepository<T extends DataEntity<?>>
     extends IdentifierRepository<T, Long>, StaIdentifierRepository<T> {
 
-    DataEntity<T> findFirstByDataset_idOrderBySamplingTimeStartAsc(Long datasetIdentifier);
-
-    DataEntity<T> findFirstByDataset_idOrderBySamplingTimeEndDesc(Long datasetIdentifier);
-
     void deleteAllByDatasetIdIn(Set<Long> datasetId);
 }
@@ -57,6 +57,12 @@ public interface RepositoryConstants {
     String DEFINITION = "definition";
     String PARAMETERS = "parameters";
     String RESULT = "result";
+    String FIRSTVALUEAT = "firstValueAt";
+    String LASTVALUEAT = "lastValueAt";
+    String FIRSTOBSERVATION = "firstObservation";
+    String LASTOBSERVATION = "lastObservation";
+    String FIRSTQUANTITYVALUE = "firstQuantityValue";
+    String LASTQUANTITYVALUE = "lastQuantityValue";
 
     String ENTITYNAME_OBSERVATION = "ObservationEntity";
     String ENTITYNAME_ABSTRACT_DATASET = "AbstractDatasetEntity";
@@ -33,6 +33,7 @@ import org.springframework.data.repository.NoRepositoryBean;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.util.Optional;
+import java.util.Set;
 
 /**
  * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
@@ -68,4 +69,14 @@ public interface StaIdentifierRepository<T> extends EntityGraphRepository<T, Lon
 
     T intermediateSave(T entity);
 
+    /**
+     * Notifies mqtt subscriptions about an Entity that was updated directly in the Database, e.g. via an update
+     * statement, instead of being saved. The Entity is not refreshed from the Database, so the update must have been
+     * applied to it beforehand.
+     *
+     * @param entity     updated Entity. Must hold the updated state
+     * @param difference names of the updated properties
+     */
+    void notifyUpdate(T entity, Set<String> difference);
+
 }
@@ -49,6 +49,7 @@ import org.n52.sta.data.repositories.EntityGraphRepository;
 import org.n52.sta.data.repositories.StaIdentifierRepository;
 import org.n52.sta.data.service.EntityServiceRepository.EntityTypes;
 import org.n52.sta.data.service.util.CollectionWrapper;
+import org.n52.sta.data.service.util.ExpandCache;
 import org.n52.sta.data.service.util.FilterExprVisitor;
 import org.n52.sta.data.service.util.HibernateSpatialCriteriaBuilderImpl;
 import org.n52.sta.serdes.util.ElementWithQueryOptions;
@@ -57,6 +58,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.domain.Specification;
@@ -65,8 +67,15 @@ import org.springframework.transaction.annotation.Transactional;
 
 import javax.persistence.EntityManager;
 import javax.persistence.criteria.Predicate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
  * Interface for requesting Sensor Things entities
@@ -79,6 +88,7 @@ public abstract class AbstractSensorThingsEntityServiceImpl<T extends StaIdentif
     S extends HibernateRelations.HasId> implements AbstractSensorThingsEntityService<S> {
 
     // protected static final String IDENTIFIER = "identifier";
+    protected static final String ID = "id";
     protected static final String STAIDENTIFIER = "staIdentifier";
     protected static final String ENCODINGTYPE = "encodingType";
     protected static final String RESULT = "result";
@@ -96,14 +106,14 @@ public abstract class AbstractSensorThingsEntityServiceImpl<T extends StaIdentif
     protected static final String NO_S_WITH_ID_S_FOUND = "No %s with id %s found.";
 
     private static final Logger LOGGER = LoggerFactory.getLogger(AbstractSensorThingsEntityServiceImpl.class);
-    private final EntityManager em;
+    protected final EntityManager em;
     private final Class<S> entityClass;
 
     @Autowired
     private EntityServiceRepository serviceRepository;
 
     @Autowired
-    private MutexFactory lock;
+    private MutexFactory mutexFactory;
 
     private T repository;
 
@@ -116,19 +126,18 @@ public abstract class AbstractSensorThingsEntityServiceImpl<T extends StaIdentif
     }
 
     /**
-     * Gets a lock with given name from global lockMap. Name is unique per EntityType.
-     * Uses weak references so Map is automatically cleared by GC.
+     * Acquires the lock with given name. Name is unique per EntityType.
      * Used to lock Entities to avoid race conditions
      *
      * @param key name of the lock
-     * @return Object used for holding the lock
+     * @return acquired lock. Must be closed after use, preferably via try-with-resources
      * @throws STACRUDException If the lock can not be aquired
      */
-    protected Object getLock(String key) throws STACRUDException {
+    protected MutexFactory.Lock lock(String key) throws STACRUDException {
         if (key == null) {
             throw new STACRUDException("Unable to aquire lock. Invalid key provided!");
         } else {
-            return lock.getLock(key + entityClass.getSimpleName());
+            return mutexFactory.lock(entityClass, key);
         }
     }
 
@@ -217,13 +226,20 @@ public abstract class AbstractSensorThingsEntityServiceImpl<T extends StaIdentif
     }
 
     public S getEntityByIdRaw(Long id, QueryOptions queryOptions) throws STACRUDException {
+        ExpandCache cache = ExpandCache.current();
+        S cached = cache != null ? cache.get(entityClass, id, queryOptions, false) : null;
+        if (cached != null) {
+            return cached;
+        }
         try {
             S entity = getRepository().findById(id, createFetchGraph(queryOptions.getExpandFilter())).get();
             if (queryOptions.hasExpandFilter()) {
-                return fetchExpandEntitiesWithFilter(entity, queryOptions.getExpandFilter());
-            } else {
-                return entity;
+                entity = fetchExpandEntitiesWithFilter(entity, queryOptions.getExpandFilter());
+            }
+            if (cache != null) {
+                cache.put(entityClass, id, queryOptions, false, entity);
             }
+            return entity;
         } catch (RuntimeException | STAInvalidQueryException e) {
             throw new STACRUDException(e.getMessage(), e);
         }
@@ -231,18 +247,12 @@ public abstract class AbstractSensorThingsEntityServiceImpl<T extends StaIdentif
 
     protected CollectionWrapper createCollectionWrapperAndExpand(QueryOptions queryOptions, Page<S> pages) {
         if (queryOptions.hasExpandFilter()) {
-            Page expanded = pages.map(e -> {
-                try {
-                    em.detach(e);
-                    return fetchExpandEntitiesWithFilter(e, queryOptions.getExpandFilter());
-                } catch (STACRUDException | STAInvalidQueryException ex) {
-                    throw new RuntimeException(ex);
-                }
-            });
-            return new CollectionWrapper(expanded.getTotalElements(),
-                                         expanded.map(e -> createWrapper(e, queryOptions))
-                                             .getContent(),
-                                         expanded.hasNext());
+            List<S> expanded = expandPage(pages.getContent(), queryOptions.getExpandFilter());
+            return new CollectionWrapper(pages.getTotalElements(),
+                                         expanded.stream()
+                                             .map(e -> createWrapper(e, queryOptions))
+                                             .collect(Collectors.toList()),
+                                         pages.hasNext());
         } else {
             return new CollectionWrapper(pages.getTotalElements(),
                                          pages.map(e -> createWrapper(e, queryOptions))
@@ -296,14 +306,9 @@ public abstract class AbstractSensorThingsEntityServiceImpl<T extends StaIdentif
                          createPageableRequest(queryOptions),
                          createFetchGraph(queryOptions.getExpandFilter()));
             if (queryOptions.hasExpandFilter()) {
-                return pages.map(e -> {
-                    try {
-                        em.detach(e);
-                        return fetchExpandEntitiesWithFilter(e, queryOptions.getExpandFilter());
-                    } catch (STACRUDException | STAInvalidQueryException ex) {
-                        throw new RuntimeException(ex);
-                    }
-                });
+                return new PageImpl<>(expandPage(pages.getContent(), queryOptions.getExpandFilter()),
+                                      pages.getPageable(),
+                                      pages.getTotalElements());
             } else {
                 return pages;
             }
@@ -312,6 +317,71 @@ public abstract class AbstractSensorThingsEntityServiceImpl<T extends StaIdentif
         }
     }
 
+    /**
+     * Batch variant of {@link #getEntityByIdRaw(Long, QueryOptions)}. Fetches all requested entities with a single
+     * query and resolves their $expand for all of them at once. Entities already loaded during the current request
+     * are taken from the {@link ExpandCache}.
+     *
+     * @param ids          ids of the entities
+     * @param queryOptions {@link QueryOptions}
+     * @param applyFilter  whether $filter of the queryOptions is evaluated
+     * @return entities by id. Entities not matching $filter are missing
+     * @throws STACRUDException if the queryOptions are invalid
+     */
+    public Map<Long, S> getEntitiesByIdRaw(Collection<Long> ids, QueryOptions queryOptions, boolean applyFilter)
+        throws STACRUDException {
+        ExpandCache cache = ExpandCache.current();
+        Map<Long, S> result = new HashMap<>();
+        Set<Long> missing = new HashSet<>();
+        for (Long id : ids) {
+            S cached = cache != null ? cache.get(entityClass, id, queryOptions, applyFilter) : null;
+            if (cached != null) {
+                result.put(id, cached);
+            } else {
+                missing.add(id);
+            }
+        }
+        if (missing.isEmpty()) {
+            return result;
+        }
+        try {
+            Specification<S> spec = (root, query, builder) -> root.get(ID).in(missing);
+            if (applyFilter) {
+                spec = spec.and(getFilterPredicate(entityClass, queryOptions));
+            }
+            List<S> entities = getRepository().findAll(spec, createFetchGraph(queryOptions.getExpandFilter()));
+            if (queryOptions.hasExpandFilter()) {
+                entities = expandPage(entities, queryOptions.getExpandFilter());
+            }
+            for (S entity : entities) {
+                result.put(entity.getId(), entity);
+                if (cache != null) {
+                    cache.put(entityClass, entity.getId(), queryOptions, applyFilter, entity);
+                }
+            }
+            return result;
+        } catch (RuntimeException | STAInvalidQueryException e) {
+            throw new STACRUDException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Detaches the given entities and fetches their $expanded Entities.
+     *
+     * @param entities     Base Entities
+     * @param expandOption Entities to be expanded
+     * @return Base Entities with embedded expanded parameters
+     */
+    protected List<S> expandPage(List<S> entities, ExpandFilter expandOption) {
+        List<S> page = new ArrayList<>(entities);
+        page.forEach(em::detach);
+        try {
+            return fetchExpandEntitiesWithFilter(page, expandOption);
+        } catch (STACRUDException | STAInvalidQueryException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
     /**
      * Creates a Fetchgraph for this Entity. Includes relations that need to be fetched by default as well as directly
      * fetching $expanded Entities that are NOT  filtered via $filter. As they are not filtered individually they
@@ -337,6 +407,25 @@ public abstract class AbstractSensorThingsEntityServiceImpl<T extends StaIdentif
     protected abstract S fetchExpandEntitiesWithFilter(S entity, ExpandFilter expandOption)
         throws STACRUDException, STAInvalidQueryException;
 
+    /**
+     * Fetches $expanded Entities for a whole page of entities. Resolves each entity individually by default.
+     * Services may override this to fetch each expanded Item for all entities with a single query instead.
+     *
+     * @param entities     Base Entities. Detached from the persistence context
+     * @param expandOption Entities to be expanded
+     * @return Base Entities with embedded expanded parameters
+     * @throws STACRUDException         if an error occurred
+     * @throws STAInvalidQueryException if the query is invalid
+     */
+    protected List<S> fetchExpandEntitiesWithFilter(List<S> entities, ExpandFilter expandOption)
+        throws STACRUDException, STAInvalidQueryException {
+        List<S> expanded = new ArrayList<>(entities.size());
+        for (S entity : entities) {
+            expanded.add(fetchExpandEntitiesWithFilter(entity, expandOption));
+        }
+        return expanded;
+    }
+
     /**
      * Wraps the raw Entity into a Wrapper object to associate with QueryOptions used for this request
      *
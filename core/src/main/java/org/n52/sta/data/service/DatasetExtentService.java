@@ -0,0 +1,349 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.data.service;
+
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.n52.series.db.beans.AbstractDatasetEntity;
+import org.n52.series.db.beans.DataEntity;
+import org.n52.series.db.beans.QuantityDataEntity;
+import org.n52.sta.data.repositories.DatastreamRepository;
+import org.n52.sta.data.repositories.RepositoryConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Root;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Maintains the extents of Datasets, i.e. first/last Observation and phenomenonTime, when Observations at the
+ * boundary of a Dataset are updated or deleted. Only the first and last Observation of the Dataset are looked up,
+ * which is backed by indexes on (dataset, samplingTimeStart) and (dataset, samplingTimeEnd) of the Observation table.
+ * The indexes are part of the database setup (see etc/sql/sta_observation_extent_indexes.sql) and may optionally be
+ * created in the background on startup. Extents of aggregations are derived from the extents of their members instead
+ * of the Observations.
+ *
+ * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
+ */
+@Component
+@Transactional
+public class DatasetExtentService {
+
+    static final String START_INDEX = "sta_observation_dataset_start_idx";
+    static final String END_INDEX = "sta_observation_dataset_end_idx";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DatasetExtentService.class);
+
+    private final EntityManager em;
+    private final DatastreamRepository datastreamRepository;
+    private final DataSource dataSource;
+    private final boolean createIndexes;
+
+    public DatasetExtentService(EntityManager em,
+                                DatastreamRepository datastreamRepository,
+                                DataSource dataSource,
+                                @Value("${server.feature.datasetExtentIndexes:false}") boolean createIndexes) {
+        this.em = em;
+        this.datastreamRepository = datastreamRepository;
+        this.dataSource = dataSource;
+        this.createIndexes = createIndexes;
+    }
+
+    /**
+     * Creates the indexes used for looking up the first/last Observation of a Dataset in the background if
+     * enabled. Indexes are created concurrently so that writes to the Observation table are not blocked.
+     */
+    @PostConstruct
+    public void init() {
+        if (!createIndexes) {
+            return;
+        }
+        ExecutorService executor =
+            Executors.newSingleThreadExecutor(new CustomizableThreadFactory("dataset-extent-indexes-"));
+        executor.execute(this::createIndexes);
+        executor.shutdown();
+    }
+
+    private void createIndexes() {
+        SessionFactoryImplementor factory = em.getEntityManagerFactory().unwrap(SessionFactoryImplementor.class);
+        AbstractEntityPersister observation =
+            (AbstractEntityPersister) factory.getMetamodel().entityPersister(DataEntity.class);
+        String table = observation.getTableName();
+        String dataset = observation.getPropertyColumnNames(DataEntity.PROPERTY_DATASET)[0];
+        String id = observation.getIdentifierColumnNames()[0];
+        createIndex(START_INDEX,
+                    table,
+                    dataset,
+                    observation.getPropertyColumnNames(DataEntity.PROPERTY_SAMPLING_TIME_START)[0],
+                    id);
+        createIndex(END_INDEX,
+                    table,
+                    dataset,
+                    observation.getPropertyColumnNames(DataEntity.PROPERTY_SAMPLING_TIME_END)[0],
+                    id);
+    }
+
+    /**
+     * Checks whether the given Observation is at the boundary of the given Dataset, either with its current
+     * phenomenonTime or with the given previous one. Only in this case the Dataset and its aggregation are locked and
+     * the check is repeated on their refreshed state, as they may have been changed concurrently. Observations
+     * within the extents of the Dataset are therefore updated or deleted without serializing on the Dataset.
+     *
+     * @param dataset       Dataset of the Observation. Must be managed
+     * @param observation   updated or deleted Observation
+     * @param previousStart samplingTimeStart of the Observation before the update
+     * @param previousEnd   samplingTimeEnd of the Observation before the update
+     * @return true if the Dataset is locked and its extents need to be recomputed
+     */
+    public boolean lockIfBoundary(AbstractDatasetEntity dataset,
+                                  DataEntity<?> observation,
+                                  Date previousStart,
+                                  Date previousEnd) {
+        if (!isAffected(dataset, observation, previousStart, previousEnd)) {
+            return false;
+        }
+        lock(dataset);
+        return isAffected(dataset, observation, previousStart, previousEnd);
+    }
+
+    /**
+     * Locks the given Dataset and its aggregation until the end of the current transaction and refreshes their
+     * state. Inserts extending the Dataset concurrently wait for the lock and are applied on top of the extents
+     * recomputed in this transaction.
+     *
+     * @param dataset Dataset to be locked. Must be managed
+     */
+    private void lock(AbstractDatasetEntity dataset) {
+        em.refresh(dataset, LockModeType.PESSIMISTIC_WRITE);
+        if (dataset.isSetAggregation()) {
+            lock(dataset.getAggregation());
+        }
+    }
+
+    /**
+     * Checks whether the given Observation is at the boundary of the given Dataset, i.e. whether it is referenced as
+     * first/last Observation or whether the given times do not lie within the phenomenonTime of the Dataset.
+     *
+     * @param dataset     Dataset of the Observation
+     * @param observation Observation to be checked
+     * @param start       (previous) samplingTimeStart of the Observation
+     * @param end         (previous) samplingTimeEnd of the Observation
+     * @return true if the extents of the Dataset may be affected by changes of the Observation
+     */
+    private boolean isBoundary(AbstractDatasetEntity dataset, DataEntity<?> observation, Date start, Date end) {
+        return isReferenced(dataset.getFirstObservation(), observation)
+            || isReferenced(dataset.getLastObservation(), observation)
+            || dataset.getPhenomenonTimeStart() == null
+            || dataset.getPhenomenonTimeEnd() == null
+            || !start.after(dataset.getPhenomenonTimeStart())
+            || !end.before(dataset.getPhenomenonTimeEnd());
+    }
+
+    /**
+     * Removes all references of the given Dataset and its aggregation to the given Observation, so that the
+     * Observation can be deleted.
+     *
+     * @param dataset     Dataset of the Observation
+     * @param observation Observation to be deleted
+     */
+    public void removeReferences(AbstractDatasetEntity dataset, DataEntity<?> observation) {
+        for (AbstractDatasetEntity current = dataset; current != null; current = current.getAggregation()) {
+            if (isReferenced(current.getFirstObservation(), observation)) {
+                current.setFirstObservation(null);
+                current.setFirstQuantityValue(null);
+                current.setFirstValueAt(null);
+            }
+            if (isReferenced(current.getLastObservation(), observation)) {
+                current.setLastObservation(null);
+                current.setLastQuantityValue(null);
+                current.setLastValueAt(null);
+            }
+        }
+        em.flush();
+    }
+
+    /**
+     * Recomputes first/last Observation and phenomenonTime of the given Dataset and its aggregation. Must be called
+     * after the Observation at the boundary was updated or deleted and the Dataset was locked.
+     *
+     * @param dataset Dataset to be recomputed
+     */
+    public void recompute(AbstractDatasetEntity dataset) {
+        LOGGER.debug("Recomputing extents of Dataset: {}", dataset.getId());
+        DataEntity<?> first = findBoundaryObservation(dataset.getId(), DataEntity.PROPERTY_SAMPLING_TIME_START, true);
+        DataEntity<?> last = findBoundaryObservation(dataset.getId(), DataEntity.PROPERTY_SAMPLING_TIME_END, false);
+
+        dataset.setFirstObservation(first);
+        dataset.setFirstValueAt(first != null ? first.getSamplingTimeStart() : null);
+        dataset.setFirstQuantityValue(first instanceof QuantityDataEntity
+                                          ? ((QuantityDataEntity) first).getValue()
+                                          : null);
+        dataset.setLastObservation(last);
+        dataset.setLastValueAt(last != null ? last.getSamplingTimeEnd() : null);
+        dataset.setLastQuantityValue(last instanceof QuantityDataEntity
+                                         ? ((QuantityDataEntity) last).getValue()
+                                         : null);
+        // Set Start and End to null if there is no observation.
+        dataset.setPhenomenonTimeStart(first != null && last != null ? first.getSamplingTimeStart() : null);
+        dataset.setPhenomenonTimeEnd(first != null && last != null ? last.getSamplingTimeEnd() : null);
+        notifyUpdate(dataset);
+
+        if (dataset.isSetAggregation()) {
+            recomputeAggregation(dataset.getAggregation());
+        }
+    }
+
+    /**
+     * Writes the recomputed extents of the given managed Dataset and notifies subscribers. The Dataset is not saved
+     * via the repository, as its extents do not affect cached Datastream metadata.
+     *
+     * @param dataset recomputed Dataset
+     */
+    private void notifyUpdate(AbstractDatasetEntity dataset) {
+        em.flush();
+        datastreamRepository.notifyUpdate(dataset, Collections.singleton(RepositoryConstants.PHENOMENONTIME));
+    }
+
+    /**
+     * Recomputes the extents of the given aggregation from the extents of its members.
+     *
+     * @param aggregation aggregation to be recomputed
+     */
+    private void recomputeAggregation(AbstractDatasetEntity aggregation) {
+        LOGGER.debug("Recomputing extents of Aggregation: {}", aggregation.getId());
+        AbstractDatasetEntity first = null;
+        AbstractDatasetEntity last = null;
+        Date start = null;
+        Date end = null;
+        Set<AbstractDatasetEntity> members = datastreamRepository.findAllByAggregationId(aggregation.getId());
+        for (AbstractDatasetEntity member : members) {
+            if (member.isSetFirstValueAt()
+                && (first == null || member.getFirstValueAt().before(first.getFirstValueAt()))) {
+                first = member;
+            }
+            if (member.isSetLastValueAt()
+                && (last == null || member.getLastValueAt().after(last.getLastValueAt()))) {
+                last = member;
+            }
+            if (member.getPhenomenonTimeStart() != null
+                && (start == null || member.getPhenomenonTimeStart().before(start))) {
+                start = member.getPhenomenonTimeStart();
+            }
+            if (member.getPhenomenonTimeEnd() != null
+                && (end == null || member.getPhenomenonTimeEnd().after(end))) {
+                end = member.getPhenomenonTimeEnd();
+            }
+        }
+
+        aggregation.setFirstObservation(first != null ? first.getFirstObservation() : null);
+        aggregation.setFirstValueAt(first != null ? first.getFirstValueAt() : null);
+        aggregation.setFirstQuantityValue(first != null ? first.getFirstQuantityValue() : null);
+        aggregation.setLastObservation(last != null ? last.getLastObservation() : null);
+        aggregation.setLastValueAt(last != null ? last.getLastValueAt() : null);
+        aggregation.setLastQuantityValue(last != null ? last.getLastQuantityValue() : null);
+        aggregation.setPhenomenonTimeStart(start != null && end != null ? start : null);
+        aggregation.setPhenomenonTimeEnd(start != null && end != null ? end : null);
+        notifyUpdate(aggregation);
+
+        if (aggregation.isSetAggregation()) {
+            recomputeAggregation(aggregation.getAggregation());
+        }
+    }
+
+    /**
+     * Finds the earliest or latest Observation of the given Dataset via index on (dataset, time, id).
+     *
+     * @param datasetId    id of the Dataset
+     * @param timeProperty name of the time property to be ordered by
+     * @param earliest     whether the earliest Observation should be found. Finds the latest otherwise
+     * @return Observation. null if the Dataset has no Observations
+     */
+    @SuppressWarnings("rawtypes")
+    private DataEntity<?> findBoundaryObservation(Long datasetId, String timeProperty, boolean earliest) {
+        CriteriaBuilder builder = em.getCriteriaBuilder();
+        CriteriaQuery<DataEntity> query = builder.createQuery(DataEntity.class);
+        Root<DataEntity> root = query.from(DataEntity.class);
+        Path<Date> time = root.get(timeProperty);
+        Path<Long> id = root.get(DataEntity.PROPERTY_ID);
+        query.select(root)
+            .where(builder.equal(root.get(DataEntity.PROPERTY_DATASET_ID), datasetId))
+            .orderBy(earliest ? builder.asc(time) : builder.desc(time),
+                     earliest ? builder.asc(id) : builder.desc(id));
+        List<DataEntity> result = em.createQuery(query).setMaxResults(1).getResultList();
+        return result.isEmpty() ? null : (DataEntity<?>) result.get(0);
+    }
+
+    private boolean isAffected(AbstractDatasetEntity dataset,
+                               DataEntity<?> observation,
+                               Date previousStart,
+                               Date previousEnd) {
+        return isBoundary(dataset, observation, previousStart, previousEnd)
+            || isBoundary(dataset, observation, observation.getSamplingTimeStart(), observation.getSamplingTimeEnd());
+    }
+
+    private boolean isReferenced(DataEntity<?> reference, DataEntity<?> observation) {
+        return reference != null && Objects.equals(reference.getId(), observation.getId());
+    }
+
+    private void createIndex(String name, String table, String dataset, String time, String id) {
+        // CONCURRENTLY is not allowed inside a transaction, so the statement is executed in autocommit mode
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            connection.setAutoCommit(true);
+            statement.execute("CREATE INDEX CONCURRENTLY IF NOT EXISTS " + name + " ON " + table
+                                  + " (" + dataset + ", " + time + ", " + id + ")");
+            LOGGER.info("Ensured index {} on {}", name, table);
+        } catch (SQLException e) {
+            // e.g. another instance is creating the same index. A failed concurrent build leaves an INVALID index
+            // that needs to be dropped manually
+            LOGGER.warn("Could not create index {}. Updating or deleting the first/last Observation of a Dataset " +
+                            "may be slow: {}", name, e.getMessage());
+        }
+    }
+}
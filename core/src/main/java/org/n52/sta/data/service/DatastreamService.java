@@ -40,6 +40,9 @@ import org.n52.series.db.beans.DatasetAggregationEntity;
 import org.n52.series.db.beans.DatasetEntity;
 import org.n52.series.db.beans.IdEntity;
 import org.n52.series.db.beans.OfferingEntity;
+import org.n52.series.db.beans.PhenomenonEntity;
+import org.n52.series.db.beans.PlatformEntity;
+import org.n52.series.db.beans.ProcedureEntity;
 import org.n52.series.db.beans.UnitEntity;
 import org.n52.series.db.beans.dataset.DatasetType;
 import org.n52.series.db.beans.dataset.ObservationType;
@@ -58,6 +61,7 @@ import org.n52.shetland.ogc.sta.StaConstants;
 import org.n52.shetland.ogc.sta.exception.STACRUDException;
 import org.n52.shetland.ogc.sta.exception.STAInvalidQueryException;
 import org.n52.shetland.ogc.sta.model.STAEntityDefinition;
+import org.n52.sta.data.MutexFactory;
 import org.n52.sta.data.query.DatastreamQuerySpecifications;
 import org.n52.sta.data.repositories.CategoryRepository;
 import org.n52.sta.data.repositories.DatastreamParameterRepository;
@@ -81,8 +85,12 @@ import org.springframework.transaction.annotation.Transactional;
 
 import javax.persistence.EntityManager;
 import javax.persistence.criteria.Predicate;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
@@ -227,6 +235,91 @@ public class DatastreamService extends
         return entity;
     }
 
+    @Override
+    protected List<AbstractDatasetEntity> fetchExpandEntitiesWithFilter(List<AbstractDatasetEntity> entities,
+                                                                        ExpandFilter expandOption)
+        throws STACRUDException, STAInvalidQueryException {
+        for (ExpandItem expandItem : expandOption.getItems()) {
+            String expandProperty = expandItem.getPath();
+            // We have already handled $expand without filter and expand
+            // Except for $expand on Observations
+            if (!(expandItem.getQueryOptions().hasFilterFilter() || expandItem.getQueryOptions().hasExpandFilter())
+                && !expandProperty.equals(STAEntityDefinition.OBSERVATIONS)) {
+                continue;
+            }
+            switch (expandProperty) {
+                case STAEntityDefinition.SENSOR:
+                    Map<Long, ProcedureEntity> sensors = getSensorService().getEntitiesByIdRaw(
+                        entities.stream().map(e -> e.getProcedure().getId()).collect(Collectors.toSet()),
+                        expandItem.getQueryOptions(),
+                        false);
+                    entities.forEach(e -> e.setProcedure(sensors.get(e.getProcedure().getId())));
+                    break;
+                case STAEntityDefinition.THING:
+                    Map<Long, PlatformEntity> things = getThingService().getEntitiesByIdRaw(
+                        entities.stream().map(e -> e.getThing().getId()).collect(Collectors.toSet()),
+                        expandItem.getQueryOptions(),
+                        false);
+                    entities.forEach(e -> e.setThing(things.get(e.getThing().getId())));
+                    break;
+                case STAEntityDefinition.OBSERVED_PROPERTY:
+                    Map<Long, PhenomenonEntity> observedProperties = getObservedPropertyService().getEntitiesByIdRaw(
+                        entities.stream().map(e -> e.getObservableProperty().getId()).collect(Collectors.toSet()),
+                        expandItem.getQueryOptions(),
+                        false);
+                    entities.forEach(e -> e.setObservableProperty(
+                        observedProperties.get(e.getObservableProperty().getId())));
+                    break;
+                case STAEntityDefinition.OBSERVATIONS:
+                    expandObservations(entities, expandItem);
+                    break;
+                default:
+                    throw new STAInvalidQueryException(String.format(INVALID_EXPAND_OPTION_SUPPLIED,
+                                                                     expandProperty,
+                                                                     StaConstants.DATASTREAM));
+            }
+        }
+        return entities;
+    }
+
+    private void expandObservations(List<AbstractDatasetEntity> entities, ExpandItem expandItem)
+        throws STACRUDException {
+        List<AbstractDatasetEntity> remaining = new ArrayList<>();
+        for (AbstractDatasetEntity entity : entities) {
+            // Optimize Request when only First/Last Observation is requested as we have already fetched that.
+            if (checkForFirstLastObservation(expandItem)) {
+                if (checkForFirstObservation(expandItem) && entity.getFirstObservation() != null) {
+                    entity.setObservations(Collections.singleton(entity.getFirstObservation()));
+                    continue;
+                } else if (checkForLastObservation(expandItem) && entity.getLastObservation() != null) {
+                    entity.setObservations(Sets.newHashSet(Collections.singleton(entity.getLastObservation())));
+                    continue;
+                }
+            }
+            remaining.add(entity);
+        }
+        if (remaining.isEmpty()) {
+            return;
+        }
+        Map<Long, List<DataEntity<?>>> observations = getObservationService().getEntitiesByDatastreamIdsRaw(
+            remaining.stream().map(AbstractDatasetEntity::getId).collect(Collectors.toSet()),
+            expandItem.getQueryOptions());
+        if (observations != null) {
+            // Insertion order retains the requested order of the Observations
+            remaining.forEach(e -> e.setObservations(
+                new LinkedHashSet<>(observations.getOrDefault(e.getId(), Collections.emptyList()))));
+        } else {
+            // $filter needs to be evaluated per Datastream
+            for (AbstractDatasetEntity entity : remaining) {
+                Page<DataEntity<?>> page = getObservationService()
+                    .getEntityCollectionByRelatedEntityRaw(entity.getStaIdentifier(),
+                                                           STAEntityDefinition.DATASTREAMS,
+                                                           expandItem.getQueryOptions());
+                entity.setObservations(page.get().collect(Collectors.toCollection(LinkedHashSet::new)));
+            }
+        }
+    }
+
     @Override
     protected Specification<AbstractDatasetEntity> byRelatedEntityFilter(String relatedId,
                                                                          String relatedType,
@@ -280,7 +373,7 @@ public class DatastreamService extends
                 datastream.setIdentifier(uuid);
                 datastream.setStaIdentifier(uuid);
             }
-            synchronized (getLock(datastream.getStaIdentifier())) {
+            try (MutexFactory.Lock lock = lock(datastream.getStaIdentifier())) {
                 if (getRepository().existsByStaIdentifier(datastream.getStaIdentifier())) {
                     throw new STACRUDException("Identifier already exists!", HTTPStatus.CONFLICT);
                 }
@@ -321,7 +414,7 @@ public class DatastreamService extends
         throws STACRUDException {
         checkUpdate(entity);
         if (HttpMethod.PATCH.equals(method)) {
-            synchronized (getLock(id)) {
+            try (MutexFactory.Lock lock = lock(id)) {
                 Optional<AbstractDatasetEntity> existing =
                     getRepository().findOne(dQS.withStaIdentifier(id),
                                             EntityGraphRepository.FetchGraph.FETCHGRAPH_UOM,
@@ -571,7 +664,7 @@ public class DatastreamService extends
 
     @Override
     public void delete(String id) throws STACRUDException {
-        synchronized (getLock(id)) {
+        try (MutexFactory.Lock lock = lock(id)) {
             if (getRepository().existsByStaIdentifier(id)) {
                 AbstractDatasetEntity datastream =
                     getRepository().findByStaIdentifier(id).get();
@@ -614,7 +707,7 @@ public class DatastreamService extends
     private void createOrfetchUnit(AbstractDatasetEntity datastream) throws STACRUDException {
         UnitEntity unit;
         if (datastream.isSetUnit()) {
-            synchronized (getLock(datastream.getUnit().getSymbol() + "unit")) {
+            try (MutexFactory.Lock lock = lock(datastream.getUnit().getSymbol() + "unit")) {
                 if (!unitRepository.existsBySymbol(datastream.getUnit().getSymbol())) {
                     unit = unitRepository.save(datastream.getUnit());
                 } else {
@@ -49,6 +49,8 @@ import org.n52.shetland.ogc.sta.StaConstants;
 import org.n52.shetland.ogc.sta.exception.STACRUDException;
 import org.n52.shetland.ogc.sta.exception.STAInvalidQueryException;
 import org.n52.shetland.ogc.sta.model.STAEntityDefinition;
+import org.n52.sta.data.GeneratedFeatureCache;
+import org.n52.sta.data.MutexFactory;
 import org.n52.sta.data.query.DatastreamQuerySpecifications;
 import org.n52.sta.data.query.FeatureOfInterestQuerySpecifications;
 import org.n52.sta.data.query.ObservationQuerySpecifications;
@@ -98,6 +100,7 @@ public class FeatureOfInterestService
     private final ObservationRepository observationRepository;
     private final DatastreamRepository datastreamRepository;
     private final FeatureOfInterestParameterRepository parameterRepository;
+    private final GeneratedFeatureCache generatedFeatureCache;
 
     @Autowired
     public FeatureOfInterestService(FeatureOfInterestRepository repository,
@@ -105,6 +108,7 @@ public class FeatureOfInterestService
                                     ObservationRepository observationRepository,
                                     DatastreamRepository datastreamRepository,
                                     FeatureOfInterestParameterRepository parameterRepository,
+                                    GeneratedFeatureCache generatedFeatureCache,
                                     EntityManager em) {
         super(repository,
               em,
@@ -113,6 +117,7 @@ public class FeatureOfInterestService
         this.observationRepository = observationRepository;
         this.datastreamRepository = datastreamRepository;
         this.parameterRepository = parameterRepository;
+        this.generatedFeatureCache = generatedFeatureCache;
     }
 
     @Override protected EntityGraphRepository.FetchGraph[] createFetchGraph(ExpandFilter expandOption) {
@@ -201,7 +206,7 @@ public class FeatureOfInterestService
                 feature.setStaIdentifier(uuid);
             }
         }
-        synchronized (getLock(feature.getStaIdentifier())) {
+        try (MutexFactory.Lock lock = lock(feature.getStaIdentifier())) {
             // Check whether feature exists by sta and sos identifier
             if (getRepository().existsByStaIdentifier(feature.getStaIdentifier())) {
                 // Return feature from database instead of creating it anew if it is based on a location.
@@ -246,7 +251,7 @@ public class FeatureOfInterestService
     public AbstractFeatureEntity<?> updateEntity(String id, AbstractFeatureEntity<?> entity, HttpMethod method)
         throws STACRUDException {
         if (HttpMethod.PATCH.equals(method)) {
-            synchronized (getLock(id)) {
+            try (MutexFactory.Lock lock = lock(id)) {
                 Optional<AbstractFeatureEntity<?>> existing =
                     getRepository().findByStaIdentifier(id,
                                                         EntityGraphRepository.FetchGraph.FETCHGRAPH_FEATURETYPE);
@@ -315,11 +320,12 @@ public class FeatureOfInterestService
 
     @Override
     public void delete(String id) throws STACRUDException {
-        synchronized (getLock(id)) {
+        try (MutexFactory.Lock lock = lock(id)) {
             if (getRepository().existsByStaIdentifier(id)) {
                 // check observations
                 deleteRelatedObservationsAndUpdateDatasets(id);
                 getRepository().deleteByStaIdentifier(id);
+                generatedFeatureCache.invalidate();
             } else {
                 throw new STACRUDException(UNABLE_TO_DELETE_ENTITY_NOT_FOUND, HTTPStatus.NOT_FOUND);
             }
@@ -328,7 +334,7 @@ public class FeatureOfInterestService
 
     private void deleteRelatedObservationsAndUpdateDatasets(String featureId) throws STACRUDException {
         // set dataset first/last to null
-        synchronized (getLock(featureId)) {
+        try (MutexFactory.Lock lock = lock(featureId)) {
             Iterable<AbstractDatasetEntity> datasets =
                 datastreamRepository.findAll(dsQS.withFeatureStaIdentifier(featureId));
             // update datasets
@@ -366,7 +372,7 @@ public class FeatureOfInterestService
 
     private void checkFeatureType(AbstractFeatureEntity<?> feature) throws STACRUDException {
         FormatEntity format;
-        synchronized (getLock(feature.getFeatureType().getFormat())) {
+        try (MutexFactory.Lock lock = lock(feature.getFeatureType().getFormat())) {
             if (!formatRepository.existsByFormat(feature.getFeatureType().getFormat())) {
                 format = formatRepository.save(feature.getFeatureType());
             } else {
@@ -386,7 +392,7 @@ public class FeatureOfInterestService
      * @throws STACRUDException if an error occurred
      */
     public void updateFeatureOfInterestGeometry(String id, Geometry geom) throws STACRUDException {
-        synchronized (getLock(id)) {
+        try (MutexFactory.Lock lock = lock(id)) {
             Optional<AbstractFeatureEntity<?>> existing =
                 getRepository().findByStaIdentifier(id, EntityGraphRepository.FetchGraph.FETCHGRAPH_FEATURETYPE);
             if (existing.isPresent()) {
@@ -84,7 +84,7 @@ public class FormatService {
 
     @Transactional
     public FormatEntity createOrFetchFormat(FormatEntity formatEntity) throws STACRUDException {
-        synchronized (mutexFactory.getLock(formatEntity.getFormat())) {
+        try (MutexFactory.Lock lock = mutexFactory.lock(FormatService.class, formatEntity.getFormat())) {
             if (!formatRepository.existsByFormat(formatEntity.getFormat())) {
                 logger.debug("Persisting new FormatEntity: " + formatEntity.getFormat());
                 return formatRepository.save(formatEntity);
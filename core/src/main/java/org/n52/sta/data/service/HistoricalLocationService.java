@@ -39,6 +39,7 @@ import org.n52.shetland.ogc.sta.StaConstants;
 import org.n52.shetland.ogc.sta.exception.STACRUDException;
 import org.n52.shetland.ogc.sta.exception.STAInvalidQueryException;
 import org.n52.shetland.ogc.sta.model.STAEntityDefinition;
+import org.n52.sta.data.MutexFactory;
 import org.n52.sta.data.query.HistoricalLocationQuerySpecifications;
 import org.n52.sta.data.repositories.EntityGraphRepository;
 import org.n52.sta.data.repositories.HistoricalLocationRepository;
@@ -178,7 +179,7 @@ public class HistoricalLocationService
     @Override
     public HistoricalLocationEntity createOrfetch(HistoricalLocationEntity historicalLocation)
         throws STACRUDException {
-        synchronized (getLock(historicalLocation.getStaIdentifier())) {
+        try (MutexFactory.Lock lock = lock(historicalLocation.getStaIdentifier())) {
             if (!historicalLocation.isProcessed()) {
                 check(historicalLocation);
                 HistoricalLocationEntity created = processThing(historicalLocation);
@@ -193,7 +194,7 @@ public class HistoricalLocationService
     public HistoricalLocationEntity updateEntity(String id, HistoricalLocationEntity entity, HttpMethod method)
         throws STACRUDException {
         if (HttpMethod.PATCH.equals(method)) {
-            synchronized (getLock(id)) {
+            try (MutexFactory.Lock lock = lock(id)) {
                 Optional<HistoricalLocationEntity> existing = getRepository().findByStaIdentifier(id);
                 if (existing.isPresent()) {
                     HistoricalLocationEntity merged = merge(existing.get(), entity);
@@ -267,7 +268,7 @@ public class HistoricalLocationService
 
     @Override
     public void delete(String id) throws STACRUDException {
-        synchronized (getLock(id)) {
+        try (MutexFactory.Lock lock = lock(id)) {
             if (getRepository().existsByStaIdentifier(id)) {
                 HistoricalLocationEntity historicalLocation = getRepository()
                     .findByStaIdentifier(id,
@@ -43,6 +43,7 @@ import org.n52.shetland.ogc.sta.StaConstants;
 import org.n52.shetland.ogc.sta.exception.STACRUDException;
 import org.n52.shetland.ogc.sta.exception.STAInvalidQueryException;
 import org.n52.shetland.ogc.sta.model.STAEntityDefinition;
+import org.n52.sta.data.MutexFactory;
 import org.n52.sta.data.query.LocationQuerySpecifications;
 import org.n52.sta.data.repositories.EntityGraphRepository;
 import org.n52.sta.data.repositories.LocationEncodingRepository;
@@ -207,7 +208,7 @@ public class LocationService
                     location.setStaIdentifier(uuid);
                 }
             }
-            synchronized (getLock(location.getStaIdentifier())) {
+            try (MutexFactory.Lock lock = lock(location.getStaIdentifier())) {
                 if (getRepository().existsByStaIdentifier(location.getStaIdentifier())) {
                     throw new STACRUDException(IDENTIFIER_ALREADY_EXISTS, HTTPStatus.CONFLICT);
                 }
@@ -234,7 +235,7 @@ public class LocationService
     @Override
     public LocationEntity updateEntity(String id, LocationEntity entity, HttpMethod method) throws STACRUDException {
         if (HttpMethod.PATCH.equals(method)) {
-            synchronized (getLock(id)) {
+            try (MutexFactory.Lock lock = lock(id)) {
                 Optional<LocationEntity> existing = getRepository()
                     .findByStaIdentifier(id,
                                          EntityGraphRepository.FetchGraph.FETCHGRAPH_HIST_LOCATIONS,
@@ -283,7 +284,7 @@ public class LocationService
 
     @Override
     public void delete(String id) throws STACRUDException {
-        synchronized (getLock(id)) {
+        try (MutexFactory.Lock lock = lock(id)) {
             if (getRepository().existsByStaIdentifier(id)) {
                 LocationEntity location = getRepository()
                     .findByStaIdentifier(id,
@@ -317,7 +318,7 @@ public class LocationService
 
     private FormatEntity createLocationEncoding(FormatEntity locationEncoding) throws STACRUDException {
         ExampleMatcher createEncodingTypeMatcher = createEncodingTypeMatcher();
-        synchronized (getLock(locationEncoding.getFormat())) {
+        try (MutexFactory.Lock lock = lock(locationEncoding.getFormat())) {
             if (!locationEncodingRepository
                 .exists(createEncodingTypeExample(locationEncoding, createEncodingTypeMatcher))) {
                 return locationEncodingRepository.save(locationEncoding);
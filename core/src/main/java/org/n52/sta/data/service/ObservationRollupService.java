@@ -0,0 +1,595 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.data.service;
+
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.query.NativeQuery;
+import org.hibernate.type.StandardBasicTypes;
+import org.n52.series.db.beans.AbstractDatasetEntity;
+import org.n52.series.db.beans.CountDataEntity;
+import org.n52.series.db.beans.DataEntity;
+import org.n52.series.db.beans.QuantityDataEntity;
+import org.n52.sta.data.service.util.ObservationAggregation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+/**
+ * Maintains pre-computed aggregates of Observations per Dataset and bucket of configured length. Aggregates are
+ * stored in a separate table that is not mapped via Hibernate and is created by the database setup (see
+ * etc/sql/sta_observation_rollup.sql). Inserted Observations are merged into the existing aggregates, while updated
+ * or deleted Observations trigger a recomputation of the affected buckets as min/max and first/last cannot be
+ * maintained by subtraction.
+ * <p>
+ * The state of each bucket length is recorded in a separate table. Rollups of a bucket length are only used once
+ * they were completely computed from the existing Observations, which is done in the background one Dataset at a
+ * time. Bucket lengths that are not configured on startup are marked as stale, as Observations written afterwards
+ * are not tracked, and are computed again once they are configured again.
+ *
+ * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
+ */
+@Component
+@Transactional
+public class ObservationRollupService {
+
+    static final String TABLE = "sta_observation_rollup";
+    static final String STATE_TABLE = "sta_observation_rollup_state";
+    // First key of the advisory locks guarding the rollups of a Dataset against concurrent backfill
+    private static final int LOCK_KEY = 0x5354_4152;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ObservationRollupService.class);
+    private static final String COLUMNS = "(dataset_id, bucket_length, bucket, observation_count, value_count, "
+        + "value_sum, value_min, value_max, first_time, first_value, last_time, last_value)";
+
+    private final EntityManager em;
+    private final List<Long> bucketLengths;
+    private final TransactionTemplate transaction;
+    // Bucket lengths whose rollups are completely computed
+    private final Set<Long> complete = ConcurrentHashMap.newKeySet();
+    private volatile boolean available;
+    private ExecutorService backfill;
+    private Columns columns;
+
+    public ObservationRollupService(EntityManager em,
+                                    @Value("${server.feature.observationRollups:}") String rollups,
+                                    PlatformTransactionManager transactionManager) {
+        this.em = em;
+        TreeSet<Long> lengths = new TreeSet<>();
+        for (String interval : rollups.split(",")) {
+            if (!interval.trim().isEmpty()) {
+                lengths.add(ObservationAggregation.parseInterval(interval.trim()).getSeconds());
+            }
+        }
+        this.bucketLengths = new ArrayList<>(lengths.descendingSet());
+        this.transaction = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Checks the state of the rollups of all bucket lengths. Stale rollups of bucket lengths that are not configured
+     * are invalidated. Missing rollups of configured bucket lengths are computed in the background.
+     */
+    @PostConstruct
+    public void init() {
+        List<Long> incomplete = transaction.execute(status -> {
+            Object exists = em.createNativeQuery("SELECT to_regclass('" + STATE_TABLE + "') IS NOT NULL "
+                                                     + "AND to_regclass('" + TABLE + "') IS NOT NULL")
+                .getSingleResult();
+            if (!Boolean.TRUE.equals(exists)) {
+                return null;
+            }
+            // Observations written by this instance are not tracked for bucket lengths that are not configured
+            String configured = bucketLengths.isEmpty()
+                ? ""
+                : " WHERE bucket_length NOT IN (:lengths)";
+            Query invalidate = em.createNativeQuery("DELETE FROM " + STATE_TABLE + configured);
+            if (!bucketLengths.isEmpty()) {
+                invalidate.setParameter("lengths", bucketLengths);
+            }
+            int invalidated = invalidate.executeUpdate();
+            if (invalidated > 0) {
+                LOGGER.info("Invalidated Observation rollups of {} bucket lengths that are not configured",
+                            invalidated);
+            }
+
+            List<Long> pending = new ArrayList<>();
+            for (Long length : bucketLengths) {
+                if (Boolean.TRUE.equals(getState(length))) {
+                    complete.add(length);
+                } else {
+                    pending.add(length);
+                }
+            }
+            return pending;
+        });
+
+        if (incomplete == null) {
+            if (isEnabled()) {
+                LOGGER.error("Observation rollups are configured but tables {} and {} do not exist. Rollups are "
+                                 + "disabled. See etc/sql/sta_observation_rollup.sql", TABLE, STATE_TABLE);
+            }
+            return;
+        }
+        available = isEnabled();
+        if (!incomplete.isEmpty()) {
+            backfill = Executors.newSingleThreadExecutor(new CustomizableThreadFactory("observation-rollups-"));
+            backfill.execute(() -> {
+                try {
+                    incomplete.forEach(this::computeRollups);
+                } catch (RuntimeException e) {
+                    LOGGER.error("Could not compute Observation rollups. Raw Observations are used instead: {}",
+                                 e.getMessage());
+                }
+            });
+            backfill.shutdown();
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (backfill != null) {
+            backfill.shutdownNow();
+        }
+    }
+
+    /**
+     * Computes the rollups of the given bucket length from the existing Observations. Every Dataset is computed in a
+     * separate transaction, the progress is recorded so that the computation is resumed after a restart. New
+     * Observations are maintained meanwhile, but the rollups are only used once all Datasets were computed.
+     *
+     * @param length bucket length in seconds
+     */
+    private void computeRollups(Long length) {
+        LOGGER.info("Computing Observation rollups with bucket length {}s in the background", length);
+        Columns c = getColumns();
+        List<Long> datasetIds = transaction.execute(status -> {
+            em.createNativeQuery("INSERT INTO " + STATE_TABLE + " (bucket_length, complete, last_dataset_id) "
+                                     + "VALUES (:length, false, NULL) ON CONFLICT (bucket_length) DO NOTHING")
+                .setParameter("length", length)
+                .executeUpdate();
+            List<Long> ids = new ArrayList<>();
+            for (Object id : em.createNativeQuery(
+                "SELECT d." + c.datasetId + " FROM " + c.datasetTable + " d "
+                    + "WHERE d." + c.datasetId + " > COALESCE((SELECT last_dataset_id FROM " + STATE_TABLE
+                    + " WHERE bucket_length = :length), -1) ORDER BY d." + c.datasetId)
+                .setParameter("length", length)
+                .getResultList()) {
+                ids.add(((Number) id).longValue());
+            }
+            return ids;
+        });
+
+        for (Long datasetId : datasetIds) {
+            if (Thread.currentThread().isInterrupted()) {
+                LOGGER.info("Computation of Observation rollups with bucket length {}s was interrupted", length);
+                return;
+            }
+            transaction.execute(status -> {
+                // Waits for transactions that currently maintain rollups of the Dataset
+                em.createNativeQuery("SELECT pg_advisory_xact_lock(" + LOCK_KEY + ", " + lockId(datasetId) + ")")
+                    .getSingleResult();
+                em.createNativeQuery("DELETE FROM " + TABLE + " WHERE dataset_id = :dataset "
+                                         + "AND bucket_length = :length")
+                    .setParameter("dataset", datasetId)
+                    .setParameter("length", length)
+                    .executeUpdate();
+                em.createNativeQuery("INSERT INTO " + TABLE + " " + COLUMNS + " "
+                                         + createRawAggregation(length, " AND o." + c.dataset + " = :dataset"))
+                    .setParameter("dataset", datasetId)
+                    .executeUpdate();
+                em.createNativeQuery("UPDATE " + STATE_TABLE + " SET last_dataset_id = :dataset "
+                                         + "WHERE bucket_length = :length")
+                    .setParameter("dataset", datasetId)
+                    .setParameter("length", length)
+                    .executeUpdate();
+                return null;
+            });
+        }
+
+        transaction.execute(status -> em.createNativeQuery("UPDATE " + STATE_TABLE + " SET complete = true "
+                                                               + "WHERE bucket_length = :length")
+            .setParameter("length", length)
+            .executeUpdate());
+        complete.add(length);
+        LOGGER.info("Computed Observation rollups with bucket length {}s", length);
+    }
+
+    public boolean isEnabled() {
+        return !bucketLengths.isEmpty();
+    }
+
+    private boolean isMaintained() {
+        return available;
+    }
+
+    /**
+     * Checks whether an aggregation with the given bucket length can be computed from rollups, i.e. whether the
+     * length is a multiple of one of the configured bucket lengths whose rollups are completely computed and were
+     * not invalidated meanwhile, e.g. by another instance without rollups.
+     *
+     * @param interval requested bucket length
+     * @return true if rollups can be used
+     */
+    public boolean supports(Duration interval) {
+        Long length = getBucketLength(interval);
+        if (length == null) {
+            return false;
+        }
+        if (!Boolean.TRUE.equals(getState(length))) {
+            LOGGER.warn("Observation rollups with bucket length {}s are stale. Falling back to raw Observations. "
+                            + "Rollups are computed again on the next start", length);
+            complete.remove(length);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Aggregates the Observations of the given Datasets based on the stored rollups.
+     *
+     * @param datasetIds ids of the Datasets
+     * @param interval   requested bucket length. Must be supported
+     * @param functions  aggregate functions to be computed
+     * @return aggregated Observations
+     */
+    public ObservationAggregation aggregate(Collection<Long> datasetIds,
+                                            Duration interval,
+                                            List<ObservationAggregation.Function> functions) {
+        Long length = getBucketLength(interval);
+        if (length == null) {
+            throw new IllegalArgumentException("No rollups available for " + interval);
+        }
+        long seconds = interval.getSeconds();
+        ObservationAggregation aggregation = new ObservationAggregation(interval, functions);
+        if (datasetIds.isEmpty()) {
+            return aggregation;
+        }
+        String bucket = "CAST(FLOOR(CAST(r.bucket AS numeric) / " + (seconds / length) + ") AS bigint)";
+        List<?> rows = em.createNativeQuery(
+            "SELECT " + bucket + ", SUM(r.observation_count), SUM(r.value_count), SUM(r.value_sum), "
+                + "MIN(r.value_min), MAX(r.value_max), "
+                + "(ARRAY_AGG(r.first_value ORDER BY r.first_time, r.dataset_id))[1], "
+                + "(ARRAY_AGG(r.last_value ORDER BY r.last_time DESC, r.dataset_id DESC))[1] "
+                + "FROM " + TABLE + " r WHERE r.dataset_id IN (:datasets) AND r.bucket_length = :length "
+                + "GROUP BY " + bucket + " ORDER BY " + bucket)
+            .setParameter("datasets", datasetIds)
+            .setParameter("length", length)
+            .getResultList();
+
+        for (Object result : rows) {
+            Object[] row = (Object[]) result;
+            long index = ((Number) row[0]).longValue();
+            long valueCount = ((Number) row[2]).longValue();
+            ObservationAggregation.Bucket entry =
+                new ObservationAggregation.Bucket(new Date(index * seconds * 1000),
+                                                  new Date((index + 1) * seconds * 1000));
+            for (ObservationAggregation.Function function : functions) {
+                switch (function) {
+                    case COUNT:
+                        entry.setValue(function, ((Number) row[1]).longValue());
+                        break;
+                    case MIN:
+                        entry.setValue(function, row[4]);
+                        break;
+                    case MAX:
+                        entry.setValue(function, row[5]);
+                        break;
+                    case AVG:
+                        entry.setValue(function, valueCount == 0 ? null : ((Number) row[3]).doubleValue() / valueCount);
+                        break;
+                    case FIRST:
+                        entry.setValue(function, row[6]);
+                        break;
+                    case LAST:
+                        entry.setValue(function, row[7]);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unsupported aggregate function: " + function);
+                }
+            }
+            aggregation.addBucket(entry);
+        }
+        return aggregation;
+    }
+
+    /**
+     * Merges newly inserted Observations into the rollups. Observations are combined per bucket beforehand so that
+     * every bucket is only written once.
+     *
+     * @param observations inserted Observations
+     */
+    public void add(Collection<DataEntity<?>> observations) {
+        if (!isMaintained()) {
+            return;
+        }
+        lockDatasets(observations.stream().map(o -> o.getDataset().getId()).collect(Collectors.toSet()));
+        Map<List<Long>, Rollup> rollups = new LinkedHashMap<>();
+        for (DataEntity<?> observation : observations) {
+            long time = observation.getSamplingTimeStart().getTime();
+            for (Long length : bucketLengths) {
+                List<Long> key = new ArrayList<>(3);
+                key.add(observation.getDataset().getId());
+                key.add(length);
+                key.add(Math.floorDiv(time, length * 1000));
+                rollups.computeIfAbsent(key, k -> new Rollup()).add(observation);
+            }
+        }
+        for (Map.Entry<List<Long>, Rollup> entry : rollups.entrySet()) {
+            Rollup rollup = entry.getValue();
+            em.createNativeQuery(
+                "INSERT INTO " + TABLE + " AS r " + COLUMNS + " VALUES (:dataset, :length, :bucket, :count, "
+                    + ":valueCount, :sum, :min, :max, :firstTime, :firstValue, :lastTime, :lastValue) "
+                    + "ON CONFLICT (dataset_id, bucket_length, bucket) DO UPDATE SET "
+                    + "observation_count = r.observation_count + excluded.observation_count, "
+                    + "value_count = r.value_count + excluded.value_count, "
+                    + "value_sum = r.value_sum + excluded.value_sum, "
+                    + "value_min = LEAST(r.value_min, excluded.value_min), "
+                    + "value_max = GREATEST(r.value_max, excluded.value_max), "
+                    + "first_value = CASE WHEN excluded.first_time < r.first_time "
+                    + "THEN excluded.first_value ELSE r.first_value END, "
+                    + "first_time = LEAST(r.first_time, excluded.first_time), "
+                    + "last_value = CASE WHEN excluded.last_time >= r.last_time "
+                    + "THEN excluded.last_value ELSE r.last_value END, "
+                    + "last_time = GREATEST(r.last_time, excluded.last_time)")
+                .unwrap(NativeQuery.class)
+                .setParameter("dataset", entry.getKey().get(0), StandardBasicTypes.LONG)
+                .setParameter("length", entry.getKey().get(1), StandardBasicTypes.LONG)
+                .setParameter("bucket", entry.getKey().get(2), StandardBasicTypes.LONG)
+                .setParameter("count", rollup.count, StandardBasicTypes.LONG)
+                .setParameter("valueCount", rollup.valueCount, StandardBasicTypes.LONG)
+                .setParameter("sum", rollup.sum, StandardBasicTypes.BIG_DECIMAL)
+                .setParameter("min", rollup.min, StandardBasicTypes.BIG_DECIMAL)
+                .setParameter("max", rollup.max, StandardBasicTypes.BIG_DECIMAL)
+                .setParameter("firstTime", rollup.firstTime, StandardBasicTypes.TIMESTAMP)
+                .setParameter("firstValue", rollup.firstValue, StandardBasicTypes.BIG_DECIMAL)
+                .setParameter("lastTime", rollup.lastTime, StandardBasicTypes.TIMESTAMP)
+                .setParameter("lastValue", rollup.lastValue, StandardBasicTypes.BIG_DECIMAL)
+                .executeUpdate();
+        }
+    }
+
+    /**
+     * Recomputes the rollups of all buckets of a Dataset containing any of the given times from the Observations
+     * currently stored. Used after Observations were updated or deleted.
+     *
+     * @param datasetId id of the Dataset
+     * @param times     phenomenonTime start of the affected Observations
+     */
+    public void recompute(Long datasetId, Date... times) {
+        if (!isMaintained()) {
+            return;
+        }
+        lockDatasets(Collections.singleton(datasetId));
+        // Pending changes of Observations need to be visible to the native queries
+        em.flush();
+        Columns c = getColumns();
+        for (Long length : bucketLengths) {
+            TreeSet<Long> buckets = new TreeSet<>();
+            for (Date time : times) {
+                if (time != null) {
+                    buckets.add(Math.floorDiv(time.getTime(), length * 1000));
+                }
+            }
+            for (Long bucket : buckets) {
+                em.createNativeQuery("DELETE FROM " + TABLE
+                                         + " WHERE dataset_id = :dataset AND bucket_length = :length"
+                                         + " AND bucket = :bucket")
+                    .setParameter("dataset", datasetId)
+                    .setParameter("length", length)
+                    .setParameter("bucket", bucket)
+                    .executeUpdate();
+                em.createNativeQuery("INSERT INTO " + TABLE + " " + COLUMNS + " "
+                                         + createRawAggregation(length,
+                                                                " AND o." + c.dataset + " = :dataset"
+                                                                    + " AND o." + c.time + " >= :start"
+                                                                    + " AND o." + c.time + " < :end"))
+                    .unwrap(NativeQuery.class)
+                    .setParameter("dataset", datasetId, StandardBasicTypes.LONG)
+                    .setParameter("start", new Date(bucket * length * 1000), StandardBasicTypes.TIMESTAMP)
+                    .setParameter("end", new Date((bucket + 1) * length * 1000), StandardBasicTypes.TIMESTAMP)
+                    .executeUpdate();
+            }
+        }
+    }
+
+    /**
+     * Creates a query aggregating the raw Observations into rollups of the given bucket length.
+     *
+     * @param length      bucket length in seconds
+     * @param restriction additional restriction of the Observations
+     * @return SELECT statement matching {@link #COLUMNS}
+     */
+    private String createRawAggregation(long length, String restriction) {
+        Columns c = getColumns();
+        String bucket = "CAST(FLOOR(EXTRACT(EPOCH FROM o." + c.time + ") / " + length + ") AS bigint)";
+        String value = "COALESCE(o." + c.quantity + ", o." + c.count + ")";
+        return "SELECT o." + c.dataset + ", " + length + ", " + bucket + ", COUNT(*), COUNT(" + value + "), "
+            + "COALESCE(SUM(" + value + "), 0), MIN(" + value + "), MAX(" + value + "), "
+            + "MIN(o." + c.time + "), (ARRAY_AGG(" + value + " ORDER BY o." + c.time + ", o." + c.id + "))[1], "
+            + "MAX(o." + c.time + "), "
+            + "(ARRAY_AGG(" + value + " ORDER BY o." + c.time + " DESC, o." + c.id + " DESC))[1] "
+            + "FROM " + c.observationTable + " o "
+            + "WHERE o." + c.time + " IS NOT NULL" + restriction + c.filter + " "
+            + "GROUP BY o." + c.dataset + ", " + bucket;
+    }
+
+    /**
+     * Takes shared locks on the rollups of the given Datasets until the end of the transaction, so that a concurrent
+     * backfill of these Datasets waits until the maintained rollups are committed. Not needed once all rollups are
+     * computed.
+     *
+     * @param datasetIds ids of the Datasets
+     */
+    private void lockDatasets(Set<Long> datasetIds) {
+        if (complete.size() == bucketLengths.size()) {
+            return;
+        }
+        for (Long datasetId : new TreeSet<>(datasetIds)) {
+            em.createNativeQuery("SELECT pg_advisory_xact_lock_shared(" + LOCK_KEY + ", " + lockId(datasetId) + ")")
+                .getSingleResult();
+        }
+    }
+
+    private int lockId(Long datasetId) {
+        return (int) (datasetId % Integer.MAX_VALUE);
+    }
+
+    private Boolean getState(Long length) {
+        List<?> state = em.createNativeQuery("SELECT complete FROM " + STATE_TABLE + " WHERE bucket_length = :length")
+            .setParameter("length", length)
+            .getResultList();
+        return state.isEmpty() ? null : (Boolean) state.get(0);
+    }
+
+    private Long getBucketLength(Duration interval) {
+        if (interval.getNano() != 0) {
+            return null;
+        }
+        // Lengths are sorted descending so the coarsest matching rollup is used
+        for (Long length : bucketLengths) {
+            if (complete.contains(length) && interval.getSeconds() % length == 0) {
+                return length;
+            }
+        }
+        return null;
+    }
+
+    private Columns getColumns() {
+        if (columns == null) {
+            SessionFactoryImplementor factory = em.unwrap(SessionImplementor.class).getFactory();
+            columns = new Columns(
+                (AbstractEntityPersister) factory.getMetamodel().entityPersister(DataEntity.class),
+                (AbstractEntityPersister) factory.getMetamodel().entityPersister(AbstractDatasetEntity.class));
+        }
+        return columns;
+    }
+
+
+    /**
+     * Column names of the Observation and Dataset tables as mapped by Hibernate.
+     */
+    private static final class Columns {
+
+        private final String observationTable;
+        private final String id;
+        private final String dataset;
+        private final String time;
+        private final String quantity;
+        private final String count;
+        private final String filter;
+        private final String datasetTable;
+        private final String datasetId;
+
+        private Columns(AbstractEntityPersister observation, AbstractEntityPersister dataset) {
+            this.observationTable = observation.getTableName();
+            this.id = observation.getIdentifierColumnNames()[0];
+            this.dataset = observation.getPropertyColumnNames(DataEntity.PROPERTY_DATASET)[0];
+            this.time = observation.getPropertyColumnNames(DataEntity.PROPERTY_SAMPLING_TIME_START)[0];
+            this.quantity = observation.getPropertyColumnNames(DataEntity.PROPERTY_VALUE_QUANTITY)[0];
+            this.count = observation.getPropertyColumnNames(DataEntity.PROPERTY_VALUE_COUNT)[0];
+            this.filter = observation.filterFragment("o", Collections.emptyMap());
+            this.datasetTable = dataset.getTableName();
+            this.datasetId = dataset.getIdentifierColumnNames()[0];
+        }
+    }
+
+
+    /**
+     * Partial aggregate of Observations inserted into the same bucket.
+     */
+    private static final class Rollup {
+
+        private long count;
+        private long valueCount;
+        private BigDecimal sum = BigDecimal.ZERO;
+        private BigDecimal min;
+        private BigDecimal max;
+        private Date firstTime;
+        private BigDecimal firstValue;
+        private Date lastTime;
+        private BigDecimal lastValue;
+
+        private void add(DataEntity<?> observation) {
+            BigDecimal value = getNumericValue(observation);
+            Date time = observation.getSamplingTimeStart();
+            count++;
+            if (value != null) {
+                valueCount++;
+                sum = sum.add(value);
+                min = min == null || value.compareTo(min) < 0 ? value : min;
+                max = max == null || value.compareTo(max) > 0 ? value : max;
+            }
+            if (firstTime == null || time.before(firstTime)) {
+                firstTime = time;
+                firstValue = value;
+            }
+            // Observations are inserted in order, so later ones win on equal time
+            if (lastTime == null || !time.before(lastTime)) {
+                lastTime = time;
+                lastValue = value;
+            }
+        }
+
+        private static BigDecimal getNumericValue(DataEntity<?> observation) {
+            if (observation instanceof QuantityDataEntity) {
+                return ((QuantityDataEntity) observation).getValue();
+            } else if (observation instanceof CountDataEntity) {
+                Integer value = ((CountDataEntity) observation).getValue();
+                return value == null ? null : BigDecimal.valueOf(value);
+            }
+            return null;
+        }
+    }
+}
@@ -29,6 +29,16 @@
 
 package org.n52.sta.data.service;
 
+import org.hibernate.Hibernate;
+import org.hibernate.HibernateException;
+import org.hibernate.engine.spi.EntityEntry;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.query.NativeQuery;
+import org.hibernate.type.StandardBasicTypes;
+import org.hibernate.type.Type;
 import org.n52.janmayen.http.HTTPStatus;
 import org.n52.series.db.beans.AbstractDatasetEntity;
 import org.n52.series.db.beans.AbstractFeatureEntity;
@@ -50,33 +60,82 @@ import org.n52.shetland.ogc.sta.StaConstants;
 import org.n52.shetland.ogc.sta.exception.STACRUDException;
 import org.n52.shetland.ogc.sta.exception.STAInvalidQueryException;
 import org.n52.shetland.ogc.sta.model.STAEntityDefinition;
+import org.n52.shetland.util.DateTimeHelper;
+import org.n52.sta.DaoConfig;
+import org.n52.sta.data.DatastreamMetadataCache;
+import org.n52.sta.data.GeneratedFeatureCache;
+import org.n52.sta.data.KeysetCursor;
+import org.n52.sta.data.KeysetQueryOptions;
+import org.n52.sta.data.MutexFactory;
 import org.n52.sta.data.OffsetLimitBasedPageRequest;
+import org.n52.sta.data.RawFilterQueryOptions;
 import org.n52.sta.data.query.ObservationQuerySpecifications;
 import org.n52.sta.data.repositories.DatastreamRepository;
 import org.n52.sta.data.repositories.EntityGraphRepository;
 import org.n52.sta.data.repositories.LocationRepository;
 import org.n52.sta.data.repositories.ObservationParameterRepository;
 import org.n52.sta.data.repositories.ObservationRepository;
+import org.n52.sta.data.repositories.RepositoryConstants;
 import org.n52.sta.data.service.util.CollectionWrapper;
+import org.n52.sta.data.service.util.CountCache;
+import org.n52.sta.data.service.util.DataArrayCollection;
+import org.n52.sta.data.service.util.EntityStream;
+import org.n52.sta.data.service.util.ExpandCache;
+import org.n52.sta.data.service.util.ObservationAggregation;
+import org.n52.sta.serdes.ObservationExportFormat;
+import org.n52.sta.serdes.ObservationExportOutput;
+import org.n52.sta.serdes.ObservationExportWriter;
+import org.n52.sta.utils.TimeUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.DependsOn;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.domain.Specification;
 import org.springframework.http.HttpMethod;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import javax.persistence.EntityManager;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.Join;
+import javax.persistence.criteria.JoinType;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Root;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.StringJoiner;
+import java.util.TreeMap;
 import java.util.UUID;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
@@ -89,35 +148,78 @@ public class ObservationService
 
     private static final ObservationQuerySpecifications oQS = new ObservationQuerySpecifications();
     private static final Logger LOGGER = LoggerFactory.getLogger(ObservationService.class);
+    private static final int IDENTIFIER_CHECK_CHUNK_SIZE = 1000;
+    private static final int STREAM_CHUNK_SIZE = 100;
+    // Rows fetched from the cursor and rows per record batch of exports
+    private static final int EXPORT_BATCH_SIZE = 10000;
+    private static final int AGGREGATION_CHUNK_SIZE = 1000;
+    private static final String[] EXTENT_PROPERTIES = {RepositoryConstants.FIRSTVALUEAT,
+                                                       RepositoryConstants.FIRSTOBSERVATION,
+                                                       RepositoryConstants.FIRSTQUANTITYVALUE,
+                                                       RepositoryConstants.LASTVALUEAT,
+                                                       RepositoryConstants.LASTOBSERVATION,
+                                                       RepositoryConstants.LASTQUANTITYVALUE,
+                                                       RepositoryConstants.SAMPLINGTIMESTART,
+                                                       RepositoryConstants.SAMPLINGTIMEEND};
+    private static final Type[] EXTENT_TYPES = {StandardBasicTypes.TIMESTAMP,
+                                                StandardBasicTypes.LONG,
+                                                StandardBasicTypes.BIG_DECIMAL,
+                                                StandardBasicTypes.TIMESTAMP,
+                                                StandardBasicTypes.LONG,
+                                                StandardBasicTypes.BIG_DECIMAL,
+                                                StandardBasicTypes.TIMESTAMP,
+                                                StandardBasicTypes.TIMESTAMP};
     protected final DatastreamRepository datastreamRepository;
     protected final ObservationParameterRepository parameterRepository;
     private final Class entityClass;
+    private final CountMode countMode;
+    private final CountCache countCache;
+    private final boolean keysetPagination;
+    private final int streamingThreshold;
+    private final TransactionTemplate readOnlyTransaction;
+    private final ObservationRollupService rollups;
+    private final DatastreamMetadataCache datastreamCache;
+    private final GeneratedFeatureCache featureCache;
+    private final DatasetExtentService datasetExtents;
+    private final long maxAggregationBuckets;
 
     @Autowired
     public ObservationService(ObservationRepository<DataEntity<?>> repository,
                               EntityManager em,
                               DatastreamRepository datastreamRepository,
-                              ObservationParameterRepository parameterRepository) {
+                              ObservationParameterRepository parameterRepository,
+                              @Value("${server.feature.observationCount:exact}") String countMode,
+                              @Value("${server.feature.observationCountCacheTtl:60000}") long countCacheTtl,
+                              @Value("${server.feature.keysetPagination:false}") boolean keysetPagination,
+                              @Value("${server.feature.observationStreamingThreshold:0}") int streamingThreshold,
+                              @Value("${server.feature.maxAggregationBuckets:10000}") long maxAggregationBuckets,
+                              PlatformTransactionManager transactionManager,
+                              ObservationRollupService rollups,
+                              DatastreamMetadataCache datastreamCache,
+                              GeneratedFeatureCache featureCache,
+                              DatasetExtentService datasetExtents) {
         super(repository, em, DataEntity.class);
         this.entityClass = DataEntity.class;
         this.datastreamRepository = datastreamRepository;
         this.parameterRepository = parameterRepository;
+        this.countMode = CountMode.valueOf(countMode.toUpperCase());
+        this.countCache = new CountCache(countCacheTtl);
+        this.keysetPagination = keysetPagination;
+        this.streamingThreshold = streamingThreshold;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.rollups = rollups;
+        this.datastreamCache = datastreamCache;
+        this.featureCache = featureCache;
+        this.datasetExtents = datasetExtents;
+        this.maxAggregationBuckets = maxAggregationBuckets;
     }
 
     @Override
     public CollectionWrapper getEntityCollection(QueryOptions queryOptions) throws STACRUDException {
         try {
-            OffsetLimitBasedPageRequest pageableRequest = createPageableRequest(queryOptions);
             Specification<DataEntity<?>> spec = getFilterPredicate(DataEntity.class, queryOptions);
-            List<String> identifierList = getRepository()
-                .getColumnList(spec,
-                               pageableRequest,
-                               STAIDENTIFIER);
-            if (identifierList.isEmpty()) {
-                return new CollectionWrapper(0, Collections.emptyList(), false);
-            } else {
-                return getEntityCollectionWrapperByIdentifierList(identifierList, pageableRequest, queryOptions, spec);
-            }
+            return getEntityCollectionWrapper(spec, queryOptions, null, null);
         } catch (RuntimeException e) {
             throw new STACRUDException(e.getMessage(), e);
         }
@@ -129,19 +231,10 @@ public class ObservationService
         throws STACRUDException {
 
         try {
-            OffsetLimitBasedPageRequest pageableRequest = createPageableRequest(queryOptions);
             Specification<DataEntity<?>> spec =
                 byRelatedEntityFilter(relatedId, relatedType, null)
                     .and(getFilterPredicate(entityClass, queryOptions));
-
-            List<String> identifierList = getRepository().getColumnList(spec,
-                                                                        createPageableRequest(queryOptions),
-                                                                        STAIDENTIFIER);
-            if (identifierList.isEmpty()) {
-                return new CollectionWrapper(0, Collections.emptyList(), false);
-            } else {
-                return getEntityCollectionWrapperByIdentifierList(identifierList, pageableRequest, queryOptions, spec);
-            }
+            return getEntityCollectionWrapper(spec, queryOptions, relatedId, relatedType);
         } catch (RuntimeException e) {
             throw new STACRUDException(e.getMessage(), e);
         }
@@ -152,35 +245,344 @@ public class ObservationService
                                                       QueryOptions queryOptions)
         throws STACRUDException {
         try {
-            OffsetLimitBasedPageRequest pageableRequest = createPageableRequest(queryOptions);
             Specification<DataEntity<?>> spec =
                 byRelatedEntityFilter(relatedId, relatedType, null)
                     .and(getFilterPredicate(DataEntity.class, queryOptions));
 
-            List<String> identifierList = getRepository().getColumnList(spec,
-                                                                        createPageableRequest(queryOptions),
-                                                                        STAIDENTIFIER);
-            if (identifierList.isEmpty()) {
-                return Page.empty();
+            List<DataEntity<?>> observations =
+                getSlice(spec, createPageableRequest(queryOptions), queryOptions).getContent();
+            if (queryOptions.hasExpandFilter()) {
+                return new PageImpl<>(expandPage(observations, queryOptions.getExpandFilter()));
             } else {
-                Page<DataEntity<?>> pages = getRepository().findAll(
-                    oQS.withStaIdentifier(identifierList),
-                    new OffsetLimitBasedPageRequest(0,
-                                                    pageableRequest.getPageSize(),
-                                                    pageableRequest.getSort()),
-                    EntityGraphRepository.FetchGraph.FETCHGRAPH_PARAMETERS);
-                if (queryOptions.hasExpandFilter()) {
-                    return pages.map(e -> {
-                        try {
-                            return fetchExpandEntitiesWithFilter(e, queryOptions.getExpandFilter());
-                        } catch (STACRUDException | STAInvalidQueryException ex) {
-                            throw new RuntimeException(ex);
-                        }
-                    });
-                } else {
-                    return pages;
+                return new PageImpl<>(observations);
+            }
+        } catch (RuntimeException e) {
+            throw new STACRUDException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Aggregates the Observations of a Datastream into buckets of fixed length based on the start of their
+     * phenomenonTime. Bucketing and aggregation are executed by the database. Observations are restricted by the
+     * $filter of the given QueryOptions. min/max/avg/first/last only take numeric results into account. Pre-computed
+     * rollups are used if no $filter is given and the interval is a multiple of a configured rollup interval.
+     * Requests whose interval divides the phenomenonTime of the aggregated Observations into more buckets than
+     * configured are rejected before aggregating.
+     *
+     * @param datastreamId id of the Datastream
+     * @param queryOptions QueryOptions of the request
+     * @param interval     length of the buckets
+     * @param functions    aggregate functions to be computed
+     * @return aggregated Observations
+     * @throws STACRUDException if an error occurred
+     */
+    public ObservationAggregation aggregate(String datastreamId,
+                                            QueryOptions queryOptions,
+                                            Duration interval,
+                                            List<ObservationAggregation.Function> functions)
+        throws STACRUDException {
+        try {
+            if (!queryOptions.hasFilterFilter() && rollups.supports(interval)) {
+                AbstractDatasetEntity datastream = datastreamRepository.findByStaIdentifier(datastreamId)
+                    .orElseThrow(() -> new STACRUDException(UNABLE_TO_GET_ENTITY_NOT_FOUND, HTTPStatus.NOT_FOUND));
+                checkBucketCount(datastream.getPhenomenonTimeStart(), datastream.getPhenomenonTimeEnd(), interval);
+                Set<Long> datasetIds = getDatasets(datastream).stream()
+                    .map(DatasetEntity::getId)
+                    .collect(Collectors.toSet());
+                return rollups.aggregate(datasetIds, interval, functions);
+            }
+
+            Specification<DataEntity<?>> spec =
+                byRelatedEntityFilter(datastreamId, STAEntityDefinition.DATASTREAMS, null)
+                    .and(getFilterPredicate(DataEntity.class, queryOptions));
+            long seconds = interval.getSeconds();
+
+            CriteriaBuilder builder = em.getCriteriaBuilder();
+            CriteriaQuery<Object[]> range = builder.createQuery(Object[].class);
+            Root<DataEntity<?>> rangeRoot = createRoot(range);
+            Path<Date> rangeStart = rangeRoot.get(DataEntity.PROPERTY_SAMPLING_TIME_START);
+            range.multiselect(builder.least(rangeStart), builder.greatest(rangeStart))
+                .where(spec.toPredicate(rangeRoot, range, builder));
+            Object[] extent = em.createQuery(range).getSingleResult();
+            checkBucketCount((Date) extent[0], (Date) extent[1], interval);
+
+            CriteriaQuery<Object[]> query = builder.createQuery(Object[].class);
+            Root<DataEntity<?>> root = createRoot(query);
+            Path<Date> start = root.get(DataEntity.PROPERTY_SAMPLING_TIME_START);
+            Expression<Long> bucket =
+                builder.function(DaoConfig.TIME_BUCKET_FUNCTION, Long.class, start, builder.literal(seconds));
+            Expression<Double> value = getNumericValue(root, builder);
+            query.multiselect(bucket,
+                              builder.count(root),
+                              builder.min(value),
+                              builder.max(value),
+                              builder.avg(value),
+                              builder.least(start),
+                              builder.greatest(start))
+                .where(spec.toPredicate(root, query, builder))
+                .groupBy(bucket)
+                .orderBy(builder.asc(bucket));
+            List<Object[]> rows = em.createQuery(query).getResultList();
+
+            // first/last are resolved via the earliest/latest phenomenonTime of each bucket
+            Map<Long, Object> first = new HashMap<>();
+            Map<Long, Object> last = new HashMap<>();
+            if (functions.contains(ObservationAggregation.Function.FIRST)
+                || functions.contains(ObservationAggregation.Function.LAST)) {
+                Set<Date> boundaries = new HashSet<>();
+                for (Object[] row : rows) {
+                    boundaries.add((Date) row[5]);
+                    boundaries.add((Date) row[6]);
+                }
+                fetchBoundaryValues(spec, new ArrayList<>(boundaries), first, last);
+            }
+
+            ObservationAggregation aggregation = new ObservationAggregation(interval, functions);
+            for (Object[] row : rows) {
+                long index = ((Number) row[0]).longValue();
+                ObservationAggregation.Bucket entry =
+                    new ObservationAggregation.Bucket(new Date(index * seconds * 1000),
+                                                      new Date((index + 1) * seconds * 1000));
+                for (ObservationAggregation.Function function : functions) {
+                    switch (function) {
+                        case COUNT:
+                            entry.setValue(function, row[1]);
+                            break;
+                        case MIN:
+                            entry.setValue(function, row[2]);
+                            break;
+                        case MAX:
+                            entry.setValue(function, row[3]);
+                            break;
+                        case AVG:
+                            entry.setValue(function, row[4]);
+                            break;
+                        case FIRST:
+                            entry.setValue(function, first.get(((Date) row[5]).getTime()));
+                            break;
+                        case LAST:
+                            entry.setValue(function, last.get(((Date) row[6]).getTime()));
+                            break;
+                        default:
+                            throw new STACRUDException("Unsupported aggregate function: " + function,
+                                                       HTTPStatus.BAD_REQUEST);
+                    }
+                }
+                aggregation.addBucket(entry);
+            }
+            return aggregation;
+        } catch (RuntimeException e) {
+            throw new STACRUDException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Rejects aggregations producing more buckets than configured.
+     *
+     * @param start    earliest start of phenomenonTime of the aggregated Observations. null if there are none
+     * @param end      latest phenomenonTime of the aggregated Observations. null if there are none
+     * @param interval length of the buckets
+     * @throws STACRUDException if the number of buckets exceeds the maximum
+     */
+    private void checkBucketCount(Date start, Date end, Duration interval) throws STACRUDException {
+        if (maxAggregationBuckets <= 0 || start == null || end == null) {
+            return;
+        }
+        long length = interval.toMillis();
+        long buckets = Math.floorDiv(end.getTime(), length) - Math.floorDiv(start.getTime(), length) + 1;
+        if (buckets > maxAggregationBuckets) {
+            throw new STACRUDException(String.format("Aggregation would result in %d buckets, exceeding the maximum of "
+                                                         + "%d. Use a larger interval or restrict phenomenonTime via "
+                                                         + "$filter.",
+                                                     buckets,
+                                                     maxAggregationBuckets),
+                                       HTTPStatus.BAD_REQUEST);
+        }
+    }
+
+    /**
+     * Fetches the numeric results of all Observations matching spec whose phenomenonTime starts at one of the given
+     * boundaries. Results are stored keyed by the start of their phenomenonTime in millis. If multiple Observations
+     * share the same phenomenonTime the one inserted first is used as first and the one inserted last as last.
+     *
+     * @param spec       Specification of Observations
+     * @param boundaries start of phenomenonTime of first/last Observation of each bucket
+     * @param first      map to store first value of each bucket
+     * @param last       map to store last value of each bucket
+     */
+    private void fetchBoundaryValues(Specification<DataEntity<?>> spec,
+                                     List<Date> boundaries,
+                                     Map<Long, Object> first,
+                                     Map<Long, Object> last) {
+        CriteriaBuilder builder = em.getCriteriaBuilder();
+        for (int i = 0; i < boundaries.size(); i += AGGREGATION_CHUNK_SIZE) {
+            List<Date> chunk = boundaries.subList(i, Math.min(i + AGGREGATION_CHUNK_SIZE, boundaries.size()));
+            CriteriaQuery<Object[]> query = builder.createQuery(Object[].class);
+            Root<DataEntity<?>> root = createRoot(query);
+            Path<Date> start = root.get(DataEntity.PROPERTY_SAMPLING_TIME_START);
+            query.multiselect(start, getNumericValue(root, builder))
+                .where(spec.toPredicate(root, query, builder), start.in(chunk))
+                .orderBy(builder.asc(start), builder.asc(root.get(ID)));
+            for (Object[] row : em.createQuery(query).getResultList()) {
+                long time = ((Date) row[0]).getTime();
+                first.putIfAbsent(time, row[1]);
+                last.put(time, row[1]);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Root<DataEntity<?>> createRoot(CriteriaQuery<?> query) {
+        return (Root<DataEntity<?>>) (Root<?>) query.from(DataEntity.class);
+    }
+
+    private Expression<Double> getNumericValue(Root<DataEntity<?>> root, CriteriaBuilder builder) {
+        // Quantity and Count are the only numeric result types
+        return builder.coalesce(root.<Double>get(DataEntity.PROPERTY_VALUE_QUANTITY),
+                                root.<Double>get(DataEntity.PROPERTY_VALUE_COUNT));
+    }
+
+    /**
+     * Returns Observations in dataArray result format. Only the values needed for the requested components are
+     * queried, so Observations are not hydrated.
+     *
+     * @param relatedId    id of the related entity. null if Observations are requested directly
+     * @param relatedType  type of the related entity. null if Observations are requested directly
+     * @param queryOptions QueryOptions of the request
+     * @return Observations grouped by Datastream
+     * @throws STACRUDException if an error occurred
+     */
+    public DataArrayCollection getDataArray(String relatedId,
+                                            String relatedType,
+                                            QueryOptions queryOptions)
+        throws STACRUDException {
+        try {
+            List<String> components = DataArrayCollection.getComponents(queryOptions);
+            Specification<DataEntity<?>> spec = getFilterPredicate(DataEntity.class, queryOptions);
+            if (relatedId != null) {
+                spec = byRelatedEntityFilter(relatedId, relatedType, null).and(spec);
+            }
+            OffsetLimitBasedPageRequest pageable = createPageableRequest(queryOptions);
+            Slice<Object[]> slice = getRepository().findSliceProjection(spec, pageable, (root, builder) -> {
+                Join<DataEntity<?>, DatasetEntity> dataset = root.join(DataEntity.PROPERTY_DATASET);
+                Join<DatasetEntity, AbstractDatasetEntity> aggregation =
+                    dataset.join(AbstractDatasetEntity.PROPERTY_AGGREGATION, JoinType.LEFT);
+                return Arrays.asList(
+                    builder.coalesce(aggregation.<String>get(AbstractDatasetEntity.PROPERTY_STA_IDENTIFIER),
+                                     dataset.<String>get(AbstractDatasetEntity.PROPERTY_STA_IDENTIFIER)),
+                    root.get(DataEntity.PROPERTY_STA_IDENTIFIER),
+                    root.get(DataEntity.PROPERTY_SAMPLING_TIME_START),
+                    root.get(DataEntity.PROPERTY_SAMPLING_TIME_END),
+                    root.get(DataEntity.PROPERTY_RESULT_TIME),
+                    root.get(DataEntity.PROPERTY_VALUE_QUANTITY),
+                    root.get(DataEntity.PROPERTY_VALUE_COUNT),
+                    root.get(DataEntity.PROPERTY_VALUE_BOOLEAN),
+                    root.get(DataEntity.PROPERTY_VALUE_CATEGORY),
+                    root.get(DataEntity.PROPERTY_VALUE_TEXT));
+            });
+
+            Map<String, List<Object[]>> dataArrays = new LinkedHashMap<>();
+            for (Object[] row : slice.getContent()) {
+                Object[] values = new Object[components.size()];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = getDataArrayValue(components.get(i), row);
                 }
+                dataArrays.computeIfAbsent((String) row[0], k -> new ArrayList<>()).add(values);
             }
+
+            // Total number is known if this is the last page
+            long total = !slice.hasNext() && (slice.hasContent() || pageable.getOffset() == 0)
+                ? pageable.getOffset() + slice.getNumberOfElements()
+                : -1;
+            return new DataArrayCollection(count(spec, queryOptions, total, relatedId, relatedType),
+                                           slice.hasNext(),
+                                           components,
+                                           dataArrays,
+                                           queryOptions);
+        } catch (RuntimeException e) {
+            throw new STACRUDException(e.getMessage(), e);
+        }
+    }
+
+    private Object getDataArrayValue(String component, Object[] row) {
+        switch (component) {
+            case StaConstants.PROP_ID:
+                return row[1];
+            case StaConstants.PROP_PHENOMENON_TIME:
+                Date end = row[3] != null ? (Date) row[3] : (Date) row[2];
+                return DateTimeHelper.format(TimeUtil.createTime(TimeUtil.createDateTime((Date) row[2]),
+                                                                 TimeUtil.createDateTime(end)));
+            case StaConstants.PROP_RESULT_TIME:
+                return row[4] != null ? ((Date) row[4]).toInstant().toString() : null;
+            case StaConstants.PROP_RESULT:
+                // Only the column matching the concrete type of the Observation is set
+                for (int i = 5; i < row.length; i++) {
+                    if (row[i] != null) {
+                        return row[i];
+                    }
+                }
+                return null;
+            default:
+                throw new IllegalArgumentException("Property not supported in " + DataArrayCollection.DATA_ARRAY
+                                                       + " format: " + component);
+        }
+    }
+
+    /**
+     * Writes all Observations of a Datastream matching the $filter of the given QueryOptions in the given format
+     * ordered by phenomenonTime. Observations are read from a database cursor and written in batches of bounded size
+     * without being hydrated, so memory consumption does not depend on the number of exported Observations. The
+     * Datastream and the filter are resolved before the output is opened, so nothing is written if they are invalid.
+     *
+     * @param datastreamId id of the Datastream
+     * @param queryOptions QueryOptions of the request
+     * @param format       format to write
+     * @param output       target to write to
+     * @throws STACRUDException if an error occurred
+     */
+    public void export(String datastreamId,
+                       QueryOptions queryOptions,
+                       ObservationExportFormat format,
+                       ObservationExportOutput output) throws STACRUDException {
+        AbstractDatasetEntity datastream = datastreamRepository.findByStaIdentifier(datastreamId)
+            .orElseThrow(() -> new STACRUDException(UNABLE_TO_GET_ENTITY_NOT_FOUND, HTTPStatus.NOT_FOUND));
+        String observationType = datastream.getOMObservationType() != null
+            ? datastream.getOMObservationType().getFormat()
+            : null;
+        Specification<DataEntity<?>> spec =
+            byRelatedEntityFilter(datastreamId, STAEntityDefinition.DATASTREAMS, null)
+                .and(getFilterPredicate(DataEntity.class, queryOptions));
+        Sort sort = Sort.by(Sort.Direction.ASC, DataEntity.PROPERTY_SAMPLING_TIME_START, ID);
+        // The query is executed before the output is opened, so that invalid filters are reported as regular errors
+        try (Stream<Object[]> rows = getRepository().findStreamProjection(
+            spec,
+            sort,
+            EXPORT_BATCH_SIZE,
+            (root, builder) -> Arrays.asList(
+                root.get(DataEntity.PROPERTY_STA_IDENTIFIER),
+                root.get(DataEntity.PROPERTY_SAMPLING_TIME_START),
+                root.get(DataEntity.PROPERTY_SAMPLING_TIME_END),
+                root.get(DataEntity.PROPERTY_RESULT_TIME),
+                root.get(DataEntity.PROPERTY_VALUE_QUANTITY),
+                root.get(DataEntity.PROPERTY_VALUE_COUNT),
+                root.get(DataEntity.PROPERTY_VALUE_BOOLEAN),
+                root.get(DataEntity.PROPERTY_VALUE_CATEGORY),
+                root.get(DataEntity.PROPERTY_VALUE_TEXT)));
+             ObservationExportWriter writer = format.createWriter(output.open(), observationType, EXPORT_BATCH_SIZE)) {
+            writer.start();
+            Iterator<Object[]> iterator = rows.iterator();
+            while (iterator.hasNext()) {
+                Object[] row = iterator.next();
+                // Only the column matching the concrete type of the Observation is set
+                Object result = null;
+                for (int i = 4; i < row.length && result == null; i++) {
+                    result = row[i];
+                }
+                writer.writeRow((String) row[0], (Date) row[1], (Date) row[2], (Date) row[3], result);
+            }
+            writer.finish();
+        } catch (IOException e) {
+            throw new STACRUDException(e.getMessage(), e);
         } catch (RuntimeException e) {
             throw new STACRUDException(e.getMessage(), e);
         }
@@ -196,26 +598,51 @@ public class ObservationService
     protected DataEntity<?> fetchExpandEntitiesWithFilter(DataEntity<?> returned,
                                                           ExpandFilter expandOption)
         throws STACRUDException, STAInvalidQueryException {
+        // Delegate to the batch variant so that related entities are shared via the request-scoped ExpandCache
+        return fetchExpandEntitiesWithFilter(Collections.singletonList(returned), expandOption).get(0);
+    }
+
+    @Override
+    protected List<DataEntity<?>> fetchExpandEntitiesWithFilter(List<DataEntity<?>> observations,
+                                                                ExpandFilter expandOption)
+        throws STACRUDException, STAInvalidQueryException {
+        if (observations.isEmpty()) {
+            return observations;
+        }
+        // Datasets are resolved once for all expanded Items as Datastream may be replaced by the expanded one
+        Map<Long, AbstractDatasetEntity> datasets = new HashMap<>();
+        List<Long> datasetIds = new ArrayList<>(observations.size());
+        for (DataEntity<?> observation : observations) {
+            datasetIds.add(observation.getDataset().getId());
+        }
+        datastreamRepository.findAllById(new HashSet<>(datasetIds)).forEach(d -> datasets.put(d.getId(), d));
+
         for (ExpandItem expandItem : expandOption.getItems()) {
-            // We handle all $expands individually as they need to be fetched via staIdentifier and not via fetchgraph
-            //if (!expandItem.getQueryOptions().hasFilterFilter()) {
-            //    break;
-            //}
             String expandProperty = expandItem.getPath();
             switch (expandProperty) {
                 case STAEntityDefinition.DATASTREAM:
-                    DatasetEntity datastream = (DatasetEntity) getDatastreamService()
-                        .getEntityByRelatedEntityRaw(returned.getStaIdentifier(),
-                                                     STAEntityDefinition.OBSERVATIONS,
-                                                     null,
-                                                     expandItem.getQueryOptions());
-                    returned.setDataset(datastream);
+                    Map<Long, AbstractDatasetEntity> datastreams = getDatastreamService().getEntitiesByIdRaw(
+                        datasets.values().stream().map(this::getDatastreamId).collect(Collectors.toSet()),
+                        expandItem.getQueryOptions(),
+                        true);
+                    for (int i = 0; i < observations.size(); i++) {
+                        AbstractDatasetEntity datastream =
+                            datastreams.get(getDatastreamId(datasets.get(datasetIds.get(i))));
+                        if (datastream == null) {
+                            throw new STACRUDException(UNABLE_TO_GET_ENTITY_NOT_FOUND);
+                        }
+                        observations.get(i).setDataset((DatasetEntity) datastream);
+                    }
                     break;
                 case STAEntityDefinition.FEATURE_OF_INTEREST:
-                    AbstractFeatureEntity<?> foi = ((FeatureOfInterestService)
-                        getFeatureOfInterestService()).getEntityByDatasetIdRaw(returned.getDataset().getId(),
-                                                                               expandItem.getQueryOptions());
-                    returned.setFeature(foi);
+                    Map<Long, AbstractFeatureEntity<?>> features = getFeatureOfInterestService().getEntitiesByIdRaw(
+                        datasets.values().stream().map(d -> d.getFeature().getId()).collect(Collectors.toSet()),
+                        expandItem.getQueryOptions(),
+                        false);
+                    for (int i = 0; i < observations.size(); i++) {
+                        observations.get(i).setFeature(
+                            features.get(datasets.get(datasetIds.get(i)).getFeature().getId()));
+                    }
                     break;
                 default:
                     throw new STAInvalidQueryException(String.format(INVALID_EXPAND_OPTION_SUPPLIED,
@@ -223,7 +650,124 @@ public class ObservationService
                                                                      StaConstants.OBSERVATIONS));
             }
         }
-        return returned;
+        return observations;
+    }
+
+    private Long getDatastreamId(AbstractDatasetEntity dataset) {
+        return dataset.getAggregation() != null ? dataset.getAggregation().getId() : dataset.getId();
+    }
+
+    /**
+     * Batch variant of {@link #getEntityCollectionByRelatedEntityRaw(String, String, QueryOptions)} for multiple
+     * Datastreams. $top, $skip and $orderby are applied per Datastream via LATERAL subquery, so that Observations of
+     * all Datastreams are selected with a single query while each Datastream is still read via index range scan.
+     *
+     * @param datastreamIds ids of the Datastreams
+     * @param queryOptions  {@link QueryOptions} of the expanded Observations
+     * @return Observations by id of their Datastream in requested order. null if the queryOptions cannot be expressed
+     * via LATERAL subquery, e.g. because they contain $filter
+     */
+    Map<Long, List<DataEntity<?>>> getEntitiesByDatastreamIdsRaw(Collection<Long> datastreamIds,
+                                                                 QueryOptions queryOptions) {
+        if (queryOptions.hasFilterFilter()) {
+            return null;
+        }
+        SessionFactoryImplementor factory = em.unwrap(SessionImplementor.class).getFactory();
+        EntityPersister observationPersister = factory.getMetamodel().entityPersister(DataEntity.class);
+        EntityPersister datasetPersister = factory.getMetamodel().entityPersister(AbstractDatasetEntity.class);
+        if (!(observationPersister instanceof AbstractEntityPersister
+            && datasetPersister instanceof AbstractEntityPersister)) {
+            return null;
+        }
+        AbstractEntityPersister observation = (AbstractEntityPersister) observationPersister;
+        AbstractEntityPersister dataset = (AbstractEntityPersister) datasetPersister;
+        OffsetLimitBasedPageRequest pageable = createPageableRequest(queryOptions);
+
+        String orderBy = createNativeOrderBy(observation, pageable.getSort());
+        if (orderBy == null) {
+            return null;
+        }
+        String datasetId = dataset.getIdentifierColumnNames()[0];
+        // Observations of a Datastream are stored in the Datastream itself or the Datasets it aggregates. Ranks are
+        // assigned in the requested order within each Datastream, so that the order is retained when fetching the
+        // entities
+        String sql = "SELECT x.id, s." + datasetId + ", x.rn "
+            + "FROM " + dataset.getTableName() + " s "
+            + "CROSS JOIN LATERAL ("
+            + "SELECT o." + observation.getIdentifierColumnNames()[0] + " AS id, "
+            + "ROW_NUMBER() OVER (ORDER BY " + orderBy + ") AS rn "
+            + "FROM " + observation.getTableName() + " o "
+            + "WHERE o." + observation.getPropertyColumnNames(DataEntity.PROPERTY_DATASET)[0] + " IN ("
+            + "SELECT d." + datasetId + " FROM " + dataset.getTableName() + " d "
+            + "WHERE (d." + datasetId + " = s." + datasetId
+            + " OR d." + dataset.getPropertyColumnNames(AbstractDatasetEntity.PROPERTY_AGGREGATION)[0]
+            + " = s." + datasetId + ")"
+            + dataset.filterFragment("d", Collections.emptyMap()) + ")"
+            + observation.filterFragment("o", Collections.emptyMap())
+            + " ORDER BY " + orderBy + " LIMIT :limit OFFSET :skip) x "
+            + "WHERE s." + datasetId + " IN (:ids)"
+            + dataset.filterFragment("s", Collections.emptyMap());
+
+        Map<Long, Long> datastreamByObservation = new HashMap<>();
+        Map<Long, Long> rankByObservation = new HashMap<>();
+        if (!datastreamIds.isEmpty()) {
+            List<?> rows = em.createNativeQuery(sql)
+                .setParameter("ids", datastreamIds)
+                .setParameter("skip", pageable.getOffset())
+                .setParameter("limit", pageable.getPageSize())
+                .getResultList();
+            for (Object row : rows) {
+                Object[] columns = (Object[]) row;
+                Long id = ((Number) columns[0]).longValue();
+                datastreamByObservation.put(id, ((Number) columns[1]).longValue());
+                rankByObservation.put(id, ((Number) columns[2]).longValue());
+            }
+        }
+
+        Map<Long, List<DataEntity<?>>> result = new HashMap<>();
+        if (datastreamByObservation.isEmpty()) {
+            return result;
+        }
+        Specification<DataEntity<?>> byIds =
+            (root, query, builder) -> root.get(ID).in(datastreamByObservation.keySet());
+        List<DataEntity<?>> observations = new ArrayList<>(getRepository().findAll(byIds));
+        observations.sort(Comparator.comparing(o -> rankByObservation.get(o.getId())));
+        // Parameters are initialized in batches
+        observations.forEach(o -> Hibernate.initialize(o.getParameters()));
+        if (queryOptions.hasExpandFilter()) {
+            observations = expandPage(observations, queryOptions.getExpandFilter());
+        }
+        for (DataEntity<?> o : observations) {
+            result.computeIfAbsent(datastreamByObservation.get(o.getId()), k -> new ArrayList<>()).add(o);
+        }
+        return result;
+    }
+
+    /**
+     * Translates the given sort into an ORDER BY clause of a native query. Only properties mapped to a single column
+     * of the observation table are supported.
+     *
+     * @param persister persister of Observations
+     * @param sort      requested sort
+     * @return ORDER BY clause. null if the sort cannot be translated
+     */
+    private String createNativeOrderBy(AbstractEntityPersister persister, Sort sort) {
+        StringJoiner orderBy = new StringJoiner(", ");
+        try {
+            for (Sort.Order order : sort) {
+                String[] columns = persister.getPropertyColumnNames(order.getProperty());
+                if (columns.length != 1
+                    || !persister.getTableName().equals(persister.getPropertyTableName(order.getProperty()))) {
+                    return null;
+                }
+                orderBy.add("o." + columns[0] + (order.isAscending() ? " ASC" : " DESC"));
+            }
+        } catch (HibernateException e) {
+            return null;
+        }
+        // Guarantee a total order
+        orderBy.add("o." + persister.getIdentifierColumnNames()[0]);
+        return orderBy.toString();
     }
 
     @Override
@@ -251,55 +795,14 @@ public class ObservationService
 
     @Override
     public DataEntity<?> createOrfetch(DataEntity<?> entity) throws STACRUDException {
-        synchronized (getLock(entity.getStaIdentifier())) {
+        try (MutexFactory.Lock lock = lock(entity.getStaIdentifier())) {
             DataEntity<?> observation = entity;
             if (!observation.isProcessed()) {
                 observation.setProcessed(true);
                 check(observation);
 
                 // Fetch dataset and check if FOI matches to reuse existing dataset
-                AbstractDatasetEntity datastream = datastreamRepository
-                    .findByStaIdentifier(entity.getDataset().getStaIdentifier(),
-                                         EntityGraphRepository.FetchGraph.FETCHGRAPH_FEATURE)
-                    .orElseThrow(() -> new STACRUDException("Unable to find Datastream!"));
-                AbstractFeatureEntity<?> feature = createOrfetchFeature(observation, datastream.getPlatform().getId());
-
-                // Check all subdatasets for a matching  dataset
-                Set<DatasetEntity> datasets;
-                if (datastream.getAggregation() == null && !(datastream instanceof DatasetAggregationEntity)) {
-                    // We are not an aggregate so there is only one dataset to check for fit
-                    datasets = Collections.singleton((DatasetEntity) datastream);
-                } else {
-                    datasets = datastreamRepository.findAllByAggregationId(datastream.getId())
-                        .stream()
-                        .map(d -> (DatasetEntity) d)
-                        .collect(Collectors.toSet());
-                }
-
-                // Check all datasets for a matching FOI
-                boolean found = false;
-                for (DatasetEntity dataset : datasets) {
-                    if (!dataset.hasFeature()) {
-                        // We have a dataset without a feature
-                        LOGGER.debug("Reusing existing dataset without FOI.");
-                        dataset.setFeature(feature);
-                        observation.setDataset(datastreamRepository.save(dataset));
-                        found = true;
-                        break;
-                    } else if (feature.getId().equals(dataset.getFeature().getId())) {
-                        // We have a dataset with a matching feature
-                        observation.setDataset(dataset);
-                        LOGGER.debug("Reusing existing dataset with matching FOI.");
-                        found = true;
-                        break;
-                    }
-                }
-
-                if (!found) {
-                    // We have not found a matching dataset so we need to create a new one
-                    LOGGER.debug("Creating new dataset as none with matching FOI exists");
-                    observation.setDataset(getDatastreamService().createOrExpandAggregation(datastream, feature));
-                }
+                observation.setDataset(resolveDataset(observation));
 
                 // Save Observation
                 DataEntity<?> data = saveObservation(observation, observation.getDataset());
@@ -322,17 +825,257 @@ public class ObservationService
 
                 // Update FirstValue/LastValue + FirstObservation/LastObservation of Dataset + Aggregation
                 updateDataset(observation.getDataset(), data);
+                rollups.add(Collections.singletonList(data));
                 return data;
             }
             return observation;
         }
     }
 
+    /**
+     * Creates all given Observations inside a single Transaction. Observations are grouped by Datastream so that
+     * Datastream, FeatureOfInterest and Dataset are only resolved once per group. Observations are inserted in
+     * JDBC batches and Dataset->first/last as well as Datastream->phenomenonTime is only updated once per Dataset.
+     * All changes are flushed before returning, so that errors are raised as {@link STACRUDException} before the
+     * Transaction is committed. A {@link STACRUDException} therefore implies that the whole batch was rolled back.
+     *
+     * @param observations Observations to be created
+     * @return created Observations in the same order as given
+     * @throws STACRUDException if an error occurred
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public List<DataEntity<?>> createBatch(List<DataEntity<?>> observations) throws STACRUDException {
+        try {
+            List<DataEntity<?>> created = createGroups(observations);
+            em.flush();
+            return created;
+        } catch (RuntimeException e) {
+            throw new STACRUDException(e.getMessage(), e);
+        }
+    }
+
+    private List<DataEntity<?>> createGroups(List<DataEntity<?>> observations) throws STACRUDException {
+        Map<String, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < observations.size(); i++) {
+            DataEntity<?> observation = observations.get(i);
+            check(observation);
+            groups.computeIfAbsent(observation.getDataset().getStaIdentifier(), k -> new ArrayList<>()).add(i);
+        }
+        checkIdentifiersAvailable(observations);
+
+        DataEntity<?>[] created = new DataEntity<?>[observations.size()];
+        for (Map.Entry<String, List<Integer>> group : groups.entrySet()) {
+            AbstractDatasetEntity datastream = datastreamRepository
+                .findByStaIdentifier(group.getKey(), EntityGraphRepository.FetchGraph.FETCHGRAPH_FEATURE)
+                .orElseThrow(() -> new STACRUDException("Unable to find Datastream!", HTTPStatus.BAD_REQUEST));
+            Set<DatasetEntity> datasets = getDatasets(datastream);
+            Map<String, AbstractFeatureEntity<?>> features = new HashMap<>();
+            Map<Long, DatasetEntity> datasetsByFeature = new HashMap<>();
+            AbstractFeatureEntity<?> generatedFeature = null;
+
+            List<DataEntity<?>> toSave = new ArrayList<>(group.getValue().size());
+            for (Integer index : group.getValue()) {
+                DataEntity<?> observation = observations.get(index);
+                observation.setProcessed(true);
+
+                // Resolve FeatureOfInterest. Features are only fetched once per batch
+                AbstractFeatureEntity<?> feature;
+                if (!observation.hasFeature()) {
+                    if (generatedFeature == null) {
+                        generatedFeature = createOrfetchFeature(observation, datastream.getPlatform().getId());
+                    }
+                    feature = generatedFeature;
+                } else if (features.containsKey(observation.getFeature().getStaIdentifier())) {
+                    feature = features.get(observation.getFeature().getStaIdentifier());
+                } else {
+                    String featureId = observation.getFeature().getStaIdentifier();
+                    feature = createOrfetchFeature(observation, datastream.getPlatform().getId());
+                    features.put(featureId, feature);
+                }
+                observation.setFeature(feature);
+
+                // Resolve matching Dataset once per Feature
+                DatasetEntity dataset = datasetsByFeature.get(feature.getId());
+                if (dataset == null) {
+                    DatasetEntity matching = findOrCreateDataset(datastream, datasets, feature);
+                    datasetsByFeature.put(feature.getId(), matching);
+                    if (datasets.stream().noneMatch(d -> d.getId().equals(matching.getId()))) {
+                        // A new dataset was created. Refresh Datastream as it may have been expanded to an aggregation
+                        datastream = datastreamRepository
+                            .findByStaIdentifier(group.getKey(), EntityGraphRepository.FetchGraph.FETCHGRAPH_FEATURE)
+                            .get();
+                        datasets = getDatasets(datastream);
+                    }
+                    dataset = matching;
+                }
+                observation.setDataset(dataset);
+                toSave.add(castToConcreteObservationType(observation, dataset, false));
+            }
+
+            // Save Observations + Parameters
+            List<DataEntity<?>> saved = getRepository().saveAll(toSave);
+            List<ObservationParameterEntity> parameters = new ArrayList<>();
+            for (int i = 0; i < saved.size(); i++) {
+                DataEntity<?> observation = observations.get(group.getValue().get(i));
+                DataEntity<?> data = saved.get(i);
+                if (observation.getParameters() != null) {
+                    observation.getParameters()
+                        .stream()
+                        .filter(o -> o instanceof ObservationParameterEntity)
+                        .forEach(o -> {
+                            ((ObservationParameterEntity<?>) o).setObservation(data);
+                            parameters.add((ObservationParameterEntity) o);
+                        });
+                    data.setParameters(observation.getParameters());
+                }
+                created[group.getValue().get(i)] = data;
+            }
+            if (!parameters.isEmpty()) {
+                parameterRepository.saveAll(parameters);
+            }
+
+            // Update FirstValue/LastValue + FirstObservation/LastObservation once per Dataset. Datasets are updated
+            // in order of their id so that concurrent batches lock the rows in the same order
+            Map<Long, List<DataEntity<?>>> byDataset = saved.stream()
+                .collect(Collectors.groupingBy(d -> d.getDataset().getId(), TreeMap::new, Collectors.toList()));
+            for (List<DataEntity<?>> datasetObservations : byDataset.values()) {
+                DataEntity<?> first = datasetObservations.get(0);
+                DataEntity<?> last = datasetObservations.get(0);
+                for (DataEntity<?> data : datasetObservations) {
+                    if (data.getSamplingTimeStart().before(first.getSamplingTimeStart())) {
+                        first = data;
+                    }
+                    if (data.getSamplingTimeEnd().after(last.getSamplingTimeEnd())) {
+                        last = data;
+                    }
+                }
+                updateDataset(first.getDataset(), first, last);
+            }
+        }
+        List<DataEntity<?>> result = Arrays.asList(created);
+        rollups.add(result);
+        return result;
+    }
+
+    /**
+     * Checks that none of the given Observations uses an identifier that is already present in the database or
+     * used more than once in the given batch.
+     *
+     * @param observations Observations to be checked
+     * @throws STACRUDException if an identifier is already in use
+     */
+    private void checkIdentifiersAvailable(List<DataEntity<?>> observations) throws STACRUDException {
+        Set<String> identifiers = new HashSet<>();
+        for (DataEntity<?> observation : observations) {
+            if (observation.getStaIdentifier() != null && !identifiers.add(observation.getStaIdentifier())) {
+                throw new STACRUDException(IDENTIFIER_ALREADY_EXISTS, HTTPStatus.CONFLICT);
+            }
+        }
+        List<String> identifierList = new ArrayList<>(identifiers);
+        for (int i = 0; i < identifierList.size(); i += IDENTIFIER_CHECK_CHUNK_SIZE) {
+            List<String> chunk =
+                identifierList.subList(i, Math.min(i + IDENTIFIER_CHECK_CHUNK_SIZE, identifierList.size()));
+            if (!getRepository().getColumnList(oQS.withStaIdentifier(chunk), Pageable.unpaged(), STAIDENTIFIER)
+                .isEmpty()) {
+                throw new STACRUDException(IDENTIFIER_ALREADY_EXISTS, HTTPStatus.CONFLICT);
+            }
+        }
+    }
+
+    /**
+     * Resolves the Dataset the given Observation is stored in. If metadata of the Datastream is cached and contains
+     * a Dataset matching the Feature of the Observation, only this Dataset is fetched by id. Otherwise the Datastream
+     * is loaded to find or create a matching Dataset and the metadata is cached afterwards.
+     *
+     * @param observation Observation to be stored
+     * @return Dataset of the Observation
+     * @throws STACRUDException if the Datastream does not exist or no Feature can be determined
+     */
+    private DatasetEntity resolveDataset(DataEntity<?> observation) throws STACRUDException {
+        String datastreamId = observation.getDataset().getStaIdentifier();
+        long generation = datastreamCache.getGeneration();
+        DatastreamMetadataCache.Metadata metadata = datastreamCache.get(datastreamId);
+        AbstractFeatureEntity<?> feature = null;
+        if (metadata != null) {
+            feature = createOrfetchFeature(observation, metadata.getThingId());
+            Long datasetId = metadata.getDatasetId(feature.getId());
+            // Dataset may have been deleted since it was cached
+            DatasetEntity dataset = datasetId != null ? em.find(DatasetEntity.class, datasetId) : null;
+            if (dataset != null) {
+                return dataset;
+            }
+        }
+
+        AbstractDatasetEntity datastream = datastreamRepository
+            .findByStaIdentifier(datastreamId, EntityGraphRepository.FetchGraph.FETCHGRAPH_FEATURE)
+            .orElseThrow(() -> new STACRUDException("Unable to find Datastream!"));
+        Long thingId = datastream.getPlatform().getId();
+        if (feature == null) {
+            feature = createOrfetchFeature(observation, thingId);
+        }
+        Set<DatasetEntity> datasets = getDatasets(datastream);
+        DatasetEntity dataset = findOrCreateDataset(datastream, datasets, feature);
+
+        Map<Long, Long> datasetsByFeature = new HashMap<>();
+        for (DatasetEntity existing : datasets) {
+            if (existing.hasFeature()) {
+                datasetsByFeature.put(existing.getFeature().getId(), existing.getId());
+            }
+        }
+        datasetsByFeature.put(feature.getId(), dataset.getId());
+        datastreamCache.put(datastreamId, new DatastreamMetadataCache.Metadata(thingId, datasetsByFeature), generation);
+        return dataset;
+    }
+
+    private Set<DatasetEntity> getDatasets(AbstractDatasetEntity datastream) {
+        if (datastream.getAggregation() == null && !(datastream instanceof DatasetAggregationEntity)) {
+            // We are not an aggregate so there is only one dataset to check for fit
+            return Collections.singleton((DatasetEntity) datastream);
+        } else {
+            return datastreamRepository.findAllByAggregationId(datastream.getId())
+                .stream()
+                .map(d -> (DatasetEntity) d)
+                .collect(Collectors.toSet());
+        }
+    }
+
+    /**
+     * Checks all subdatasets of the datastream for a dataset matching the given feature. Creates a new dataset if
+     * none is found.
+     *
+     * @param datastream Datastream
+     * @param datasets   All (sub)datasets of the Datastream
+     * @param feature    FeatureOfInterest to be matched
+     * @return matching DatasetEntity
+     * @throws STACRUDException if an error occurred
+     */
+    private DatasetEntity findOrCreateDataset(AbstractDatasetEntity datastream,
+                                              Set<DatasetEntity> datasets,
+                                              AbstractFeatureEntity<?> feature) throws STACRUDException {
+        // Check all datasets for a matching FOI
+        for (DatasetEntity dataset : datasets) {
+            if (!dataset.hasFeature()) {
+                // We have a dataset without a feature
+                LOGGER.debug("Reusing existing dataset without FOI.");
+                dataset.setFeature(feature);
+                return datastreamRepository.save(dataset);
+            } else if (feature.getId().equals(dataset.getFeature().getId())) {
+                // We have a dataset with a matching feature
+                LOGGER.debug("Reusing existing dataset with matching FOI.");
+                return dataset;
+            }
+        }
+
+        // We have not found a matching dataset so we need to create a new one
+        LOGGER.debug("Creating new dataset as none with matching FOI exists");
+        return getDatastreamService().createOrExpandAggregation(datastream, feature);
+    }
+
     @Override
     public DataEntity<?> updateEntity(String id, DataEntity<?> entity, HttpMethod method)
         throws STACRUDException {
         if (HttpMethod.PATCH.equals(method)) {
-            synchronized (getLock(id)) {
+            try (MutexFactory.Lock lock = lock(id)) {
                 Optional<DataEntity<?>> existing =
                     getRepository()
                         .findByStaIdentifier(id,
@@ -340,13 +1083,16 @@ public class ObservationService
                                                  .FetchGraph
                                                  .FETCHGRAPH_PARAMETERS);
                 if (existing.isPresent()) {
+                    Date previousTime = existing.get().getSamplingTimeStart();
+                    Date previousEnd = existing.get().getSamplingTimeEnd();
                     DataEntity<?> merged = merge(existing.get(), entity);
                     DataEntity<?> saved = getRepository().save(merged);
+                    rollups.recompute(saved.getDataset().getId(), previousTime, saved.getSamplingTimeStart());
 
-                    AbstractDatasetEntity datastreamEntity =
-                        datastreamRepository.findById(saved.getDataset().getId()).get();
-
-                    updateDatastreamPhenomenonTimeOnObservationUpdate(datastreamEntity, saved);
+                    AbstractDatasetEntity dataset = saved.getDataset();
+                    if (datasetExtents.lockIfBoundary(dataset, saved, previousTime, previousEnd)) {
+                        datasetExtents.recompute(dataset);
+                    }
                     return saved;
                 }
                 throw new STACRUDException(UNABLE_TO_UPDATE_ENTITY_NOT_FOUND, HTTPStatus.NOT_FOUND);
@@ -359,7 +1105,7 @@ public class ObservationService
 
     @Override
     public DataEntity<?> createOrUpdate(DataEntity<?> entity) throws STACRUDException {
-        synchronized (getLock(entity.getStaIdentifier())) {
+        try (MutexFactory.Lock lock = lock(entity.getStaIdentifier())) {
             if (entity.getStaIdentifier() != null && getRepository().existsByStaIdentifier(entity.getStaIdentifier())) {
                 return updateEntity(entity.getStaIdentifier(), entity, HttpMethod.PATCH);
             }
@@ -388,7 +1134,7 @@ public class ObservationService
         }
         // parameter
         if (toMerge.getParameters() != null) {
-            synchronized (getLock(String.valueOf(
+            try (MutexFactory.Lock lock = lock(String.valueOf(
                 toMerge.getParameters().hashCode() + existing.getParameters().hashCode()))) {
                 parameterRepository.saveAll(toMerge.getParameters()
                                                 .stream()
@@ -416,6 +1162,13 @@ public class ObservationService
     protected DataEntity castToConcreteObservationType(DataEntity<?> observation,
                                                        DatasetEntity dataset)
         throws STACRUDException {
+        return castToConcreteObservationType(observation, dataset, true);
+    }
+
+    private DataEntity castToConcreteObservationType(DataEntity<?> observation,
+                                                     DatasetEntity dataset,
+                                                     boolean checkIdentifier)
+        throws STACRUDException {
         DataEntity data = null;
         String value = observation.getValueText();
         switch (dataset.getOMObservationType().getFormat()) {
@@ -452,141 +1205,240 @@ public class ObservationService
                 throw new STACRUDException(
                     "Unable to handle OMObservation with type: " + dataset.getOMObservationType().getFormat());
         }
-        return fillConcreteObservationType(data, observation, dataset);
-    }
-
-    private CollectionWrapper getEntityCollectionWrapperByIdentifierList(List<String> identifierList,
-                                                                         OffsetLimitBasedPageRequest pageableRequest,
-                                                                         QueryOptions queryOptions,
-                                                                         Specification<DataEntity<?>> spec) {
-        Page<DataEntity<?>> pages = getRepository().findAll(
-            oQS.withStaIdentifier(identifierList),
-            new OffsetLimitBasedPageRequest(0,
-                                            pageableRequest.getPageSize(),
-                                            pageableRequest.getSort()),
-            EntityGraphRepository.FetchGraph.FETCHGRAPH_PARAMETERS);
-
-        CollectionWrapper wrapper = createCollectionWrapperAndExpand(queryOptions, pages);
-        // Create Page manually as we used Database Pagination and are not sure how many Entities there are in
-        // the Database
-        if (pages.isEmpty()) {
-            return wrapper;
+        return fillConcreteObservationType(data, observation, dataset, checkIdentifier);
+    }
+
+    /**
+     * Fetches a single page of Observations with a single query. Parameters are initialized in batches (see
+     * hibernate.default_batch_fetch_size) instead of via fetch graph, as fetching a collection prevents Hibernate
+     * from paginating in the database.
+     *
+     * @param spec     Specification of Observations
+     * @param pageable requested page
+     * @return page of Observations
+     */
+    private Slice<DataEntity<?>> getSlice(Specification<DataEntity<?>> spec, Pageable pageable) {
+        Slice<DataEntity<?>> slice = getRepository().findSlice(spec, pageable);
+        slice.forEach(observation -> Hibernate.initialize(observation.getParameters()));
+        return slice;
+    }
+
+    /**
+     * Fetches a single page of Observations. If only properties stored with the Observation itself are selected via
+     * $select, only the respective columns are queried and detached Observations are created from them. Neither
+     * parameters nor related entities are loaded in this case.
+     *
+     * @param spec         Specification of Observations
+     * @param pageable     requested page
+     * @param queryOptions QueryOptions of the request
+     * @return page of Observations
+     */
+    private Slice<DataEntity<?>> getSlice(Specification<DataEntity<?>> spec,
+                                          Pageable pageable,
+                                          QueryOptions queryOptions) {
+        if (!queryOptions.hasSelectFilter()
+            || queryOptions.hasExpandFilter()
+            || queryOptions.getSelectFilter().getItems().contains(STAEntityDefinition.PROP_PARAMETERS)) {
+            return getSlice(spec, pageable);
+        }
+        Slice<Object[]> rows = getRepository().findSliceProjection(spec, pageable, (root, builder) -> Arrays.asList(
+            root.get(DataEntity.PROPERTY_ID),
+            root.get(DataEntity.PROPERTY_STA_IDENTIFIER),
+            root.get(DataEntity.PROPERTY_SAMPLING_TIME_START),
+            root.get(DataEntity.PROPERTY_SAMPLING_TIME_END),
+            root.get(DataEntity.PROPERTY_RESULT_TIME),
+            root.get(RepositoryConstants.VALIDTIMESTART),
+            root.get(RepositoryConstants.VALIDTIMEEND),
+            root.get(DataEntity.PROPERTY_VALUE_QUANTITY),
+            root.get(DataEntity.PROPERTY_VALUE_COUNT),
+            root.get(DataEntity.PROPERTY_VALUE_BOOLEAN),
+            root.get(DataEntity.PROPERTY_VALUE_CATEGORY),
+            root.get(DataEntity.PROPERTY_VALUE_TEXT)));
+        List<DataEntity<?>> observations = new ArrayList<>(rows.getNumberOfElements());
+        for (Object[] row : rows) {
+            observations.add(createProjectedObservation(row));
+        }
+        return new SliceImpl<>(observations, pageable, rows.hasNext());
+    }
+
+    private DataEntity<?> createProjectedObservation(Object[] row) {
+        // Only the column matching the concrete type of the Observation is set
+        DataEntity<?> observation;
+        if (row[8] != null) {
+            CountDataEntity count = new CountDataEntity();
+            count.setValue((Integer) row[8]);
+            observation = count;
+        } else if (row[9] != null) {
+            BooleanDataEntity bool = new BooleanDataEntity();
+            bool.setValue((Boolean) row[9]);
+            observation = bool;
+        } else if (row[10] != null) {
+            CategoryDataEntity category = new CategoryDataEntity();
+            category.setValue((String) row[10]);
+            observation = category;
+        } else if (row[11] != null) {
+            TextDataEntity text = new TextDataEntity();
+            text.setValue((String) row[11]);
+            observation = text;
         } else {
-            long count = getRepository().count(spec);
-            return new CollectionWrapper(count, wrapper.getEntities(),
-                                         identifierList.size() + pageableRequest.getOffset() < count);
+            QuantityDataEntity quantity = new QuantityDataEntity();
+            quantity.setValue((BigDecimal) row[7]);
+            observation = quantity;
         }
+        observation.setId((Long) row[0]);
+        observation.setStaIdentifier((String) row[1]);
+        observation.setSamplingTimeStart((Date) row[2]);
+        observation.setSamplingTimeEnd((Date) row[3]);
+        observation.setResultTime((Date) row[4]);
+        observation.setValidTimeStart((Date) row[5]);
+        observation.setValidTimeEnd((Date) row[6]);
+        return observation;
     }
 
-    private void check(DataEntity<?> observation) throws STACRUDException {
-        if (observation.getDataset() == null) {
-            throw new STACRUDException("The observation to create is invalid. Missing datastream!",
-                                       HTTPStatus.BAD_REQUEST);
+    private CollectionWrapper getEntityCollectionWrapper(Specification<DataEntity<?>> spec,
+                                                         QueryOptions queryOptions,
+                                                         String relatedId,
+                                                         String relatedType) throws STACRUDException {
+        OffsetLimitBasedPageRequest pageableRequest = createPageableRequest(queryOptions);
+        KeysetCursor cursor = (queryOptions instanceof KeysetQueryOptions)
+            ? ((KeysetQueryOptions) queryOptions).getCursor()
+            : null;
+        if (cursor != null && !cursor.matches(pageableRequest.getSort())) {
+            throw new STACRUDException("$skiptoken does not match requested $orderby", HTTPStatus.BAD_REQUEST);
+        }
+        boolean keyset = cursor != null || (keysetPagination && KeysetCursor.supports(pageableRequest.getSort()));
+        Specification<DataEntity<?>> pageSpec = cursor != null ? spec.and(cursor.toSpecification()) : spec;
+        OffsetLimitBasedPageRequest pageable = keyset
+            ? new OffsetLimitBasedPageRequest((int) pageableRequest.getOffset(),
+                                              pageableRequest.getPageSize(),
+                                              KeysetCursor.createSort(pageableRequest.getSort()))
+            : pageableRequest;
+
+        if (streamingThreshold > 0 && pageable.getPageSize() >= streamingThreshold) {
+            return new CollectionWrapper(count(spec, queryOptions, -1, relatedId, relatedType),
+                                         new ObservationStream(pageSpec, pageable, keyset, queryOptions));
+        }
+
+        Slice<DataEntity<?>> slice = getSlice(pageSpec, pageable, queryOptions);
+        CollectionWrapper wrapper = createCollectionWrapperAndExpand(queryOptions, new PageImpl<>(slice.getContent()));
+        // Total number is known if this is the last page and it was not selected via keyset
+        long total = cursor == null && !slice.hasNext() && (slice.hasContent() || pageable.getOffset() == 0)
+            ? pageable.getOffset() + slice.getNumberOfElements()
+            : -1;
+        CollectionWrapper collection = new CollectionWrapper(count(spec, queryOptions, total, relatedId, relatedType),
+                                                             wrapper.getEntities(),
+                                                             slice.hasNext());
+        if (keyset && slice.hasNext()) {
+            List<DataEntity<?>> content = slice.getContent();
+            collection.setSkipToken(KeysetCursor.after(pageable.getSort(), content.get(content.size() - 1))
+                                        .encode());
         }
+        return collection;
     }
 
     /**
-     * Handles updating the phenomenonTime field of the associated Datastream when Observation phenomenonTime is
-     * updated or deleted
+     * Computes the total number of Observations matching the request. No count query is executed if $count=false
+     * was requested or the total number is already known from the current page. Otherwise the number is computed
+     * according to the configured {@link CountMode}.
      *
-     * @param datastreamEntity DatstreamEntity
-     * @param observation      ObservationEntity
+     * @param spec         Specification of Observations
+     * @param queryOptions QueryOptions of the request
+     * @param total        total number of Observations if known from the current page. -1 otherwise
+     * @param relatedId    id of the related entity. null if Observations are requested directly
+     * @param relatedType  type of the related entity. null if Observations are requested directly
+     * @return number of Observations. -1 if not computed
      */
-    protected void updateDatastreamPhenomenonTimeOnObservationUpdate(AbstractDatasetEntity datastreamEntity,
-                                                                     DataEntity<?> observation) {
-        if (datastreamEntity.getPhenomenonTimeStart() == null ||
-            datastreamEntity.getPhenomenonTimeEnd() == null ||
-            observation.getPhenomenonTimeStart().compareTo(datastreamEntity.getPhenomenonTimeStart()) != 1 ||
-            observation.getPhenomenonTimeEnd().compareTo(datastreamEntity.getPhenomenonTimeEnd()) != -1
-        ) {
-            // Setting new phenomenonTimeStart
-            DataEntity<?> firstObservation = getRepository()
-                .findFirstByDataset_idOrderBySamplingTimeStartAsc(datastreamEntity.getId());
-            Date newPhenomenonStart = (firstObservation == null) ? null : firstObservation.getPhenomenonTimeStart();
-
-            // Set Start and End to null if there is no observation.
-            if (newPhenomenonStart == null) {
-                datastreamEntity.setPhenomenonTimeStart(null);
-                datastreamEntity.setPhenomenonTimeEnd(null);
-            } else {
-                datastreamEntity.setPhenomenonTimeStart(newPhenomenonStart);
-
-                // Setting new phenomenonTimeEnd
-                DataEntity<?> lastObservation = getRepository()
-                    .findFirstByDataset_idOrderBySamplingTimeEndDesc(datastreamEntity.getId());
-                Date newPhenomenonEnd = (lastObservation == null) ? null : lastObservation.getPhenomenonTimeEnd();
-                if (newPhenomenonEnd != null) {
-                    datastreamEntity.setPhenomenonTimeEnd(newPhenomenonEnd);
-                } else {
-                    datastreamEntity.setPhenomenonTimeStart(null);
-                    datastreamEntity.setPhenomenonTimeEnd(null);
-                }
-            }
-            datastreamRepository.save(datastreamEntity);
-            // update parent if its part of the aggregation
-            if (datastreamEntity.isSetAggregation()) {
-                updateDatastreamPhenomenonTimeOnObservationUpdate(
-                    datastreamRepository.findById(datastreamEntity.getAggregation()
-                                                      .getId()).get(),
-                    observation);
+    private long count(Specification<DataEntity<?>> spec,
+                       QueryOptions queryOptions,
+                       long total,
+                       String relatedId,
+                       String relatedType) {
+        if (queryOptions.hasCountFilter() && Boolean.FALSE.equals(queryOptions.getCountFilter().getValue())) {
+            return -1;
+        }
+        if (total >= 0) {
+            return total;
+        }
+        if (countMode == CountMode.ESTIMATED && relatedId == null && !queryOptions.hasFilterFilter()) {
+            long estimate = getRepository().estimateCount();
+            if (estimate >= 0) {
+                return estimate;
             }
         }
+        String rawFilter = queryOptions instanceof RawFilterQueryOptions
+            ? ((RawFilterQueryOptions) queryOptions).getRawFilter()
+            : null;
+        if (countMode == CountMode.EXACT || (queryOptions.hasFilterFilter() && rawFilter == null)) {
+            // Filters are only identified by their raw form, so counts of internally created filters are not cached
+            return getRepository().count(spec);
+        } else {
+            String key = relatedType + "(" + relatedId + ")" + (rawFilter != null ? "?$filter=" + rawFilter : "");
+            return countCache.get(key, () -> getRepository().count(spec));
+        }
+    }
+
+    private void check(DataEntity<?> observation) throws STACRUDException {
+        if (observation.getDataset() == null) {
+            throw new STACRUDException("The observation to create is invalid. Missing datastream!",
+                                       HTTPStatus.BAD_REQUEST);
+        }
     }
 
     @Override
     public void delete(String identifier) throws STACRUDException {
-        synchronized (getLock(identifier)) {
+        try (MutexFactory.Lock lock = lock(identifier)) {
             if (getRepository().existsByStaIdentifier(identifier)) {
                 DataEntity<?> observation =
                     getRepository().findByStaIdentifier(
                         identifier,
                         EntityGraphRepository.FetchGraph.FETCHGRAPH_DATASET_FIRSTLAST_OBSERVATION)
                         .get();
-                deleteReferenceFromDatasetFirstLast(observation);
+                DatasetEntity dataset = observation.getDataset();
+                boolean boundary = datasetExtents.lockIfBoundary(dataset,
+                                                                 observation,
+                                                                 observation.getSamplingTimeStart(),
+                                                                 observation.getSamplingTimeEnd());
+                if (boundary) {
+                    datasetExtents.removeReferences(dataset, observation);
+                }
 
                 // Important! Delete first and then update else we find
                 // ourselves again in search for new latest/earliest obs.
                 getRepository().deleteByStaIdentifier(observation.getStaIdentifier());
-                updateDatastreamPhenomenonTimeOnObservationUpdate(observation.getDataset(), observation);
+                rollups.recompute(dataset.getId(), observation.getSamplingTimeStart());
+                if (boundary) {
+                    datasetExtents.recompute(dataset);
+                }
             } else {
                 throw new STACRUDException(UNABLE_TO_DELETE_ENTITY_NOT_FOUND, HTTPStatus.NOT_FOUND);
             }
         }
     }
 
-    private void deleteReferenceFromDatasetFirstLast(DataEntity<?> observation) {
-        // TODO get the next first/last observation and set it
-        DatasetEntity dataset = observation.getDataset();
-        if (dataset.getFirstObservation() != null
-            && dataset.getFirstObservation().getStaIdentifier().equals(observation.getStaIdentifier())) {
-            dataset.setFirstObservation(null);
-            dataset.setFirstQuantityValue(null);
-            dataset.setFirstValueAt(null);
-        }
-        if (dataset.getLastObservation() != null && dataset.getLastObservation()
-            .getStaIdentifier()
-            .equals(observation.getStaIdentifier())) {
-            dataset.setLastObservation(null);
-            dataset.setLastQuantityValue(null);
-            dataset.setLastValueAt(null);
-        }
-        observation.setDataset(datastreamRepository.saveAndFlush(dataset));
-    }
-
     private AbstractFeatureEntity<?> createOrfetchFeature(DataEntity observation,
                                                           Long thingId)
         throws STACRUDException {
         // Create feature based on Thing.location if there is no feature given
         if (!observation.hasFeature()) {
+            Long cached = featureCache.get(thingId);
+            if (cached != null) {
+                AbstractFeatureEntity<?> feature = em.getReference(AbstractFeatureEntity.class, cached);
+                observation.setFeature(feature);
+                return feature;
+            }
+            long generation = featureCache.getGeneration();
             AbstractFeatureEntity<?> feature = null;
+            LocationEntity source = null;
             LocationRepository locationRepository = (LocationRepository) getLocationService().getRepository();
             Set<LocationEntity> locations = locationRepository.findAllByPlatformsIdEquals(thingId);
             for (LocationEntity location : locations) {
                 if (feature == null) {
                     feature = ServiceUtils.createFeatureOfInterest(location);
+                    source = location;
                 }
                 if (location.isSetGeometry()) {
                     feature = ServiceUtils.createFeatureOfInterest(location);
+                    source = location;
                     break;
                 }
             }
@@ -594,7 +1446,15 @@ public class ObservationService
                 throw new STACRUDException("The observation to create is invalid." +
                                                " Missing feature or thing.location!", HTTPStatus.BAD_REQUEST);
             }
-            observation.setFeature(feature);
+            // Feature generated from the same geometry is reused without looking it up again
+            String geometryKey = GeneratedFeatureCache.createGeometryKey(source.getGeometry());
+            Long known = featureCache.get(thingId, geometryKey);
+            AbstractFeatureEntity<?> generated = known != null
+                ? em.getReference(AbstractFeatureEntity.class, known)
+                : getFeatureOfInterestService().createOrfetch(feature);
+            featureCache.put(thingId, geometryKey, generated.getId(), generation);
+            observation.setFeature(generated);
+            return generated;
         }
         // save feature to db
         AbstractFeatureEntity<?> feature = getFeatureOfInterestService().createOrfetch(observation.getFeature());
@@ -613,61 +1473,176 @@ public class ObservationService
      *
      * @param dataset Dataset to be updated
      * @param data    New Observation
-     * @return update DatasetEntity
      * @throws STACRUDException if an error occurred
      */
-    private AbstractDatasetEntity updateDataset(AbstractDatasetEntity dataset, DataEntity<?> data)
+    private void updateDataset(AbstractDatasetEntity dataset, DataEntity<?> data) throws STACRUDException {
+        updateDataset(dataset, data, data);
+    }
+
+    /**
+     * Updates FirstValue/LastValue, FirstObservation/LastObservation, Geometry of Dataset and DatasetAggregation
+     * with the earliest and latest of a set of new Observations. The Dataset is not locked by the application but
+     * updated via a single conditional update statement. Each property is only changed if the new Observations
+     * extend it, which is checked by the database against the current state of the row. Concurrent inserts into
+     * the same Dataset therefore cannot overwrite each other. As the statement bypasses the persistence context, the
+     * extents returned by it are written to the managed Dataset, so that they are neither read stale nor flushed
+     * again later on.
+     *
+     * @param dataset Dataset to be updated
+     * @param first   New Observation with earliest samplingTimeStart
+     * @param last    New Observation with latest samplingTimeEnd
+     * @throws STACRUDException if an error occurred
+     */
+    private void updateDataset(AbstractDatasetEntity dataset,
+                               DataEntity<?> first,
+                               DataEntity<?> last)
         throws STACRUDException {
-        Optional<DataEntity<?>> rawObservation = getRepository().findById(data.getId());
-        if (rawObservation.isPresent()) {
-            synchronized (getLock(dataset.getId().toString() + "Dataset")) {
-                LOGGER.debug("Updating First/Last/Geometry of of Dataset: {}", dataset.getId());
-                if (!dataset.isSetFirstValueAt()
-                    || (dataset.isSetFirstValueAt()
-                    && data.getSamplingTimeStart().before(dataset.getFirstValueAt()))) {
-                    dataset.setFirstValueAt(data.getSamplingTimeStart());
-                    dataset.setFirstObservation(rawObservation.get());
-                    if (data instanceof QuantityDataEntity) {
-                        dataset.setFirstQuantityValue(((QuantityDataEntity) data).getValue());
-                    }
-                }
-                if (!dataset.isSetLastValueAt()
-                    || (dataset.isSetLastValueAt()
-                    && data.getSamplingTimeEnd().after(dataset.getLastValueAt()))) {
-                    dataset.setLastValueAt(data.getSamplingTimeEnd());
-                    dataset.setLastObservation(rawObservation.get());
-                    if (data instanceof QuantityDataEntity) {
-                        dataset.setLastQuantityValue(((QuantityDataEntity) data).getValue());
-                    }
-                }
-                // Update phenomenonTime
-                if (dataset.getPhenomenonTimeStart() == null) {
-                    dataset.setPhenomenonTimeStart(data.getPhenomenonTimeStart());
-                    dataset.setPhenomenonTimeEnd(data.getPhenomenonTimeEnd());
-                } else {
-                    if (dataset.getPhenomenonTimeStart().after(data.getPhenomenonTimeStart())) {
-                        dataset.setPhenomenonTimeStart(data.getPhenomenonTimeStart());
-                    }
-                    if (dataset.getPhenomenonTimeEnd().before(data.getPhenomenonTimeEnd())) {
-                        dataset.setPhenomenonTimeEnd(data.getPhenomenonTimeEnd());
-                    }
-                }
-                // Update aggregation if present
-                if (dataset.getAggregation() != null) {
-                    //TODO: We might need to fetch the aggregation first!
-                    LOGGER.debug("Updating First/Last/Geometry of parent Aggregation: {}",
-                                 dataset.getAggregation().getId());
-                    updateDataset(dataset.getAggregation(), data);
-                }
+        LOGGER.debug("Updating First/Last/Geometry of of Dataset: {}", dataset.getId());
+        // New Observations must be written before they are referenced by the update statement
+        em.flush();
+        Date phenomenonTimeStart = dataset.getPhenomenonTimeStart();
+        Date phenomenonTimeEnd = dataset.getPhenomenonTimeEnd();
+        Object[] extents = extendDataset(dataset.getId(), first, last);
+        if (extents != null && em.contains(dataset)) {
+            AbstractDatasetEntity managed = (AbstractDatasetEntity) Hibernate.unproxy(dataset);
+            setExtents(managed, extents, first, last);
+            if (!Objects.equals(phenomenonTimeStart, managed.getPhenomenonTimeStart())
+                || !Objects.equals(phenomenonTimeEnd, managed.getPhenomenonTimeEnd())) {
+                datastreamRepository.notifyUpdate(managed, Collections.singleton(RepositoryConstants.PHENOMENONTIME));
+            }
+        }
 
-                return datastreamRepository.save(dataset);
+        // Update aggregation if present
+        if (dataset.getAggregation() != null) {
+            LOGGER.debug("Updating First/Last/Geometry of parent Aggregation: {}", dataset.getAggregation().getId());
+            updateDataset(dataset.getAggregation(), first, last);
+        }
+    }
+
+    /**
+     * Sets first Observation and start of phenomenonTime of the Dataset if they are not set yet or later than the
+     * given first Observation, and last Observation and end of phenomenonTime if they are not set yet or earlier
+     * than the given last Observation.
+     *
+     * @param datasetId id of the Dataset
+     * @param first     New Observation with earliest samplingTimeStart
+     * @param last      New Observation with latest samplingTimeEnd
+     * @return values of {@link #EXTENT_PROPERTIES} after the update. null if the Dataset was not updated
+     */
+    private Object[] extendDataset(Long datasetId, DataEntity<?> first, DataEntity<?> last) {
+        AbstractEntityPersister dataset = (AbstractEntityPersister) em.unwrap(SessionImplementor.class)
+            .getFactory()
+            .getMetamodel()
+            .entityPersister(AbstractDatasetEntity.class);
+        String firstTime = dataset.getPropertyColumnNames(RepositoryConstants.FIRSTVALUEAT)[0];
+        String lastTime = dataset.getPropertyColumnNames(RepositoryConstants.LASTVALUEAT)[0];
+        String start = dataset.getPropertyColumnNames(RepositoryConstants.SAMPLINGTIMESTART)[0];
+        String end = dataset.getPropertyColumnNames(RepositoryConstants.SAMPLINGTIMEEND)[0];
+        String firstExtended = "(" + firstTime + " IS NULL OR " + firstTime + " > :first)";
+        String lastExtended = "(" + lastTime + " IS NULL OR " + lastTime + " < :last)";
+        String startExtended = "(" + start + " IS NULL OR " + start + " > :first)";
+        String endExtended = "(" + end + " IS NULL OR " + end + " < :last)";
+
+        // All expressions are evaluated against the row before the update
+        StringJoiner set = new StringJoiner(", ");
+        set.add(setIf(firstExtended, firstTime, ":first"));
+        set.add(setIf(firstExtended,
+                      dataset.getPropertyColumnNames(RepositoryConstants.FIRSTOBSERVATION)[0],
+                      ":firstObservation"));
+        if (first instanceof QuantityDataEntity) {
+            set.add(setIf(firstExtended,
+                          dataset.getPropertyColumnNames(RepositoryConstants.FIRSTQUANTITYVALUE)[0],
+                          ":firstValue"));
+        }
+        set.add(setIf(lastExtended, lastTime, ":last"));
+        set.add(setIf(lastExtended,
+                      dataset.getPropertyColumnNames(RepositoryConstants.LASTOBSERVATION)[0],
+                      ":lastObservation"));
+        if (last instanceof QuantityDataEntity) {
+            set.add(setIf(lastExtended,
+                          dataset.getPropertyColumnNames(RepositoryConstants.LASTQUANTITYVALUE)[0],
+                          ":lastValue"));
+        }
+        set.add(setIf(startExtended, start, ":first"));
+        set.add(setIf(endExtended, end, ":last"));
+
+        String[] extentColumns = new String[EXTENT_PROPERTIES.length];
+        for (int i = 0; i < EXTENT_PROPERTIES.length; i++) {
+            extentColumns[i] = dataset.getPropertyColumnNames(EXTENT_PROPERTIES[i])[0];
+        }
+
+        NativeQuery<?> update = em.createNativeQuery(
+            "UPDATE " + dataset.getTableName() + " SET " + set
+                + " WHERE " + dataset.getIdentifierColumnNames()[0] + " = :dataset"
+                + " AND (" + firstExtended + " OR " + lastExtended + " OR " + startExtended + " OR " + endExtended
+                + ") RETURNING " + String.join(", ", extentColumns))
+            .unwrap(NativeQuery.class)
+            .setParameter("dataset", datasetId, StandardBasicTypes.LONG)
+            .setParameter("first", first.getSamplingTimeStart(), StandardBasicTypes.TIMESTAMP)
+            .setParameter("firstObservation", first.getId(), StandardBasicTypes.LONG)
+            .setParameter("last", last.getSamplingTimeEnd(), StandardBasicTypes.TIMESTAMP)
+            .setParameter("lastObservation", last.getId(), StandardBasicTypes.LONG);
+        if (first instanceof QuantityDataEntity) {
+            update.setParameter("firstValue",
+                                ((QuantityDataEntity) first).getValue(),
+                                StandardBasicTypes.BIG_DECIMAL);
+        }
+        if (last instanceof QuantityDataEntity) {
+            update.setParameter("lastValue",
+                                ((QuantityDataEntity) last).getValue(),
+                                StandardBasicTypes.BIG_DECIMAL);
+        }
+        for (int i = 0; i < EXTENT_PROPERTIES.length; i++) {
+            update.addScalar(extentColumns[i], EXTENT_TYPES[i]);
+        }
+        return (Object[]) update.uniqueResult();
+    }
+
+    /**
+     * Writes the given extents to the managed Dataset. The loaded state of the Dataset is updated as well, as the
+     * extents were already written by the update statement and must not be flushed again.
+     *
+     * @param dataset managed Dataset
+     * @param extents values of {@link #EXTENT_PROPERTIES} as returned by the update statement
+     * @param first   New Observation with earliest samplingTimeStart
+     * @param last    New Observation with latest samplingTimeEnd
+     */
+    private void setExtents(AbstractDatasetEntity dataset,
+                            Object[] extents,
+                            DataEntity<?> first,
+                            DataEntity<?> last) {
+        SessionImplementor session = em.unwrap(SessionImplementor.class);
+        EntityEntry entry = session.getPersistenceContext().getEntry(dataset);
+        EntityPersister persister = entry.getPersister();
+        Object[] loadedState = entry.getLoadedState();
+        for (int i = 0; i < EXTENT_PROPERTIES.length; i++) {
+            Object value = extents[i];
+            if (value != null && EXTENT_TYPES[i] == StandardBasicTypes.LONG) {
+                value = getObservationReference((Long) value, first, last);
             }
+            int index = persister.getEntityMetamodel().getPropertyIndex(EXTENT_PROPERTIES[i]);
+            persister.setPropertyValue(dataset, index, value);
+            if (loadedState != null) {
+                loadedState[index] = persister.getPropertyTypes()[index].deepCopy(value, session.getFactory());
+            }
+        }
+    }
+
+    private DataEntity<?> getObservationReference(Long id, DataEntity<?> first, DataEntity<?> last) {
+        if (id.equals(first.getId())) {
+            return first;
+        } else if (id.equals(last.getId())) {
+            return last;
         } else {
-            throw new STACRUDException("Could not update Dataset->firstObservation or Dataset->firstObservation. " +
-                                           "Unable to find Observation with Id:" + data.getId());
+            // Observation was set by a concurrent insert
+            return em.getReference(DataEntity.class, id);
         }
     }
 
+    private String setIf(String condition, String column, String value) {
+        return column + " = CASE WHEN " + condition + " THEN " + value + " ELSE " + column + " END";
+    }
+
     protected void mergeSamplingTimeAndCheckResultTime(DataEntity<?> existing, DataEntity<?> toMerge) {
         if (toMerge.getSamplingTimeEnd() != null && existing.getSamplingTimeEnd().equals(existing.getResultTime())) {
             existing.setResultTime(toMerge.getSamplingTimeEnd());
@@ -698,9 +1673,27 @@ public class ObservationService
     protected DataEntity<?> fillConcreteObservationType(DataEntity<?> data,
                                                         DataEntity<?> observation,
                                                         DatasetEntity dataset) throws STACRUDException {
+        return fillConcreteObservationType(data, observation, dataset, true);
+    }
+
+    /**
+     * Copies all properties of the given observation to the concrete observation
+     *
+     * @param data            concrete observation
+     * @param observation     observation as deserialized
+     * @param dataset         dataset of the observation
+     * @param checkIdentifier whether it should be checked that the identifier is not yet in use. May be skipped if
+     *                        this was already checked beforehand, e.g. for a whole batch of observations
+     * @return concrete observation
+     * @throws STACRUDException if the identifier is already in use
+     */
+    private DataEntity<?> fillConcreteObservationType(DataEntity<?> data,
+                                                      DataEntity<?> observation,
+                                                      DatasetEntity dataset,
+                                                      boolean checkIdentifier) throws STACRUDException {
         data.setDataset(dataset);
         if (observation.getStaIdentifier() != null) {
-            if (getRepository().existsByStaIdentifier(observation.getStaIdentifier())) {
+            if (checkIdentifier && getRepository().existsByStaIdentifier(observation.getStaIdentifier())) {
                 throw new STACRUDException(IDENTIFIER_ALREADY_EXISTS, HTTPStatus.CONFLICT);
             } else {
                 data.setIdentifier(observation.getIdentifier());
@@ -721,4 +1714,99 @@ public class ObservationService
         data.setVerticalTo(observation.getVerticalTo());
         return data;
     }
+
+
+
+    /**
+     * Page of Observations that is read from an open database cursor while being serialized. Observations are
+     * processed in chunks so that their parameters can be batch fetched, and are evicted from the persistence
+     * context once written. Memory consumption is therefore bounded by the chunk size instead of the page size.
+     */
+    private final class ObservationStream implements EntityStream {
+
+        private final Specification<DataEntity<?>> spec;
+        private final OffsetLimitBasedPageRequest pageable;
+        private final boolean keyset;
+        private final QueryOptions queryOptions;
+        private KeysetCursor next;
+
+        private ObservationStream(Specification<DataEntity<?>> spec,
+                                  OffsetLimitBasedPageRequest pageable,
+                                  boolean keyset,
+                                  QueryOptions queryOptions) {
+            this.spec = spec;
+            this.pageable = pageable;
+            this.keyset = keyset;
+            this.queryOptions = queryOptions;
+        }
+
+        @Override public boolean forEach(ElementConsumer consumer) throws IOException {
+            try {
+                return Boolean.TRUE.equals(readOnlyTransaction.execute(status -> stream(consumer)));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+
+        @Override public String getSkipToken() {
+            return next != null ? next.encode() : null;
+        }
+
+        private boolean stream(ElementConsumer consumer) {
+            List<DataEntity<?>> chunk = new ArrayList<>(STREAM_CHUNK_SIZE);
+            try (Stream<DataEntity<?>> observations = getRepository().findStream(spec, pageable, STREAM_CHUNK_SIZE)) {
+                Iterator<DataEntity<?>> iterator = observations.iterator();
+                int remaining = pageable.getPageSize();
+                while (remaining > 0 && iterator.hasNext()) {
+                    chunk.add(iterator.next());
+                    remaining--;
+                    if (chunk.size() == STREAM_CHUNK_SIZE) {
+                        write(chunk, consumer);
+                    }
+                }
+                if (!chunk.isEmpty()) {
+                    write(chunk, consumer);
+                }
+                // Query includes one additional Observation if there is a next page
+                return iterator.hasNext();
+            }
+        }
+
+        private void write(List<DataEntity<?>> chunk, ElementConsumer consumer) {
+            // Parameters of the whole chunk are initialized with a single query via batch fetching
+            chunk.forEach(observation -> Hibernate.initialize(observation.getParameters()));
+            if (keyset) {
+                next = KeysetCursor.after(pageable.getSort(), chunk.get(chunk.size() - 1));
+            }
+            List<DataEntity<?>> expanded = queryOptions.hasExpandFilter()
+                ? expandPage(chunk, queryOptions.getExpandFilter())
+                : chunk;
+            try {
+                for (DataEntity<?> observation : expanded) {
+                    consumer.accept(createWrapper(observation, queryOptions));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            chunk.clear();
+            em.clear();
+            // Expanded entities cached for this request were detached as well
+            ExpandCache cache = ExpandCache.current();
+            if (cache != null) {
+                cache.clear();
+            }
+        }
+    }
+
+    /**
+     * Strategy for computing the total number of Observations of a collection request.
+     */
+    private enum CountMode {
+        // Count query is executed for every request
+        EXACT,
+        // Count is cached per filter
+        CACHED,
+        // Count is estimated from database statistics for unfiltered requests and cached otherwise
+        ESTIMATED
+    }
 }
@@ -40,6 +40,7 @@ import org.n52.shetland.ogc.sta.exception.STACRUDException;
 import org.n52.shetland.ogc.sta.exception.STAInvalidQueryException;
 import org.n52.shetland.ogc.sta.model.ObservedPropertyEntityDefinition;
 import org.n52.shetland.ogc.sta.model.STAEntityDefinition;
+import org.n52.sta.data.MutexFactory;
 import org.n52.sta.data.query.DatastreamQuerySpecifications;
 import org.n52.sta.data.query.ObservedPropertyQuerySpecifications;
 import org.n52.sta.data.repositories.DatastreamRepository;
@@ -202,7 +203,7 @@ public class ObservedPropertyService
                 observableProperty.setStaIdentifier(UUID.randomUUID().toString());
             }
         }
-        synchronized (getLock(observableProperty.getStaIdentifier())) {
+        try (MutexFactory.Lock lock = lock(observableProperty.getStaIdentifier())) {
             // Check for duplicate definition
             if (getRepository().existsByIdentifier(observableProperty.getIdentifier())) {
                 throw new STACRUDException("Observed Property with given Definition already exists!",
@@ -231,7 +232,7 @@ public class ObservedPropertyService
         throws STACRUDException {
         checkUpdate(entity);
         if (HttpMethod.PATCH.equals(method)) {
-            synchronized (getLock(id)) {
+            try (MutexFactory.Lock lock = lock(id)) {
                 Optional<PhenomenonEntity> existing = getRepository().findByStaIdentifier(id);
                 if (existing.isPresent()) {
                     PhenomenonEntity merged = merge(existing.get(), entity);
@@ -274,7 +275,7 @@ public class ObservedPropertyService
 
     @Override
     public void delete(String id) throws STACRUDException {
-        synchronized (getLock(id)) {
+        try (MutexFactory.Lock lock = lock(id)) {
             if (getRepository().existsByStaIdentifier(id)) {
                 // delete datastreams
                 for (AbstractDatasetEntity datastreamEntity :
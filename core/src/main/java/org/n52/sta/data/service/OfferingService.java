@@ -61,7 +61,7 @@ public class OfferingService {
 
     @Transactional
     public OfferingEntity createOrFetchOffering(ProcedureEntity procedure) throws STACRUDException {
-        synchronized (mutexFactory.getLock(procedure.getIdentifier())) {
+        try (MutexFactory.Lock lock = mutexFactory.lock(OfferingService.class, procedure.getIdentifier())) {
             if (!offeringRepository.existsByIdentifier(procedure.getIdentifier())) {
                 OfferingEntity offering = new OfferingEntity();
                 offering.setIdentifier(procedure.getIdentifier());
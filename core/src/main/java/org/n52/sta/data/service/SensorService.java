@@ -42,6 +42,7 @@ import org.n52.shetland.ogc.sta.exception.STACRUDException;
 import org.n52.shetland.ogc.sta.exception.STAInvalidQueryException;
 import org.n52.shetland.ogc.sta.model.STAEntityDefinition;
 import org.n52.shetland.ogc.sta.model.SensorEntityDefinition;
+import org.n52.sta.data.MutexFactory;
 import org.n52.sta.data.query.DatastreamQuerySpecifications;
 import org.n52.sta.data.query.SensorQuerySpecifications;
 import org.n52.sta.data.repositories.DatastreamRepository;
@@ -198,7 +199,7 @@ public class SensorService
             }
         }
 
-        synchronized (getLock(sensor.getStaIdentifier())) {
+        try (MutexFactory.Lock lock = lock(sensor.getStaIdentifier())) {
             if (getRepository().existsByStaIdentifier(sensor.getStaIdentifier())) {
                 throw new STACRUDException(IDENTIFIER_ALREADY_EXISTS, HTTPStatus.CONFLICT);
             }
@@ -240,7 +241,7 @@ public class SensorService
         STACRUDException {
         checkUpdate(entity);
         if (HttpMethod.PATCH.equals(method)) {
-            synchronized (getLock(id)) {
+            try (MutexFactory.Lock lock = lock(id)) {
                 Optional<ProcedureEntity> existing =
                     getRepository()
                         .findByStaIdentifier(id,
@@ -311,7 +312,7 @@ public class SensorService
 
     @Override
     public void delete(String identifier) throws STACRUDException {
-        synchronized (getLock(identifier)) {
+        try (MutexFactory.Lock lock = lock(identifier)) {
             if (getRepository().existsByStaIdentifier(identifier)) {
                 // delete datastreams
                 for (AbstractDatasetEntity ds : datastreamRepository.findAll(dQS.withSensorStaIdentifier(identifier))) {
@@ -325,7 +326,7 @@ public class SensorService
 
     private void checkFormat(ProcedureEntity mergedSensor, ProcedureEntity newSensor) throws STACRUDException {
         FormatEntity format;
-        synchronized (getLock(mergedSensor.getFormat().getFormat())) {
+        try (MutexFactory.Lock lock = lock(mergedSensor.getFormat().getFormat())) {
             if (newSensor.getFormat() != null) {
                 if (!formatRepository.existsByFormat(newSensor.getFormat().getFormat())) {
                     format = formatRepository.save(newSensor.getFormat());
@@ -40,71 +40,65 @@ import org.n52.series.db.beans.sta.HistoricalLocationEntity;
 import org.n52.series.db.beans.sta.LocationEntity;
 import org.n52.shetland.oasis.odata.query.option.QueryOptions;
 import org.n52.shetland.ogc.sta.exception.STACRUDException;
-import org.n52.sta.DaoSemaphore;
+import org.n52.sta.DaoAdmissionControl;
+import org.n52.sta.DaoAdmissionControl.Operation;
 import org.n52.sta.data.service.util.CollectionWrapper;
+import org.n52.sta.data.service.util.DataArrayCollection;
+import org.n52.sta.data.service.util.EntityStream;
+import org.n52.sta.data.service.util.ObservationAggregation;
+import org.n52.sta.serdes.ObservationExportFormat;
+import org.n52.sta.serdes.ObservationExportOutput;
 import org.n52.sta.serdes.util.ElementWithQueryOptions;
 import org.springframework.http.HttpMethod;
 import org.springframework.stereotype.Component;
 
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+
 /**
  * Facade proxying actual Service implementations. Used to restrict the number of parallel threads accessing the Data
  * Persistence Layer. This is necessary as each Thread uses a seperate Database Transaction and therefore needs a
- * dedicated DatabaseConnection.
+ * dedicated DatabaseConnection. Reading and writing calls are admitted via separate pools of {@link
+ * DaoAdmissionControl}.
  *
  * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
  */
 public class ServiceFacade<S extends HibernateRelations.HasId>
     implements AbstractSensorThingsEntityService<S> {
 
-    private final DaoSemaphore semaphore;
+    private final DaoAdmissionControl admissionControl;
     private AbstractSensorThingsEntityService<S> serviceImpl;
 
-    public ServiceFacade(AbstractSensorThingsEntityService<S> serviceImpl, DaoSemaphore semaphore) {
+    public ServiceFacade(AbstractSensorThingsEntityService<S> serviceImpl, DaoAdmissionControl admissionControl) {
         this.serviceImpl = serviceImpl;
-        this.semaphore = semaphore;
+        this.admissionControl = admissionControl;
     }
 
     AbstractSensorThingsEntityService<S> getServiceImpl() {
         return serviceImpl;
     }
 
+    DaoAdmissionControl getAdmissionControl() {
+        return admissionControl;
+    }
+
     @Override public boolean existsEntity(String id) throws STACRUDException {
-        boolean result;
-        try {
-            semaphore.acquire();
-            result = serviceImpl.existsEntity(id);
-        } catch (InterruptedException e) {
-            throw new STACRUDException(e.getMessage(), e);
-        } finally {
-            semaphore.release();
+        try (DaoAdmissionControl.Permit permit = admissionControl.acquire(Operation.READ)) {
+            return serviceImpl.existsEntity(id);
         }
-        return result;
     }
 
     @Override public ElementWithQueryOptions getEntity(String id, QueryOptions queryOptions) throws STACRUDException {
-        ElementWithQueryOptions result;
-        try {
-            semaphore.acquire();
-            result = serviceImpl.getEntity(id, queryOptions);
-        } catch (InterruptedException e) {
-            throw new STACRUDException(e.getMessage(), e);
-        } finally {
-            semaphore.release();
+        try (DaoAdmissionControl.Permit permit = admissionControl.acquire(Operation.READ)) {
+            return serviceImpl.getEntity(id, queryOptions);
         }
-        return result;
     }
 
     @Override public CollectionWrapper getEntityCollection(QueryOptions queryOptions) throws STACRUDException {
-        CollectionWrapper result;
-        try {
-            semaphore.acquire();
-            result = serviceImpl.getEntityCollection(queryOptions);
-        } catch (InterruptedException e) {
-            throw new STACRUDException(e.getMessage(), e);
-        } finally {
-            semaphore.release();
+        try (DaoAdmissionControl.Permit permit = admissionControl.acquire(Operation.READ)) {
+            return admitStream(serviceImpl.getEntityCollection(queryOptions));
         }
-        return result;
     }
 
     @Override public ElementWithQueryOptions<?> getEntityByRelatedEntity(String relatedId,
@@ -112,104 +106,94 @@ public class ServiceFacade<S extends HibernateRelations.HasId>
                                                                          String ownId,
                                                                          QueryOptions queryOptions)
         throws STACRUDException {
-        ElementWithQueryOptions<?> result;
-        try {
-            semaphore.acquire();
-            result = serviceImpl.getEntityByRelatedEntity(relatedId, relatedType, ownId, queryOptions);
-        } catch (InterruptedException e) {
-            throw new STACRUDException(e.getMessage(), e);
-        } finally {
-            semaphore.release();
+        try (DaoAdmissionControl.Permit permit = admissionControl.acquire(Operation.READ)) {
+            return serviceImpl.getEntityByRelatedEntity(relatedId, relatedType, ownId, queryOptions);
         }
-        return result;
     }
 
     @Override public CollectionWrapper getEntityCollectionByRelatedEntity(String relatedId,
                                                                           String relatedType,
                                                                           QueryOptions queryOptions)
         throws STACRUDException {
-        CollectionWrapper result;
-        try {
-            semaphore.acquire();
-            result = serviceImpl.getEntityCollectionByRelatedEntity(relatedId, relatedType, queryOptions);
-        } catch (InterruptedException e) {
-            throw new STACRUDException(e.getMessage(), e);
-        } finally {
-            semaphore.release();
+        try (DaoAdmissionControl.Permit permit = admissionControl.acquire(Operation.READ)) {
+            return admitStream(serviceImpl.getEntityCollectionByRelatedEntity(relatedId, relatedType, queryOptions));
         }
-        return result;
     }
 
     @Override public String getEntityIdByRelatedEntity(String relatedId, String relatedType) throws STACRUDException {
-        String result;
-        try {
-            semaphore.acquire();
-            result = serviceImpl.getEntityIdByRelatedEntity(relatedId, relatedType);
-        } catch (InterruptedException e) {
-            throw new STACRUDException(e.getMessage(), e);
-        } finally {
-            semaphore.release();
+        try (DaoAdmissionControl.Permit permit = admissionControl.acquire(Operation.READ)) {
+            return serviceImpl.getEntityIdByRelatedEntity(relatedId, relatedType);
         }
-        return result;
     }
 
     @Override public boolean existsEntityByRelatedEntity(String relatedId, String relatedType, String ownId)
         throws STACRUDException {
-        boolean result;
-        try {
-            semaphore.acquire();
-            result = serviceImpl.existsEntityByRelatedEntity(relatedId, relatedType, ownId);
-        } catch (InterruptedException e) {
-            throw new STACRUDException(e.getMessage(), e);
-        } finally {
-            semaphore.release();
+        try (DaoAdmissionControl.Permit permit = admissionControl.acquire(Operation.READ)) {
+            return serviceImpl.existsEntityByRelatedEntity(relatedId, relatedType, ownId);
         }
-        return result;
     }
 
     @Override public ElementWithQueryOptions create(S entity) throws STACRUDException {
-        ElementWithQueryOptions result;
-        try {
-            semaphore.acquire();
-            result = serviceImpl.create(entity);
-        } catch (InterruptedException e) {
-            throw new STACRUDException(e.getMessage(), e);
-        } finally {
-            semaphore.release();
+        try (DaoAdmissionControl.Permit permit = admissionControl.acquire(Operation.WRITE)) {
+            return serviceImpl.create(entity);
         }
-        return result;
     }
 
     @Override public ElementWithQueryOptions update(String id, S entity, HttpMethod method) throws STACRUDException {
-        ElementWithQueryOptions result;
-        try {
-            semaphore.acquire();
-            result = serviceImpl.update(id, entity, method);
-        } catch (InterruptedException e) {
-            throw new STACRUDException(e.getMessage(), e);
-        } finally {
-            semaphore.release();
+        try (DaoAdmissionControl.Permit permit = admissionControl.acquire(Operation.WRITE)) {
+            return serviceImpl.update(id, entity, method);
         }
-        return result;
     }
 
     @Override public void delete(String id) throws STACRUDException {
-        try {
-            semaphore.acquire();
+        try (DaoAdmissionControl.Permit permit = admissionControl.acquire(Operation.WRITE)) {
             serviceImpl.delete(id);
-        } catch (InterruptedException e) {
-            throw new STACRUDException(e.getMessage(), e);
-        } finally {
-            semaphore.release();
         }
     }
 
+    /**
+     * Streamed collections access the database during serialization, i.e. after the permit for the request was
+     * released. Reading the stream therefore requires a separate permit.
+     *
+     * @param collection collection returned by the service
+     * @return collection admitted via {@link DaoAdmissionControl}
+     */
+    private CollectionWrapper admitStream(CollectionWrapper collection) {
+        if (collection.isStreaming()) {
+            collection.setStream(new AdmittedEntityStream(collection.getStream()));
+        }
+        return collection;
+    }
+
+
+    private final class AdmittedEntityStream implements EntityStream {
+
+        private final EntityStream stream;
+
+        private AdmittedEntityStream(EntityStream stream) {
+            this.stream = stream;
+        }
+
+        @Override public boolean forEach(ElementConsumer consumer) throws IOException {
+            try (DaoAdmissionControl.Permit permit = admissionControl.acquire(Operation.READ)) {
+                return stream.forEach(consumer);
+            } catch (STACRUDException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        }
+
+        @Override public String getSkipToken() {
+            return stream.getSkipToken();
+        }
+    }
+
+
     @Component
     static class ThingServiceFacade extends ServiceFacade<PlatformEntity> {
 
         ThingServiceFacade(ThingService serviceImpl,
-                           DaoSemaphore semaphore) {
-            super(serviceImpl, semaphore);
+                           DaoAdmissionControl admissionControl) {
+            super(serviceImpl, admissionControl);
         }
     }
 
@@ -218,8 +202,8 @@ public class ServiceFacade<S extends HibernateRelations.HasId>
     static class LocationServiceFacade extends ServiceFacade<LocationEntity> {
 
         LocationServiceFacade(LocationService serviceImpl,
-                              DaoSemaphore semaphore) {
-            super(serviceImpl, semaphore);
+                              DaoAdmissionControl admissionControl) {
+            super(serviceImpl, admissionControl);
         }
     }
 
@@ -229,8 +213,8 @@ public class ServiceFacade<S extends HibernateRelations.HasId>
         extends ServiceFacade<HistoricalLocationEntity> {
 
         HistoricalLocationServiceFacade(HistoricalLocationService serviceImpl,
-                                        DaoSemaphore semaphore) {
-            super(serviceImpl, semaphore);
+                                        DaoAdmissionControl admissionControl) {
+            super(serviceImpl, admissionControl);
         }
     }
 
@@ -239,8 +223,8 @@ public class ServiceFacade<S extends HibernateRelations.HasId>
     static class SensorServiceFacade extends ServiceFacade<ProcedureEntity> {
 
         SensorServiceFacade(SensorService serviceImpl,
-                            DaoSemaphore semaphore) {
-            super(serviceImpl, semaphore);
+                            DaoAdmissionControl admissionControl) {
+            super(serviceImpl, admissionControl);
         }
     }
 
@@ -250,19 +234,54 @@ public class ServiceFacade<S extends HibernateRelations.HasId>
         extends ServiceFacade<PhenomenonEntity> {
 
         ObservedPropertyServiceFacade(ObservedPropertyService serviceImpl,
-                                      DaoSemaphore semaphore) {
-            super(serviceImpl, semaphore);
+                                      DaoAdmissionControl admissionControl) {
+            super(serviceImpl, admissionControl);
         }
     }
 
 
     @Component
-    static class ObservationServiceFacade
+    public static class ObservationServiceFacade
         extends ServiceFacade<DataEntity<?>> {
 
         ObservationServiceFacade(ObservationService serviceImpl,
-                                 DaoSemaphore semaphore) {
-            super(serviceImpl, semaphore);
+                                 DaoAdmissionControl admissionControl) {
+            super(serviceImpl, admissionControl);
+        }
+
+        public List<DataEntity<?>> createBatch(List<DataEntity<?>> observations) throws STACRUDException {
+            try (DaoAdmissionControl.Permit permit = getAdmissionControl().acquire(Operation.WRITE)) {
+                return ((ObservationService) getServiceImpl()).createBatch(observations);
+            }
+        }
+
+        public ObservationAggregation aggregate(String datastreamId,
+                                                QueryOptions queryOptions,
+                                                Duration interval,
+                                                List<ObservationAggregation.Function> functions)
+            throws STACRUDException {
+            try (DaoAdmissionControl.Permit permit = getAdmissionControl().acquire(Operation.READ)) {
+                return ((ObservationService) getServiceImpl()).aggregate(datastreamId,
+                                                                         queryOptions,
+                                                                         interval,
+                                                                         functions);
+            }
+        }
+
+        public DataArrayCollection getDataArray(String relatedId, String relatedType, QueryOptions queryOptions)
+            throws STACRUDException {
+            try (DaoAdmissionControl.Permit permit = getAdmissionControl().acquire(Operation.READ)) {
+                return ((ObservationService) getServiceImpl()).getDataArray(relatedId, relatedType, queryOptions);
+            }
+        }
+
+        public void export(String datastreamId,
+                           QueryOptions queryOptions,
+                           ObservationExportFormat format,
+                           ObservationExportOutput output) throws STACRUDException {
+            try (DaoAdmissionControl.Permit permit = getAdmissionControl().acquire(Operation.EXPORT)) {
+                ((ObservationService) getServiceImpl()).export(datastreamId, queryOptions, format, output);
+            }
         }
     }
 
@@ -271,8 +290,8 @@ public class ServiceFacade<S extends HibernateRelations.HasId>
     static class DatastreamServiceFacade extends ServiceFacade<AbstractDatasetEntity> {
 
         DatastreamServiceFacade(DatastreamService serviceImpl,
-                                DaoSemaphore semaphore) {
-            super(serviceImpl, semaphore);
+                                DaoAdmissionControl admissionControl) {
+            super(serviceImpl, admissionControl);
         }
     }
 
@@ -282,8 +301,8 @@ public class ServiceFacade<S extends HibernateRelations.HasId>
         extends ServiceFacade<AbstractFeatureEntity<?>> {
 
         FeatureOfInterestServiceFacade(FeatureOfInterestService serviceImpl,
-                                       DaoSemaphore semaphore) {
-            super(serviceImpl, semaphore);
+                                       DaoAdmissionControl admissionControl) {
+            super(serviceImpl, admissionControl);
         }
     }
 }
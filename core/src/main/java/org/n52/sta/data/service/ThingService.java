@@ -42,6 +42,7 @@ import org.n52.shetland.ogc.sta.StaConstants;
 import org.n52.shetland.ogc.sta.exception.STACRUDException;
 import org.n52.shetland.ogc.sta.exception.STAInvalidQueryException;
 import org.n52.shetland.ogc.sta.model.STAEntityDefinition;
+import org.n52.sta.data.MutexFactory;
 import org.n52.sta.data.query.ThingQuerySpecifications;
 import org.n52.sta.data.repositories.EntityGraphRepository;
 import org.n52.sta.data.repositories.PlatformParameterRepository;
@@ -207,7 +208,7 @@ public class ThingService
                     thing.setStaIdentifier(uuid);
                 }
             }
-            synchronized (getLock(thing.getStaIdentifier())) {
+            try (MutexFactory.Lock lock = lock(thing.getStaIdentifier())) {
                 if (getRepository().existsByStaIdentifier(thing.getStaIdentifier())) {
                     throw new STACRUDException(IDENTIFIER_ALREADY_EXISTS, HTTPStatus.CONFLICT);
                 } else {
@@ -243,7 +244,7 @@ public class ThingService
     public PlatformEntity updateEntity(String id, PlatformEntity newEntity, HttpMethod method) throws STACRUDException {
         // checkUpdate(entity);
         if (HttpMethod.PATCH.equals(method)) {
-            synchronized (getLock(id)) {
+            try (MutexFactory.Lock lock = lock(id)) {
                 Optional<PlatformEntity> existing =
                     getRepository().findByStaIdentifier(id,
                                                         EntityGraphRepository.FetchGraph.FETCHGRAPH_LOCATIONS,
@@ -290,7 +291,7 @@ public class ThingService
         mergeDescription(existing, toMerge);
         // properties
         if (toMerge.getParameters() != null) {
-            synchronized (getLock(String.valueOf(existing.getParameters().hashCode()))) {
+            try (MutexFactory.Lock lock = lock(String.valueOf(existing.getParameters().hashCode()))) {
                 parameterRepository.saveAll(toMerge.getParameters()
                                                 .stream()
                                                 .filter(t -> t instanceof PlatformParameterEntity)
@@ -307,7 +308,7 @@ public class ThingService
 
     @Override
     public void delete(String identifier) throws STACRUDException {
-        synchronized (getLock(identifier)) {
+        try (MutexFactory.Lock lock = lock(identifier)) {
             if (getRepository().existsByStaIdentifier(identifier)) {
                 PlatformEntity thing =
                     getRepository().findByStaIdentifier(identifier,
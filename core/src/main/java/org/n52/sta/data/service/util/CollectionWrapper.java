@@ -31,6 +31,7 @@ package org.n52.sta.data.service.util;
 
 import org.n52.sta.serdes.util.ElementWithQueryOptions;
 
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -46,6 +47,10 @@ public class CollectionWrapper {
 
     private String requestURL;
 
+    private String skipToken;
+
+    private EntityStream stream;
+
     public CollectionWrapper(long entityCount,
                              List<ElementWithQueryOptions> entity,
                              boolean hasNextPage) {
@@ -54,6 +59,21 @@ public class CollectionWrapper {
         this.hasNextPage = hasNextPage;
     }
 
+    /**
+     * Creates a collection whose entities are streamed during serialization. Whether there is a next page is only
+     * known after the stream was consumed.
+     *
+     * @param entityCount total number of entities. -1 if not computed
+     * @param stream      stream of entities
+     */
+    public CollectionWrapper(long entityCount,
+                             EntityStream stream) {
+        this.totalEntityCount = entityCount;
+        this.entities = Collections.emptyList();
+        this.hasNextPage = false;
+        this.stream = stream;
+    }
+
     public long getTotalEntityCount() {
         return totalEntityCount;
     }
@@ -74,4 +94,29 @@ public class CollectionWrapper {
         this.requestURL = requestURL;
         return this;
     }
+
+    /**
+     * @return opaque token pointing to the next page if keyset pagination is used. null otherwise
+     */
+    public String getSkipToken() {
+        return skipToken;
+    }
+
+    public CollectionWrapper setSkipToken(String skipToken) {
+        this.skipToken = skipToken;
+        return this;
+    }
+
+    public boolean isStreaming() {
+        return stream != null;
+    }
+
+    public EntityStream getStream() {
+        return stream;
+    }
+
+    public CollectionWrapper setStream(EntityStream stream) {
+        this.stream = stream;
+        return this;
+    }
 }
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta.data.service.util;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Caches the result of count queries for a limited time. Used for avoiding expensive count queries on large tables
+ * when the exact number of entities is not required. If the cache is full, the least recently used count is evicted.
+ *
+ * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
+ */
+public class CountCache {
+
+    private static final int MAX_SIZE = 1000;
+
+    private final long ttl;
+    private final LruCache<String, CachedCount> cache = new LruCache<>(MAX_SIZE);
+
+    /**
+     * @param ttl time (in ms) a cached count is valid
+     */
+    public CountCache(long ttl) {
+        this.ttl = ttl;
+    }
+
+    /**
+     * Returns the cached count for the given key. Counts via the given counter if no valid count is cached.
+     *
+     * @param key     key identifying the count query, e.g. filter
+     * @param counter supplier executing the actual count query
+     * @return number of entities
+     */
+    public long get(String key, LongSupplier counter) {
+        long now = System.currentTimeMillis();
+        CachedCount cached = cache.get(key);
+        if (cached != null && cached.expires > now) {
+            return cached.count;
+        }
+        long count = counter.getAsLong();
+        cache.put(key, new CachedCount(count, now + ttl));
+        return count;
+    }
+
+
+    private static final class CachedCount {
+
+        private final long count;
+        private final long expires;
+
+        private CachedCount(long count, long expires) {
+            this.count = count;
+            this.expires = expires;
+        }
+    }
+}
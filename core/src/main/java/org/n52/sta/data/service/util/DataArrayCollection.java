@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.data.service.util;
+
+import org.n52.shetland.oasis.odata.query.option.QueryOptions;
+import org.n52.shetland.ogc.sta.StaConstants;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Collection of Observations in dataArray result format. Observations are grouped by their Datastream and encoded
+ * as arrays holding the values of the requested components.
+ * e.g. /Datastreams(52)/Observations?$resultFormat=dataArray&amp;$select=phenomenonTime,result
+ *
+ * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
+ */
+public class DataArrayCollection extends CollectionWrapper {
+
+    public static final String RESULT_FORMAT = "$resultFormat";
+    public static final String DATA_ARRAY = "dataArray";
+
+    private static final Set<String> SUPPORTED_COMPONENTS = new HashSet<>(Arrays.asList(
+        StaConstants.PROP_ID,
+        StaConstants.PROP_PHENOMENON_TIME,
+        StaConstants.PROP_RESULT_TIME,
+        StaConstants.PROP_RESULT));
+    private static final List<String> DEFAULT_COMPONENTS = Arrays.asList(
+        StaConstants.PROP_ID,
+        StaConstants.PROP_PHENOMENON_TIME,
+        StaConstants.PROP_RESULT);
+
+    private final List<String> components;
+
+    private final Map<String, List<Object[]>> dataArrays;
+
+    private final QueryOptions queryOptions;
+
+    /**
+     * @param entityCount  total number of Observations. -1 if not computed
+     * @param hasNextPage  whether there are more Observations
+     * @param components   names of the encoded properties
+     * @param dataArrays   encoded Observations by id of their Datastream
+     * @param queryOptions QueryOptions of the request
+     */
+    public DataArrayCollection(long entityCount,
+                               boolean hasNextPage,
+                               List<String> components,
+                               Map<String, List<Object[]>> dataArrays,
+                               QueryOptions queryOptions) {
+        super(entityCount, Collections.emptyList(), hasNextPage);
+        this.components = components;
+        this.dataArrays = dataArrays;
+        this.queryOptions = queryOptions;
+    }
+
+    /**
+     * Checks the requested result format.
+     *
+     * @param resultFormat requested result format. May be null
+     * @return true if dataArray was requested, false if no result format was requested
+     * @throws IllegalArgumentException if an unsupported result format was requested
+     */
+    public static boolean isRequested(String resultFormat) {
+        if (resultFormat == null) {
+            return false;
+        } else if (DATA_ARRAY.equals(resultFormat)) {
+            return true;
+        }
+        throw new IllegalArgumentException("Unsupported " + RESULT_FORMAT + ": " + resultFormat);
+    }
+
+    /**
+     * Determines the components to be encoded from $select.
+     *
+     * @param queryOptions QueryOptions of the request
+     * @return names of the components in order of the request
+     * @throws IllegalArgumentException if a property not supported by the dataArray format is selected
+     */
+    public static List<String> getComponents(QueryOptions queryOptions) {
+        if (!queryOptions.hasSelectFilter()) {
+            return DEFAULT_COMPONENTS;
+        }
+        List<String> components = new ArrayList<>();
+        for (String item : queryOptions.getSelectFilter().getItems()) {
+            if (!SUPPORTED_COMPONENTS.contains(item)) {
+                throw new IllegalArgumentException("Property not supported in " + DATA_ARRAY + " format: " + item);
+            }
+            components.add(item);
+        }
+        return components;
+    }
+
+    public List<String> getComponents() {
+        return components;
+    }
+
+    public Map<String, List<Object[]>> getDataArrays() {
+        return dataArrays;
+    }
+
+    public QueryOptions getQueryOptions() {
+        return queryOptions;
+    }
+}
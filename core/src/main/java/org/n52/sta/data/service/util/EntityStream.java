@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.data.service.util;
+
+import org.n52.sta.serdes.util.ElementWithQueryOptions;
+
+import java.io.IOException;
+
+/**
+ * Page of entities that is read from the database while it is serialized instead of being materialized beforehand.
+ * Used for large pages to keep memory consumption per request constant.
+ *
+ * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
+ */
+public interface EntityStream {
+
+    /**
+     * Reads all entities of the page and passes them to the given consumer one by one. May only be called once.
+     *
+     * @param consumer consumer of the entities, e.g. serializer
+     * @return true if there are further entities beyond this page
+     * @throws IOException if the consumer fails
+     */
+    boolean forEach(ElementConsumer consumer) throws IOException;
+
+    /**
+     * @return opaque token pointing to the next page if keyset pagination is used. null otherwise. Only available
+     * after {@link #forEach(ElementConsumer)} was called
+     */
+    String getSkipToken();
+
+
+    @FunctionalInterface
+    interface ElementConsumer {
+
+        void accept(ElementWithQueryOptions element) throws IOException;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.data.service.util;
+
+import org.n52.shetland.oasis.odata.query.option.QueryOptions;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Identity cache of $expanded Entities for the duration of a single request. Entities related to many entities of
+ * the same response (e.g. the Datastream of all Observations of a page) are loaded and expanded only once and the
+ * same instance is shared between all referencing entities. The cache is bound to the current Transaction and
+ * discarded on its completion.
+ *
+ * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
+ */
+public final class ExpandCache {
+
+    private final Map<Key, Object> entities = new HashMap<>();
+
+    private ExpandCache() {
+    }
+
+    /**
+     * Returns the cache bound to the current Transaction. Creates a new cache if none is bound yet.
+     *
+     * @return cache of the current Transaction. null if no Transaction is active
+     */
+    public static ExpandCache current() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return null;
+        }
+        ExpandCache cache = (ExpandCache) TransactionSynchronizationManager.getResource(ExpandCache.class);
+        if (cache == null) {
+            ExpandCache created = new ExpandCache();
+            TransactionSynchronizationManager.bindResource(ExpandCache.class, created);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(ExpandCache.class);
+                }
+            });
+            cache = created;
+        }
+        return cache;
+    }
+
+    /**
+     * @param type         type of the entity
+     * @param id           id of the entity
+     * @param queryOptions QueryOptions the entity was expanded with
+     * @param filtered     whether $filter of the queryOptions was evaluated
+     * @param <S>          type of the entity
+     * @return cached entity. null if not cached
+     */
+    @SuppressWarnings("unchecked")
+    public <S> S get(Class<?> type, Long id, QueryOptions queryOptions, boolean filtered) {
+        return (S) entities.get(new Key(type, id, queryOptions, filtered));
+    }
+
+    /**
+     * @param type         type of the entity
+     * @param id           id of the entity
+     * @param queryOptions QueryOptions the entity was expanded with
+     * @param filtered     whether $filter of the queryOptions was evaluated
+     * @param entity       expanded entity
+     */
+    public void put(Class<?> type, Long id, QueryOptions queryOptions, boolean filtered, Object entity) {
+        entities.put(new Key(type, id, queryOptions, filtered), entity);
+    }
+
+    /**
+     * Discards all cached entities. Must be called whenever the persistence context is cleared, as cached entities
+     * are detached afterwards and their lazy associations can no longer be initialized.
+     */
+    public void clear() {
+        entities.clear();
+    }
+
+
+    private static final class Key {
+
+        private final Class<?> type;
+        private final Long id;
+        private final String queryOptions;
+        private final boolean filtered;
+
+        private Key(Class<?> type, Long id, QueryOptions queryOptions, boolean filtered) {
+            this.type = type;
+            this.id = id;
+            // QueryOptions are compared via their String representation
+            this.queryOptions = queryOptions != null ? queryOptions.toString() : "";
+            this.filtered = filtered;
+        }
+
+        @Override public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return filtered == key.filtered
+                && type.equals(key.type)
+                && id.equals(key.id)
+                && queryOptions.equals(key.queryOptions);
+        }
+
+        @Override public int hashCode() {
+            return Objects.hash(type, id, queryOptions, filtered);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.data.service.util;
+
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Result of a temporal aggregation of Observations. Observations are grouped into buckets of fixed length based on
+ * the start of their phenomenonTime. Buckets are aligned to the Unix epoch and ordered ascending. Buckets without
+ * Observations are omitted.
+ * e.g. /Datastreams(52)/Observations/$aggregate?$interval=PT1H&amp;$functions=avg,max
+ *
+ * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
+ */
+public class ObservationAggregation {
+
+    public static final String INTERVAL = "$interval";
+    public static final String FUNCTIONS = "$functions";
+
+    private final Duration interval;
+
+    private final List<Function> functions;
+
+    private final List<Bucket> buckets = new ArrayList<>();
+
+    public ObservationAggregation(Duration interval, List<Function> functions) {
+        this.interval = interval;
+        this.functions = functions;
+    }
+
+    /**
+     * Parses the requested bucket length.
+     *
+     * @param interval ISO 8601 duration, e.g. PT1H
+     * @return bucket length
+     * @throws IllegalArgumentException if interval is missing, malformed or shorter than one second
+     */
+    public static Duration parseInterval(String interval) {
+        if (interval == null) {
+            throw new IllegalArgumentException("Missing query option " + INTERVAL);
+        }
+        Duration duration;
+        try {
+            duration = Duration.parse(interval);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid " + INTERVAL + ": " + interval, e);
+        }
+        if (duration.getSeconds() < 1 || duration.getNano() != 0) {
+            throw new IllegalArgumentException(INTERVAL + " must be a positive number of seconds: " + interval);
+        }
+        return duration;
+    }
+
+    /**
+     * Parses the requested aggregate functions.
+     *
+     * @param functions comma-separated list of functions. All functions are returned if null
+     * @return requested functions in order of the request
+     * @throws IllegalArgumentException if an unknown function is requested
+     */
+    public static List<Function> parseFunctions(String functions) {
+        if (functions == null) {
+            return Arrays.asList(Function.values());
+        }
+        Set<Function> parsed = new LinkedHashSet<>();
+        for (String function : functions.split(",")) {
+            parsed.add(Function.fromString(function.trim()));
+        }
+        return new ArrayList<>(parsed);
+    }
+
+    public Duration getInterval() {
+        return interval;
+    }
+
+    public List<Function> getFunctions() {
+        return functions;
+    }
+
+    public List<Bucket> getBuckets() {
+        return Collections.unmodifiableList(buckets);
+    }
+
+    public void addBucket(Bucket bucket) {
+        buckets.add(bucket);
+    }
+
+
+    public enum Function {
+        COUNT,
+        MIN,
+        MAX,
+        AVG,
+        FIRST,
+        LAST;
+
+        public static Function fromString(String function) {
+            try {
+                return valueOf(function.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unsupported aggregate function: " + function, e);
+            }
+        }
+
+        @Override public String toString() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+
+    public static class Bucket {
+
+        private final Date start;
+
+        private final Date end;
+
+        private final Map<Function, Object> values = new EnumMap<>(Function.class);
+
+        public Bucket(Date start, Date end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        public Date getStart() {
+            return start;
+        }
+
+        public Date getEnd() {
+            return end;
+        }
+
+        public Object getValue(Function function) {
+            return values.get(function);
+        }
+
+        public Bucket setValue(Function function, Object value) {
+            values.put(function, value);
+            return this;
+        }
+    }
+}
@@ -36,6 +36,7 @@ import org.n52.shetland.filter.SkipTopFilter;
 import org.n52.shetland.oasis.odata.query.option.QueryOptions;
 import org.n52.shetland.ogc.filter.FilterClause;
 import org.n52.shetland.ogc.filter.FilterConstants;
+import org.n52.sta.data.KeysetCursor;
 import org.n52.sta.data.service.util.CollectionWrapper;
 import org.n52.sta.serdes.util.ElementWithQueryOptions;
 
@@ -55,29 +56,65 @@ public class CollectionSer extends StdSerializer<CollectionWrapper> {
         throws IOException {
         gen.writeStartObject();
 
-        gen.writeNumberField("@iot.count", value.getTotalEntityCount());
-
-        // We have multiple pages
-        if (value.hasNextPage() && !value.getEntities().isEmpty()) {
-            QueryOptions queryOptions = value.getEntities().get(0).getQueryOptions();
-            long oldTop = queryOptions.getTopFilter().getValue();
-            long oldSkip = queryOptions.hasSkipFilter() ? queryOptions.getSkipFilter().getValue() : 0L;
-            // Replace old skip Filter with new one
-            Set<FilterClause> allFilters = queryOptions.getAllFilters();
-            allFilters.remove(queryOptions.getSkipFilter());
-            allFilters.add(new SkipTopFilter(FilterConstants.SkipTopOperator.Skip, oldSkip + oldTop));
-            gen.writeStringField("@iot.nextLink",
-                                 value.getRequestURL()
-                                     + "?"
-                                     + new QueryOptions("", allFilters).toString()
-            );
+        // Count is negative if it was not computed, e.g. because $count=false was requested
+        if (value.getTotalEntityCount() >= 0) {
+            gen.writeNumberField("@iot.count", value.getTotalEntityCount());
         }
 
-        gen.writeArrayFieldStart("value");
-        for (ElementWithQueryOptions element : value.getEntities()) {
-            provider.defaultSerializeValue(element, gen);
+        if (value.isStreaming()) {
+            // Entities are read while writing, so nextLink is only known afterwards
+            QueryOptions[] queryOptions = new QueryOptions[1];
+            gen.writeArrayFieldStart("value");
+            boolean hasNextPage = value.getStream().forEach(element -> {
+                queryOptions[0] = element.getQueryOptions();
+                provider.defaultSerializeValue(element, gen);
+            });
+            gen.writeEndArray();
+            if (hasNextPage && queryOptions[0] != null) {
+                writeNextLink(gen, value.getRequestURL(), queryOptions[0], value.getStream().getSkipToken());
+            }
+        } else {
+            // We have multiple pages
+            if (value.hasNextPage() && !value.getEntities().isEmpty()) {
+                writeNextLink(gen,
+                              value.getRequestURL(),
+                              value.getEntities().get(0).getQueryOptions(),
+                              value.getSkipToken());
+            }
+
+            gen.writeArrayFieldStart("value");
+            for (ElementWithQueryOptions element : value.getEntities()) {
+                provider.defaultSerializeValue(element, gen);
+            }
+            gen.writeEndArray();
         }
-        gen.writeEndArray();
         gen.writeEndObject();
     }
+
+    private void writeNextLink(JsonGenerator gen, String requestURL, QueryOptions queryOptions, String skipToken)
+        throws IOException {
+        gen.writeStringField("@iot.nextLink", createNextLink(requestURL, queryOptions, skipToken));
+    }
+
+    static String createNextLink(String requestURL, QueryOptions queryOptions, String skipToken) {
+        long oldTop = queryOptions.getTopFilter().getValue();
+        long oldSkip = queryOptions.hasSkipFilter() ? queryOptions.getSkipFilter().getValue() : 0L;
+        Set<FilterClause> allFilters = queryOptions.getAllFilters();
+        allFilters.remove(queryOptions.getSkipFilter());
+        if (skipToken != null) {
+            // Next page is addressed via keyset instead of skip
+            String query = new QueryOptions("", allFilters).toString();
+            return requestURL
+                + "?"
+                + query
+                + (query.isEmpty() ? "" : "&")
+                + KeysetCursor.SKIPTOKEN + "=" + skipToken;
+        } else {
+            // Replace old skip Filter with new one
+            allFilters.add(new SkipTopFilter(FilterConstants.SkipTopOperator.Skip, oldSkip + oldTop));
+            return requestURL
+                + "?"
+                + new QueryOptions("", allFilters).toString();
+        }
+    }
 }
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.serdes;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import org.n52.shetland.ogc.sta.StaConstants;
+import org.n52.sta.data.service.util.DataArrayCollection;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serializes Observations in dataArray result format. Observations are grouped by Datastream, each group listing
+ * its "components" once followed by one array per Observation.
+ *
+ * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
+ */
+public class DataArraySer extends StdSerializer<DataArrayCollection> {
+
+    private static final String ENCODEDSLASH = "%2F";
+    private static final String SLASH = "/";
+
+    private final String rootUrl;
+
+    public DataArraySer(String rootUrl) {
+        super(DataArrayCollection.class);
+        this.rootUrl = rootUrl;
+    }
+
+    @Override public void serialize(DataArrayCollection value, JsonGenerator gen, SerializerProvider provider)
+        throws IOException {
+        gen.writeStartObject();
+
+        // Count is negative if it was not computed, e.g. because $count=false was requested
+        if (value.getTotalEntityCount() >= 0) {
+            gen.writeNumberField("@iot.count", value.getTotalEntityCount());
+        }
+
+        if (value.hasNextPage()) {
+            gen.writeStringField("@iot.nextLink",
+                                 CollectionSer.createNextLink(value.getRequestURL(), value.getQueryOptions(), null)
+                                     + "&" + DataArrayCollection.RESULT_FORMAT + "=" + DataArrayCollection.DATA_ARRAY);
+        }
+
+        gen.writeArrayFieldStart("value");
+        for (Map.Entry<String, List<Object[]>> dataArray : value.getDataArrays().entrySet()) {
+            gen.writeStartObject();
+            String escaped = dataArray.getKey().replaceAll(SLASH, ENCODEDSLASH);
+            gen.writeStringField(StaConstants.DATASTREAM + "@iot.navigationLink",
+                                 rootUrl + StaConstants.DATASTREAMS + "(" + escaped + ")");
+
+            gen.writeArrayFieldStart("components");
+            for (String component : value.getComponents()) {
+                gen.writeString(component);
+            }
+            gen.writeEndArray();
+
+            gen.writeNumberField("dataArray@iot.count", dataArray.getValue().size());
+            gen.writeArrayFieldStart("dataArray");
+            for (Object[] row : dataArray.getValue()) {
+                gen.writeStartArray();
+                for (Object component : row) {
+                    provider.defaultSerializeValue(component, gen);
+                }
+                gen.writeEndArray();
+            }
+            gen.writeEndArray();
+            gen.writeEndObject();
+        }
+        gen.writeEndArray();
+        gen.writeEndObject();
+    }
+}
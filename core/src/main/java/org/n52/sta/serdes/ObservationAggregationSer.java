@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.serdes;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import org.n52.shetland.ogc.sta.model.STAEntityDefinition;
+import org.n52.shetland.util.DateTimeHelper;
+import org.n52.sta.data.service.util.ObservationAggregation;
+import org.n52.sta.utils.TimeUtil;
+
+import java.io.IOException;
+
+/**
+ * Serializes aggregated Observations as a compact series. Each bucket is encoded as an array holding its
+ * phenomenonTime followed by the values of the requested aggregate functions in the order given by "components".
+ *
+ * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
+ */
+public class ObservationAggregationSer extends StdSerializer<ObservationAggregation> {
+
+    public ObservationAggregationSer(Class<ObservationAggregation> t) {
+        super(t);
+    }
+
+    @Override public void serialize(ObservationAggregation value, JsonGenerator gen, SerializerProvider provider)
+        throws IOException {
+        gen.writeStartObject();
+        gen.writeStringField("interval", value.getInterval().toString());
+
+        gen.writeArrayFieldStart("components");
+        gen.writeString(STAEntityDefinition.PROP_PHENOMENON_TIME);
+        for (ObservationAggregation.Function function : value.getFunctions()) {
+            gen.writeString(function.toString());
+        }
+        gen.writeEndArray();
+
+        gen.writeNumberField("dataArray@iot.count", value.getBuckets().size());
+        gen.writeArrayFieldStart("dataArray");
+        for (ObservationAggregation.Bucket bucket : value.getBuckets()) {
+            gen.writeStartArray();
+            gen.writeString(DateTimeHelper.format(TimeUtil.createTime(TimeUtil.createDateTime(bucket.getStart()),
+                                                                      TimeUtil.createDateTime(bucket.getEnd()))));
+            for (ObservationAggregation.Function function : value.getFunctions()) {
+                provider.defaultSerializeValue(bucket.getValue(function), gen);
+            }
+            gen.writeEndArray();
+        }
+        gen.writeEndArray();
+        gen.writeEndObject();
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.serdes;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BitVector;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.Float8Vector;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.TimeStampMilliTZVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.ipc.ArrowStreamWriter;
+import org.apache.arrow.vector.types.FloatingPointPrecision;
+import org.apache.arrow.vector.types.TimeUnit;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.Schema;
+import org.n52.shetland.ogc.om.OmConstants;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * Writes Observations in Arrow IPC streaming format. Rows are collected in record batches of a bounded size, each
+ * batch being written as soon as it is full. Timestamps are encoded as milliseconds in UTC. The type of the result
+ * column is derived from the observation type of the Datastream, falling back to strings for unknown types.
+ *
+ * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
+ */
+public class ObservationArrowWriter implements ObservationExportWriter {
+
+    public static final String CONTENT_TYPE = "application/vnd.apache.arrow.stream";
+
+    private static final String ID = "id";
+    private static final String PHENOMENON_TIME_START = "phenomenonTimeStart";
+    private static final String PHENOMENON_TIME_END = "phenomenonTimeEnd";
+    private static final String RESULT_TIME = "resultTime";
+    private static final String RESULT = "result";
+    private static final ArrowType TIMESTAMP = new ArrowType.Timestamp(TimeUnit.MILLISECOND, "UTC");
+
+    private final OutputStream out;
+    private final int batchSize;
+    private final BufferAllocator allocator;
+    private final VectorSchemaRoot root;
+    private final ArrowStreamWriter writer;
+
+    private final VarCharVector id;
+    private final TimeStampMilliTZVector phenomenonTimeStart;
+    private final TimeStampMilliTZVector phenomenonTimeEnd;
+    private final TimeStampMilliTZVector resultTime;
+    private final FieldVector result;
+
+    private int rows;
+
+    /**
+     * @param out             stream to write to. Is not closed by this writer
+     * @param observationType O&amp;M observation type of the exported Datastream. may be null
+     * @param batchSize       maximum number of rows per record batch
+     */
+    public ObservationArrowWriter(OutputStream out, String observationType, int batchSize) {
+        this.out = out;
+        this.batchSize = batchSize;
+        this.allocator = new RootAllocator();
+        Schema schema = new Schema(Arrays.asList(Field.nullable(ID, ArrowType.Utf8.INSTANCE),
+                                                 Field.nullable(PHENOMENON_TIME_START, TIMESTAMP),
+                                                 Field.nullable(PHENOMENON_TIME_END, TIMESTAMP),
+                                                 Field.nullable(RESULT_TIME, TIMESTAMP),
+                                                 Field.nullable(RESULT, getResultType(observationType))));
+        this.root = VectorSchemaRoot.create(schema, allocator);
+        this.writer = new ArrowStreamWriter(root, null, out);
+        this.id = (VarCharVector) root.getVector(ID);
+        this.phenomenonTimeStart = (TimeStampMilliTZVector) root.getVector(PHENOMENON_TIME_START);
+        this.phenomenonTimeEnd = (TimeStampMilliTZVector) root.getVector(PHENOMENON_TIME_END);
+        this.resultTime = (TimeStampMilliTZVector) root.getVector(RESULT_TIME);
+        this.result = root.getVector(RESULT);
+    }
+
+    private static ArrowType getResultType(String observationType) {
+        if (observationType == null) {
+            return ArrowType.Utf8.INSTANCE;
+        }
+        switch (observationType) {
+            case OmConstants.OBS_TYPE_MEASUREMENT:
+                return new ArrowType.FloatingPoint(FloatingPointPrecision.DOUBLE);
+            case OmConstants.OBS_TYPE_COUNT_OBSERVATION:
+                return new ArrowType.Int(Integer.SIZE, true);
+            case OmConstants.OBS_TYPE_TRUTH_OBSERVATION:
+                return ArrowType.Bool.INSTANCE;
+            default:
+                return ArrowType.Utf8.INSTANCE;
+        }
+    }
+
+    @Override
+    public void start() throws IOException {
+        writer.start();
+        root.allocateNew();
+    }
+
+    @Override
+    public void writeRow(String id, Date phenomenonTimeStart, Date phenomenonTimeEnd, Date resultTime, Object result)
+        throws IOException {
+        setText(this.id, id);
+        setDate(this.phenomenonTimeStart, phenomenonTimeStart);
+        // phenomenonTime is an instant if no end is stored
+        setDate(this.phenomenonTimeEnd, phenomenonTimeEnd != null ? phenomenonTimeEnd : phenomenonTimeStart);
+        setDate(this.resultTime, resultTime);
+        setResult(result);
+        rows++;
+        if (rows == batchSize) {
+            writeBatch();
+        }
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (rows > 0) {
+            writeBatch();
+        }
+        writer.end();
+        out.flush();
+    }
+
+    @Override
+    public void close() {
+        root.close();
+        allocator.close();
+    }
+
+    private void writeBatch() throws IOException {
+        root.setRowCount(rows);
+        writer.writeBatch();
+        // Releases the buffers of the written batch
+        root.allocateNew();
+        rows = 0;
+    }
+
+    private void setResult(Object value) {
+        if (result instanceof Float8Vector) {
+            if (value instanceof Number) {
+                ((Float8Vector) result).setSafe(rows, ((Number) value).doubleValue());
+            } else {
+                ((Float8Vector) result).setNull(rows);
+            }
+        } else if (result instanceof IntVector) {
+            if (value instanceof Number) {
+                ((IntVector) result).setSafe(rows, ((Number) value).intValue());
+            } else {
+                ((IntVector) result).setNull(rows);
+            }
+        } else if (result instanceof BitVector) {
+            if (value instanceof Boolean) {
+                ((BitVector) result).setSafe(rows, (Boolean) value ? 1 : 0);
+            } else {
+                ((BitVector) result).setNull(rows);
+            }
+        } else {
+            setText((VarCharVector) result, value != null ? value.toString() : null);
+        }
+    }
+
+    private void setText(VarCharVector vector, String text) {
+        if (text != null) {
+            vector.setSafe(rows, text.getBytes(StandardCharsets.UTF_8));
+        } else {
+            vector.setNull(rows);
+        }
+    }
+
+    private void setDate(TimeStampMilliTZVector vector, Date date) {
+        if (date != null) {
+            vector.setSafe(rows, date.getTime());
+        } else {
+            vector.setNull(rows);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.serdes;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Date;
+
+/**
+ * Writes Observations as CSV (RFC 4180). Timestamps are encoded as ISO 8601 instants in UTC.
+ *
+ * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
+ */
+public class ObservationCsvWriter implements ObservationExportWriter {
+
+    public static final String CONTENT_TYPE = "text/csv";
+
+    private static final String HEADER = "id,phenomenonTimeStart,phenomenonTimeEnd,resultTime,result";
+    private static final String SEPARATOR = ",";
+    private static final String LINE_BREAK = "\r\n";
+    private static final String QUOTE = "\"";
+
+    private final Writer writer;
+
+    public ObservationCsvWriter(Writer writer) {
+        this.writer = writer;
+    }
+
+    @Override
+    public void start() throws IOException {
+        writer.write(HEADER);
+        writer.write(LINE_BREAK);
+    }
+
+    @Override
+    public void writeRow(String id, Date phenomenonTimeStart, Date phenomenonTimeEnd, Date resultTime, Object result)
+        throws IOException {
+        writeText(id);
+        writer.write(SEPARATOR);
+        writeDate(phenomenonTimeStart);
+        writer.write(SEPARATOR);
+        // phenomenonTime is an instant if no end is stored
+        writeDate(phenomenonTimeEnd != null ? phenomenonTimeEnd : phenomenonTimeStart);
+        writer.write(SEPARATOR);
+        writeDate(resultTime);
+        writer.write(SEPARATOR);
+        if (result instanceof String) {
+            writeText((String) result);
+        } else if (result != null) {
+            writer.write(result.toString());
+        }
+        writer.write(LINE_BREAK);
+    }
+
+    @Override
+    public void finish() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.flush();
+    }
+
+    private void writeDate(Date date) throws IOException {
+        if (date != null) {
+            writer.write(date.toInstant().toString());
+        }
+    }
+
+    private void writeText(String text) throws IOException {
+        if (text.contains(SEPARATOR) || text.contains(QUOTE) || text.contains("\n") || text.contains("\r")) {
+            writer.write(QUOTE);
+            writer.write(text.replace(QUOTE, QUOTE + QUOTE));
+            writer.write(QUOTE);
+        } else {
+            writer.write(text);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.serdes;
+
+import java.io.BufferedWriter;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Formats Observations can be exported in. The format is selected via $resultFormat, Arrow IPC streaming format
+ * being the default.
+ * e.g. /Datastreams(52)/Observations/$export?$resultFormat=csv
+ *
+ * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
+ */
+public enum ObservationExportFormat {
+
+    ARROW("arrow", ObservationArrowWriter.CONTENT_TYPE),
+    CSV("csv", ObservationCsvWriter.CONTENT_TYPE);
+
+    private final String name;
+    private final String contentType;
+
+    ObservationExportFormat(String name, String contentType) {
+        this.name = name;
+        this.contentType = contentType;
+    }
+
+    /**
+     * @param name requested format. null if none was requested
+     * @return matching format
+     * @throws IllegalArgumentException if the format is not supported
+     */
+    public static ObservationExportFormat parse(String name) {
+        if (name == null) {
+            return ARROW;
+        }
+        for (ObservationExportFormat format : values()) {
+            if (format.name.equals(name)) {
+                return format;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported export format: " + name + ". Supported formats are: "
+                                               + ARROW.name + ", " + CSV.name);
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * @param out             stream to write to
+     * @param observationType O&amp;M observation type of the exported Datastream. Determines the type of the result
+     *                        column if supported by the format
+     * @param batchSize       maximum number of rows held in memory
+     * @return writer writing this format
+     */
+    public ObservationExportWriter createWriter(OutputStream out, String observationType, int batchSize) {
+        switch (this) {
+            case CSV:
+                return new ObservationCsvWriter(
+                    new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+            case ARROW:
+            default:
+                return new ObservationArrowWriter(out, observationType, batchSize);
+        }
+    }
+}
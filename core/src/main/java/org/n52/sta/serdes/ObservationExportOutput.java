@@ -27,23 +27,23 @@
  * Public License for more details.
  */
 
-package org.n52.sta;
+package org.n52.sta.serdes;
 
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.stereotype.Service;
-
-import java.util.concurrent.Semaphore;
+import java.io.IOException;
+import java.io.OutputStream;
 
 /**
- * Semaphore controlling access to the Persistence Service Layer. The Persistence Layer can currently only handle as
- * many running threads as there are database connections available, as each thread uses a seperate Transaction.
+ * Target of an Observation export. The stream is only opened once the export was validated, so that invalid requests
+ * can still be answered with a regular error response.
  *
  * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
  */
-@Service
-public class DaoSemaphore extends Semaphore {
+@FunctionalInterface
+public interface ObservationExportOutput {
 
-    public DaoSemaphore(@Value("${spring.datasource.hikari.maximum-pool-size}") int permits) {
-        super(permits, true);
-    }
+    /**
+     * @return stream to write the exported Observations to
+     * @throws IOException if the stream could not be opened
+     */
+    OutputStream open() throws IOException;
 }
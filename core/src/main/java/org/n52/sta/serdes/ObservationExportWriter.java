@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.serdes;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Date;
+
+/**
+ * Writes exported Observations row by row. Each row holds id, start and end of phenomenonTime, resultTime and result
+ * of a single Observation. Implementations must not retain more than a bounded number of rows.
+ *
+ * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
+ */
+public interface ObservationExportWriter extends Closeable {
+
+    /**
+     * Writes everything preceding the first row, e.g. a header or schema.
+     *
+     * @throws IOException if writing failed
+     */
+    void start() throws IOException;
+
+    /**
+     * @param id                  id of the Observation
+     * @param phenomenonTimeStart start of phenomenonTime
+     * @param phenomenonTimeEnd   end of phenomenonTime. null if phenomenonTime is an instant
+     * @param resultTime          resultTime. may be null
+     * @param result              result. may be null
+     * @throws IOException if writing failed
+     */
+    void writeRow(String id, Date phenomenonTimeStart, Date phenomenonTimeEnd, Date resultTime, Object result)
+        throws IOException;
+
+    /**
+     * Writes all pending rows and everything following the last row.
+     *
+     * @throws IOException if writing failed
+     */
+    void finish() throws IOException;
+}
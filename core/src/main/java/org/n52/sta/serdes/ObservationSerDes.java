@@ -49,13 +49,16 @@ import org.n52.shetland.ogc.sta.model.STAEntityDefinition;
 import org.n52.shetland.util.DateTimeHelper;
 import org.n52.sta.serdes.json.JSONBase;
 import org.n52.sta.serdes.json.JSONObservation;
+import org.n52.sta.serdes.json.JSONObservationDataArray;
 import org.n52.sta.serdes.util.ElementWithQueryOptions.ObservationWithQueryOptions;
 import org.n52.sta.serdes.util.EntityPatch;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 
 public class ObservationSerDes {
@@ -266,4 +269,42 @@ public class ObservationSerDes {
                                                   .toEntity(JSONBase.EntityType.PATCH));
         }
     }
+
+
+    /**
+     * Observations of one or more Datastreams as POSTed to CreateObservations
+     */
+    public static class ObservationDataArray {
+
+        private final List<DataEntity<?>> observations;
+
+        public ObservationDataArray(List<DataEntity<?>> observations) {
+            this.observations = observations;
+        }
+
+        public List<DataEntity<?>> getObservations() {
+            return observations;
+        }
+    }
+
+
+    public static class ObservationDataArrayDeserializer extends StdDeserializer<ObservationDataArray> {
+
+        private static final long serialVersionUID = -3619463722512084520L;
+        private final Map<String, String> parameterMapping;
+
+        public ObservationDataArrayDeserializer(Map<String, String> parameterMapping) {
+            super(ObservationDataArray.class);
+            this.parameterMapping = parameterMapping;
+        }
+
+        @Override
+        public ObservationDataArray deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            List<DataEntity<?>> observations = new ArrayList<>();
+            for (JSONObservationDataArray dataArray : p.readValueAs(JSONObservationDataArray[].class)) {
+                observations.addAll(dataArray.toEntities(parameterMapping));
+            }
+            return new ObservationDataArray(observations);
+        }
+    }
 }
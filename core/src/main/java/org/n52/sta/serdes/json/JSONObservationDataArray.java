@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta.serdes.json;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.JsonNode;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import org.n52.series.db.beans.DataEntity;
+import org.n52.shetland.ogc.sta.StaConstants;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Observations of a single Datastream encoded as DataArray as defined in OGC SensorThings API Part 1: Sensing
+ * Version 1.1 (18-088) Section 14.3 (Create Observations)
+ *
+ * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
+ */
+@SuppressWarnings("VisibilityModifier")
+@SuppressFBWarnings({"NM_FIELD_NAMING_CONVENTION", "UWF_UNWRITTEN_PUBLIC_OR_PROTECTED_FIELD"})
+public class JSONObservationDataArray implements AbstractJSONEntity {
+
+    public static final String COMPONENT_ID = "id";
+    public static final String COMPONENT_PHENOMENON_TIME = "phenomenonTime";
+    public static final String COMPONENT_RESULT = "result";
+    public static final String COMPONENT_RESULT_TIME = "resultTime";
+    public static final String COMPONENT_RESULT_QUALITY = "resultQuality";
+    public static final String COMPONENT_VALID_TIME = "validTime";
+    public static final String COMPONENT_PARAMETERS = "parameters";
+    public static final String COMPONENT_FEATURE_OF_INTEREST = "FeatureOfInterest/id";
+
+    private static final String INVALID_COMPONENT = "Unsupported component in dataArray: ";
+    private static final String INVALID_ROW_LENGTH = "Number of values in dataArray does not match components!";
+
+    // JSON Properties. Matched by Annotation or variable name
+    public JsonNode Datastream;
+    public List<String> components;
+    @JsonProperty("dataArray@iot.count")
+    public Long count;
+    public List<List<JsonNode>> dataArray;
+
+    /**
+     * Converts all rows of the dataArray into Observations.
+     *
+     * @param parameterMapping mapping of Observation->parameters as used by ObservationDeserializer
+     * @return List of Observations
+     */
+    public List<DataEntity<?>> toEntities(Map<String, String> parameterMapping) {
+        Assert.notNull(Datastream, INVALID_INLINE_ENTITY_MISSING + "Datastream");
+        Assert.notNull(Datastream.get(StaConstants.AT_IOT_ID), INVALID_INLINE_ENTITY_MISSING + "Datastream");
+        Assert.notNull(components, INVALID_INLINE_ENTITY_MISSING + "components");
+        Assert.notNull(dataArray, INVALID_INLINE_ENTITY_MISSING + "dataArray");
+
+        String datastreamId = Datastream.get(StaConstants.AT_IOT_ID).asText();
+        List<DataEntity<?>> result = new ArrayList<>(dataArray.size());
+        for (List<JsonNode> row : dataArray) {
+            Assert.isTrue(row.size() == components.size(), INVALID_ROW_LENGTH);
+            JSONObservation observation = new JSONObservation();
+            observation.Datastream = new JSONDatastream();
+            observation.Datastream.setIdentifier(datastreamId);
+
+            for (int i = 0; i < components.size(); i++) {
+                JsonNode value = row.get(i);
+                if (value == null || value.isNull()) {
+                    continue;
+                }
+                switch (components.get(i)) {
+                    case COMPONENT_ID:
+                        observation.setIdentifier(value.asText());
+                        break;
+                    case COMPONENT_PHENOMENON_TIME:
+                        observation.phenomenonTime = value.asText();
+                        break;
+                    case COMPONENT_RESULT:
+                        observation.result = value.isValueNode() ? value.asText() : value.toString();
+                        break;
+                    case COMPONENT_RESULT_TIME:
+                        observation.resultTime = value.asText();
+                        break;
+                    case COMPONENT_RESULT_QUALITY:
+                        observation.resultQuality = value;
+                        break;
+                    case COMPONENT_VALID_TIME:
+                        observation.validTime = value.asText();
+                        break;
+                    case COMPONENT_PARAMETERS:
+                        observation.parameters = value;
+                        break;
+                    case COMPONENT_FEATURE_OF_INTEREST:
+                        observation.FeatureOfInterest = new JSONFeatureOfInterest();
+                        observation.FeatureOfInterest.setIdentifier(value.asText());
+                        break;
+                    default:
+                        throw new IllegalArgumentException(INVALID_COMPONENT + components.get(i));
+                }
+            }
+            result.add(observation.parseParameters(parameterMapping).toEntity(JSONBase.EntityType.FULL));
+        }
+        return result;
+    }
+}
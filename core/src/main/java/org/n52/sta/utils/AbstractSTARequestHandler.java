@@ -34,16 +34,34 @@ import org.n52.shetland.ogc.sta.exception.STACRUDException;
 import org.n52.shetland.ogc.sta.exception.STAInvalidUrlException;
 import org.n52.shetland.ogc.sta.exception.STANotFoundException;
 import org.n52.shetland.ogc.sta.model.STAEntityDefinition;
+import org.n52.sta.data.KeysetCursor;
+import org.n52.sta.data.KeysetQueryOptions;
+import org.n52.sta.data.RawFilterQueryOptions;
 import org.n52.sta.data.service.EntityServiceRepository;
+import org.n52.sta.data.service.util.DataArrayCollection;
+import org.n52.sta.data.service.util.ObservationAggregation;
 
 import javax.servlet.http.HttpServletRequest;
 import java.net.URLDecoder;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.TreeMap;
 
 /**
  * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
  */
 public abstract class AbstractSTARequestHandler implements RequestUtils {
 
+    private static final Set<String> EXTENSION_OPTIONS = new HashSet<>(Arrays.asList(
+        KeysetCursor.SKIPTOKEN,
+        ObservationAggregation.INTERVAL,
+        ObservationAggregation.FUNCTIONS,
+        DataArrayCollection.RESULT_FORMAT));
+
     protected final boolean shouldEscapeId;
     protected final EntityServiceRepository serviceRepository;
     protected final String rootUrl;
@@ -58,14 +76,71 @@ public abstract class AbstractSTARequestHandler implements RequestUtils {
     }
 
     protected QueryOptions decodeQueryString(HttpServletRequest request) {
+        return decodeQueryString(request, new HashMap<>());
+    }
+
+    /**
+     * Parses the QueryString of the request. Options that are not part of the STA query language (e.g. $skiptoken)
+     * are extracted before parsing and stored decoded in extensions. The $filter option is additionally kept as given
+     * in the request, see {@link RawFilterQueryOptions}.
+     *
+     * @param request    Full request
+     * @param extensions map to store extension options in
+     * @return parsed QueryOptions
+     */
+    protected QueryOptions decodeQueryString(HttpServletRequest request, Map<String, String> extensions) {
         if (request.getQueryString() != null) {
-            String decoded = URLDecoder.decode(request.getQueryString());
-            return QUERY_OPTIONS_FACTORY.createQueryOptions(decoded);
+            StringJoiner queryString = new StringJoiner("&");
+            String rawFilter = null;
+            for (String option : request.getQueryString().split("&")) {
+                int separator = option.indexOf('=');
+                // Keys may be percent-encoded as well, e.g. %24skiptoken
+                String key = URLDecoder.decode(separator < 0 ? option : option.substring(0, separator));
+                String value = separator < 0 ? "" : URLDecoder.decode(option.substring(separator + 1));
+                if (EXTENSION_OPTIONS.contains(key)) {
+                    extensions.put(key, value);
+                } else {
+                    queryString.add(option);
+                    if (RawFilterQueryOptions.FILTER.equals(key)) {
+                        rawFilter = value;
+                    }
+                }
+            }
+            String decoded = URLDecoder.decode(queryString.toString());
+            QueryOptions queryOptions = decoded.isEmpty()
+                ? QUERY_OPTIONS_FACTORY.createDummy()
+                : QUERY_OPTIONS_FACTORY.createQueryOptions(decoded);
+            String skipToken = extensions.get(KeysetCursor.SKIPTOKEN);
+            if (skipToken != null) {
+                return new KeysetQueryOptions(queryOptions, rawFilter, KeysetCursor.decode(skipToken));
+            } else if (rawFilter != null) {
+                return new RawFilterQueryOptions(queryOptions, rawFilter);
+            } else {
+                return queryOptions;
+            }
         } else {
             return QUERY_OPTIONS_FACTORY.createDummy();
         }
     }
 
+    /**
+     * Parses the QueryString of a request that does not support any options beyond the STA query language, e.g. a
+     * request to a single Entity.
+     *
+     * @param request Full request
+     * @return parsed QueryOptions
+     * @throws IllegalArgumentException if an extension option (e.g. $resultFormat) was given
+     */
+    protected QueryOptions decodeQueryStringWithoutExtensions(HttpServletRequest request) {
+        Map<String, String> extensions = new TreeMap<>();
+        QueryOptions queryOptions = decodeQueryString(request, extensions);
+        if (!extensions.isEmpty()) {
+            throw new IllegalArgumentException(String.join(", ", extensions.keySet())
+                                                   + " is not supported for this request");
+        }
+        return queryOptions;
+    }
+
     /**
      * Validates a given Resource Path. Checks Syntax + Semantics
      *
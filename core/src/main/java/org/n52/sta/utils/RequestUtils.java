@@ -87,6 +87,11 @@ public interface RequestUtils extends StaConstants {
     String GROUPNAME_PROPERTY = "property";
 
     String MAPPING_PREFIX = "**/";
+
+    // Used for batch creation of Observations in DataArray format
+    // e.g. POST /CreateObservations
+    String CREATE_OBSERVATIONS = "CreateObservations";
+
     String ID = "id";
 
     // Note: This is duplicated in LocationService to allow for non-standard 'updateFOI'-feature.
@@ -114,6 +119,8 @@ public interface RequestUtils extends StaConstants {
     String CURLY_BRACKET_CLOSE = "}";
     String SLASHREF = SLASH + "$ref";
     String SLASHVALUE = SLASH + "$value";
+    String SLASHAGGREGATE = SLASH + "$aggregate";
+    String SLASHEXPORT = SLASH + "$export";
 
     // Used to mark start and end of named capturing groups
     String SOURCE_NAME_GROUP_START =
@@ -0,0 +1,7 @@
+-- Indexes used for looking up the first/last Observation of a Datastream when an Observation at the boundary of its
+-- phenomenonTime is updated or deleted (see DatasetExtentService). Column names refer to the default database model.
+-- Run once as part of the database setup. CONCURRENTLY does not block writes but must not run inside a transaction.
+CREATE INDEX CONCURRENTLY IF NOT EXISTS sta_observation_dataset_start_idx
+    ON observation (fk_dataset_id, sampling_time_start, observation_id);
+CREATE INDEX CONCURRENTLY IF NOT EXISTS sta_observation_dataset_end_idx
+    ON observation (fk_dataset_id, sampling_time_end, observation_id);
@@ -0,0 +1,26 @@
+-- Tables for pre-computed aggregates of Observations (server.feature.observationRollups, see ObservationRollupService).
+-- Column names of the referenced dataset table refer to the default database model. Run once as part of the database
+-- setup. Rollups of configured bucket lengths are computed in the background after the next start.
+CREATE TABLE IF NOT EXISTS sta_observation_rollup (
+    dataset_id bigint NOT NULL REFERENCES dataset (dataset_id) ON DELETE CASCADE,
+    bucket_length bigint NOT NULL,
+    bucket bigint NOT NULL,
+    observation_count bigint NOT NULL,
+    value_count bigint NOT NULL,
+    value_sum numeric NOT NULL,
+    value_min numeric,
+    value_max numeric,
+    first_time timestamp NOT NULL,
+    first_value numeric,
+    last_time timestamp NOT NULL,
+    last_value numeric,
+    PRIMARY KEY (dataset_id, bucket_length, bucket)
+);
+
+-- State of the rollups per bucket length. Rollups are only used if complete. last_dataset_id holds the id of the last
+-- dataset whose rollups were computed. Rows are removed on startup if the bucket length is not configured.
+CREATE TABLE IF NOT EXISTS sta_observation_rollup_state (
+    bucket_length bigint PRIMARY KEY,
+    complete boolean NOT NULL,
+    last_dataset_id bigint
+);
@@ -32,16 +32,28 @@ package org.n52.sta.service;
 import org.n52.shetland.filter.SelectFilter;
 import org.n52.shetland.oasis.odata.query.option.QueryOptions;
 import org.n52.shetland.ogc.filter.FilterClause;
+import org.n52.shetland.ogc.sta.StaConstants;
 import org.n52.shetland.ogc.sta.exception.STACRUDException;
+import org.n52.sta.data.KeysetCursor;
+import org.n52.sta.data.KeysetQueryOptions;
+import org.n52.sta.data.RawFilterQueryOptions;
 import org.n52.sta.data.service.EntityServiceRepository;
+import org.n52.sta.data.service.ServiceFacade;
 import org.n52.sta.data.service.util.CollectionWrapper;
+import org.n52.sta.data.service.util.DataArrayCollection;
+import org.n52.sta.data.service.util.ObservationAggregation;
+import org.n52.sta.serdes.ObservationExportFormat;
 import org.n52.sta.utils.AbstractSTARequestHandler;
 import org.n52.sta.utils.RequestUtils;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.servlet.HandlerMapping;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 
 /**
  * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
@@ -65,7 +77,13 @@ public abstract class CollectionRequestHandler<T extends RequestUtils> extends A
     public CollectionWrapper readCollectionDirect(@PathVariable String collectionName,
                                                   HttpServletRequest request)
         throws STACRUDException {
-        QueryOptions options = decodeQueryString(request);
+        Map<String, String> extensions = new HashMap<>();
+        QueryOptions options = decodeQueryString(request, extensions);
+        if (isDataArrayRequested(collectionName, options, extensions)) {
+            return getObservationService()
+                .getDataArray(null, null, options)
+                .setRequestURL(rootUrl + collectionName);
+        }
         return serviceRepository
             .getEntityService(collectionName)
             .getEntityCollection(options)
@@ -84,10 +102,11 @@ public abstract class CollectionRequestHandler<T extends RequestUtils> extends A
                                                      HttpServletRequest request)
         throws STACRUDException {
         HashSet<FilterClause> filters = new HashSet<>();
+        QueryOptions options = null;
         String queryString = request.getQueryString();
         if (queryString != null) {
             // Parse QueryString normally and extract relevant Filters
-            QueryOptions options = decodeQueryString(request);
+            options = decodeQueryString(request);
             filters.add(options.getSkipFilter());
             filters.add(options.getTopFilter());
             filters.add(options.getCountFilter());
@@ -95,9 +114,14 @@ public abstract class CollectionRequestHandler<T extends RequestUtils> extends A
         }
         // Overwrite select filter with filter only returning id
         filters.add(new SelectFilter(ID));
+        QueryOptions refOptions = QUERY_OPTIONS_FACTORY.createQueryOptions(filters);
+        if (options instanceof RawFilterQueryOptions) {
+            // Keep $skiptoken and raw $filter
+            refOptions = ((RawFilterQueryOptions) options).withFilters(refOptions);
+        }
         return serviceRepository
             .getEntityService(collectionName)
-            .getEntityCollection(QUERY_OPTIONS_FACTORY.createQueryOptions(filters))
+            .getEntityCollection(refOptions)
             .setRequestURL(rootUrl + collectionName);
     }
 
@@ -120,7 +144,13 @@ public abstract class CollectionRequestHandler<T extends RequestUtils> extends A
         String sourceType = split[0];
         String sourceId = split[1];
 
-        QueryOptions options = decodeQueryString(request);
+        Map<String, String> extensions = new HashMap<>();
+        QueryOptions options = decodeQueryString(request, extensions);
+        if (isDataArrayRequested(target, options, extensions)) {
+            return getObservationService()
+                .getDataArray(sourceId, sourceType, options)
+                .setRequestURL(rootUrl + entity + "/" + target);
+        }
         return serviceRepository.getEntityService(target)
             .getEntityCollectionByRelatedEntity(sourceId,
                                                 sourceType,
@@ -149,10 +179,11 @@ public abstract class CollectionRequestHandler<T extends RequestUtils> extends A
         String sourceId = split[1];
 
         HashSet<FilterClause> filters = new HashSet<>();
+        QueryOptions options = null;
         String queryString = request.getQueryString();
         if (queryString != null) {
             // Parse QueryString normally and extract relevant Filters
-            QueryOptions options = decodeQueryString(request);
+            options = decodeQueryString(request);
             filters.add(options.getSkipFilter());
             filters.add(options.getTopFilter());
             filters.add(options.getCountFilter());
@@ -160,10 +191,145 @@ public abstract class CollectionRequestHandler<T extends RequestUtils> extends A
         }
         // Overwrite select filter with filter only returning id
         filters.add(new SelectFilter(ID));
+        QueryOptions refOptions = QUERY_OPTIONS_FACTORY.createQueryOptions(filters);
+        if (options instanceof RawFilterQueryOptions) {
+            // Keep $skiptoken and raw $filter
+            refOptions = ((RawFilterQueryOptions) options).withFilters(refOptions);
+        }
         return serviceRepository.getEntityService(target)
             .getEntityCollectionByRelatedEntity(sourceId,
                                                 sourceType,
-                                                QUERY_OPTIONS_FACTORY.createQueryOptions(filters))
+                                                refOptions)
             .setRequestURL(rootUrl + entity + "/" + target);
     }
+
+    /**
+     * Matches all requests aggregating Observations of a Datastream into buckets of fixed length
+     * e.g. /Datastreams(52)/Observations/$aggregate?$interval=PT1H
+     *
+     * @param entity  requested entity. Automatically set by Spring via @PathVariable
+     * @param request full request
+     * @return ObservationAggregation aggregated Observations
+     */
+    public ObservationAggregation readCollectionAggregate(@PathVariable String entity,
+                                                          HttpServletRequest request)
+        throws Exception {
+        String lookupPath = (String) request.getAttribute(HandlerMapping.LOOKUP_PATH);
+        validateResource(lookupPath.substring(0, lookupPath.length() - SLASHAGGREGATE.length()), serviceRepository);
+
+        String[] split = splitId(entity);
+        String sourceId = split[1];
+
+        Map<String, String> extensions = new HashMap<>();
+        QueryOptions options = decodeQueryString(request, extensions);
+        return getObservationService()
+            .aggregate(sourceId,
+                       options,
+                       ObservationAggregation.parseInterval(extensions.get(ObservationAggregation.INTERVAL)),
+                       ObservationAggregation.parseFunctions(extensions.get(ObservationAggregation.FUNCTIONS)));
+    }
+
+    /**
+     * Matches all requests exporting Observations of a Datastream in Arrow IPC streaming format or as CSV
+     * e.g. /Datastreams(52)/Observations/$export?$filter=phenomenonTime gt 2020-01-01T00:00:00Z
+     * e.g. /Datastreams(52)/Observations/$export?$resultFormat=csv
+     *
+     * @param entity   requested entity. Automatically set by Spring via @PathVariable
+     * @param request  full request
+     * @param response response to write Observations to
+     */
+    public void readCollectionExport(@PathVariable String entity,
+                                     HttpServletRequest request,
+                                     HttpServletResponse response)
+        throws Exception {
+        String lookupPath = (String) request.getAttribute(HandlerMapping.LOOKUP_PATH);
+        validateResource(lookupPath.substring(0, lookupPath.length() - SLASHEXPORT.length()), serviceRepository);
+
+        String[] split = splitId(entity);
+        String sourceId = split[1];
+
+        Map<String, String> extensions = new HashMap<>();
+        QueryOptions options = decodeQueryString(request, extensions);
+        ObservationExportFormat format =
+            ObservationExportFormat.parse(extensions.get(DataArrayCollection.RESULT_FORMAT));
+        checkExportOptions(options);
+        try {
+            getObservationService().export(sourceId, options, format, () -> {
+                response.setContentType(format.getContentType());
+                if (format == ObservationExportFormat.CSV) {
+                    response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+                }
+                return response.getOutputStream();
+            });
+        } catch (STACRUDException | RuntimeException e) {
+            if (!response.isCommitted()) {
+                // Discard buffered rows so that the error is reported instead
+                response.resetBuffer();
+                throw e;
+            }
+            // The error can no longer be reported, as parts of the export were already sent. The exception is not
+            // handled by the ErrorHandler but passed to the servlet container, which closes the connection so that
+            // the client does not mistake the truncated export for a complete one
+            throw new ExportAbortedException(e);
+        }
+    }
+
+    /**
+     * Checks that only query options supported by $export were requested. Observations are always exported
+     * completely and ordered by phenomenonTime.
+     *
+     * @param options parsed QueryOptions of the request
+     * @throws IllegalArgumentException if an unsupported option was requested
+     */
+    private void checkExportOptions(QueryOptions options) {
+        if (options instanceof KeysetQueryOptions) {
+            throw new IllegalArgumentException(KeysetCursor.SKIPTOKEN + " is not supported for " + SLASHEXPORT);
+        } else if (options.hasSelectFilter() || options.hasExpandFilter() || options.hasOrderByFilter()) {
+            throw new IllegalArgumentException("Only $filter and " + DataArrayCollection.RESULT_FORMAT
+                                                   + " are supported for " + SLASHEXPORT);
+        }
+    }
+
+    /**
+     * Checks whether Observations were requested in dataArray result format
+     * e.g. /Datastreams(52)/Observations?$resultFormat=dataArray
+     *
+     * @param collectionName name of the requested collection
+     * @param options        parsed QueryOptions of the request
+     * @param extensions     extension options of the request
+     * @return true if dataArray was requested
+     * @throws IllegalArgumentException if the result format is not supported for the request
+     */
+    private boolean isDataArrayRequested(String collectionName, QueryOptions options, Map<String, String> extensions) {
+        if (!DataArrayCollection.isRequested(extensions.get(DataArrayCollection.RESULT_FORMAT))) {
+            return false;
+        } else if (!StaConstants.OBSERVATIONS.equals(collectionName)) {
+            throw new IllegalArgumentException(DataArrayCollection.RESULT_FORMAT + "="
+                                                   + DataArrayCollection.DATA_ARRAY
+                                                   + " is only supported for " + StaConstants.OBSERVATIONS);
+        } else if (options instanceof KeysetQueryOptions) {
+            throw new IllegalArgumentException(KeysetCursor.SKIPTOKEN + " is not supported in combination with "
+                                                   + DataArrayCollection.RESULT_FORMAT);
+        }
+        return true;
+    }
+
+    private ServiceFacade.ObservationServiceFacade getObservationService() {
+        return (ServiceFacade.ObservationServiceFacade) serviceRepository.getEntityService(StaConstants.OBSERVATIONS);
+    }
+
+
+    /**
+     * Signals that an export failed after parts of it were already sent.
+     */
+    private static final class ExportAbortedException extends RuntimeException {
+
+        private static final long serialVersionUID = -4398212906725018741L;
+
+        private ExportAbortedException(Exception failure) {
+            super("Export aborted: " + failure.getMessage());
+            // Not set as cause, as the ErrorHandler would otherwise handle this exception via its cause
+            addSuppressed(failure);
+        }
+    }
 }
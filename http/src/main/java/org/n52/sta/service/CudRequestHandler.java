@@ -31,12 +31,15 @@ package org.n52.sta.service;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.n52.series.db.beans.DataEntity;
 import org.n52.series.db.beans.IdEntity;
 import org.n52.shetland.ogc.sta.StaConstants;
 import org.n52.shetland.ogc.sta.exception.STACRUDException;
 import org.n52.shetland.ogc.sta.exception.STAInvalidUrlException;
 import org.n52.sta.data.service.AbstractSensorThingsEntityService;
 import org.n52.sta.data.service.EntityServiceRepository;
+import org.n52.sta.data.service.ServiceFacade;
+import org.n52.sta.serdes.ObservationSerDes;
 import org.n52.sta.serdes.util.ElementWithQueryOptions;
 import org.n52.sta.serdes.util.EntityPatch;
 import org.n52.sta.utils.AbstractSTARequestHandler;
@@ -48,6 +51,8 @@ import org.springframework.web.servlet.HandlerMapping;
 
 import javax.servlet.http.HttpServletRequest;
 import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
 
 /**
  * Handles all CUD requests (POST, PUT, DELETE)
@@ -57,6 +62,7 @@ import java.io.IOException;
 public abstract class CudRequestHandler<T extends IdEntity> extends AbstractSTARequestHandler {
 
     private static final String COULD_NOT_FIND_RELATED_ENTITY = "Could not find related Entity!";
+    private static final String ENCODED_SLASH = "%2F";
     private final ObjectMapper mapper;
 
     public CudRequestHandler(String rootUrl,
@@ -83,6 +89,25 @@ public abstract class CudRequestHandler<T extends IdEntity> extends AbstractSTAR
             serviceRepository.getEntityService(collectionName)).create(mapper.readValue(body, clazz));
     }
 
+    /**
+     * Matches all POST requests on CreateObservations. Creates all Observations given in DataArray format in a
+     * single batch.
+     * e.g. ../CreateObservations
+     *
+     * @param body request Body. Automatically set by Spring via @RequestBody
+     * @return selfLinks of all created Observations in the order given in the request
+     */
+    public List<String> handleCreateObservations(String body) throws IOException, STACRUDException {
+        List<DataEntity<?>> observations =
+            mapper.readValue(body, ObservationSerDes.ObservationDataArray.class).getObservations();
+        return ((ServiceFacade.ObservationServiceFacade) serviceRepository.getEntityService(StaConstants.OBSERVATIONS))
+            .createBatch(observations)
+            .stream()
+            .map(o -> rootUrl + StaConstants.OBSERVATIONS + ROUND_BRACKET_OPEN
+                + o.getStaIdentifier().replaceAll(SLASH, ENCODED_SLASH) + ROUND_BRACKET_CLOSE)
+            .collect(Collectors.toList());
+    }
+
     /**
      * Matches all POST requests on Collections not referenced directly via id but via referenced entity.
      * e.g. ../Datastreams(52)/Observations
@@ -72,7 +72,7 @@ public abstract class EntityRequestHandler extends AbstractSTARequestHandler {
         validateResource(lookupPath, serviceRepository);
 
         String entityId = unescapeIdIfWanted(id.substring(1, id.length() - 1));
-        QueryOptions options = decodeQueryString(request);
+        QueryOptions options = decodeQueryStringWithoutExtensions(request);
         return serviceRepository.getEntityService(entity)
             .getEntity(entityId, options);
     }
@@ -118,7 +118,7 @@ public abstract class EntityRequestHandler extends AbstractSTARequestHandler {
         String sourceType = split[0];
         String sourceId = split[1];
 
-        QueryOptions options = decodeQueryString(request);
+        QueryOptions options = decodeQueryStringWithoutExtensions(request);
         return serviceRepository.getEntityService(target)
             .getEntityByRelatedEntity(sourceId,
                                       sourceType,
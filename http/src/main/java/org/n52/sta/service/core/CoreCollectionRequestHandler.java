@@ -32,6 +32,9 @@ package org.n52.sta.service.core;
 import org.n52.shetland.ogc.sta.exception.STACRUDException;
 import org.n52.sta.data.service.EntityServiceRepository;
 import org.n52.sta.data.service.util.CollectionWrapper;
+import org.n52.sta.data.service.util.ObservationAggregation;
+import org.n52.sta.serdes.ObservationArrowWriter;
+import org.n52.sta.serdes.ObservationCsvWriter;
 import org.n52.sta.service.CollectionRequestHandler;
 import org.n52.sta.utils.CoreRequestUtils;
 import org.springframework.beans.factory.annotation.Value;
@@ -40,6 +43,7 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RestController;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 /**
  * Handles all requests to Entity Collections and Entity Collections association Links
@@ -47,6 +51,8 @@ import javax.servlet.http.HttpServletRequest;
  * e.g. /Datastreams(52)/Observations
  * e.g. /Things/$ref
  * e.g. /Datastreams(52)/Observations/$ref
+ * e.g. /Datastreams(52)/Observations/$aggregate
+ * e.g. /Datastreams(52)/Observations/$export
  *
  * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
  */
@@ -113,4 +119,23 @@ public class CoreCollectionRequestHandler extends CollectionRequestHandler imple
         return super.readCollectionRelatedRef(entity, target, request);
     }
 
+    @GetMapping(
+        value = MAPPING_PREFIX + COLLECTION_IDENTIFIED_BY_DATASTREAM_PATH_VARIABLE + SLASHAGGREGATE,
+        produces = "application/json"
+    )
+    public ObservationAggregation readCollectionAggregate(@PathVariable String entity,
+                                                          HttpServletRequest request) throws Exception {
+        return super.readCollectionAggregate(entity, request);
+    }
+
+    @GetMapping(
+        value = MAPPING_PREFIX + COLLECTION_IDENTIFIED_BY_DATASTREAM_PATH_VARIABLE + SLASHEXPORT,
+        produces = {ObservationArrowWriter.CONTENT_TYPE, ObservationCsvWriter.CONTENT_TYPE}
+    )
+    public void readCollectionExport(@PathVariable String entity,
+                                     HttpServletRequest request,
+                                     HttpServletResponse response) throws Exception {
+        super.readCollectionExport(entity, request, response);
+    }
+
 }
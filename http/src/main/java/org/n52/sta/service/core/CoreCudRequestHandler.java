@@ -48,6 +48,7 @@ import org.springframework.web.bind.annotation.RestController;
 
 import javax.servlet.http.HttpServletRequest;
 import java.io.IOException;
+import java.util.List;
 
 /**
  * Handles all CUD requests (POST, PUT, DELETE)
@@ -75,6 +76,15 @@ public class CoreCudRequestHandler<T extends IdEntity> extends CudRequestHandler
         return super.handlePostDirect(collectionName, body);
     }
 
+    @PostMapping(
+        consumes = "application/json",
+        value = "/" + CREATE_OBSERVATIONS,
+        produces = "application/json")
+    public List<String> handleCreateObservations(@RequestBody String body)
+        throws IOException, STACRUDException {
+        return super.handleCreateObservations(body);
+    }
+
     @PostMapping(
         value = {
             MAPPING_PREFIX + CoreRequestUtils.COLLECTION_IDENTIFIED_BY_THING_PATH_VARIABLE,
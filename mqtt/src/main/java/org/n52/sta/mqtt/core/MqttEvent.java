@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta.mqtt.core;
+
+import org.n52.shetland.oasis.odata.query.option.QueryOptions;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable snapshot of a Database Event. Captured inside the Transaction persisting the Entity, so that no
+ * reference to the (possibly lazy-loading) Entity itself needs to be retained until the Event is published. Holds
+ * the serialized Entity for every distinct {@link QueryOptions} of the Subscriptions matching at creation time.
+ *
+ * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
+ */
+public final class MqttEvent {
+
+    private final String entityType;
+    private final String staIdentifier;
+    private final Set<String> differenceMap;
+    private final Map<String, Set<String>> collections;
+    private final Map<QueryOptions, byte[]> payloads;
+
+    /**
+     * @param entityType    type of entity
+     * @param staIdentifier identifier of entity
+     * @param differenceMap names of properties that changed. null if all properties changed (e.g. new entity)
+     * @param collections   ids of related entities by type
+     * @param payloads      serialized entity by QueryOptions
+     */
+    public MqttEvent(String entityType,
+                     String staIdentifier,
+                     Set<String> differenceMap,
+                     Map<String, Set<String>> collections,
+                     Map<QueryOptions, byte[]> payloads) {
+        this.entityType = entityType;
+        this.staIdentifier = staIdentifier;
+        this.differenceMap = (differenceMap == null) ? null : Collections.unmodifiableSet(new HashSet<>(differenceMap));
+        this.collections = copy(collections);
+        this.payloads = Collections.unmodifiableMap(new HashMap<>(payloads));
+    }
+
+    public String getEntityType() {
+        return entityType;
+    }
+
+    public String getStaIdentifier() {
+        return staIdentifier;
+    }
+
+    public Set<String> getDifferenceMap() {
+        return differenceMap;
+    }
+
+    public Map<String, Set<String>> getCollections() {
+        return collections;
+    }
+
+    /**
+     * Returns the serialized Entity for the given QueryOptions.
+     *
+     * @param queryOptions QueryOptions of the Subscription
+     * @return serialized Entity. null if Entity was not serialized with these QueryOptions
+     */
+    public byte[] getPayload(QueryOptions queryOptions) {
+        return payloads.get(queryOptions);
+    }
+
+    /**
+     * Merges a later Event of the same Entity into this one. The later Entity state is published, changed
+     * properties and related collections of both Events are combined. Only the payloads of the later Event are
+     * retained, as payloads of this Event hold an outdated state of the Entity. The later Event must therefore hold
+     * payloads for all Subscriptions that may match the combined changes (see
+     * {@link MqttEventDispatcher#isCoalesced(String, Set)}).
+     *
+     * @param later later Event
+     * @return merged Event
+     */
+    public MqttEvent merge(MqttEvent later) {
+        Set<String> mergedDifference = null;
+        if (differenceMap != null && later.differenceMap != null) {
+            mergedDifference = new HashSet<>(differenceMap);
+            mergedDifference.addAll(later.differenceMap);
+        }
+        Map<String, Set<String>> mergedCollections = new HashMap<>();
+        collections.forEach((k, v) -> mergedCollections.put(k, new HashSet<>(v)));
+        later.collections.forEach((k, v) -> mergedCollections.computeIfAbsent(k, x -> new HashSet<>()).addAll(v));
+        return new MqttEvent(entityType, staIdentifier, mergedDifference, mergedCollections, later.payloads);
+    }
+
+    private static Map<String, Set<String>> copy(Map<String, Set<String>> collections) {
+        if (collections == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, Set<String>> result = new HashMap<>();
+        collections.forEach((k, v) -> result.put(k, Collections.unmodifiableSet(new HashSet<>(v))));
+        return Collections.unmodifiableMap(result);
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta.mqtt.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Executes the dispatching of Database Events to MQTT Subscriptions on a dedicated, bounded pool of worker threads
+ * instead of the unbounded default executor. Optionally coalesces consecutive updates of the same Entity within a
+ * short window into a single publication.
+ *
+ * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
+ */
+@Component
+public class MqttEventDispatcher {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MqttEventDispatcher.class);
+    private static final long SHUTDOWN_TIMEOUT = 30L;
+
+    private final int queueSize;
+    private final int workers;
+    private final RejectionPolicy policy;
+    private final long coalesceWindow;
+
+    // Updates waiting for their coalescing window to expire. Indexed by entityType + staIdentifier
+    private final Map<String, PendingEvent> pending = new ConcurrentHashMap<>();
+
+    private final AtomicLong dispatched = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    private ThreadPoolExecutor executor;
+    private ScheduledExecutorService coalescer;
+
+    public MqttEventDispatcher(@Value("${mqtt.broker.dispatch.queueSize:10000}") int queueSize,
+                               @Value("${mqtt.broker.dispatch.workers:2}") int workers,
+                               @Value("${mqtt.broker.dispatch.policy:callerRuns}") String policy,
+                               @Value("${mqtt.broker.dispatch.coalesceWindow:0}") long coalesceWindow) {
+        this.queueSize = queueSize;
+        this.workers = workers;
+        this.policy = RejectionPolicy.fromString(policy);
+        this.coalesceWindow = coalesceWindow;
+    }
+
+    @PostConstruct
+    public void start() {
+        executor = new ThreadPoolExecutor(workers,
+                                          workers,
+                                          0L,
+                                          TimeUnit.MILLISECONDS,
+                                          new ArrayBlockingQueue<>(queueSize),
+                                          new CustomizableThreadFactory("mqtt-dispatch-"),
+                                          policy == RejectionPolicy.CALLER_RUNS
+                                              ? new ThreadPoolExecutor.CallerRunsPolicy()
+                                              : new ThreadPoolExecutor.AbortPolicy());
+        if (coalesceWindow > 0) {
+            coalescer = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("mqtt-coalesce-"));
+        }
+        LOGGER.info("Initialized MQTT event dispatcher with capacity: {}, workers: {}, policy: {}, "
+                        + "coalesceWindow: {}ms",
+                    queueSize, workers, policy, coalesceWindow);
+    }
+
+    /**
+     * Publishes all pending coalesced updates and waits for already queued events to be dispatched.
+     */
+    @PreDestroy
+    public void stop() {
+        if (coalescer != null) {
+            coalescer.shutdownNow();
+            for (String key : pending.keySet()) {
+                flush(key);
+            }
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS)) {
+                LOGGER.error("MQTT event dispatcher did not terminate in time. Discarding {} events!",
+                             executor.getQueue().size());
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Checks whether an Event is merged with further updates of the same Entity before being dispatched.
+     *
+     * @param staIdentifier identifier of the Entity. may be null
+     * @param differenceMap names of properties that changed. null if all properties changed (e.g. new entity)
+     * @return true if the Event is coalesced
+     */
+    public boolean isCoalesced(String staIdentifier, Set<String> differenceMap) {
+        return coalesceWindow > 0 && differenceMap != null && staIdentifier != null;
+    }
+
+    /**
+     * Schedules an Event for dispatching. Updates of Entities are held back for the configured coalescing window
+     * and merged with all further updates of the same Entity arriving within that window. Creations are always
+     * dispatched directly.
+     *
+     * @param event    event to be dispatched
+     * @param consumer consumer actually dispatching the event
+     */
+    public void dispatch(MqttEvent event, Consumer<MqttEvent> consumer) {
+        if (!isCoalesced(event.getStaIdentifier(), event.getDifferenceMap())) {
+            submit(event, consumer);
+            return;
+        }
+
+        String key = event.getEntityType() + event.getStaIdentifier();
+        boolean[] scheduled = new boolean[1];
+        pending.compute(key, (k, previous) -> {
+            if (previous == null) {
+                scheduled[0] = true;
+                return new PendingEvent(event, consumer);
+            }
+            coalesced.incrementAndGet();
+            return new PendingEvent(previous.event.merge(event), consumer);
+        });
+        if (scheduled[0]) {
+            try {
+                coalescer.schedule(() -> flush(key), coalesceWindow, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // Dispatcher is shutting down
+                flush(key);
+            }
+        }
+    }
+
+    /**
+     * Schedules all Events emitted by a single Transaction for dispatching. Events that are not coalesced are
+     * dispatched together by a single worker.
+     *
+     * @param events   events to be dispatched
+     * @param consumer consumer actually dispatching the events
+     */
+    public void dispatchAll(List<MqttEvent> events, Consumer<MqttEvent> consumer) {
+        List<MqttEvent> direct = new ArrayList<>(events.size());
+        for (MqttEvent event : events) {
+            if (!isCoalesced(event.getStaIdentifier(), event.getDifferenceMap())) {
+                direct.add(event);
+            } else {
+                dispatch(event, consumer);
+            }
+        }
+        if (direct.size() == 1) {
+            submit(direct.get(0), consumer);
+        } else if (!direct.isEmpty()) {
+            try {
+                executor.execute(() -> {
+                    for (MqttEvent event : direct) {
+                        publish(event, consumer);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                long count = rejected.addAndGet(direct.size());
+                LOGGER.error("MQTT event dispatcher is full. Dropping {} events. Dropped so far: {}",
+                             direct.size(),
+                             count);
+            }
+        }
+    }
+
+    private void flush(String key) {
+        PendingEvent pendingEvent = pending.remove(key);
+        if (pendingEvent != null) {
+            submit(pendingEvent.event, pendingEvent.consumer);
+        }
+    }
+
+    private void submit(MqttEvent event, Consumer<MqttEvent> consumer) {
+        try {
+            executor.execute(() -> publish(event, consumer));
+        } catch (RejectedExecutionException e) {
+            long count = rejected.incrementAndGet();
+            LOGGER.error("MQTT event dispatcher is full. Dropping event for {}. Dropped so far: {}",
+                         event.getEntityType(),
+                         count);
+        }
+    }
+
+    private void publish(MqttEvent event, Consumer<MqttEvent> consumer) {
+        try {
+            consumer.accept(event);
+            dispatched.incrementAndGet();
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            LOGGER.error("Error while dispatching event for {}: {}", event.getEntityType(), e.getMessage());
+        }
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    public long getDispatchedCount() {
+        return dispatched.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+
+    private enum RejectionPolicy {
+        // Thread emitting the event dispatches it itself, throttling the producer
+        CALLER_RUNS,
+        // Event is discarded
+        DROP;
+
+        private static RejectionPolicy fromString(String value) {
+            return "callerruns".equalsIgnoreCase(value) || "caller_runs".equalsIgnoreCase(value)
+                ? CALLER_RUNS
+                : valueOf(value.toUpperCase());
+        }
+    }
+
+
+    private static final class PendingEvent {
+
+        private final MqttEvent event;
+        private final Consumer<MqttEvent> consumer;
+
+        private PendingEvent(MqttEvent event, Consumer<MqttEvent> consumer) {
+            this.event = event;
+            this.consumer = consumer;
+        }
+    }
+}
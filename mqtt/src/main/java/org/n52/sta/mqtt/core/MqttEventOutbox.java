@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta.mqtt.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Transactional Outbox for MQTT Events. Events emitted inside a Transaction are collected and only handed to the
+ * {@link MqttEventDispatcher} after the Transaction was committed successfully. Events of Transactions that are
+ * rolled back are discarded, so Subscribers never receive Entities that were not persisted. Events emitted outside
+ * of a Transaction are dispatched directly.
+ *
+ * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
+ */
+public class MqttEventOutbox {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MqttEventOutbox.class);
+
+    private final MqttEventDispatcher dispatcher;
+    private final Consumer<MqttEvent> consumer;
+
+    public MqttEventOutbox(MqttEventDispatcher dispatcher, Consumer<MqttEvent> consumer) {
+        this.dispatcher = dispatcher;
+        this.consumer = consumer;
+    }
+
+    /**
+     * Adds an Event to the Outbox of the current Transaction.
+     *
+     * @param event event to be dispatched after commit
+     */
+    @SuppressWarnings("unchecked")
+    public void add(MqttEvent event) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            dispatcher.dispatch(event, consumer);
+            return;
+        }
+        List<MqttEvent> events = (List<MqttEvent>) TransactionSynchronizationManager.getResource(this);
+        if (events == null) {
+            events = new ArrayList<>();
+            TransactionSynchronizationManager.bindResource(this, events);
+            TransactionSynchronizationManager.registerSynchronization(new OutboxSynchronization(events));
+        }
+        events.add(event);
+    }
+
+
+    private final class OutboxSynchronization extends TransactionSynchronizationAdapter {
+
+        private final List<MqttEvent> events;
+
+        private OutboxSynchronization(List<MqttEvent> events) {
+            this.events = events;
+        }
+
+        @Override
+        public void afterCommit() {
+            LOGGER.debug("Dispatching {} events after commit", events.size());
+            dispatcher.dispatchAll(events, consumer);
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(MqttEventOutbox.this);
+            if (status != TransactionSynchronization.STATUS_COMMITTED) {
+                LOGGER.debug("Discarding {} events of rolled back transaction", events.size());
+            }
+        }
+    }
+}
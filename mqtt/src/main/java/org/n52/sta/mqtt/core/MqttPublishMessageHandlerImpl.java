@@ -35,7 +35,6 @@ import io.moquette.interception.messages.InterceptPublishMessage;
 import org.n52.series.db.beans.IdEntity;
 import org.n52.shetland.ogc.sta.exception.STAInvalidUrlException;
 import org.n52.shetland.ogc.sta.model.STAEntityDefinition;
-import org.n52.sta.data.service.AbstractSensorThingsEntityService;
 import org.n52.sta.data.service.EntityServiceRepository;
 import org.n52.sta.mqtt.MqttHandlerException;
 import org.n52.sta.utils.AbstractSTARequestHandler;
@@ -63,6 +62,7 @@ public class MqttPublishMessageHandlerImpl extends AbstractSTARequestHandler
     private static final Logger LOGGER = LoggerFactory.getLogger(MqttPublishMessageHandlerImpl.class);
 
     private final ObjectMapper mapper;
+    private final MqttPublishQueue publishQueue;
     private final Set<String> publishTopics;
 
     private final boolean readOnly;
@@ -73,9 +73,11 @@ public class MqttPublishMessageHandlerImpl extends AbstractSTARequestHandler
         @Value("${server.rootUrl}") String rootUrl,
         @Value("${server.feature.escapeId:true}") boolean shouldEscapeId,
         EntityServiceRepository serviceRepository,
-        ObjectMapper mapper) {
+        ObjectMapper mapper,
+        MqttPublishQueue publishQueue) {
         super(rootUrl, shouldEscapeId, serviceRepository);
         this.mapper = mapper;
+        this.publishQueue = publishQueue;
         this.readOnly = readOnly;
         Set topics = new HashSet<>(publishTopics);
 
@@ -145,9 +147,9 @@ public class MqttPublishMessageHandlerImpl extends AbstractSTARequestHandler
                     payload = msg.getPayload().toString(Charset.defaultCharset());
                 }
 
+                // Entity is parsed here but persisted asynchronously to not block the broker
                 Class<T> clazz = collectionNameToClass(collection);
-                ((AbstractSensorThingsEntityService<T>) serviceRepository.getEntityService(collection))
-                    .create(mapper.readValue(payload, clazz));
+                publishQueue.enqueue(collection, mapper.readValue(payload, clazz), payload);
             } else {
                 throw new STAInvalidUrlException("Topic does not reference a Collection allowed for POSTing via mqtt");
             }
@@ -0,0 +1,341 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta.mqtt.core;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.n52.series.db.beans.DataEntity;
+import org.n52.series.db.beans.IdEntity;
+import org.n52.shetland.ogc.sta.exception.STACRUDException;
+import org.n52.shetland.ogc.sta.model.STAEntityDefinition;
+import org.n52.sta.DaoAdmissionControl;
+import org.n52.sta.data.service.AbstractSensorThingsEntityService;
+import org.n52.sta.data.service.EntityServiceRepository;
+import org.n52.sta.data.service.ServiceFacade;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decouples persisting of Entities POSTed via MQTT from the Broker Threads. Publish Messages are parsed on the
+ * Broker Thread and put into a bounded queue that is drained by a pool of worker threads. Workers commit
+ * Observations in micro-batches via {@link ServiceFacade.ObservationServiceFacade#createBatch(List)}.
+ * Messages are persisted in the order they were published only if a single worker is configured (default). Multiple
+ * workers commit consecutive batches concurrently, so Entities referencing Entities published shortly before, e.g.
+ * an Observation referencing a new Datastream, may be rejected.
+ *
+ * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
+ */
+@Component
+public class MqttPublishQueue {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MqttPublishQueue.class);
+    private static final long POLL_TIMEOUT = 500L;
+    private static final long SHUTDOWN_TIMEOUT = 30L;
+
+    private final EntityServiceRepository serviceRepository;
+    private final DaoAdmissionControl admissionControl;
+    private final ObjectMapper mapper;
+    private final BlockingQueue<PublishRequest> queue;
+    private final OverflowPolicy policy;
+    private final int workers;
+    private final int batchSize;
+
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong committed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong commits = new AtomicLong();
+    private final AtomicLong totalCommitLatency = new AtomicLong();
+    private final AtomicLong maxCommitLatency = new AtomicLong();
+
+    private ExecutorService executor;
+    private volatile boolean running;
+
+    public MqttPublishQueue(@Value("${mqtt.broker.ingest.queueSize:10000}") int queueSize,
+                            @Value("${mqtt.broker.ingest.workers:1}") int workers,
+                            @Value("${mqtt.broker.ingest.batchSize:100}") int batchSize,
+                            @Value("${mqtt.broker.ingest.policy:block}") String policy,
+                            EntityServiceRepository serviceRepository,
+                            DaoAdmissionControl admissionControl,
+                            ObjectMapper mapper) {
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.workers = workers;
+        this.batchSize = batchSize;
+        this.policy = OverflowPolicy.valueOf(policy.toUpperCase());
+        this.serviceRepository = serviceRepository;
+        this.admissionControl = admissionControl;
+        this.mapper = mapper;
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        executor = Executors.newFixedThreadPool(workers, new CustomizableThreadFactory("mqtt-ingest-"));
+        for (int i = 0; i < workers; i++) {
+            executor.execute(this::drain);
+        }
+        LOGGER.info("Initialized MQTT ingest queue with capacity: {}, workers: {}, batchSize: {}, policy: {}",
+                    queue.remainingCapacity(), workers, batchSize, policy);
+    }
+
+    /**
+     * Stops accepting new messages and waits for the workers to persist all messages that are already queued.
+     */
+    @PreDestroy
+    public void stop() {
+        running = false;
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS)) {
+                LOGGER.error("MQTT ingest queue did not terminate in time. Discarding {} messages!", queue.size());
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Adds a parsed Entity to the queue. If the queue is full the calling Thread is either blocked until space is
+     * available or the message is dropped, depending on the configured {@link OverflowPolicy}.
+     *
+     * @param collection name of the Collection the Entity was POSTed to
+     * @param entity     parsed Entity
+     * @param payload    raw payload the Entity was parsed from. Used for reparsing if a batch needs to be retried
+     * @param <T>        type of the Entity
+     * @return true if the message was queued, false if it was dropped
+     */
+    public <T extends IdEntity> boolean enqueue(String collection, T entity, String payload) {
+        PublishRequest request = new PublishRequest(collection, entity, payload);
+        if (!running) {
+            dropped.incrementAndGet();
+            LOGGER.error("MQTT ingest queue is shut down. Dropping message for collection: {}", collection);
+            return false;
+        }
+        if (policy == OverflowPolicy.DROP) {
+            if (!queue.offer(request)) {
+                long count = dropped.incrementAndGet();
+                LOGGER.error("MQTT ingest queue is full. Dropping message for collection: {}. Dropped so far: {}",
+                             collection,
+                             count);
+                return false;
+            }
+        } else {
+            try {
+                queue.put(request);
+            } catch (InterruptedException e) {
+                dropped.incrementAndGet();
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void drain() {
+        List<PublishRequest> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PublishRequest first = queue.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+                    try (DaoAdmissionControl.Permit permit = acquireIngestPermit()) {
+                        commit(batch);
+                    }
+                    batch.clear();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Throwable e) {
+                batch.clear();
+                LOGGER.error("Error while processing MQTT ingest batch: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Acquires a permit of the ingest pool. Unlike HTTP requests workers are not rejected on timeout but keep waiting,
+     * so that messages are not lost when the database is busy.
+     *
+     * @return acquired permit
+     * @throws InterruptedException if the worker was interrupted while waiting
+     */
+    private DaoAdmissionControl.Permit acquireIngestPermit() throws InterruptedException {
+        while (true) {
+            try {
+                return admissionControl.acquire(DaoAdmissionControl.Operation.INGEST);
+            } catch (STACRUDException e) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException();
+                }
+                LOGGER.debug("Waiting for ingest permit. Queue depth: {}", queue.size());
+            }
+        }
+    }
+
+    /**
+     * Persists the given messages in the order they were published. Consecutive Observations are created in a
+     * single batch, while all other Entities are created individually. Batches of different workers are not ordered,
+     * see {@link MqttPublishQueue}.
+     *
+     * @param batch messages to be persisted
+     */
+    private void commit(List<PublishRequest> batch) {
+        long start = System.nanoTime();
+        List<PublishRequest> observationRequests = new ArrayList<>();
+        for (PublishRequest request : batch) {
+            if (STAEntityDefinition.OBSERVATIONS.equals(request.collection)) {
+                observationRequests.add(request);
+            } else {
+                // Observations published before this Entity must be persisted first as they may be referenced
+                commitObservations(observationRequests);
+                observationRequests.clear();
+                create(request.collection, request.entity);
+            }
+        }
+        commitObservations(observationRequests);
+        long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        commits.incrementAndGet();
+        totalCommitLatency.addAndGet(latency);
+        maxCommitLatency.accumulateAndGet(latency, Math::max);
+        LOGGER.debug("Committed {} MQTT messages in {}ms. Queue depth: {}", batch.size(), latency, queue.size());
+    }
+
+    private void commitObservations(List<PublishRequest> requests) {
+        if (requests.isEmpty()) {
+            return;
+        }
+        List<DataEntity<?>> observations = new ArrayList<>(requests.size());
+        for (PublishRequest request : requests) {
+            observations.add((DataEntity<?>) request.entity);
+        }
+        try {
+            ((ServiceFacade.ObservationServiceFacade)
+                serviceRepository.getEntityService(STAEntityDefinition.OBSERVATIONS))
+                .createBatch(observations);
+            committed.addAndGet(observations.size());
+        } catch (STACRUDException | RuntimeException e) {
+            // The batch is committed in a single transaction, so it was rolled back as a whole.
+            // Retry individually to only discard invalid messages.
+            // Entities are parsed again as they were modified during the failed batch
+            LOGGER.debug("Batch insert of {} Observations failed. Retrying individually: {}",
+                         observations.size(),
+                         e.getMessage());
+            for (PublishRequest request : requests) {
+                try {
+                    create(STAEntityDefinition.OBSERVATIONS, mapper.readValue(request.payload, DataEntity.class));
+                } catch (IOException ex) {
+                    failed.incrementAndGet();
+                    LOGGER.error("Could not parse Observation {}: {}", request.payload, ex.getMessage());
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends IdEntity> void create(String collection, T entity) {
+        try {
+            ((AbstractSensorThingsEntityService<T>) serviceRepository.getEntityService(collection)).create(entity);
+            committed.incrementAndGet();
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            LOGGER.error("Creation of Entity in collection {} failed with Exception {}!", collection, e.getMessage());
+        }
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getCommittedCount() {
+        return committed.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    public long getMaxCommitLatency() {
+        return maxCommitLatency.get();
+    }
+
+    public double getAverageCommitLatency() {
+        long count = commits.get();
+        return count == 0 ? 0 : (double) totalCommitLatency.get() / count;
+    }
+
+    /**
+     * Behaviour when a message is published while the queue is full
+     */
+    public enum OverflowPolicy {
+        /**
+         * Block the publishing Broker Thread until space is available (backpressure)
+         */
+        BLOCK,
+        /**
+         * Drop the message
+         */
+        DROP
+    }
+
+
+    private static final class PublishRequest {
+
+        private final String collection;
+        private final IdEntity entity;
+        private final String payload;
+
+        private PublishRequest(String collection, IdEntity entity, String payload) {
+            this.collection = collection;
+            this.entity = entity;
+            this.payload = payload;
+        }
+    }
+}
@@ -34,13 +34,13 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import io.moquette.broker.Server;
 import io.moquette.interception.messages.InterceptSubscribeMessage;
 import io.moquette.interception.messages.InterceptUnsubscribeMessage;
-import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.handler.codec.mqtt.MqttFixedHeader;
 import io.netty.handler.codec.mqtt.MqttMessageType;
 import io.netty.handler.codec.mqtt.MqttPublishMessage;
 import io.netty.handler.codec.mqtt.MqttPublishVariableHeader;
 import io.netty.handler.codec.mqtt.MqttQoS;
+import org.n52.series.db.beans.HibernateRelations;
 import org.n52.shetland.oasis.odata.query.option.QueryOptions;
 import org.n52.sta.data.service.EntityServiceRepository;
 import org.n52.sta.mqtt.MqttHandlerException;
@@ -49,19 +49,19 @@ import org.n52.sta.mqtt.core.subscription.MqttEntityCollectionSubscription;
 import org.n52.sta.mqtt.core.subscription.MqttEntitySubscription;
 import org.n52.sta.mqtt.core.subscription.MqttPropertySubscription;
 import org.n52.sta.mqtt.core.subscription.MqttSelectSubscription;
+import org.n52.sta.mqtt.core.subscription.MqttSubscriptionIndex;
 import org.n52.sta.serdes.util.ElementWithQueryOptions;
 import org.n52.sta.utils.AbstractSTARequestHandler;
 import org.n52.sta.utils.CoreRequestUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Component;
 
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -83,71 +83,105 @@ public class MqttSubscriptionEventHandlerImpl extends AbstractSTARequestHandler
 
     private final MqttUtil config;
     private final ObjectMapper mapper;
+    private final MqttEventOutbox outbox;
+    private final MqttEventDispatcher dispatcher;
     private EntityServiceRepository serviceRepository;
     private Server mqttBroker;
-    private Map<AbstractMqttSubscription, HashSet<String>> subscriptions = new HashMap<>();
     /*
-     * List of all Entity Types that are currently subscribed to. Used for fail-fast.
+     * Clients by subscription. Subscribe/Unsubscribe callbacks of moquette run concurrently to #handleEvent, so all
+     * structures below must be safe for concurrent access. Modifications of a single subscription are serialized via
+     * ConcurrentHashMap#compute.
      */
-    private Set<String> watchedEntityTypes = new HashSet<>();
+    private final Map<AbstractMqttSubscription, Set<String>> subscriptions = new ConcurrentHashMap<>();
+    /*
+     * Index of all subscriptions. Used to only check subscriptions that may possibly match.
+     */
+    private final MqttSubscriptionIndex subscriptionIndex = new MqttSubscriptionIndex();
+    /*
+     * Number of subscriptions per Entity Type that is currently subscribed to. Used for fail-fast.
+     */
+    private final Map<String, Integer> watchedEntityTypes = new ConcurrentHashMap<>();
 
     public MqttSubscriptionEventHandlerImpl(@Value("${server.rootUrl}") String rootUrl,
                                             @Value("${server.feature.escapeId:true}") boolean shouldEscapeId,
                                             MqttUtil config,
-                                            ObjectMapper mapper) {
+                                            ObjectMapper mapper,
+                                            MqttEventDispatcher dispatcher) {
         super(rootUrl, shouldEscapeId, null);
         this.config = config;
         this.mapper = mapper;
+        this.dispatcher = dispatcher;
+        this.outbox = new MqttEventOutbox(dispatcher, this::publish);
     }
 
+    /**
+     * Captures an immutable snapshot of the Event on the calling Thread, i.e. inside the Transaction persisting the
+     * Entity. The Entity is serialized once for every distinct QueryOptions of the matching Subscriptions. Only the
+     * snapshot is handed to the dispatcher, so the Entity is not accessed after the Transaction was closed.
+     * Snapshots are held back in the {@link MqttEventOutbox} until the Transaction was committed.
+     * Updates that may be coalesced with later updates are serialized for all Subscriptions of the Entity regardless
+     * of the changed properties, as the later snapshot replaces all payloads of the earlier one.
+     */
     @Override
-    @Async
     public void handleEvent(Object rawObject,
                             String entityType,
                             Set<String> differenceMap,
                             Map<String, Set<String>> collections) {
+        String staIdentifier = (rawObject instanceof HibernateRelations.HasStaIdentifier)
+            ? ((HibernateRelations.HasStaIdentifier) rawObject).getStaIdentifier()
+            : null;
+        Set<AbstractMqttSubscription> candidates =
+            subscriptionIndex.getCandidates(entityType, staIdentifier, collections);
+        LOGGER.debug("Checking {} of {} subscriptions", candidates.size(), subscriptionIndex.size());
+
+        // Multiple serializations may be necessary due to different select clauses.
+        Set<String> matchedDifference = dispatcher.isCoalesced(staIdentifier, differenceMap) ? null : differenceMap;
+        Map<QueryOptions, byte[]> payloads = new HashMap<>();
         try {
-            // Invariant: As watchedEntityTypes contains rawObject->class
-            // there is at least one subscription that matches.
-
-            // Store serialized Versions for reusing while processing other subscriptions.
-            // Multiple serializations may be necessary due to different select clauses.
-            Map<QueryOptions, ByteBuf> serializedCache = new HashMap<>();
-
-            // Check all subscriptions for a match
-            for (AbstractMqttSubscription subscrip : subscriptions.keySet()) {
-
-                String topic = subscrip.checkSubscription(rawObject, entityType, collections, differenceMap);
-
-                if (topic != null) {
-                    // Use cache if applicable
-                    ByteBuf out;
-                    if (serializedCache.containsKey(subscrip.getQueryOptions())) {
-                        out = serializedCache.get(subscrip.getQueryOptions());
-                    } else {
-                        ElementWithQueryOptions wrapped =
-                            ElementWithQueryOptions.from(rawObject, subscrip.getQueryOptions());
-                        out = Unpooled.wrappedBuffer(mapper.writeValueAsBytes(wrapped));
-                        serializedCache.put(subscrip.getQueryOptions(), out);
-                    }
-                    MqttPublishMessage msg = new MqttPublishMessage(mqttFixedHeader,
-                                                                    new MqttPublishVariableHeader(MQTT_PREFIX + topic,
-                                                                                                  52),
-                                                                    out);
-                    mqttBroker.internalPublish(msg, INTERNAL_CLIENT_ID);
-                    LOGGER.debug("Posted Message to Topic: {}", topic);
-                } else {
-                    LOGGER.debug("Subscription does not match!");
+            for (AbstractMqttSubscription subscrip : candidates) {
+                if (subscrip.checkSubscription(staIdentifier, entityType, collections, matchedDifference) != null
+                    && !payloads.containsKey(subscrip.getQueryOptions())) {
+                    ElementWithQueryOptions wrapped =
+                        ElementWithQueryOptions.from(rawObject, subscrip.getQueryOptions());
+                    payloads.put(subscrip.getQueryOptions(), mapper.writeValueAsBytes(wrapped));
                 }
             }
         } catch (JsonProcessingException ex) {
-            ex.printStackTrace();
+            LOGGER.error("Could not serialize Entity for MQTT Subscriptions: {}", ex.getMessage());
+            return;
+        }
+
+        if (!payloads.isEmpty()) {
+            outbox.add(new MqttEvent(entityType, staIdentifier, differenceMap, collections, payloads));
+        }
+    }
+
+    private void publish(MqttEvent event) {
+        // Subscriptions may have changed since the snapshot was taken, so matching is repeated.
+        for (AbstractMqttSubscription subscrip : subscriptionIndex.getCandidates(event.getEntityType(),
+                                                                                 event.getStaIdentifier(),
+                                                                                 event.getCollections())) {
+            String topic = subscrip.checkSubscription(event.getStaIdentifier(),
+                                                      event.getEntityType(),
+                                                      event.getCollections(),
+                                                      event.getDifferenceMap());
+            byte[] payload = event.getPayload(subscrip.getQueryOptions());
+            if (topic != null && payload != null) {
+                MqttPublishMessage msg = new MqttPublishMessage(mqttFixedHeader,
+                                                                new MqttPublishVariableHeader(MQTT_PREFIX + topic,
+                                                                                              52),
+                                                                Unpooled.wrappedBuffer(payload));
+                mqttBroker.internalPublish(msg, INTERNAL_CLIENT_ID);
+                LOGGER.debug("Posted Message to Topic: {}", topic);
+            } else {
+                LOGGER.debug("Subscription does not match!");
+            }
         }
     }
 
     @Override
     public Set<String> getWatchedEntityTypes() {
-        return watchedEntityTypes;
+        return watchedEntityTypes.keySet();
     }
 
     @Override
@@ -156,27 +190,31 @@ public class MqttSubscriptionEventHandlerImpl extends AbstractSTARequestHandler
     }
 
     public void addSubscription(AbstractMqttSubscription subscription, String clientId) {
-        HashSet<String> clients = subscriptions.get(subscription);
-        if (clients == null) {
-            clients = new HashSet<>();
-        }
-        LOGGER.debug("Adding to watched EntityType: " + subscription.getEntityType());
-        watchedEntityTypes.add(subscription.getEntityType());
-        clients.add(clientId);
-        subscriptions.put(subscription, clients);
+        subscriptions.compute(subscription, (k, clients) -> {
+            Set<String> result = clients;
+            if (result == null) {
+                result = ConcurrentHashMap.newKeySet();
+                LOGGER.debug("Adding to watched EntityType: " + subscription.getEntityType());
+                watchedEntityTypes.merge(subscription.getEntityType(), 1, Integer::sum);
+                subscriptionIndex.add(subscription);
+            }
+            result.add(clientId);
+            return result;
+        });
     }
 
     public void removeSubscription(AbstractMqttSubscription subscription, String clientId) {
-        HashSet<String> clients = subscriptions.get(subscription);
-        if (clients != null) {
-            if (clients.size() == 1) {
-                subscriptions.remove(subscription);
-                watchedEntityTypes.remove(subscription.getEntityType());
-            } else {
-                clients.remove(clientId);
-                subscriptions.put(subscription, clients);
+        subscriptions.computeIfPresent(subscription, (k, clients) -> {
+            clients.remove(clientId);
+            if (!clients.isEmpty()) {
+                return clients;
             }
-        }
+            subscriptionIndex.remove(subscription);
+            // Only stop watching the EntityType if no other subscription requires it
+            watchedEntityTypes.computeIfPresent(subscription.getEntityType(),
+                                                (type, count) -> count > 1 ? count - 1 : null);
+            return null;
+        });
     }
 
     @Override public void processSubscribeMessage(InterceptSubscribeMessage msg) throws MqttHandlerException {
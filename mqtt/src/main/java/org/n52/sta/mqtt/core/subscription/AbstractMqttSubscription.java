@@ -29,7 +29,6 @@
 
 package org.n52.sta.mqtt.core.subscription;
 
-import org.n52.series.db.beans.HibernateRelations;
 import org.n52.shetland.oasis.odata.query.option.QueryOptions;
 
 import java.util.Map;
@@ -54,7 +53,7 @@ public abstract class AbstractMqttSubscription {
      * Returns the topic given entity should be posted to. null if the entity
      * does not match this subscription.
      *
-     * @param rawObject       Entity to be posted
+     * @param staIdentifier   Identifier of the Entity to be posted
      * @param entityType      Type of Entity
      * @param relatedEntities Map with EntityType-ID pairs for the related
      *                        entities
@@ -63,11 +62,11 @@ public abstract class AbstractMqttSubscription {
      * @return Topic to be posted to. May be null if Entity does not match this
      * subscription.
      */
-    public String checkSubscription(Object rawObject,
+    public String checkSubscription(String staIdentifier,
                                     String entityType,
                                     Map<String, Set<String>> relatedEntities,
                                     Set<String> differenceMap) {
-        return matches(rawObject, entityType, relatedEntities, differenceMap) ? topic : null;
+        return matches(staIdentifier, entityType, relatedEntities, differenceMap) ? topic : null;
     }
 
     public String getTopic() {
@@ -78,6 +77,23 @@ public abstract class AbstractMqttSubscription {
         return wantedEntityType;
     }
 
+    public String getSourceEntityType() {
+        return sourceEntityType;
+    }
+
+    public String getSourceId() {
+        return sourceId;
+    }
+
+    /**
+     * Returns the identifier of the Entity if it is referenced directly, e.g. /Things(52)
+     *
+     * @return identifier of the wanted Entity. null if not referenced directly
+     */
+    public String getWantedIdentifier() {
+        return null;
+    }
+
     @Override
     public int hashCode() {
         return Objects.hash(topic);
@@ -118,14 +134,7 @@ public abstract class AbstractMqttSubscription {
         return null;
     }
 
-    public boolean matches(Object entity,
-                           String realEntityType,
-                           Map<String, Set<String>> collections,
-                           Set<String> differenceMap) {
-        return matches((HibernateRelations.HasStaIdentifier) entity, realEntityType, collections, differenceMap);
-    }
-
-    protected abstract boolean matches(HibernateRelations.HasStaIdentifier entity,
+    protected abstract boolean matches(String staIdentifier,
                                        String realEntityType,
                                        Map<String, Set<String>> collections,
                                        Set<String> differenceMap);
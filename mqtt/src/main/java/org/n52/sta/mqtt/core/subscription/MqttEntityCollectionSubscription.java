@@ -34,7 +34,6 @@
 
 package org.n52.sta.mqtt.core.subscription;
 
-import org.n52.series.db.beans.HibernateRelations;
 import org.n52.sta.utils.RequestUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -83,7 +82,7 @@ public class MqttEntityCollectionSubscription extends AbstractMqttSubscription {
     }
 
     @Override
-    public boolean matches(HibernateRelations.HasStaIdentifier entity,
+    protected boolean matches(String staIdentifier,
                            String realEntityType,
                            Map<String, Set<String>> collections,
                            Set<String> differenceMap) {
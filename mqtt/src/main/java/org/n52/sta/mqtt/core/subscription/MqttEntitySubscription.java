@@ -34,7 +34,6 @@
 
 package org.n52.sta.mqtt.core.subscription;
 
-import org.n52.series.db.beans.HibernateRelations;
 import org.n52.sta.utils.RequestUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -86,6 +85,11 @@ public class MqttEntitySubscription extends AbstractMqttSubscription {
         Assert.notNull(wantedEntityType, "Unable to parse topic. Could not extract wantedEntityType");
     }
 
+    @Override
+    public String getWantedIdentifier() {
+        return wantedIdentifier;
+    }
+
     @Override
     public String toString() {
         String base = super.toString();
@@ -99,7 +103,7 @@ public class MqttEntitySubscription extends AbstractMqttSubscription {
     }
 
     @Override
-    public boolean matches(HibernateRelations.HasStaIdentifier entity,
+    protected boolean matches(String staIdentifier,
                            String realEntityType,
                            Map<String, Set<String>> collections,
                            Set<String> differenceMap) {
@@ -111,7 +115,7 @@ public class MqttEntitySubscription extends AbstractMqttSubscription {
 
         // Direct Entity
         if (wantedIdentifier != null) {
-            return wantedIdentifier.equals(entity.getStaIdentifier());
+            return wantedIdentifier.equals(staIdentifier);
         } else {
             // Referenced Entity
             // Check if Entity belongs to collection of this Subscription
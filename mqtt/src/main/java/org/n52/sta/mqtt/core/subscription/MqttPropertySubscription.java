@@ -34,7 +34,6 @@
 
 package org.n52.sta.mqtt.core.subscription;
 
-import org.n52.series.db.beans.HibernateRelations;
 import org.n52.shetland.filter.SelectFilter;
 import org.n52.shetland.oasis.odata.query.option.QueryOptions;
 import org.n52.shetland.ogc.filter.FilterClause;
@@ -90,11 +89,11 @@ public class MqttPropertySubscription extends MqttEntitySubscription {
     }
 
     @Override
-    public boolean matches(HibernateRelations.HasStaIdentifier entity,
+    protected boolean matches(String staIdentifier,
                            String realEntityType,
                            Map<String, Set<String>> collections,
                            Set<String> differenceMap) {
-        boolean superMatches = super.matches(entity, realEntityType, collections, differenceMap);
+        boolean superMatches = super.matches(staIdentifier, realEntityType, collections, differenceMap);
 
         if (superMatches) {
             return differenceMap == null || differenceMap.contains(watchedProperty);
@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta.mqtt.core.subscription;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Index of all active MQTT Subscriptions. Used to only check Subscriptions that may possibly match a given Entity
+ * instead of all Subscriptions. Subscriptions are indexed by wantedEntityType and either
+ * <ul>
+ * <li>nothing for root collections, e.g. /Observations</li>
+ * <li>wantedIdentifier for entities referenced directly, e.g. /Observations(52)</li>
+ * <li>sourceEntityType + sourceId for entities referenced via related entity, e.g. /Datastreams(52)/Observations</li>
+ * </ul>
+ * Candidates returned by this index still need to be checked via
+ * {@link AbstractMqttSubscription#checkSubscription(String, String, Map, Set)}.
+ * <p>
+ * This class is thread-safe. Modifications are serialized per wantedEntityType via
+ * {@link ConcurrentHashMap#compute(Object, java.util.function.BiFunction)}, lookups do not lock at all and may run
+ * concurrently with modifications.
+ *
+ * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
+ */
+public class MqttSubscriptionIndex {
+
+    private final Map<String, TypeIndex> index = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * Adds a subscription to the index
+     *
+     * @param subscription subscription to be added
+     * @return true if the subscription was not already present
+     */
+    public boolean add(AbstractMqttSubscription subscription) {
+        boolean[] added = new boolean[1];
+        index.compute(subscription.getEntityType(), (k, typeIndex) -> {
+            TypeIndex result = (typeIndex == null) ? new TypeIndex() : typeIndex;
+            added[0] = result.add(subscription);
+            return result;
+        });
+        if (added[0]) {
+            size.incrementAndGet();
+        }
+        return added[0];
+    }
+
+    /**
+     * Removes a subscription from the index
+     *
+     * @param subscription subscription to be removed
+     * @return true if the subscription was present
+     */
+    public boolean remove(AbstractMqttSubscription subscription) {
+        boolean[] removed = new boolean[1];
+        index.computeIfPresent(subscription.getEntityType(), (k, typeIndex) -> {
+            removed[0] = typeIndex.remove(subscription);
+            return typeIndex.isEmpty() ? null : typeIndex;
+        });
+        if (removed[0]) {
+            size.decrementAndGet();
+        }
+        return removed[0];
+    }
+
+    /**
+     * Returns all subscriptions that may match the given entity.
+     *
+     * @param entityType    type of the entity
+     * @param staIdentifier id of the entity
+     * @param collections   ids of related entities by type
+     * @return candidate subscriptions
+     */
+    public Set<AbstractMqttSubscription> getCandidates(String entityType,
+                                                      String staIdentifier,
+                                                      Map<String, Set<String>> collections) {
+        TypeIndex typeIndex = index.get(entityType);
+        if (typeIndex == null) {
+            return Collections.emptySet();
+        }
+        Set<AbstractMqttSubscription> candidates = new HashSet<>(typeIndex.root);
+        if (staIdentifier != null) {
+            Set<AbstractMqttSubscription> direct = typeIndex.direct.get(staIdentifier);
+            if (direct != null) {
+                candidates.addAll(direct);
+            }
+        }
+        if (collections != null) {
+            for (Map.Entry<String, Set<String>> collection : collections.entrySet()) {
+                Map<String, Set<AbstractMqttSubscription>> bySourceId = typeIndex.related.get(collection.getKey());
+                if (bySourceId != null) {
+                    for (String sourceId : collection.getValue()) {
+                        Set<AbstractMqttSubscription> related = bySourceId.get(sourceId);
+                        if (related != null) {
+                            candidates.addAll(related);
+                        }
+                    }
+                }
+            }
+        }
+        return candidates;
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+
+    /**
+     * Subscriptions of a single wantedEntityType. Only modified from within {@link ConcurrentHashMap#compute} of the
+     * surrounding index, so modifications are never concurrent. Buckets are concurrent nonetheless as they are read
+     * without locking.
+     */
+    private static final class TypeIndex {
+
+        // Subscriptions on root collections
+        private final Set<AbstractMqttSubscription> root = ConcurrentHashMap.newKeySet();
+
+        // Subscriptions on entities referenced directly. Indexed by wantedIdentifier
+        private final Map<String, Set<AbstractMqttSubscription>> direct = new ConcurrentHashMap<>();
+
+        // Subscriptions on entities/collections referenced via related entity. Indexed by sourceType + sourceId
+        private final Map<String, Map<String, Set<AbstractMqttSubscription>>> related = new ConcurrentHashMap<>();
+
+        private boolean add(AbstractMqttSubscription subscription) {
+            if (subscription.getWantedIdentifier() != null) {
+                return direct.computeIfAbsent(subscription.getWantedIdentifier(), k -> ConcurrentHashMap.newKeySet())
+                    .add(subscription);
+            } else if (subscription.getSourceId() != null) {
+                return related.computeIfAbsent(subscription.getSourceEntityType(), k -> new ConcurrentHashMap<>())
+                    .computeIfAbsent(subscription.getSourceId(), k -> ConcurrentHashMap.newKeySet())
+                    .add(subscription);
+            } else {
+                return root.add(subscription);
+            }
+        }
+
+        private boolean remove(AbstractMqttSubscription subscription) {
+            if (subscription.getWantedIdentifier() != null) {
+                return removeFromBucket(direct, subscription.getWantedIdentifier(), subscription);
+            } else if (subscription.getSourceId() != null) {
+                Map<String, Set<AbstractMqttSubscription>> bySourceId =
+                    related.get(subscription.getSourceEntityType());
+                if (bySourceId == null) {
+                    return false;
+                }
+                boolean removed = removeFromBucket(bySourceId, subscription.getSourceId(), subscription);
+                if (bySourceId.isEmpty()) {
+                    related.remove(subscription.getSourceEntityType());
+                }
+                return removed;
+            } else {
+                return root.remove(subscription);
+            }
+        }
+
+        private boolean removeFromBucket(Map<String, Set<AbstractMqttSubscription>> buckets,
+                                         String key,
+                                         AbstractMqttSubscription subscription) {
+            Set<AbstractMqttSubscription> bucket = buckets.get(key);
+            if (bucket == null || !bucket.remove(subscription)) {
+                return false;
+            }
+            if (bucket.isEmpty()) {
+                buckets.remove(key);
+            }
+            return true;
+        }
+
+        private boolean isEmpty() {
+            return root.isEmpty() && direct.isEmpty() && related.isEmpty();
+        }
+    }
+}
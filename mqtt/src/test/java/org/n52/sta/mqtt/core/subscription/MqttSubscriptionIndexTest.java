@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2018-2020 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+
+package org.n52.sta.mqtt.core.subscription;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.n52.shetland.ogc.sta.StaConstants;
+import org.n52.sta.utils.CoreRequestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Checks that dispatching via {@link MqttSubscriptionIndex} matches exactly the same Subscriptions as a linear scan
+ * over all Subscriptions.
+ *
+ * @author <a href="mailto:j.speckamp@52north.org">Jan Speckamp</a>
+ */
+public class MqttSubscriptionIndexTest {
+
+    private static final List<String> TOPICS = Arrays.asList(
+        // Root collections
+        "Observations",
+        "Datastreams",
+        "Things",
+        "Observations?$select=result",
+        // Entities referenced directly
+        "Observations(o1)",
+        "Observations(o2)",
+        "Datastreams(ds1)",
+        "Things(t1)",
+        "Observations(o1)/result",
+        "Datastreams(ds1)/name",
+        // Collections and entities referenced via related entity
+        "Datastreams(ds1)/Observations",
+        "Datastreams(ds2)/Observations",
+        "FeaturesOfInterest(f1)/Observations",
+        "Things(t1)/Datastreams",
+        "Datastreams(ds1)/Observations?$select=result,phenomenonTime",
+        "Observations(o1)/Datastream",
+        "Datastreams(ds2)/Thing");
+
+    private List<AbstractMqttSubscription> subscriptions;
+    private MqttSubscriptionIndex index;
+
+    @BeforeEach
+    public void setUp() {
+        subscriptions = new ArrayList<>();
+        index = new MqttSubscriptionIndex();
+        for (String topic : TOPICS) {
+            AbstractMqttSubscription subscription = createSubscription(topic);
+            subscriptions.add(subscription);
+            Assertions.assertTrue(index.add(subscription), "Subscription was added twice: " + topic);
+        }
+        Assertions.assertEquals(TOPICS.size(), index.size());
+    }
+
+    @Test
+    public void testRootSubscriptions() {
+        Set<String> matched = assertIndexMatchesLinearScan(StaConstants.OBSERVATIONS, "o3", null, null);
+        Assertions.assertEquals(new HashSet<>(Arrays.asList("Observations", "Observations?$select=result")),
+                                matched);
+        assertIndexMatchesLinearScan(StaConstants.THINGS, "t2", null, Collections.singleton("name"));
+        assertIndexMatchesLinearScan(StaConstants.SENSORS, "s1", null, null);
+    }
+
+    @Test
+    public void testDirectSubscriptions() {
+        Set<String> matched = assertIndexMatchesLinearScan(StaConstants.OBSERVATIONS, "o1", null, null);
+        Assertions.assertTrue(matched.contains("Observations(o1)"));
+        Assertions.assertTrue(matched.contains("Observations(o1)/result"));
+        Assertions.assertFalse(matched.contains("Observations(o2)"));
+
+        // Property Subscriptions only match if their property has changed
+        matched = assertIndexMatchesLinearScan(StaConstants.OBSERVATIONS,
+                                               "o1",
+                                               null,
+                                               Collections.singleton("result"));
+        Assertions.assertTrue(matched.contains("Observations(o1)/result"));
+        matched = assertIndexMatchesLinearScan(StaConstants.DATASTREAMS,
+                                               "ds1",
+                                               null,
+                                               Collections.singleton("description"));
+        Assertions.assertTrue(matched.contains("Datastreams(ds1)"));
+        Assertions.assertFalse(matched.contains("Datastreams(ds1)/name"));
+    }
+
+    @Test
+    public void testRelatedSubscriptions() {
+        Map<String, Set<String>> collections = new HashMap<>();
+        collections.put(StaConstants.DATASTREAMS, Collections.singleton("ds1"));
+        collections.put(StaConstants.FEATURES_OF_INTEREST, Collections.singleton("f1"));
+        Set<String> matched = assertIndexMatchesLinearScan(StaConstants.OBSERVATIONS, "o4", collections, null);
+        Assertions.assertTrue(matched.contains("Datastreams(ds1)/Observations"));
+        Assertions.assertTrue(matched.contains("FeaturesOfInterest(f1)/Observations"));
+        Assertions.assertFalse(matched.contains("Datastreams(ds2)/Observations"));
+
+        collections = new HashMap<>();
+        collections.put(StaConstants.THINGS, Collections.singleton("t1"));
+        collections.put(StaConstants.OBSERVATIONS, new HashSet<>(Arrays.asList("o1", "o2")));
+        assertIndexMatchesLinearScan(StaConstants.DATASTREAMS, "ds3", collections, null);
+
+        collections = Collections.singletonMap(StaConstants.DATASTREAMS, Collections.singleton("ds2"));
+        assertIndexMatchesLinearScan(StaConstants.THINGS, "t1", collections, null);
+    }
+
+    @Test
+    public void testRemovedSubscriptionsAreNotMatched() {
+        Map<String, Set<String>> collections =
+            Collections.singletonMap(StaConstants.DATASTREAMS, Collections.singleton("ds1"));
+        for (AbstractMqttSubscription subscription : new ArrayList<>(subscriptions)) {
+            if (subscription.getEntityType().equals(StaConstants.OBSERVATIONS)) {
+                Assertions.assertTrue(index.remove(subscription));
+                Assertions.assertFalse(index.remove(subscription));
+                subscriptions.remove(subscription);
+            }
+        }
+        Assertions.assertEquals(subscriptions.size(), index.size());
+        Assertions.assertTrue(index.getCandidates(StaConstants.OBSERVATIONS, "o1", collections).isEmpty());
+        assertIndexMatchesLinearScan(StaConstants.DATASTREAMS, "ds1", null, null);
+    }
+
+    /**
+     * Asserts that the index yields the same matching Subscriptions as a linear scan over all Subscriptions.
+     *
+     * @return topics of the matching Subscriptions
+     */
+    private Set<String> assertIndexMatchesLinearScan(String entityType,
+                                                     String staIdentifier,
+                                                     Map<String, Set<String>> collections,
+                                                     Set<String> differenceMap) {
+        Set<String> linear = subscriptions.stream()
+            .map(s -> s.checkSubscription(staIdentifier, entityType, collections, differenceMap))
+            .filter(Objects::nonNull)
+            .collect(Collectors.toSet());
+        Set<String> indexed = index.getCandidates(entityType, staIdentifier, collections)
+            .stream()
+            .map(s -> s.checkSubscription(staIdentifier, entityType, collections, differenceMap))
+            .filter(Objects::nonNull)
+            .collect(Collectors.toSet());
+        Assertions.assertEquals(linear, indexed);
+        return indexed;
+    }
+
+    private AbstractMqttSubscription createSubscription(String topic) {
+        if (topic.contains("?")) {
+            Matcher mt = match(CoreRequestUtils.NAMED_SELECT_PATTERNS, topic);
+            if (mt != null) {
+                return new MqttSelectSubscription(topic, mt);
+            }
+        } else {
+            Matcher mt = match(CoreRequestUtils.NAMED_COLL_PATTERNS, topic);
+            if (mt != null) {
+                return new MqttEntityCollectionSubscription(topic, mt);
+            }
+            mt = match(CoreRequestUtils.NAMED_ENTITY_PATTERNS, topic);
+            if (mt != null) {
+                return new MqttEntitySubscription(topic, mt);
+            }
+            mt = match(CoreRequestUtils.NAMED_PROP_PATTERNS, topic);
+            if (mt != null) {
+                return new MqttPropertySubscription(topic, mt);
+            }
+        }
+        throw new IllegalArgumentException("Could not parse topic: " + topic);
+    }
+
+    private Matcher match(Pattern[] patterns, String topic) {
+        for (Pattern pattern : patterns) {
+            Matcher mt = pattern.matcher(topic);
+            if (mt.matches()) {
+                return mt;
+            }
+        }
+        return null;
+    }
+}